@@ -5,25 +5,34 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
 import jline.SimpleCompletor;
+import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.SystemCatalog;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.metrics.Metrics;
 import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.PlanCache;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.IntField;
 import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 public class Parser {
     static boolean explain = false;
+    // the fraction of each table's pages read to compute its statistics
+    static double sampleFraction = 1.0;
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -203,7 +212,7 @@ public class Parser {
                                     + ") not supported.");
                 }
                 groupByField = ((ZConstant) gbe).getValue();
-                System.out.println("GROUP BY FIELD : " + groupByField);
+                out.println("GROUP BY FIELD : " + groupByField);
             }
 
         }
@@ -230,7 +239,7 @@ public class Parser {
                 aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
                 aggFun = si.getAggregate();
-                System.out.println("Aggregate field is " + aggField
+                out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
             } else {
@@ -278,42 +287,145 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    /** Where messages, and the results of queries, are printed */
+    protected PrintStream out = System.out;
+
+    /**
+     * Print messages, and the results of queries, to out instead of
+     * System.out.
+     */
+    public void setOutput(PrintStream out) {
+        this.out = out;
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryPlan(parseQueryLogicalPlan(tId, s), tId);
+    }
+
+    /**
+     * @return a query running the physical plan of lp
+     */
+    Query handleQueryPlan(LogicalPlan lp, TransactionId tId)
+            throws simpledb.ParsingException {
         Query query = new Query(tId);
 
-        LogicalPlan lp = parseQueryLogicalPlan(tId, s);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
         query.setLogicalPlan(lp);
 
-        if (physicalPlan != null) {
-            Class<?> c;
-            try {
-                c = Class.forName("simpledb.optimizer.OperatorCardinality");
+        // EXPLAIN ANALYZE prints the plan once it has run
+        if (physicalPlan != null && !analyzing)
+            printPlan(lp, physicalPlan, Collections.emptyMap());
 
-                Class<?> p = Operator.class;
-                Class<?> h = Map.class;
+        return query;
+    }
 
-                java.lang.reflect.Method m = c.getMethod(
-                        "updateOperatorCardinality", p, h, h);
+    /**
+     * Print the plan tree, with the estimated cardinality of each operator
+     * and, for each operator with a profile, what running it measured.
+     */
+    private void printPlan(LogicalPlan lp, OpIterator physicalPlan,
+                           Map<OpIterator, ProfiledOpIterator> profiles) {
+        Class<?> c;
+        try {
+            c = Class.forName("simpledb.optimizer.OperatorCardinality");
+
+            Class<?> p = Operator.class;
+            Class<?> h = Map.class;
 
-                System.out.println("The query plan is:");
+            java.lang.reflect.Method m = c.getMethod(
+                    "updateOperatorCardinality", p, h, h);
+
+            out.println("The query plan is:");
+            if (physicalPlan instanceof Operator)
                 m.invoke(null, physicalPlan,
                         lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
-                c = Class.forName("simpledb.optimizer.QueryPlanVisualizer");
-                m = c.getMethod(
-                        "printQueryPlanTree", OpIterator.class, System.out.getClass());
-                m.invoke(c.newInstance(), physicalPlan,System.out);
-            } catch (ClassNotFoundException | SecurityException ignored) {
-            } catch (NoSuchMethodException | InstantiationException | InvocationTargetException | IllegalAccessException | IllegalArgumentException e) {
-                e.printStackTrace();
-            }
+            c = Class.forName("simpledb.optimizer.QueryPlanVisualizer");
+            m = c.getMethod(
+                    "printQueryPlanTree", OpIterator.class, PrintStream.class);
+            m.invoke(c.getConstructor(Map.class).newInstance(profiles), physicalPlan, out);
+        } catch (ClassNotFoundException | SecurityException ignored) {
+        } catch (NoSuchMethodException | InstantiationException | InvocationTargetException | IllegalAccessException | IllegalArgumentException e) {
+            e.printStackTrace();
         }
+    }
 
-        return query;
+    static final Pattern EXPLAIN = Pattern.compile(
+            "\\s*explain\\s+(analyze\\s+)?(select\\b.*)",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /** Set while EXPLAIN ANALYZE builds its query, so that the plan is not printed twice */
+    private boolean analyzing = false;
+
+    /**
+     * Handle <tt>EXPLAIN select</tt>, which prints the plan of a SELECT
+     * statement without running it, and <tt>EXPLAIN ANALYZE select</tt>,
+     * which runs it with each operator profiled, discards its results, and
+     * prints the plan with the rows each operator returned, the time spent
+     * opening it and getting its tuples, and the pages it requested from
+     * the BufferPool and how many of them were read from disk, next to the
+     * estimated cardinalities.  Times and pages include those of the
+     * operator's children.
+     *
+     * @return true if s was an EXPLAIN statement
+     */
+    public boolean handleExplainStatement(String s)
+            throws IOException, DbException, simpledb.ParsingException {
+        Matcher m = EXPLAIN.matcher(s);
+        if (!m.matches())
+            return false;
+        boolean analyze = m.group(1) != null;
+        String sql = m.group(2);
+        runStatement(tid -> {
+            this.analyzing = analyze;
+            Query query;
+            try {
+                query = queryFor(sql, tid);
+            } finally {
+                this.analyzing = false;
+            }
+            if (!analyze || query.getPhysicalPlan() == null)
+                return null;
+
+            Profiler profiler = new Profiler(query.getPhysicalPlan());
+            query.setPhysicalPlan(profiler.getPlan());
+            try {
+                query.start();
+                while (query.hasNext())
+                    query.next();
+                query.close();
+            } finally {
+                profiler.restore();
+            }
+            printPlan(query.getLogicalPlan(), ProfiledOpIterator.unwrap(profiler.getPlan()),
+                    profiler.getProfiles());
+            ProfiledOpIterator total = profiler.getRootProfile();
+            out.printf("%d rows in %.2f ms, %d page requests, %d read from disk%n", total.getRows(),
+                    (total.getOpenNanos() + total.getNextNanos()) / 1e6, total.getPageRequests(),
+                    total.getPageMisses());
+            return null;
+        });
+        return true;
+    }
+
+    /**
+     * @return a query running the SELECT statement sql, through the plan
+     *         cache if it can be
+     */
+    private Query queryFor(String sql, TransactionId tid)
+            throws IOException, simpledb.ParsingException, Zql.ParseException {
+        PlanCache.NormalizedSql normalized = PlanCache.normalize(sql);
+        if (isCacheable(normalized))
+            return handlePreparedStatement(new PreparedStatement(normalized), Collections.emptyList(), tid);
+        String text = sql.trim().endsWith(";") ? sql : sql + ";";
+        ZStatement stmt = new ZqlParser(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)))
+                .readStatement();
+        if (!(stmt instanceof ZQuery))
+            throw new simpledb.ParsingException("Only SELECT statements can be explained");
+        return handleQueryStatement((ZQuery) stmt, tid);
     }
 
     public Query handleInsertStatement(ZInsert s, TransactionId tId)
@@ -414,6 +526,8 @@ public class Parser {
         if (s.getWhere() != null)
             processExpression(tid, (ZExpression) s.getWhere(), lp);
         lp.addProjectField("null.*", null);
+        // Delete removes tuples by their RecordIds
+        lp.setBaseRecordIds(true);
 
         OpIterator op = new Delete(tid, lp.physicalPlan(tid,
                 TableStats.getStatsMap(), false));
@@ -432,20 +546,20 @@ public class Parser {
                     throw new ParsingException(
                             "No transaction is currently running");
                 curtrans.commit();
+                out.println("Transaction " + curtrans.getId().getId()
+                        + " committed.");
                 curtrans = null;
                 inUserTrans = false;
-                System.out.println("Transaction " + curtrans.getId().getId()
-                        + " committed.");
                 break;
             case "ROLLBACK":
                 if (curtrans == null)
                     throw new ParsingException(
                             "No transaction is currently running");
                 curtrans.abort();
+                out.println("Transaction " + curtrans.getId().getId()
+                        + " aborted.");
                 curtrans = null;
                 inUserTrans = false;
-                System.out.println("Transaction " + curtrans.getId().getId()
-                        + " aborted.");
 
                 break;
             case "SET TRANSACTION":
@@ -455,7 +569,7 @@ public class Parser {
                 curtrans = new Transaction();
                 curtrans.start();
                 inUserTrans = true;
-                System.out.println("Started a new transaction tid = "
+                out.println("Started a new transaction tid = "
                         + curtrans.getId().getId());
                 break;
             default:
@@ -463,6 +577,88 @@ public class Parser {
         }
     }
 
+    private static final Pattern SELECT = Pattern.compile("\\bselect\\b", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * @return whether sql is a SELECT statement without subqueries, whose
+     *         plan can be cached
+     */
+    static boolean isCacheable(PlanCache.NormalizedSql sql) {
+        Matcher m = SELECT.matcher(sql.getText());
+        return m.find() && m.start() == 0 && !m.find();
+    }
+
+    /**
+     * Prepare a SELECT statement to be run with {@link
+     * #handlePreparedStatement}, once for each set of values of its
+     * parameters, the <tt>?</tt>s in its text.  Each parameter must be the
+     * constant of a filter in the WHERE clause.
+     *
+     * @throws simpledb.ParsingException if sql is not a valid SELECT
+     *         statement without subqueries
+     */
+    public PreparedStatement prepare(String sql) throws simpledb.ParsingException {
+        PreparedStatement ps = new PreparedStatement(PlanCache.normalize(sql));
+        if (!isCacheable(ps.getNormalizedSql()))
+            throw new simpledb.ParsingException(
+                    "Only SELECT statements without subqueries can be prepared");
+        cachedPlan(ps.getNormalizedSql());
+        return ps;
+    }
+
+    /**
+     * @return the plan cached for sql, parsing sql and caching its plan if
+     *         there is none
+     */
+    private LogicalPlan cachedPlan(PlanCache.NormalizedSql sql) throws simpledb.ParsingException {
+        PlanCache cache = Database.getPlanCache();
+        LogicalPlan lp = cache.get(sql.getText());
+        if (lp != null)
+            return lp;
+
+        // parse the statement with its i'th constant replaced by the number
+        // i, then make those numbers parameters; there are no other numbers
+        // in the normalized text
+        StringBuilder text = new StringBuilder();
+        Map<String, Integer> markers = new HashMap<>();
+        for (char c : sql.getText().toCharArray()) {
+            if (c == '?') {
+                markers.put(Integer.toString(markers.size()), markers.size());
+                text.append(markers.size() - 1);
+            } else {
+                text.append(c);
+            }
+        }
+        try {
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                    (text + ";").getBytes(StandardCharsets.UTF_8)));
+            ZStatement stmt = p.readStatement();
+            if (!(stmt instanceof ZQuery))
+                throw new simpledb.ParsingException("Not a SELECT statement: " + sql);
+            lp = parseQueryLogicalPlan(null, (ZQuery) stmt);
+        } catch (Zql.ParseException | Zql.TokenMgrError | IOException e) {
+            throw new simpledb.ParsingException("Invalid SQL expression: \n \t " + e);
+        }
+        lp.setQuery(sql.getText());
+        if (lp.parameterize(markers) != markers.size())
+            throw new simpledb.ParsingException(
+                    "Constants and parameters are only supported in WHERE clause filters");
+        cache.put(sql.getText(), lp);
+        return lp;
+    }
+
+    /**
+     * @param params the values of the parameters of ps, in order
+     * @return a query running ps with params
+     * @throws simpledb.ParsingException if the number of params is wrong,
+     *         or the plan of ps cannot be built
+     */
+    public Query handlePreparedStatement(PreparedStatement ps, List<String> params,
+                                         TransactionId tId) throws simpledb.ParsingException {
+        LogicalPlan lp = cachedPlan(ps.getNormalizedSql());
+        return handleQueryPlan(lp.bind(ps.constants(params)), tId);
+    }
+
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
@@ -489,8 +685,138 @@ public class Parser {
         return curtrans;
     }
 
+    /**
+     * Run a statement.  SELECT statements without subqueries are run
+     * through the plan cache, so that statements differing only in their
+     * constants share one plan.
+     */
     public void processNextStatement(String s) {
-        processNextStatement(new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)));
+        if (handleCatalogStatement(s))
+            return;
+        try {
+            if (handlePrepareStatement(s) || handleExplainStatement(s))
+                return;
+            PlanCache.NormalizedSql sql = PlanCache.normalize(s);
+            if (!isCacheable(sql)) {
+                processNextStatement(new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)));
+                return;
+            }
+            PreparedStatement ps = new PreparedStatement(sql);
+            runStatement(tid -> handlePreparedStatement(ps, Collections.emptyList(), tid));
+        } catch (IOException | DbException e) {
+            e.printStackTrace();
+        } catch (simpledb.ParsingException e) {
+            out
+                    .println("Invalid SQL expression: \n \t" + e.getMessage());
+        } catch (TokenMgrError e) {
+            out.println("Invalid SQL expression: \n \t " + e);
+        }
+    }
+
+    static final Pattern PREPARE = Pattern.compile(
+            "\\s*prepare\\s+(\\w+)\\s+(?:as|from)\\s+(.*?)\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    static final Pattern EXECUTE = Pattern.compile(
+            "\\s*execute\\s+(\\w+)\\s*(?:\\((.*)\\))?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    static final Pattern DEALLOCATE = Pattern.compile(
+            "\\s*deallocate\\s+(?:prepare\\s+)?(\\w+)\\s*;?\\s*", Pattern.CASE_INSENSITIVE);
+
+    private final Map<String, PreparedStatement> prepared = new HashMap<>();
+
+    /**
+     * Handle the prepared statement statements that Zql does not parse:
+     * <tt>PREPARE name AS select</tt> prepares a SELECT statement with
+     * <tt>?</tt> parameters, <tt>EXECUTE name (value, ...)</tt> runs it with
+     * the given constants as the values of its parameters, and
+     * <tt>DEALLOCATE name</tt> forgets it.
+     *
+     * @return true if s was one of them
+     */
+    public boolean handlePrepareStatement(String s)
+            throws IOException, DbException, simpledb.ParsingException {
+        Matcher m = PREPARE.matcher(s);
+        if (m.matches()) {
+            PreparedStatement ps = prepare(m.group(2));
+            prepared.put(m.group(1).toLowerCase(), ps);
+            out.println("Prepared " + m.group(1) + " with "
+                    + ps.getParameterCount() + " parameter(s)");
+            return true;
+        }
+        m = EXECUTE.matcher(s);
+        if (m.matches()) {
+            PreparedStatement ps = prepared.get(m.group(1).toLowerCase());
+            if (ps == null)
+                throw new simpledb.ParsingException("No prepared statement named " + m.group(1));
+            List<String> params = new ArrayList<>();
+            if (m.group(2) != null && !m.group(2).trim().isEmpty()) {
+                PlanCache.NormalizedSql values = PlanCache.normalize(m.group(2));
+                if (!values.getText().matches("\\?( ?, ?\\?)*") || values.getConstants().contains(null))
+                    throw new simpledb.ParsingException(
+                            "EXECUTE takes a list of constants, not " + m.group(2));
+                params.addAll(values.getConstants());
+            }
+            runStatement(tid -> handlePreparedStatement(ps, params, tid));
+            return true;
+        }
+        m = DEALLOCATE.matcher(s);
+        if (m.matches()) {
+            if (prepared.remove(m.group(1).toLowerCase()) == null)
+                throw new simpledb.ParsingException("No prepared statement named " + m.group(1));
+            out.println("Deallocated " + m.group(1));
+            return true;
+        }
+        return false;
+    }
+
+    static final Pattern CREATE_INDEX = Pattern.compile(
+            "\\s*create\\s+index\\s+(\\w+)\\s+on\\s+(\\w+)\\s*\\(\\s*(\\w+)\\s*\\)\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE);
+    static final Pattern ANALYZE = Pattern.compile(
+            "\\s*analyze(?:\\s+(\\w+))?\\s*;?\\s*", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Handle the catalog statements that Zql does not parse:
+     * <tt>CREATE INDEX name ON table (column)</tt> builds a B+ tree index,
+     * and <tt>ANALYZE [table]</tt> records statistics of one or all tables.
+     * Both are recorded in the system catalog.
+     *
+     * @return true if s was a catalog statement
+     */
+    public boolean handleCatalogStatement(String s) {
+        Catalog catalog = Database.getCatalog();
+        try {
+            Matcher m = CREATE_INDEX.matcher(s);
+            if (m.matches()) {
+                catalog.createIndex(m.group(1), m.group(2), m.group(3));
+                // cached plans could read the new index
+                Database.getPlanCache().clear();
+                out.println("Created index " + m.group(1) + " on "
+                        + m.group(2) + " (" + m.group(3) + ")");
+                return true;
+            }
+            m = ANALYZE.matcher(s);
+            if (m.matches()) {
+                List<Integer> ids = new ArrayList<>();
+                if (m.group(1) != null)
+                    ids.add(catalog.getTableId(m.group(1)));
+                else
+                    catalog.tableIdIterator().forEachRemaining(ids::add);
+                for (int id : ids)
+                    TableStats.analyze(id, sampleFraction);
+                if (catalog.getCatalogDir() != null)
+                    catalog.saveCatalog(catalog.getCatalogDir());
+                out.println("Analyzed " + ids.size() + " table(s)");
+                return true;
+            }
+        } catch (NoSuchElementException e) {
+            out.println("Unknown table in: " + s.trim());
+            return true;
+        } catch (DbException | IOException | TransactionAbortedException | RuntimeException e) {
+            out.println("Catalog statement failed: " + e.getMessage());
+            return true;
+        }
+        return false;
     }
 
     public void processNextStatement(InputStream is) {
@@ -498,76 +824,102 @@ public class Parser {
             ZqlParser p = new ZqlParser(is);
             ZStatement s = p.readStatement();
 
-            Query query = null;
             if (s instanceof ZTransactStmt)
                 handleTransactStatement((ZTransactStmt) s);
             else {
-                if (!this.inUserTrans) {
-                    curtrans = new Transaction();
-                    curtrans.start();
-                    System.out.println("Started a new transaction tid = "
-                            + curtrans.getId().getId());
-                }
-                try {
+                runStatement(tid -> {
                     if (s instanceof ZInsert)
-                        query = handleInsertStatement((ZInsert) s,
-                                curtrans.getId());
+                        return handleInsertStatement((ZInsert) s, tid);
                     else if (s instanceof ZDelete)
-                        query = handleDeleteStatement((ZDelete) s,
-                                curtrans.getId());
+                        return handleDeleteStatement((ZDelete) s, tid);
                     else if (s instanceof ZQuery)
-                        query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
-                    else {
-                        System.out
-                                .println("Can't parse "
-                                        + s
-                                        + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
-                    }
-                    if (query != null)
-                        query.execute();
-
-                    if (!inUserTrans && curtrans != null) {
-                        curtrans.commit();
-                        System.out.println("Transaction "
-                                + curtrans.getId().getId() + " committed.");
-                    }
-                } catch (Throwable a) {
-                    // Whenever error happens, abort the current transaction
-                    if (curtrans != null) {
-                        curtrans.abort();
-                        System.out.println("Transaction "
-                                + curtrans.getId().getId()
-                                + " aborted because of unhandled error");
-                    }
-                    this.inUserTrans = false;
-
-                    if (a instanceof simpledb.ParsingException
-                            || a instanceof Zql.ParseException)
-                        throw new ParsingException((Exception) a);
-                    if (a instanceof Zql.TokenMgrError)
-                        throw (Zql.TokenMgrError) a;
-                    throw new DbException(a.getMessage());
-                } finally {
-                    if (!inUserTrans)
-                        curtrans = null;
-                }
+                        return handleQueryStatement((ZQuery) s, tid);
+                    out
+                            .println("Can't parse "
+                                    + s
+                                    + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
+                    return null;
+                });
             }
 
         } catch (IOException | DbException e) {
             e.printStackTrace();
         } catch (simpledb.ParsingException e) {
-            System.out
+            out
                     .println("Invalid SQL expression: \n \t" + e.getMessage());
         } catch (ParseException | TokenMgrError e) {
-            System.out.println("Invalid SQL expression: \n \t " + e);
+            out.println("Invalid SQL expression: \n \t " + e);
+        }
+    }
+
+    /**
+     * Builds the query for a statement, as part of the given transaction.
+     */
+    private interface StatementHandler {
+        Query handle(TransactionId tid) throws Exception;
+    }
+
+    /**
+     * Run a query and print its results.  Subclasses may send the results
+     * elsewhere.
+     */
+    protected void runQuery(Query query)
+            throws DbException, TransactionAbortedException, IOException {
+        query.execute(out);
+    }
+
+    /**
+     * Run the query handler builds, in the user's transaction if there is
+     * one, or else in a transaction of its own that commits once the query
+     * has run.  Any error aborts the transaction.
+     */
+    private void runStatement(StatementHandler handler)
+            throws IOException, DbException, simpledb.ParsingException {
+        if (!this.inUserTrans) {
+            curtrans = new Transaction();
+            curtrans.start();
+            out.println("Started a new transaction tid = "
+                    + curtrans.getId().getId());
+        }
+        try {
+            Query query = handler.handle(curtrans.getId());
+            if (query != null)
+                runQuery(query);
+
+            if (!inUserTrans && curtrans != null) {
+                curtrans.commit();
+                out.println("Transaction "
+                        + curtrans.getId().getId() + " committed.");
+            }
+        } catch (Throwable a) {
+            // Whenever error happens, abort the current transaction
+            if (curtrans != null) {
+                if (a instanceof TransactionAbortedException)
+                    Metrics.deadlockAborted(curtrans.getId().getId());
+                curtrans.abort();
+                out.println("Transaction "
+                        + curtrans.getId().getId()
+                        + " aborted because of unhandled error");
+            }
+            this.inUserTrans = false;
+
+            if (a instanceof simpledb.ParsingException
+                    || a instanceof Zql.ParseException)
+                throw new ParsingException((Exception) a);
+            if (a instanceof Zql.TokenMgrError)
+                throw (Zql.TokenMgrError) a;
+            throw new DbException(a.getMessage());
+        } finally {
+            if (!inUserTrans)
+                curtrans = null;
         }
     }
 
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "create index", "on",
+            "analyze", "prepare", "execute", "deallocate" };
 
     public static void main(String[] argv) throws IOException {
 
@@ -581,19 +933,40 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile|catalogDir [-explain] [-sample fraction] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
+        // keep the tables' modification counts, which tell the next startup
+        // whose statistics are out of date
+        Catalog catalog = Database.getCatalog();
+        if (catalog.getCatalogDir() != null) {
+            try {
+                catalog.saveCatalog(catalog.getCatalogDir());
+            } catch (IOException e) {
+                System.out.println("Can't save the catalog: " + e.getMessage());
+            }
+        }
         System.out.println("Bye");
     }
 
     protected boolean interactive = true;
 
     protected void start(String[] argv) throws IOException {
-        // first add tables to database
-        Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
+        // first add tables to database, from the system catalog if there is
+        // one; a text schema is converted into a system catalog next to it
+        File schema = new File(argv[0]).getAbsoluteFile();
+        File catalogDir = schema.isDirectory() ? schema : schema.getParentFile();
+        if (SystemCatalog.exists(catalogDir)) {
+            Database.getCatalog().loadCatalog(catalogDir);
+            System.out.println("Loaded system catalog from " + catalogDir);
+        } else if (schema.isDirectory()) {
+            System.out.println("No system catalog in " + catalogDir + "\n" + usage);
+            System.exit(0);
+        } else {
+            Database.getCatalog().loadSchema(argv[0]);
+            Database.getCatalog().saveCatalog(catalogDir);
+        }
 
         String queryFile = null;
 
@@ -611,12 +984,22 @@ public class Parser {
                     }
                     queryFile = argv[i];
 
+                } else if (argv[i].equals("-sample")) {
+                    try {
+                        sampleFraction = Double.parseDouble(argv[++i]);
+                    } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                        System.out.println("Expected a fraction of pages after -sample\n"
+                                + usage);
+                        System.exit(0);
+                    }
                 } else {
                     System.out.println("Unknown argument " + argv[i] + "\n "
                             + usage);
                 }
             }
         }
+        TableStats.computeStatistics(sampleFraction);
+        Metrics.publish();
         if (!interactive) {
             try {
                 // curtrans = new Transaction();
@@ -660,7 +1043,6 @@ public class Parser {
                     buffer.append(line, 0, split + 1);
                     String cmd = buffer.toString().trim();
                     cmd = cmd.substring(0, cmd.length() - 1).trim() + ";";
-                    byte[] statementBytes = cmd.getBytes(StandardCharsets.UTF_8);
                     if (cmd.equalsIgnoreCase("quit;")
                             || cmd.equalsIgnoreCase("exit;")) {
                         shutdown();
@@ -669,8 +1051,7 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    processNextStatement(cmd);
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
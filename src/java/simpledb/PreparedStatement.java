@@ -0,0 +1,69 @@
+package simpledb;
+
+import simpledb.optimizer.PlanCache;
+
+import java.util.*;
+
+/**
+ * A SELECT statement prepared by {@link Parser#prepare}, to be run many
+ * times with different values for its parameters, the <tt>?</tt>s of its
+ * text.  Its plan is kept in the database's {@link PlanCache}, under its
+ * normalized text, so it is parsed and optimized once however many times
+ * it runs, unless the cache drops the plan.
+ */
+public class PreparedStatement {
+
+    private final PlanCache.NormalizedSql sql;
+    private final int numParameters;
+
+    PreparedStatement(PlanCache.NormalizedSql sql) {
+        this.sql = sql;
+        int n = 0;
+        for (String c : sql.getConstants()) {
+            if (c == null)
+                n++;
+        }
+        this.numParameters = n;
+    }
+
+    /**
+     * @return the normalized text of the statement
+     */
+    public String getSql() {
+        return sql.getText();
+    }
+
+    PlanCache.NormalizedSql getNormalizedSql() {
+        return sql;
+    }
+
+    /**
+     * @return the number of parameters of the statement
+     */
+    public int getParameterCount() {
+        return numParameters;
+    }
+
+    /**
+     * @param params the value of each parameter of the statement, in order
+     * @return the value of each constant of the normalized statement: its
+     *         own constants, with params in place of its parameters
+     * @throws ParsingException if there are not as many params as
+     *         parameters
+     */
+    List<String> constants(List<String> params) throws ParsingException {
+        if (params.size() != numParameters)
+            throw new ParsingException("Statement has " + numParameters
+                    + " parameters, but " + params.size() + " values were given");
+        List<String> values = new ArrayList<>(sql.getConstants().size());
+        Iterator<String> it = params.iterator();
+        for (String c : sql.getConstants())
+            values.add(c == null ? it.next() : c);
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return sql.getText();
+    }
+}
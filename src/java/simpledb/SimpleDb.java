@@ -94,6 +94,17 @@ public class SimpleDb {
                     e.printStackTrace();
                 }
 
+                break;
+            case "server":
+                // Strip the first argument and start a query server
+                String[] serverArgs = new String[args.length - 1];
+                System.arraycopy(args, 1, serverArgs, 0, args.length - 1);
+                try {
+                    simpledb.server.QueryServer.main(serverArgs);
+                } catch (IOException e) {
+                    System.out.println("Error in server.");
+                    e.printStackTrace();
+                }
                 break;
             default:
                 System.err.println("Unknown command: " + args[0]);
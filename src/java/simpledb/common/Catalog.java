@@ -1,18 +1,24 @@
 package simpledb.common;
 
-import simpledb.storage.DbFile;
-import simpledb.storage.HeapFile;
-import simpledb.storage.TupleDesc;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeFileEncoder;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
- * associated schemas.
- * For now, this is a stub catalog that must be populated with tables by a
- * user program before it can be used -- eventually, this should be converted
- * to a catalog that reads a catalog table from disk.
+ * associated schemas, the B+ tree indexes declared on them, and their
+ * statistics.
+ * It is populated either by a user program, from a text schema file (see
+ * {@link #loadSchema}), or from the system catalog tables on disk (see
+ * {@link #loadCatalog} and {@link SystemCatalog}).
  * 
  * @Threadsafe
  */
@@ -25,6 +31,10 @@ public class Catalog {
         private DbFile dbFile;
         private String name;
         private String primaryKey;
+        private final List<Index> indexes = new ArrayList<>();
+        private Statistics statistics = null;
+        // tuples inserted or deleted, see Catalog#getModifications
+        private final AtomicInteger modifications = new AtomicInteger();
 
         public Table(DbFile dbFile, String name, String primaryKey) {
             this.dbFile = dbFile;
@@ -55,10 +65,245 @@ public class Catalog {
         public void setPrimaryKey(String primaryKey) {
             this.primaryKey = primaryKey;
         }
+
+        public List<Index> getIndexes() {
+            return indexes;
+        }
+
+        public Statistics getStatistics() {
+            return statistics;
+        }
+
+        public void setStatistics(Statistics statistics) {
+            this.statistics = statistics;
+        }
+
+        public int getModifications() {
+            return modifications.get();
+        }
+
+        public void setModifications(int modifications) {
+            this.modifications.set(modifications);
+        }
+    }
+
+    /**
+     * A B+ tree index on one column of a table.  The index is a BTreeFile
+     * holding a copy of every tuple of the table, keyed on that column; it
+     * is registered in the catalog as a table of its own so that its pages
+     * can be read through the buffer pool.
+     */
+    public static class Index implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final BTreeFile file;
+
+        public Index(String name, BTreeFile file) {
+            this.name = name;
+            this.file = file;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public BTreeFile getFile() {
+            return file;
+        }
+
+        public int getKeyField() {
+            return file.keyField();
+        }
+
+        /**
+         * Add a copy of a tuple just inserted into the indexed table.
+         *
+         * @return the pages dirtied
+         */
+        public List<Page> insertTuple(TransactionId tid, Tuple t)
+                throws DbException, IOException, TransactionAbortedException {
+            Tuple copy = new Tuple(t.getTupleDesc());
+            for (int i = 0; i < copy.getTupleDesc().numFields(); i++)
+                copy.setField(i, t.getField(i));
+            return file.insertTuple(tid, copy);
+        }
+
+        /**
+         * Remove the copy of a tuple just deleted from the indexed table.
+         * Any index tuple with the same field values will do.
+         *
+         * @return the pages dirtied
+         */
+        public List<Page> deleteTuple(TransactionId tid, Tuple t)
+                throws DbException, IOException, TransactionAbortedException {
+            Field key = t.getField(getKeyField());
+            DbFileIterator it = file.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, key));
+            it.open();
+            try {
+                while (it.hasNext()) {
+                    Tuple copy = it.next();
+                    if (sameFields(copy, t))
+                        return file.deleteTuple(tid, copy);
+                }
+            } finally {
+                it.close();
+            }
+            throw new DbException("index " + name + " has no entry for " + t);
+        }
+
+        private static boolean sameFields(Tuple a, Tuple b) {
+            for (int i = 0; i < a.getTupleDesc().numFields(); i++) {
+                if (!a.getField(i).equals(b.getField(i)))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Basic statistics of a table, kept in the system catalog so that they
+     * need not be recomputed by scanning the table at every startup.  The
+     * minimum and maximum are only meaningful for integer columns.  The
+     * optimizer's statistics also record histograms, encoded as arrays of
+     * ints: one per column, in order, followed by any others (such as
+     * histograms over pairs of columns).
+     */
+    public static class Statistics implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int numTuples;
+        private final int numPages;
+        private final int modifications;
+        private final int[] min;
+        private final int[] max;
+        private final int[][] histograms;
+
+        public Statistics(int numTuples, int numPages, int[] min, int[] max) {
+            this(numTuples, numPages, min, max, null);
+        }
+
+        /**
+         * @param histograms the encoded histograms, or null if they were not
+         *        computed
+         */
+        public Statistics(int numTuples, int numPages, int[] min, int[] max, int[][] histograms) {
+            this(numTuples, numPages, 0, min, max, histograms);
+        }
+
+        /**
+         * @param modifications the table's modification count (see
+         *        {@link Catalog#getModifications}) when the statistics
+         *        were computed
+         * @param histograms the encoded histograms, or null if they were not
+         *        computed
+         */
+        public Statistics(int numTuples, int numPages, int modifications, int[] min, int[] max,
+                          int[][] histograms) {
+            this.numTuples = numTuples;
+            this.numPages = numPages;
+            this.modifications = modifications;
+            this.min = min;
+            this.max = max;
+            this.histograms = histograms;
+        }
+
+        /**
+         * Compute the statistics of a table with one scan.
+         */
+        public static Statistics compute(DbFile file) throws DbException, TransactionAbortedException {
+            TupleDesc td = file.getTupleDesc();
+            int[] min = new int[td.numFields()];
+            int[] max = new int[td.numFields()];
+            Arrays.fill(min, Integer.MAX_VALUE);
+            Arrays.fill(max, Integer.MIN_VALUE);
+            int numTuples = 0;
+            int modifications = Database.getCatalog().getModifications(file.getId());
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = file.iterator(tid);
+            it.open();
+            try {
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    for (int i = 0; i < td.numFields(); i++) {
+                        if (td.getFieldType(i) == Type.INT_TYPE) {
+                            int v = ((IntField) t.getField(i)).getValue();
+                            min[i] = Math.min(min[i], v);
+                            max[i] = Math.max(max[i], v);
+                        }
+                    }
+                    numTuples++;
+                }
+            } finally {
+                it.close();
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            if (numTuples == 0) {
+                Arrays.fill(min, 0);
+                Arrays.fill(max, 0);
+            }
+            return new Statistics(numTuples, file.numPages(), modifications, min, max, null);
+        }
+
+        public int getNumTuples() {
+            return numTuples;
+        }
+
+        public int getNumPages() {
+            return numPages;
+        }
+
+        /**
+         * @return the table's modification count when these statistics were
+         *         computed; they are out of date once the count has moved on
+         */
+        public int getModifications() {
+            return modifications;
+        }
+
+        /**
+         * @return the smallest value of integer column field
+         */
+        public int getMin(int field) {
+            return min[field];
+        }
+
+        /**
+         * @return the largest value of integer column field
+         */
+        public int getMax(int field) {
+            return max[field];
+        }
+
+        /**
+         * @return true if these statistics include column histograms
+         */
+        public boolean hasHistograms() {
+            return histograms != null;
+        }
+
+        /**
+         * @return the number of encoded histograms
+         */
+        public int numHistograms() {
+            return histograms == null ? 0 : histograms.length;
+        }
+
+        /**
+         * @return encoded histogram i (that of column i, if i is less than
+         *         the number of columns), or null if there are none
+         */
+        public int[] getHistogram(int i) {
+            return histograms == null ? null : histograms[i];
+        }
     }
 
     private Map<Integer, Table> tables;
     private Map<String, Integer> name2Id;
+    // where the system catalog is kept, once loaded or saved
+    private File catalogDir = null;
 
     private Map<Integer, Table> getTables() {
         return tables;
@@ -178,12 +423,173 @@ public class Catalog {
         }
         throw new NoSuchElementException();
     }
+
+    Table getTable(int tableid) throws NoSuchElementException {
+        Table table = getTables().get(tableid);
+        if (table == null)
+            throw new NoSuchElementException();
+        return table;
+    }
+
+    /**
+     * Declare an existing B+ tree as an index of a table.  The BTreeFile
+     * must hold a copy of every tuple of the table; it is added to the
+     * catalog as a table named indexName.
+     *
+     * @param tableid the indexed table
+     * @param indexName the name of the index
+     * @param file the B+ tree
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public void addIndex(int tableid, String indexName, BTreeFile file) throws NoSuchElementException {
+        Table table = getTable(tableid);
+        addTable(file, indexName);
+        table.getIndexes().add(new Index(indexName, file));
+    }
+
+    /**
+     * @return the indexes of a table; empty if it has none or doesn't exist
+     */
+    public List<Index> getIndexes(int tableid) {
+        Table table = getTables().get(tableid);
+        return table == null ? Collections.emptyList() : table.getIndexes();
+    }
+
+    /**
+     * @return the index of a table keyed on field, or null if there is none
+     */
+    public Index getIndex(int tableid, int field) {
+        for (Index index : getIndexes(tableid)) {
+            if (index.getKeyField() == field)
+                return index;
+        }
+        return null;
+    }
+
+    /**
+     * @return the statistics recorded for a table, or null if there are none
+     */
+    public Statistics getStatistics(int tableid) {
+        Table table = getTables().get(tableid);
+        return table == null ? null : table.getStatistics();
+    }
+
+    public void setStatistics(int tableid, Statistics statistics) throws NoSuchElementException {
+        getTable(tableid).setStatistics(statistics);
+    }
+
+    /**
+     * Count a tuple inserted into or deleted from a table.
+     */
+    public void recordModification(int tableid) {
+        Table table = getTables().get(tableid);
+        if (table != null)
+            table.modifications.incrementAndGet();
+    }
+
+    /**
+     * @return the number of tuples inserted into or deleted from a table,
+     *         counting those recorded in the system catalog it was loaded
+     *         from; 0 if the table doesn't exist
+     */
+    public int getModifications(int tableid) {
+        Table table = getTables().get(tableid);
+        return table == null ? 0 : table.getModifications();
+    }
+
+    /**
+     * Build a B+ tree index on one column of a table from the table's
+     * current contents, register it, and record it in the system catalog
+     * if there is one.  The index file, indexName.idx, is created next to
+     * the system catalog, or next to the table's file if there is no system
+     * catalog.
+     *
+     * @param indexName the name of the new index; must not name a table
+     * @param tableName the table to index
+     * @param column the name of the key column
+     * @return the new index
+     * @throws DbException if the table or column doesn't exist, or the name
+     *         or index file is taken
+     */
+    public Index createIndex(String indexName, String tableName, String column)
+            throws DbException, IOException, TransactionAbortedException {
+        if (getName2Id().containsKey(indexName))
+            throw new DbException("there is already a table named " + indexName);
+        int tableid;
+        int keyField;
+        try {
+            tableid = getTableId(tableName);
+            keyField = getTupleDesc(tableid).fieldNameToIndex(column);
+        } catch (NoSuchElementException e) {
+            throw new DbException("no column " + column + " in table " + tableName);
+        }
+        DbFile table = getDatabaseFile(tableid);
+        File dir = catalogDir;
+        if (dir == null && SystemCatalog.getFile(table) != null)
+            dir = SystemCatalog.getFile(table).getAbsoluteFile().getParentFile();
+        if (dir == null)
+            throw new DbException("don't know where to put index " + indexName);
+        File f = new File(dir, indexName + ".idx");
+        if (f.exists())
+            throw new DbException("index file " + f + " already exists");
+
+        List<Tuple> tuples = new ArrayList<>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        try {
+            while (it.hasNext())
+                tuples.add(it.next());
+        } finally {
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+
+        BTreeFile index = new BTreeFile(f, keyField, table.getTupleDesc());
+        addIndex(tableid, indexName, index);
+        BTreeFileEncoder.bulkLoad(index, tuples, BufferPool.getPageSize());
+        if (catalogDir != null)
+            saveCatalog(catalogDir);
+        return getIndex(tableid, keyField);
+    }
+
+    /**
+     * Replace the contents of this catalog with the system catalog stored
+     * in a directory, and keep later changes there.
+     *
+     * @see SystemCatalog
+     */
+    public void loadCatalog(File dir) throws IOException {
+        clear();
+        SystemCatalog.load(this, dir);
+        catalogDir = dir;
+    }
+
+    /**
+     * Write this catalog's tables, indexes and statistics to the system
+     * catalog in a directory, and keep later changes there.
+     *
+     * @see SystemCatalog
+     */
+    public void saveCatalog(File dir) throws IOException {
+        SystemCatalog.save(this, dir);
+        catalogDir = dir;
+    }
+
+    /**
+     * @return the directory holding the system catalog, or null if this
+     *         catalog has not been loaded from or saved to one
+     */
+    public File getCatalogDir() {
+        return catalogDir;
+    }
     
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
         this.tables.clear();
         this.name2Id.clear();
+        this.catalogDir = null;
     }
     
     /**
@@ -197,7 +603,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [slotted|pax]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -228,7 +634,19 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                String format = line.substring(line.indexOf(")") + 1).trim();
+                DbFile tabHf;
+                if (format.isEmpty())
+                    tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                else if (format.equalsIgnoreCase("slotted"))
+                    tabHf = new SlottedHeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                else if (format.equalsIgnoreCase("pax"))
+                    tabHf = new PaxFile(new File(baseFolder+"/"+name + ".dat"), t);
+                else {
+                    System.out.println("Unknown table format " + format);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
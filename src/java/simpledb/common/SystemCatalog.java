@@ -0,0 +1,330 @@
+package simpledb.common;
+
+import simpledb.index.BTreeFile;
+import simpledb.storage.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * SystemCatalog stores a {@link Catalog} as SimpleDB tables, so that the
+ * database can be opened without a text schema and without rescanning
+ * its data.  The catalog directory holds four heap files, each registered
+ * in the catalog under its own name so that it can be queried:
+ * <ul>
+ * <li>sys_tables (name, file, format, primary_key, num_tuples, num_pages,
+ * num_modified): one row per table; num_tuples is -1 if the table has no
+ * statistics, and num_modified counts the tuples inserted or deleted since
+ * they were computed</li>
+ * <li>sys_columns (table_name, position, name, type, min_value, max_value):
+ * one row per column; min_value and max_value are the column statistics
+ * of integer columns</li>
+ * <li>sys_indexes (name, table_name, key_field, file): one row per B+ tree
+ * index</li>
+ * <li>sys_histograms (table_name, position, entry, value): the encoded
+ * histograms of a table's statistics, as {@link Catalog.Statistics#getHistogram};
+ * one row per non-zero entry, and one with entry -1 whose value is the
+ * histogram's length</li>
+ * </ul>
+ * Files inside the catalog directory are recorded relative to it, so the
+ * directory can be moved.  Each system table is rewritten whole, to a
+ * temporary file that then replaces the old one.
+ * <p>
+ * Only heap, slotted and PAX tables are recorded; other DbFiles (such as
+ * BTreeFiles added directly to the catalog) are left out.
+ */
+public class SystemCatalog {
+
+    public static final String TABLES = "sys_tables";
+    public static final String COLUMNS = "sys_columns";
+    public static final String INDEXES = "sys_indexes";
+    public static final String HISTOGRAMS = "sys_histograms";
+
+    private static final TupleDesc TABLES_TD = new TupleDesc(
+            new Type[]{Type.STRING_TYPE, Type.STRING_TYPE, Type.STRING_TYPE, Type.STRING_TYPE,
+                    Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE},
+            new String[]{"name", "file", "format", "primary_key", "num_tuples", "num_pages", "num_modified"});
+    private static final TupleDesc COLUMNS_TD = new TupleDesc(
+            new Type[]{Type.STRING_TYPE, Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE,
+                    Type.INT_TYPE, Type.INT_TYPE},
+            new String[]{"table_name", "position", "name", "type", "min_value", "max_value"});
+    private static final TupleDesc INDEXES_TD = new TupleDesc(
+            new Type[]{Type.STRING_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.STRING_TYPE},
+            new String[]{"name", "table_name", "key_field", "file"});
+    private static final TupleDesc HISTOGRAMS_TD = new TupleDesc(
+            new Type[]{Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE},
+            new String[]{"table_name", "position", "entry", "value"});
+
+    private SystemCatalog() {
+    }
+
+    /**
+     * @return true if dir holds a system catalog
+     */
+    public static boolean exists(File dir) {
+        return systemFile(dir, TABLES).exists();
+    }
+
+    private static File systemFile(File dir, String name) {
+        return new File(dir, name + ".dat");
+    }
+
+    /**
+     * @return the file backing a DbFile, or null if it is of a kind the
+     *         system catalog does not record
+     */
+    static File getFile(DbFile file) {
+        if (file instanceof HeapFile)
+            return ((HeapFile) file).getFile();
+        if (file instanceof PaxFile)
+            return ((PaxFile) file).getFile();
+        return null;
+    }
+
+    private static String format(DbFile file) {
+        if (file instanceof SlottedHeapFile)
+            return "slotted";
+        if (file instanceof HeapFile)
+            return "heap";
+        if (file instanceof PaxFile)
+            return "pax";
+        return null;
+    }
+
+    private static DbFile open(String format, File f, TupleDesc td) throws IOException {
+        switch (format) {
+            case "heap":
+                return new HeapFile(f, td);
+            case "slotted":
+                return new SlottedHeapFile(f, td);
+            case "pax":
+                return new PaxFile(f, td);
+            default:
+                throw new IOException("unknown table format " + format + " in the system catalog");
+        }
+    }
+
+    private static String relativize(File dir, File f) {
+        Path base = dir.getAbsoluteFile().toPath().normalize();
+        Path path = f.getAbsoluteFile().toPath().normalize();
+        return path.startsWith(base) ? base.relativize(path).toString() : path.toString();
+    }
+
+    private static File resolve(File dir, String path) {
+        File f = new File(path);
+        return f.isAbsolute() ? f : new File(dir, path);
+    }
+
+    private static StringField string(String s) throws IOException {
+        if (s.length() > Type.STRING_LEN)
+            throw new IOException("\"" + s + "\" is too long for the system catalog");
+        return new StringField(s, Type.STRING_LEN);
+    }
+
+    private static String string(Tuple t, int i) {
+        return ((StringField) t.getField(i)).getValue();
+    }
+
+    private static int integer(Tuple t, int i) {
+        return ((IntField) t.getField(i)).getValue();
+    }
+
+    /**
+     * Add the system tables in dir to the catalog.
+     */
+    private static Map<String, HeapFile> register(Catalog catalog, File dir) {
+        Map<String, HeapFile> files = new HashMap<>();
+        files.put(TABLES, new HeapFile(systemFile(dir, TABLES), TABLES_TD));
+        files.put(COLUMNS, new HeapFile(systemFile(dir, COLUMNS), COLUMNS_TD));
+        files.put(INDEXES, new HeapFile(systemFile(dir, INDEXES), INDEXES_TD));
+        files.put(HISTOGRAMS, new HeapFile(systemFile(dir, HISTOGRAMS), HISTOGRAMS_TD));
+        for (Map.Entry<String, HeapFile> e : files.entrySet())
+            catalog.addTable(e.getValue(), e.getKey());
+        return files;
+    }
+
+    /**
+     * Read every tuple of a system table straight from its file, bypassing
+     * the buffer pool.
+     */
+    private static List<Tuple> read(HeapFile hf) {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < hf.numPages(); i++) {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            page.iterator().forEachRemaining(tuples::add);
+        }
+        return tuples;
+    }
+
+    /**
+     * Replace the contents of a system table, and drop any of its pages
+     * cached by the buffer pool.
+     */
+    private static void write(HeapFile hf, List<Tuple> tuples) throws IOException {
+        File f = hf.getFile();
+        File tmp = new File(f.getPath() + ".tmp");
+        int oldPages = hf.numPages();
+        HeapFileEncoder.convert(tuples, hf.getTupleDesc(), tmp, BufferPool.getPageSize());
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        ZoneMap.sideFile(f).delete();
+        FreeSpaceMap.sideFile(f).delete();
+        for (int i = 0; i < Math.max(oldPages, hf.numPages()); i++)
+            Database.getBufferPool().discardPage(new HeapPageId(hf.getId(), i));
+    }
+
+    /**
+     * Add the tables, indexes and statistics recorded in dir to the catalog,
+     * along with the system tables themselves.
+     *
+     * @throws IOException if dir holds no system catalog or it is corrupt
+     */
+    static void load(Catalog catalog, File dir) throws IOException {
+        if (!exists(dir))
+            throw new IOException("no system catalog in " + dir);
+        Map<String, HeapFile> files = register(catalog, dir);
+
+        Map<String, TreeMap<Integer, Tuple>> columns = new HashMap<>();
+        for (Tuple t : read(files.get(COLUMNS)))
+            columns.computeIfAbsent(string(t, 0), k -> new TreeMap<>()).put(integer(t, 1), t);
+        Map<String, TreeMap<Integer, int[]>> histograms = new HashMap<>();
+        List<Tuple> entries = read(files.get(HISTOGRAMS));
+        for (Tuple t : entries) {
+            if (integer(t, 2) == -1)
+                histograms.computeIfAbsent(string(t, 0), k -> new TreeMap<>())
+                        .put(integer(t, 1), new int[integer(t, 3)]);
+        }
+        for (Tuple t : entries) {
+            TreeMap<Integer, int[]> table = histograms.get(string(t, 0));
+            int[] h = table == null ? null : table.get(integer(t, 1));
+            if (h == null || integer(t, 2) >= h.length)
+                throw new IOException("histogram entry of table " + string(t, 0) + " is out of range");
+            if (integer(t, 2) >= 0)
+                h[integer(t, 2)] = integer(t, 3);
+        }
+
+        for (Tuple t : read(files.get(TABLES))) {
+            String name = string(t, 0);
+            TreeMap<Integer, Tuple> cols = columns.get(name);
+            if (cols == null)
+                throw new IOException("table " + name + " has no columns in the system catalog");
+            Type[] types = new Type[cols.size()];
+            String[] names = new String[cols.size()];
+            int[] min = new int[cols.size()];
+            int[] max = new int[cols.size()];
+            int i = 0;
+            for (Tuple c : cols.values()) {
+                names[i] = string(c, 2);
+                types[i] = string(c, 3).equals("int") ? Type.INT_TYPE : Type.STRING_TYPE;
+                min[i] = integer(c, 4);
+                max[i] = integer(c, 5);
+                i++;
+            }
+            TreeMap<Integer, int[]> hists = histograms.get(name);
+            if (hists != null && (hists.firstKey() != 0 || hists.lastKey() != hists.size() - 1))
+                throw new IOException("table " + name + " has missing histograms in the system catalog");
+            DbFile file = open(string(t, 2), resolve(dir, string(t, 1)), new TupleDesc(types, names));
+            catalog.addTable(file, name, string(t, 3));
+            catalog.getTable(file.getId()).setModifications(integer(t, 6));
+            if (integer(t, 4) >= 0)
+                catalog.setStatistics(file.getId(), new Catalog.Statistics(integer(t, 4), integer(t, 5), 0,
+                        min, max, hists == null ? null : hists.values().toArray(new int[0][])));
+        }
+
+        for (Tuple t : read(files.get(INDEXES))) {
+            int tableid;
+            try {
+                tableid = catalog.getTableId(string(t, 1));
+            } catch (NoSuchElementException e) {
+                throw new IOException("index " + string(t, 0) + " is on unknown table " + string(t, 1));
+            }
+            BTreeFile index = new BTreeFile(resolve(dir, string(t, 3)), integer(t, 2),
+                    catalog.getTupleDesc(tableid));
+            catalog.addIndex(tableid, string(t, 0), index);
+        }
+    }
+
+    /**
+     * Write the catalog's tables, indexes and statistics to the system
+     * tables in dir, creating them (and adding them to the catalog) if
+     * needed.
+     */
+    static void save(Catalog catalog, File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("can't create catalog directory " + dir);
+        Map<String, HeapFile> files = register(catalog, dir);
+
+        List<Tuple> tables = new ArrayList<>();
+        List<Tuple> columns = new ArrayList<>();
+        List<Tuple> indexes = new ArrayList<>();
+        List<Tuple> entries = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        catalog.tableIdIterator().forEachRemaining(ids::add);
+        for (int id : ids) {
+            Catalog.Table table = catalog.getTable(id);
+            DbFile file = table.getDbFile();
+            String format = format(file);
+            if (format == null || files.containsKey(table.getName()))
+                continue;
+            Catalog.Statistics stats = table.getStatistics();
+
+            Tuple t = new Tuple(TABLES_TD);
+            t.setField(0, string(table.getName()));
+            t.setField(1, string(relativize(dir, getFile(file))));
+            t.setField(2, string(format));
+            t.setField(3, string(table.getPrimaryKey()));
+            t.setField(4, new IntField(stats == null ? -1 : stats.getNumTuples()));
+            t.setField(5, new IntField(stats == null ? -1 : stats.getNumPages()));
+            t.setField(6, new IntField(table.getModifications() - (stats == null ? 0 : stats.getModifications())));
+            tables.add(t);
+
+            TupleDesc td = file.getTupleDesc();
+            for (int i = 0; i < td.numFields(); i++) {
+                Tuple c = new Tuple(COLUMNS_TD);
+                c.setField(0, string(table.getName()));
+                c.setField(1, new IntField(i));
+                c.setField(2, string(td.getFieldName(i) == null ? "" : td.getFieldName(i)));
+                c.setField(3, string(td.getFieldType(i) == Type.INT_TYPE ? "int" : "string"));
+                boolean hasRange = stats != null && td.getFieldType(i) == Type.INT_TYPE;
+                c.setField(4, new IntField(hasRange ? stats.getMin(i) : 0));
+                c.setField(5, new IntField(hasRange ? stats.getMax(i) : 0));
+                columns.add(c);
+            }
+
+            for (int i = 0; stats != null && i < stats.numHistograms(); i++) {
+                int[] h = stats.getHistogram(i);
+                for (int e = -1; e < h.length; e++) {
+                    int value = e < 0 ? h.length : h[e];
+                    if (e >= 0 && value == 0)
+                        continue;
+                    Tuple x = new Tuple(HISTOGRAMS_TD);
+                    x.setField(0, string(table.getName()));
+                    x.setField(1, new IntField(i));
+                    x.setField(2, new IntField(e));
+                    x.setField(3, new IntField(value));
+                    entries.add(x);
+                }
+            }
+
+            for (Catalog.Index index : table.getIndexes()) {
+                Tuple x = new Tuple(INDEXES_TD);
+                x.setField(0, string(index.getName()));
+                x.setField(1, string(table.getName()));
+                x.setField(2, new IntField(index.getKeyField()));
+                x.setField(3, string(relativize(dir, index.getFile().getFile())));
+                indexes.add(x);
+            }
+        }
+
+        // the tables row goes last, so a catalog is never read with tables
+        // whose columns are missing
+        write(files.get(COLUMNS), columns);
+        write(files.get(INDEXES), indexes);
+        write(files.get(HISTOGRAMS), entries);
+        write(files.get(TABLES), tables);
+    }
+}
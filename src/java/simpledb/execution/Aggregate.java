@@ -1,10 +1,14 @@
 package simpledb.execution;
 
 import simpledb.common.DbException;
+import simpledb.common.Type;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 
@@ -17,21 +21,70 @@ public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    private OpIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private TupleDesc td;
+    private transient PipelineCompiler.Pipeline pipeline;
+    private transient OpIterator results;
+    private transient boolean childOpen = false;
+
     /**
      * Constructor.
      * <p>
      * Implementation hint: depending on the type of afield, you will want to
      * construct an {@link IntegerAggregator} or {@link StringAggregator} to help
      * you with your implementation of readNext().
+     * <p>
+     * If child is a pipeline of filters and projections over a scan, it is
+     * compiled into one loop by {@link PipelineCompiler}, which computes the
+     * aggregate in its place.
      *
      * @param child  The OpIterator that is feeding us tuples.
      * @param afield The column over which we are computing an aggregate.
      * @param gfield The column over which we are grouping the result, or -1 if
      *               there is no grouping
      * @param aop    The aggregation operator to use
+     * @throws IllegalArgumentException if aop cannot be computed over the
+     *         type of afield
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
         // some code goes here
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        setChild(child);
+    }
+
+    private void setChild(OpIterator child) {
+        this.child = child;
+        TupleDesc ctd = child.getTupleDesc();
+        // check that aop applies to afield
+        newAggregator(ctd);
+        String aname = ctd.getFieldName(this.afield);
+        String name = aname == null ? null : nameOfAggregatorOp(this.aop) + " (" + aname + ")";
+        if (this.gfield == Aggregator.NO_GROUPING)
+            this.td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{name});
+        else
+            this.td = new TupleDesc(new Type[]{ctd.getFieldType(this.gfield), Type.INT_TYPE},
+                    new String[]{ctd.getFieldName(this.gfield), name});
+        this.pipeline = PipelineCompiler.compile(child, this.afield, this.gfield, this.aop, this.td);
+    }
+
+    private Aggregator newAggregator(TupleDesc ctd) {
+        Type gtype = this.gfield == Aggregator.NO_GROUPING ? null : ctd.getFieldType(this.gfield);
+        if (ctd.getFieldType(this.afield) == Type.INT_TYPE)
+            return new IntegerAggregator(this.gfield, gtype, this.afield, this.aop);
+        return new StringAggregator(this.gfield, gtype, this.afield, this.aop);
+    }
+
+    /**
+     * @return whether this aggregate is computed by a compiled pipeline,
+     *         rather than by reading its child
+     */
+    public boolean isCompiled() {
+        return this.pipeline != null;
     }
 
     /**
@@ -41,7 +94,7 @@ public class Aggregate extends Operator {
      */
     public int groupField() {
         // some code goes here
-        return -1;
+        return this.gfield;
     }
 
     /**
@@ -51,7 +104,7 @@ public class Aggregate extends Operator {
      */
     public String groupFieldName() {
         // some code goes here
-        return null;
+        return this.gfield == Aggregator.NO_GROUPING ? null : this.td.getFieldName(0);
     }
 
     /**
@@ -59,7 +112,7 @@ public class Aggregate extends Operator {
      */
     public int aggregateField() {
         // some code goes here
-        return -1;
+        return this.afield;
     }
 
     /**
@@ -68,7 +121,7 @@ public class Aggregate extends Operator {
      */
     public String aggregateFieldName() {
         // some code goes here
-        return null;
+        return this.td.getFieldName(this.td.numFields() - 1);
     }
 
     /**
@@ -76,7 +129,7 @@ public class Aggregate extends Operator {
      */
     public Aggregator.Op aggregateOp() {
         // some code goes here
-        return null;
+        return this.aop;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -86,6 +139,30 @@ public class Aggregate extends Operator {
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
         // some code goes here
+        List<Tuple> tuples;
+        if (this.pipeline != null && this.pipeline.canRun()) {
+            tuples = this.pipeline.run();
+        } else {
+            this.child.open();
+            this.childOpen = true;
+            Aggregator agg = newAggregator(this.child.getTupleDesc());
+            while (this.child.hasNext())
+                agg.mergeTupleIntoGroup(this.child.next());
+            tuples = new ArrayList<>();
+            OpIterator it = agg.iterator();
+            it.open();
+            while (it.hasNext()) {
+                Tuple r = it.next();
+                Tuple t = new Tuple(this.td);
+                for (int i = 0; i < this.td.numFields(); i++)
+                    t.setField(i, r.getField(i));
+                tuples.add(t);
+            }
+            it.close();
+        }
+        this.results = new TupleIterator(this.td, tuples);
+        this.results.open();
+        super.open();
     }
 
     /**
@@ -97,11 +174,12 @@ public class Aggregate extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return null;
+        return this.results.hasNext() ? this.results.next() : null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        this.results.rewind();
     }
 
     /**
@@ -117,22 +195,31 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return null;
+        return this.td;
     }
 
     public void close() {
         // some code goes here
+        super.close();
+        if (this.results != null)
+            this.results.close();
+        this.results = null;
+        if (this.childOpen)
+            this.child.close();
+        this.childOpen = false;
     }
 
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
-        return null;
+        return new OpIterator[]{this.child};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
         // some code goes here
+        if (this.child != children[0])
+            setChild(children[0]);
     }
 
 }
@@ -14,6 +14,10 @@ public class Filter extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    private final List<Predicate> predicates;
+    private final PredicateCompiler.Conjunction conjunction;
+    private OpIterator child;
+
     /**
      * Constructor accepts a predicate to apply and a child operator to read
      * tuples to filter from.
@@ -25,35 +29,80 @@ public class Filter extends Operator {
      */
     public Filter(Predicate p, OpIterator child) {
         // some code goes here
+        this.predicates = Collections.singletonList(p);
+        this.conjunction = PredicateCompiler.interpret(this.predicates);
+        this.child = child;
+    }
+
+    /**
+     * Constructor for a filter that passes the tuples satisfying all of a
+     * list of predicates.  The conjunction is compiled for the tuples of
+     * child by {@link PredicateCompiler}, or interpreted if it cannot be.
+     *
+     * @param ps
+     *            The predicates to filter tuples with
+     * @param child
+     *            The child operator
+     */
+    public Filter(List<Predicate> ps, OpIterator child) {
+        if (ps.isEmpty())
+            throw new IllegalArgumentException("a filter needs at least one predicate");
+        this.predicates = Collections.unmodifiableList(new ArrayList<>(ps));
+        this.conjunction = PredicateCompiler.compile(child.getTupleDesc(), this.predicates);
+        this.child = child;
     }
 
+    /**
+     * @return the first of the predicates of this filter
+     */
     public Predicate getPredicate() {
         // some code goes here
-        return null;
+        return this.predicates.get(0);
+    }
+
+    /**
+     * @return the predicates of this filter, all of which a tuple must
+     *         satisfy to pass it
+     */
+    public List<Predicate> getPredicates() {
+        return this.predicates;
+    }
+
+    /**
+     * @return whether the predicates of this filter are evaluated by a
+     *         compiled class, rather than interpreted
+     */
+    public boolean isCompiled() {
+        return PredicateCompiler.isCompiled(this.conjunction);
     }
 
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return null;
+        return this.child.getTupleDesc();
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        this.child.open();
+        super.open();
     }
 
     public void close() {
         // some code goes here
+        super.close();
+        this.child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        this.child.rewind();
     }
 
     /**
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
-     * child operator, applying the predicate to them and returning those that
-     * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * child operator, applying the predicates to them and returning those that
+     * pass every predicate (i.e. for which the Predicate.filter() returns true.)
      * 
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
@@ -62,18 +111,25 @@ public class Filter extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
+        while (this.child.hasNext()) {
+            Tuple t = this.child.next();
+            if (this.conjunction.filter(t)) {
+                return t;
+            }
+        }
         return null;
     }
 
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
-        return null;
+        return new OpIterator[]{this.child};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
         // some code goes here
+        this.child = children[0];
     }
 
 }
@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -72,11 +73,30 @@ public class HashEquiJoin extends Operator {
 
     }
 
+    /**
+     * Publish a runtime filter of the keys in the hash table to the scan
+     * at the bottom of the probe side, looking through Filters (and the
+     * wrappers of a profiled plan), so that it drops tuples that cannot
+     * join.  Probe sides of other shapes are left alone.
+     */
+    private void publishRuntimeFilter() {
+        OpIterator probe = ProfiledOpIterator.unwrap(child2);
+        while (probe instanceof Filter)
+            probe = ProfiledOpIterator.unwrap(((Filter) probe).getChildren()[0]);
+        if (!(probe instanceof SeqScan))
+            return;
+        RuntimeFilter filter = new RuntimeFilter(pred.getField2(), map.size());
+        for (Object key : map.keySet())
+            filter.add((Field) key);
+        ((SeqScan) probe).setRuntimeFilter(filter);
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
-        child2.open();
         loadMap();
+        publishRuntimeFilter();
+        child2.open();
         super.open();
     }
 
@@ -152,8 +172,9 @@ public class HashEquiJoin extends Operator {
         }
 
         // child2 is done: advance child1
-        child2.rewind();
         if (loadMap()) {
+            publishRuntimeFilter();
+            child2.rewind();
             return fetchNext();
         }
 
@@ -1,7 +1,13 @@
 package simpledb.execution;
 
 import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+
+import java.util.*;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
@@ -10,6 +16,17 @@ public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    // the state of a group: its count, sum, min and max, at these indexes
+    static final int COUNT = 0, SUM = 1, MIN = 2, MAX = 3;
+
+    private final int gbfield;
+    private final Type gbfieldtype;
+    private final int afield;
+    private final Op what;
+    // the state of each group, in the order groups were first seen; the
+    // single group of an aggregate without grouping has key null
+    private final Map<Field, long[]> groups = new LinkedHashMap<>();
+
     /**
      * Aggregate constructor
      * 
@@ -27,6 +44,63 @@ public class IntegerAggregator implements Aggregator {
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         // some code goes here
+        if (what == Op.SUM_COUNT || what == Op.SC_AVG)
+            throw new IllegalArgumentException("unsupported aggregate " + what);
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.afield = afield;
+        this.what = what;
+    }
+
+    /**
+     * @return the state of a group that has no values yet
+     */
+    static long[] newState() {
+        return new long[]{0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE};
+    }
+
+    /**
+     * @return the aggregate of a group, as what computes it from state
+     */
+    static int value(long[] state, Op what) {
+        switch (what) {
+            case MIN:
+                return (int) state[MIN];
+            case MAX:
+                return (int) state[MAX];
+            case SUM:
+                return (int) state[SUM];
+            case AVG:
+                return (int) (state[SUM] / state[COUNT]);
+            default:
+                return (int) state[COUNT];
+        }
+    }
+
+    /**
+     * @return the tuple of td, (group, aggregate) or (aggregate) if group
+     *         is null, of each group
+     */
+    static List<Tuple> tuples(TupleDesc td, Map<Field, long[]> groups, Op what) {
+        List<Tuple> tuples = new ArrayList<>(groups.size());
+        for (Map.Entry<Field, long[]> e : groups.entrySet()) {
+            Tuple t = new Tuple(td);
+            int i = 0;
+            if (e.getKey() != null)
+                t.setField(i++, e.getKey());
+            t.setField(i, new IntField(value(e.getValue(), what)));
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    /**
+     * @return the TupleDesc of the results of an aggregate grouped by a
+     *         field of gbfieldtype, or not grouped if it is null
+     */
+    static TupleDesc resultTupleDesc(Type gbfieldtype) {
+        return gbfieldtype == null ? new TupleDesc(new Type[]{Type.INT_TYPE})
+                : new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
     }
 
     /**
@@ -38,6 +112,13 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
+        Field key = this.gbfield == NO_GROUPING ? null : tup.getField(this.gbfield);
+        long[] state = this.groups.computeIfAbsent(key, k -> newState());
+        int v = ((IntField) tup.getField(this.afield)).getValue();
+        state[COUNT]++;
+        state[SUM] += v;
+        state[MIN] = Math.min(state[MIN], v);
+        state[MAX] = Math.max(state[MAX], v);
     }
 
     /**
@@ -50,8 +131,8 @@ public class IntegerAggregator implements Aggregator {
      */
     public OpIterator iterator() {
         // some code goes here
-        throw new
-        UnsupportedOperationException("please implement me for lab2");
+        TupleDesc td = resultTupleDesc(this.gbfield == NO_GROUPING ? null : this.gbfieldtype);
+        return new TupleIterator(td, tuples(td, this.groups, this.what));
     }
 
 }
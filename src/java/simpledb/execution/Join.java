@@ -14,9 +14,16 @@ public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    private final JoinPredicate predicate;
+    private final PredicateCompiler.JoinConjunction conjunction;
+    private OpIterator child1, child2;
+    private TupleDesc td;
+    transient private Tuple outer = null;
+
     /**
      * Constructor. Accepts two children to join and the predicate to join them
-     * on
+     * on. The predicate is compiled for the tuples of the children by
+     * {@link PredicateCompiler}, or interpreted if it cannot be.
      * 
      * @param p
      *            The predicate to use to join the children
@@ -27,11 +34,25 @@ public class Join extends Operator {
      */
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
         // some code goes here
+        this.predicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.conjunction = PredicateCompiler.compileJoin(child1.getTupleDesc(), child2.getTupleDesc(),
+                Collections.singletonList(p));
     }
 
     public JoinPredicate getJoinPredicate() {
         // some code goes here
-        return null;
+        return this.predicate;
+    }
+
+    /**
+     * @return whether the join predicate is evaluated by a compiled class,
+     *         rather than interpreted
+     */
+    public boolean isCompiled() {
+        return PredicateCompiler.isCompiled(this.conjunction);
     }
 
     /**
@@ -41,7 +62,7 @@ public class Join extends Operator {
      * */
     public String getJoinField1Name() {
         // some code goes here
-        return null;
+        return this.child1.getTupleDesc().getFieldName(this.predicate.getField1());
     }
 
     /**
@@ -51,7 +72,7 @@ public class Join extends Operator {
      * */
     public String getJoinField2Name() {
         // some code goes here
-        return null;
+        return this.child2.getTupleDesc().getFieldName(this.predicate.getField2());
     }
 
     /**
@@ -60,20 +81,30 @@ public class Join extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return null;
+        return this.td;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        this.child1.open();
+        this.child2.open();
+        super.open();
     }
 
     public void close() {
         // some code goes here
+        super.close();
+        this.child2.close();
+        this.child1.close();
+        this.outer = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        this.child1.rewind();
+        this.child2.rewind();
+        this.outer = null;
     }
 
     /**
@@ -96,18 +127,44 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return null;
+        while (true) {
+            if (this.outer == null) {
+                if (!this.child1.hasNext())
+                    return null;
+                this.outer = this.child1.next();
+            }
+            while (this.child2.hasNext()) {
+                Tuple inner = this.child2.next();
+                if (this.conjunction.filter(this.outer, inner))
+                    return merge(this.outer, inner);
+            }
+            this.child2.rewind();
+            this.outer = null;
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(this.td);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++)
+            t.setField(n1 + i, t2.getField(i));
+        return t;
     }
 
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
-        return null;
+        return new OpIterator[]{this.child1, this.child2};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
         // some code goes here
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.td = TupleDesc.merge(this.child1.getTupleDesc(), this.child2.getTupleDesc());
     }
 
 }
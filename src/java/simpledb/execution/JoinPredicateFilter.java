@@ -0,0 +1,88 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+
+/**
+ * JoinPredicateFilter selects the tuples of a join's result whose fields
+ * satisfy a further join predicate, comparing two fields of the same tuple.
+ * It applies the join predicates of a query whose tables are joined in a
+ * cycle: once the tables on both sides of such a predicate have been joined
+ * by another, it is a filter over the result.
+ */
+public class JoinPredicateFilter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate predicate;
+    private final PredicateCompiler.JoinConjunction conjunction;
+    private OpIterator child;
+
+    /**
+     * @param p
+     *            The predicate to filter tuples with; both of its fields are
+     *            indexes into tuples of child
+     * @param child
+     *            The child operator
+     */
+    public JoinPredicateFilter(JoinPredicate p, OpIterator child) {
+        this.predicate = p;
+        TupleDesc td = child.getTupleDesc();
+        this.conjunction = PredicateCompiler.compileJoin(td, td, Collections.singletonList(p));
+        this.child = child;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.predicate;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        this.child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+    }
+
+    /**
+     * @return The next tuple of the child whose fields satisfy the
+     *         predicate, or null if there are no more tuples
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        while (this.child.hasNext()) {
+            Tuple t = this.child.next();
+            if (this.conjunction.filter(t, t)) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.metrics.Metrics;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -35,6 +36,7 @@ public abstract class Operator implements OpIterator {
 
         Tuple result = next;
         next = null;
+        rowsOut++;
         return result;
     }
 
@@ -57,10 +59,16 @@ public abstract class Operator implements OpIterator {
         // Ensures that a future call to next() will fail
         next = null;
         this.open = false;
+        if (rowsOut > 0) {
+            Metrics.operatorRows(getClass()).add(rowsOut);
+            rowsOut = 0;
+        }
     }
 
     private Tuple next = null;
     private boolean open = false;
+    // tuples returned since the last close, added to the metrics then
+    private long rowsOut = 0;
     private int estimatedCardinality = 0;
 
     public void open() throws DbException, TransactionAbortedException {
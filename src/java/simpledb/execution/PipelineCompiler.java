@@ -0,0 +1,293 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.lang.reflect.Constructor;
+import java.util.*;
+
+/**
+ * PipelineCompiler fuses the operators below an {@link Aggregate} into one
+ * generated loop.  Pulling tuples through a tree of operators costs a
+ * hasNext and a next call per operator per tuple; for a pipeline of
+ * {@link Filter}s and {@link Project}s over a {@link SeqScan} of a
+ * {@link HeapFile}, the compiled pipeline instead loops over the slots of
+ * each page of the file, tests the predicates of the filters, and updates
+ * the aggregate, all in one method.  The projections only renumber fields,
+ * so they cost nothing.  Without grouping, the state of the aggregate is
+ * kept in local variables of the loop; with grouping, in a map from group
+ * to state, as {@link IntegerAggregator} keeps it.
+ * <p>
+ * Classes are generated and compiled by {@link PredicateCompiler}, one for
+ * each shape of pipeline once it has been asked for often enough, with the
+ * constants of the filters passed to their constructors.  A pipeline with
+ * any other operator, or over another kind of file, is not compiled, and
+ * the aggregate reads its child as usual.
+ */
+public class PipelineCompiler {
+
+    /**
+     * A compiled pipeline.  Public only so that the generated classes,
+     * which implement its consume methods, can extend it.
+     */
+    public static abstract class Pipeline {
+
+        /**
+         * The state of an aggregate without grouping, kept in local
+         * variables by the consume methods and stored here between pages
+         */
+        protected long count, sum, min, max;
+
+        /**
+         * The state of each group of a grouped aggregate, in the order
+         * groups were first seen
+         */
+        protected final Map<Field, long[]> groups = new LinkedHashMap<>();
+
+        private SeqScan scan;
+        private Aggregator.Op op;
+        private boolean grouped;
+        private TupleDesc td;
+
+        /**
+         * @return the state of a group that has no values yet
+         */
+        protected static long[] newState() {
+            return IntegerAggregator.newState();
+        }
+
+        /**
+         * Feed the tuples in the used slots of a page through the pipeline.
+         */
+        protected abstract void consume(HeapPage page);
+
+        /**
+         * Feed tuples through the pipeline.
+         */
+        protected abstract void consume(Iterator<Tuple> tuples);
+
+        void bind(SeqScan scan, Aggregator.Op op, boolean grouped, TupleDesc td) {
+            this.scan = scan;
+            this.op = op;
+            this.grouped = grouped;
+            this.td = td;
+        }
+
+        /**
+         * @return whether the pipeline can run in place of the operators it
+         *         was compiled from, i.e. its scan has no runtime filter
+         */
+        boolean canRun() {
+            return this.scan.getRuntimeFilter() == null;
+        }
+
+        /**
+         * Run the pipeline over the pages of the scan's file, skipping those
+         * whose zone maps show that no tuple can pass the predicates pushed
+         * into the scan.
+         *
+         * @return the results of the aggregate, as tuples of the TupleDesc
+         *         it was bound to
+         */
+        List<Tuple> run() throws DbException, TransactionAbortedException {
+            this.count = 0;
+            this.sum = 0;
+            this.min = Integer.MAX_VALUE;
+            this.max = Integer.MIN_VALUE;
+            this.groups.clear();
+
+            TransactionId tid = this.scan.getTransactionId();
+            HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(this.scan.getTableId());
+            List<Predicate> pushed = this.scan.getPredicates();
+            for (int p = 0; p < file.numPages(); p++) {
+                if (!file.mustReadPage(tid, p, pushed))
+                    continue;
+                Page page = Database.getBufferPool().getPage(tid, new HeapPageId(file.getId(), p),
+                        Permissions.READ_ONLY);
+                if (page instanceof HeapPage)
+                    consume((HeapPage) page);
+                else
+                    consume(((TuplePage) page).iterator());
+            }
+            if (!this.grouped && this.count > 0)
+                this.groups.put(null, new long[]{this.count, this.sum, this.min, this.max});
+            return IntegerAggregator.tuples(this.td, this.groups, this.op);
+        }
+    }
+
+    private PipelineCompiler() {
+    }
+
+    /**
+     * Compile the pipeline computing an aggregate over child.
+     *
+     * @param td the TupleDesc of the results of the aggregate
+     * @return the compiled pipeline, or null if child is not a pipeline of
+     *         filters and projections over a scan of a heap file, or it
+     *         cannot be compiled
+     */
+    static Pipeline compile(OpIterator child, int afield, int gfield, Aggregator.Op aop, TupleDesc td) {
+        if (!PredicateCompiler.isEnabled())
+            return null;
+        // the operators from the aggregate's child down to the scan
+        List<OpIterator> ops = new ArrayList<>();
+        OpIterator op = child;
+        while (op instanceof Filter || op instanceof Project) {
+            ops.add(op);
+            op = ((Operator) op).getChildren()[0];
+        }
+        if (!(op instanceof SeqScan))
+            return null;
+        SeqScan scan = (SeqScan) op;
+        if (!(Database.getCatalog().getDatabaseFile(scan.getTableId()) instanceof HeapFile))
+            return null;
+        TupleDesc scanTd = scan.getTupleDesc();
+
+        // map the fields of each operator's tuples to those of the scan's,
+        // from the scan up, collecting the predicates of the filters
+        int[] fields = new int[scanTd.numFields()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = i;
+        StringBuilder shape = new StringBuilder("P ").append(aop);
+        StringBuilder cond = new StringBuilder();
+        List<Integer> ints = new ArrayList<>();
+        List<String> strings = new ArrayList<>();
+        for (int k = ops.size() - 1; k >= 0; k--) {
+            if (ops.get(k) instanceof Project) {
+                List<Integer> out = ((Project) ops.get(k)).getOutFieldIds();
+                int[] projected = new int[out.size()];
+                for (int i = 0; i < projected.length; i++)
+                    projected[i] = fields[out.get(i)];
+                fields = projected;
+                continue;
+            }
+            for (Predicate p : ((Filter) ops.get(k)).getPredicates()) {
+                int f = fields[p.getField()];
+                Type type = PredicateCompiler.typeOf(scanTd, f);
+                if (type == null || p.getOperand() == null || p.getOperand().getType() != type)
+                    return null;
+                shape.append(' ').append(f).append(type == Type.INT_TYPE ? 'I' : 'S').append(p.getOp());
+                if (cond.length() > 0)
+                    cond.append("\n                    && ");
+                if (type == Type.INT_TYPE) {
+                    cond.append(PredicateCompiler.compare(PredicateCompiler.intValue("t", f), p.getOp(),
+                            "i" + ints.size(), true));
+                    ints.add(((IntField) p.getOperand()).getValue());
+                } else {
+                    cond.append(PredicateCompiler.compare(PredicateCompiler.stringValue("t", f), p.getOp(),
+                            "s" + strings.size(), false));
+                    strings.add(((StringField) p.getOperand()).getValue());
+                }
+            }
+        }
+        int a = fields[afield];
+        if (aop != Aggregator.Op.COUNT && scanTd.getFieldType(a) != Type.INT_TYPE)
+            return null;
+        boolean grouped = gfield != Aggregator.NO_GROUPING;
+        int g = grouped ? fields[gfield] : -1;
+        shape.append(" A").append(a).append(" G").append(g);
+
+        String body = body(cond, a, g, aop);
+        String methods = consumeMethod("HeapPage page", aop, grouped,
+                "        for (int slot = 0, n = page.getNumSlots(); slot < n; slot++) {\n"
+                + "            Tuple t = page.getTuple(slot);\n"
+                + "            if (t == null)\n"
+                + "                continue;\n", body)
+                + "\n" + consumeMethod("java.util.Iterator<Tuple> tuples", aop, grouped,
+                "        while (tuples.hasNext()) {\n"
+                + "            Tuple t = tuples.next();\n", body);
+        Constructor<?> c = PredicateCompiler.classFor(shape.toString(),
+                "extends " + Pipeline.class.getCanonicalName(), methods, ints.size(), strings.size());
+        if (c == null)
+            return null;
+        int[] i = new int[ints.size()];
+        for (int k = 0; k < i.length; k++)
+            i[k] = ints.get(k);
+        try {
+            Pipeline pipeline = (Pipeline) c.newInstance(i, strings.toArray(new String[0]));
+            pipeline.bind(scan, aop, grouped, td);
+            return pipeline;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the state an aggregate needs: count always, to tell whether
+     *         any tuple passed, and sum, min or max as aop uses them
+     */
+    private static List<String> registers(Aggregator.Op aop) {
+        switch (aop) {
+            case SUM:
+            case AVG:
+                return Arrays.asList("count", "sum");
+            case MIN:
+                return Arrays.asList("count", "min");
+            case MAX:
+                return Arrays.asList("count", "max");
+            default:
+                return Collections.singletonList("count");
+        }
+    }
+
+    /**
+     * @return the source of the loop body that passes tuple t through the
+     *         filters and into the aggregate, updating locals named after
+     *         the registers, or the state of t's group if g is a field
+     */
+    private static String body(CharSequence cond, int a, int g, Aggregator.Op aop) {
+        StringBuilder b = new StringBuilder();
+        if (cond.length() > 0)
+            b.append("            if (!(").append(cond).append("))\n                continue;\n");
+        List<String> regs = registers(aop);
+        if (regs.size() > 1)
+            b.append("            int v = ").append(PredicateCompiler.intValue("t", a)).append(";\n");
+        if (g < 0) {
+            b.append("            count++;\n");
+            if (regs.contains("sum"))
+                b.append("            sum += v;\n");
+            if (regs.contains("min"))
+                b.append("            if (v < min)\n                min = v;\n");
+            if (regs.contains("max"))
+                b.append("            if (v > max)\n                max = v;\n");
+            return b.toString();
+        }
+        b.append("            Field g = t.getField(").append(g).append(");\n");
+        b.append("            long[] s = groups.get(g);\n");
+        b.append("            if (s == null) {\n                s = newState();\n                groups.put(g, s);\n"
+                + "            }\n");
+        b.append("            s[").append(IntegerAggregator.COUNT).append("]++;\n");
+        if (regs.contains("sum"))
+            b.append("            s[").append(IntegerAggregator.SUM).append("] += v;\n");
+        if (regs.contains("min"))
+            b.append("            if (v < s[").append(IntegerAggregator.MIN).append("])\n                s[")
+                    .append(IntegerAggregator.MIN).append("] = v;\n");
+        if (regs.contains("max"))
+            b.append("            if (v > s[").append(IntegerAggregator.MAX).append("])\n                s[")
+                    .append(IntegerAggregator.MAX).append("] = v;\n");
+        return b.toString();
+    }
+
+    /**
+     * @return the source of a consume method: the loop, whose header binds
+     *         t to each tuple, around body, with the registers of an
+     *         aggregate without grouping loaded into locals before it and
+     *         stored after it
+     */
+    private static String consumeMethod(String param, Aggregator.Op aop, boolean grouped, String loop,
+                                        String body) {
+        StringBuilder m = new StringBuilder("    protected void consume(").append(param).append(") {\n");
+        List<String> regs = grouped ? Collections.emptyList() : registers(aop);
+        for (String r : regs)
+            m.append("        long ").append(r).append(" = this.").append(r).append(";\n");
+        m.append(loop).append(body).append("        }\n");
+        for (String r : regs)
+            m.append("        this.").append(r).append(" = ").append(r).append(";\n");
+        return m.append("    }\n").toString();
+    }
+}
@@ -0,0 +1,478 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.net.URI;
+import java.security.CodeSource;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PredicateCompiler turns a conjunction of predicates into a class that
+ * evaluates it, specialized for the fields, types and operators of the
+ * predicates.  Where {@link Predicate#filter} calls {@link
+ * simpledb.storage.Field#compare}, which switches on the operator for every
+ * tuple, the generated class compares the int or String values of the
+ * fields directly, with the operators written into its code.
+ * <p>
+ * Classes are generated as Java source and compiled in memory by the system
+ * Java compiler.  One class is compiled for each shape of conjunction (its
+ * field indexes, their types and the operators), and reused for every
+ * conjunction of that shape: the constants are passed to its constructor.
+ * Compiling takes far longer than planning, so a shape is only compiled
+ * once it has been asked for COMPILE_THRESHOLD times, by the thread that
+ * asks last; meanwhile, and while that thread compiles it, the shape is
+ * interpreted.  Shapes compile independently of each other, and only the
+ * MAX_SHAPES most recently used are remembered, so that the classes of the
+ * others (and their class loaders) can be unloaded.
+ * <p>
+ * A conjunction is interpreted, by {@link Predicate#filter} and
+ * {@link JoinPredicate#filter}, if compilation is disabled, no compiler is
+ * available (e.g. on a JRE), a field is not of a known type, or its class
+ * is not compiled (yet).
+ * <p>
+ * {@link PipelineCompiler} generates and compiles the classes of whole
+ * pipelines in the same way.
+ *
+ * @Threadsafe
+ */
+public class PredicateCompiler {
+
+    /**
+     * A compiled (or interpreted) conjunction of predicates over a tuple
+     */
+    public interface Conjunction extends Serializable {
+        /**
+         * @return true if t satisfies every predicate of the conjunction
+         */
+        boolean filter(Tuple t);
+    }
+
+    /**
+     * A compiled (or interpreted) conjunction of join predicates over a pair
+     * of tuples
+     */
+    public interface JoinConjunction extends Serializable {
+        /**
+         * @return true if t1 and t2 satisfy every predicate of the
+         *         conjunction
+         */
+        boolean filter(Tuple t1, Tuple t2);
+    }
+
+    private static final String PACKAGE = "simpledb.execution.generated";
+
+    /**
+     * The number of times a shape is asked for before it is compiled
+     */
+    public static final int COMPILE_THRESHOLD = 3;
+
+    /**
+     * The largest number of shapes remembered
+     */
+    public static final int MAX_SHAPES = 256;
+
+    private static volatile boolean enabled = true;
+    private static volatile int compileThreshold = COMPILE_THRESHOLD;
+
+    private static class Shape {
+        // the number of times the shape was asked for
+        int uses = 0;
+        // the constructor of its class, once it is being compiled; a shape
+        // that failed to compile completes with an empty Optional
+        CompletableFuture<Optional<Constructor<?>>> compiled = null;
+    }
+
+    // the shapes asked for, least recently used first
+    private static final Map<String, Shape> shapes = new LinkedHashMap<String, Shape>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Shape> eldest) {
+            return size() > MAX_SHAPES;
+        }
+    };
+    private static final AtomicInteger nextClass = new AtomicInteger();
+
+    private PredicateCompiler() {
+    }
+
+    /**
+     * Enable or disable compilation; while it is disabled, every
+     * conjunction is interpreted.
+     */
+    public static void setEnabled(boolean enabled) {
+        PredicateCompiler.enabled = enabled;
+    }
+
+    /**
+     * @return whether compilation is enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Set the number of times a shape is asked for before it is compiled;
+     * 1 compiles every shape the first time.
+     */
+    public static void setCompileThreshold(int threshold) {
+        PredicateCompiler.compileThreshold = Math.max(1, threshold);
+    }
+
+    /**
+     * @return the number of classes compiled of the shapes remembered
+     */
+    public static int compiledClasses() {
+        int n = 0;
+        synchronized (shapes) {
+            for (Shape shape : shapes.values()) {
+                if (shape.compiled != null && shape.compiled.getNow(Optional.empty()).isPresent())
+                    n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of shapes remembered, at most MAX_SHAPES
+     */
+    public static int rememberedShapes() {
+        synchronized (shapes) {
+            return shapes.size();
+        }
+    }
+
+    /**
+     * @return whether c was compiled, rather than interpreting its predicates
+     */
+    public static boolean isCompiled(Object c) {
+        return !(c instanceof Interpreted) && !(c instanceof InterpretedJoin);
+    }
+
+    /**
+     * @return a conjunction that interprets preds
+     */
+    public static Conjunction interpret(List<Predicate> preds) {
+        return new Interpreted(preds);
+    }
+
+    /**
+     * @return a conjunction that interprets preds
+     */
+    public static JoinConjunction interpretJoin(List<JoinPredicate> preds) {
+        return new InterpretedJoin(preds);
+    }
+
+    /**
+     * Compile a conjunction of predicates over tuples of td.
+     *
+     * @return the compiled conjunction, or one that interprets preds if it
+     *         cannot be compiled
+     */
+    public static Conjunction compile(TupleDesc td, List<Predicate> preds) {
+        if (!enabled || preds.isEmpty())
+            return interpret(preds);
+        StringBuilder shape = new StringBuilder("F");
+        List<Integer> ints = new ArrayList<>();
+        List<String> strings = new ArrayList<>();
+        StringBuilder expr = new StringBuilder();
+        for (Predicate p : preds) {
+            Type type = typeOf(td, p.getField());
+            if (type == null || p.getOperand() == null || p.getOperand().getType() != type)
+                return interpret(preds);
+            shape.append(' ').append(p.getField()).append(type == Type.INT_TYPE ? 'I' : 'S').append(p.getOp());
+            if (expr.length() > 0)
+                expr.append("\n            && ");
+            if (type == Type.INT_TYPE) {
+                expr.append(compare(intValue("t", p.getField()), p.getOp(), "i" + ints.size(), true));
+                ints.add(((IntField) p.getOperand()).getValue());
+            } else {
+                expr.append(compare(stringValue("t", p.getField()), p.getOp(), "s" + strings.size(), false));
+                strings.add(((StringField) p.getOperand()).getValue());
+            }
+        }
+        Constructor<?> c = classFor(shape.toString(), "implements " + Conjunction.class.getCanonicalName(),
+                filterMethod("Tuple t", expr), ints.size(), strings.size());
+        if (c == null)
+            return interpret(preds);
+        int[] i = new int[ints.size()];
+        for (int k = 0; k < i.length; k++)
+            i[k] = ints.get(k);
+        try {
+            return (Conjunction) c.newInstance(i, strings.toArray(new String[0]));
+        } catch (ReflectiveOperationException e) {
+            return interpret(preds);
+        }
+    }
+
+    /**
+     * Compile a conjunction of join predicates, whose first fields index
+     * tuples of td1 and second fields tuples of td2.
+     *
+     * @return the compiled conjunction, or one that interprets preds if it
+     *         cannot be compiled
+     */
+    public static JoinConjunction compileJoin(TupleDesc td1, TupleDesc td2, List<JoinPredicate> preds) {
+        if (!enabled || preds.isEmpty())
+            return interpretJoin(preds);
+        StringBuilder shape = new StringBuilder("J");
+        StringBuilder expr = new StringBuilder();
+        for (JoinPredicate p : preds) {
+            Type type = typeOf(td1, p.getField1());
+            if (type == null || type != typeOf(td2, p.getField2()))
+                return interpretJoin(preds);
+            shape.append(' ').append(p.getField1()).append(type == Type.INT_TYPE ? 'I' : 'S')
+                    .append(p.getOperator()).append(p.getField2());
+            if (expr.length() > 0)
+                expr.append("\n            && ");
+            if (type == Type.INT_TYPE)
+                expr.append(compare(intValue("t1", p.getField1()), p.getOperator(),
+                        intValue("t2", p.getField2()), true));
+            else
+                expr.append(compare(stringValue("t1", p.getField1()), p.getOperator(),
+                        stringValue("t2", p.getField2()), false));
+        }
+        Constructor<?> c = classFor(shape.toString(), "implements " + JoinConjunction.class.getCanonicalName(),
+                filterMethod("Tuple t1, Tuple t2", expr), 0, 0);
+        if (c == null)
+            return interpretJoin(preds);
+        try {
+            return (JoinConjunction) c.newInstance(new int[0], new String[0]);
+        } catch (ReflectiveOperationException e) {
+            return interpretJoin(preds);
+        }
+    }
+
+    private static String filterMethod(String params, CharSequence expr) {
+        return "    public boolean filter(" + params + ") {\n        return " + expr + ";\n    }\n";
+    }
+
+    /**
+     * @return the type of a field of td, or null if there is no such field
+     *         or compiled code cannot read fields of its type
+     */
+    static Type typeOf(TupleDesc td, int field) {
+        if (field < 0 || field >= td.numFields())
+            return null;
+        Type type = td.getFieldType(field);
+        return type == Type.INT_TYPE || type == Type.STRING_TYPE ? type : null;
+    }
+
+    static String intValue(String tuple, int field) {
+        return "((IntField) " + tuple + ".getField(" + field + ")).getValue()";
+    }
+
+    static String stringValue(String tuple, int field) {
+        return "((StringField) " + tuple + ".getField(" + field + ")).getValue()";
+    }
+
+    /**
+     * @return an expression comparing a and b as {@link IntField#compare}
+     *         or {@link StringField#compare} does
+     */
+    static String compare(String a, Predicate.Op op, String b, boolean ints) {
+        if (ints) {
+            switch (op) {
+                case EQUALS:
+                case LIKE:
+                    return a + " == " + b;
+                case NOT_EQUALS:
+                    return a + " != " + b;
+                default:
+                    return a + " " + op + " " + b;
+            }
+        }
+        switch (op) {
+            case LIKE:
+                return a + ".contains(" + b + ")";
+            case NOT_EQUALS:
+                return a + ".compareTo(" + b + ") != 0";
+            case EQUALS:
+                return a + ".compareTo(" + b + ") == 0";
+            default:
+                return a + ".compareTo(" + b + ") " + op + " 0";
+        }
+    }
+
+    /**
+     * The class compiled for a shape of generated code.  Its constants are
+     * final fields i0, i1, ... and s0, s1, ..., which its constructor sets
+     * from an int[] and a String[].
+     *
+     * @param shape a key that is the same for all classes with the same
+     *              declaration and methods
+     * @param declaration the extends and implements clauses of the class
+     * @param methods the source of the methods of the class
+     * @param ints the number of int constants of the class
+     * @param strings the number of String constants of the class
+     * @return the constructor of the class, compiling it if the shape has
+     *         been asked for often enough, or null if it is not compiled
+     *         (yet) or cannot be
+     */
+    static Constructor<?> classFor(String shape, String declaration, String methods, int ints, int strings) {
+        CompletableFuture<Optional<Constructor<?>>> compiled;
+        boolean compile = false;
+        synchronized (shapes) {
+            Shape s = shapes.computeIfAbsent(shape, k -> new Shape());
+            if (s.compiled == null && ++s.uses >= compileThreshold) {
+                s.compiled = new CompletableFuture<>();
+                compile = true;
+            }
+            compiled = s.compiled;
+        }
+        if (compiled == null)
+            return null;
+        if (compile) {
+            Optional<Constructor<?>> c = Optional.empty();
+            try {
+                c = Optional.ofNullable(generate(declaration, methods, ints, strings));
+            } finally {
+                compiled.complete(c);
+            }
+        }
+        // interpret while another thread compiles the shape
+        Optional<Constructor<?>> c = compiled.getNow(null);
+        return c == null ? null : c.orElse(null);
+    }
+
+    private static Constructor<?> generate(String declaration, String methods, int ints, int strings) {
+        String name = "Generated" + nextClass.getAndIncrement();
+        StringBuilder src = new StringBuilder();
+        src.append("package ").append(PACKAGE).append(";\n\n");
+        src.append("import simpledb.storage.*;\n\n");
+        src.append("public final class ").append(name).append(' ').append(declaration).append(" {\n");
+        src.append("    private static final long serialVersionUID = 1L;\n");
+        for (int i = 0; i < ints; i++)
+            src.append("    private final int i").append(i).append(";\n");
+        for (int i = 0; i < strings; i++)
+            src.append("    private final String s").append(i).append(";\n");
+        src.append("\n    public ").append(name).append("(int[] i, String[] s) {\n");
+        for (int i = 0; i < ints; i++)
+            src.append("        this.i").append(i).append(" = i[").append(i).append("];\n");
+        for (int i = 0; i < strings; i++)
+            src.append("        this.s").append(i).append(" = s[").append(i).append("];\n");
+        src.append("    }\n\n").append(methods).append("}\n");
+        try {
+            Class<?> c = compileClass(PACKAGE + "." + name, src.toString());
+            return c == null ? null : c.getConstructor(int[].class, String[].class);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Compile the source of a class in memory, and load it.
+     *
+     * @return the class, or null if there is no compiler or the source does
+     *         not compile
+     */
+    private static Class<?> compileClass(String className, String source) throws ClassNotFoundException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            return null;
+        Map<String, ByteArrayOutputStream> output = new HashMap<>();
+        JavaFileManager files = new ForwardingJavaFileManager<JavaFileManager>(
+                compiler.getStandardFileManager(null, null, null)) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name,
+                                                       JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension),
+                        kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        output.put(name, out);
+                        return out;
+                    }
+                };
+            }
+        };
+        JavaFileObject file = new SimpleJavaFileObject(
+                URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        List<String> options = Arrays.asList("-classpath", classPath(), "-g:none", "-nowarn");
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        if (!compiler.getTask(null, files, diagnostics, options, null, Collections.singletonList(file)).call())
+            return null;
+
+        ClassLoader loader = new ClassLoader(PredicateCompiler.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                ByteArrayOutputStream out = output.get(name);
+                if (out == null)
+                    throw new ClassNotFoundException(name);
+                byte[] b = out.toByteArray();
+                return defineClass(name, b, 0, b.length);
+            }
+        };
+        return loader.loadClass(className);
+    }
+
+    /**
+     * @return the class path to compile against: the application's, and
+     *         wherever SimpleDB's classes were loaded from
+     */
+    private static String classPath() {
+        String cp = System.getProperty("java.class.path", "");
+        CodeSource src = PredicateCompiler.class.getProtectionDomain().getCodeSource();
+        if (src != null && src.getLocation() != null) {
+            try {
+                cp = new File(src.getLocation().toURI()).getPath() + File.pathSeparator + cp;
+            } catch (Exception e) {
+                // compile against the class path alone
+            }
+        }
+        return cp;
+    }
+
+    private static class Interpreted implements Conjunction {
+        private static final long serialVersionUID = 1L;
+
+        private final Predicate[] preds;
+
+        Interpreted(List<Predicate> preds) {
+            this.preds = preds.toArray(new Predicate[0]);
+        }
+
+        public boolean filter(Tuple t) {
+            for (Predicate p : preds) {
+                if (!p.filter(t))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private static class InterpretedJoin implements JoinConjunction {
+        private static final long serialVersionUID = 1L;
+
+        private final JoinPredicate[] preds;
+
+        InterpretedJoin(List<JoinPredicate> preds) {
+            this.preds = preds.toArray(new JoinPredicate[0]);
+        }
+
+        public boolean filter(Tuple t1, Tuple t2) {
+            for (JoinPredicate p : preds) {
+                if (!p.filter(t1, t2))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
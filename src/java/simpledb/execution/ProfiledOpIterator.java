@@ -0,0 +1,147 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * ProfiledOpIterator passes calls through to an OpIterator, counting the
+ * tuples it returns and measuring the time spent in, and the pages
+ * requested from the BufferPool by, its open and rewind calls and its
+ * hasNext and next calls.  Times and pages include those of the
+ * iterator's children, which run within its calls.
+ *
+ * @see Profiler
+ */
+public class ProfiledOpIterator implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OpIterator child;
+    private long rows;
+    private long openNanos, nextNanos;
+    private long pageRequests, pageMisses;
+
+    public ProfiledOpIterator(OpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return the iterator profiled
+     */
+    public OpIterator getChild() {
+        return this.child;
+    }
+
+    /**
+     * @return op, or the iterator it profiles if it is a ProfiledOpIterator
+     */
+    public static OpIterator unwrap(OpIterator op) {
+        while (op instanceof ProfiledOpIterator)
+            op = ((ProfiledOpIterator) op).child;
+        return op;
+    }
+
+    /**
+     * @return the number of tuples returned by next
+     */
+    public long getRows() {
+        return this.rows;
+    }
+
+    /**
+     * @return the time spent in open and rewind, in nanoseconds
+     */
+    public long getOpenNanos() {
+        return this.openNanos;
+    }
+
+    /**
+     * @return the time spent in hasNext and next, in nanoseconds
+     */
+    public long getNextNanos() {
+        return this.nextNanos;
+    }
+
+    /**
+     * @return the number of pages requested from the BufferPool
+     */
+    public long getPageRequests() {
+        return this.pageRequests;
+    }
+
+    /**
+     * @return the number of the pages requested that were read from disk
+     */
+    public long getPageMisses() {
+        return this.pageMisses;
+    }
+
+    /**
+     * Add the time since start, and the pages requested since requests and
+     * misses were read, to the open or next totals.
+     */
+    private void account(boolean opening, long start, long requests, long misses) {
+        long nanos = System.nanoTime() - start;
+        if (opening)
+            this.openNanos += nanos;
+        else
+            this.nextNanos += nanos;
+        this.pageRequests += BufferPool.getThreadPageRequests() - requests;
+        this.pageMisses += BufferPool.getThreadPageMisses() - misses;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        long requests = BufferPool.getThreadPageRequests(), misses = BufferPool.getThreadPageMisses();
+        long start = System.nanoTime();
+        try {
+            this.child.open();
+        } finally {
+            account(true, start, requests, misses);
+        }
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        long requests = BufferPool.getThreadPageRequests(), misses = BufferPool.getThreadPageMisses();
+        long start = System.nanoTime();
+        try {
+            return this.child.hasNext();
+        } finally {
+            account(false, start, requests, misses);
+        }
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        long requests = BufferPool.getThreadPageRequests(), misses = BufferPool.getThreadPageMisses();
+        long start = System.nanoTime();
+        try {
+            Tuple t = this.child.next();
+            this.rows++;
+            return t;
+        } finally {
+            account(false, start, requests, misses);
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        long requests = BufferPool.getThreadPageRequests(), misses = BufferPool.getThreadPageMisses();
+        long start = System.nanoTime();
+        try {
+            this.child.rewind();
+        } finally {
+            account(true, start, requests, misses);
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    public void close() {
+        this.child.close();
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb.execution;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Profiler instruments a query plan for EXPLAIN ANALYZE: each operator's
+ * children, and the root, are replaced by {@link ProfiledOpIterator}s
+ * around them, so that what each operator produces and what it costs is
+ * measured as the plan runs.  {@link #restore} puts the plan back as it
+ * was, and the profiles stay available by operator.
+ * <p>
+ * The operators below an {@link Aggregate} that runs them as a compiled
+ * pipeline are not instrumented, since the pipeline never calls them; the
+ * aggregate's own profile covers them.
+ */
+public class Profiler {
+
+    private final Map<OpIterator, ProfiledOpIterator> profiles = new IdentityHashMap<>();
+    private final Map<Operator, OpIterator[]> children = new IdentityHashMap<>();
+    private final OpIterator root;
+
+    /**
+     * Instrument plan.  Run {@link #getPlan} in its place.
+     */
+    public Profiler(OpIterator plan) {
+        this.root = instrument(plan);
+    }
+
+    private OpIterator instrument(OpIterator op) {
+        if (op instanceof Operator && !(op instanceof Aggregate && ((Aggregate) op).isCompiled())) {
+            Operator o = (Operator) op;
+            OpIterator[] original = o.getChildren();
+            if (original != null) {
+                OpIterator[] wrapped = new OpIterator[original.length];
+                for (int i = 0; i < original.length; i++)
+                    wrapped[i] = original[i] == null ? null : instrument(original[i]);
+                this.children.put(o, original.clone());
+                o.setChildren(wrapped);
+            }
+        }
+        ProfiledOpIterator p = new ProfiledOpIterator(op);
+        this.profiles.put(op, p);
+        return p;
+    }
+
+    /**
+     * @return the instrumented plan
+     */
+    public OpIterator getPlan() {
+        return this.root;
+    }
+
+    /**
+     * Give every operator back its own children.
+     */
+    public void restore() {
+        for (Map.Entry<Operator, OpIterator[]> e : this.children.entrySet())
+            e.getKey().setChildren(e.getValue());
+    }
+
+    /**
+     * @return the profile of each instrumented operator of the plan, keyed by
+     *         the operator itself
+     */
+    public Map<OpIterator, ProfiledOpIterator> getProfiles() {
+        return Collections.unmodifiableMap(this.profiles);
+    }
+
+    /**
+     * @return the profile of the plan's root, which covers the whole plan
+     */
+    public ProfiledOpIterator getRootProfile() {
+        return (ProfiledOpIterator) this.root;
+    }
+}
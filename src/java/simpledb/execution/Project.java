@@ -44,6 +44,13 @@ public class Project extends Operator {
         td = new TupleDesc(types, fieldAr);
     }
 
+    /**
+     * @return the index in the child's tuples of each field projected out
+     */
+    public List<Integer> getOutFieldIds() {
+        return outFieldIds;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
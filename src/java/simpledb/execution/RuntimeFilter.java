@@ -0,0 +1,128 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A RuntimeFilter summarizes the join keys on the build side of a
+ * {@link HashEquiJoin} so that the probe side can drop tuples that cannot
+ * join before they reach the join.  It holds a Bloom filter of the keys
+ * and their minimum and maximum; the bounds become predicates that let a
+ * {@link SeqScan} skip whole pages using their zone maps.
+ * <p>
+ * The Bloom filter has about ten bits per key and seven hash functions,
+ * for roughly a 1% false positive rate.  False positives only cost work:
+ * the join still compares every key it receives.
+ */
+public class RuntimeFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int BITS_PER_KEY = 10;
+    private static final int NUM_HASHES = 7;
+
+    private final int field;
+    private final long[] bits;
+    private final int mask;
+    private Field min = null;
+    private Field max = null;
+    private int numKeys = 0;
+
+    /**
+     * @param field the index of the join key in tuples of the probe side
+     * @param expectedKeys the number of keys that will be added
+     */
+    public RuntimeFilter(int field, int expectedKeys) {
+        this.field = field;
+        int numBits = 64;
+        while (numBits < (long) expectedKeys * BITS_PER_KEY && numBits < (1 << 30))
+            numBits <<= 1;
+        this.bits = new long[numBits / 64];
+        this.mask = numBits - 1;
+    }
+
+    /**
+     * @return the index of the join key in tuples of the probe side
+     */
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return the number of keys added
+     */
+    public int getNumKeys() {
+        return numKeys;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Add a build-side key.
+     */
+    public void add(Field key) {
+        int h1 = mix(key.hashCode());
+        int h2 = mix(h1 ^ 0x5bd1e995) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int b = (h1 + i * h2) & mask;
+            bits[b >>> 6] |= 1L << b;
+        }
+        if (min == null || key.compare(Predicate.Op.LESS_THAN, min))
+            min = key;
+        if (max == null || key.compare(Predicate.Op.GREATER_THAN, max))
+            max = key;
+        numKeys++;
+    }
+
+    /**
+     * @return false if no build-side key equals key, true if one might
+     */
+    public boolean mightContain(Field key) {
+        if (min == null || key.compare(Predicate.Op.LESS_THAN, min)
+                || key.compare(Predicate.Op.GREATER_THAN, max))
+            return false;
+        int h1 = mix(key.hashCode());
+        int h2 = mix(h1 ^ 0x5bd1e995) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int b = (h1 + i * h2) & mask;
+            if ((bits[b >>> 6] & (1L << b)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the probe-side tuple t cannot join
+     */
+    public boolean filter(Tuple t) {
+        return mightContain(t.getField(field));
+    }
+
+    /**
+     * @return predicates on the probe-side key that every joining tuple
+     *         satisfies: key &gt;= min and key &lt;= max (none if no keys
+     *         have been added)
+     */
+    public List<Predicate> bounds() {
+        List<Predicate> bounds = new ArrayList<>();
+        if (min != null) {
+            bounds.add(new Predicate(field, Predicate.Op.GREATER_THAN_OR_EQ, min));
+            bounds.add(new Predicate(field, Predicate.Op.LESS_THAN_OR_EQ, max));
+        }
+        return bounds;
+    }
+
+    public String toString() {
+        return "bloom(" + field + ", " + numKeys + " keys in [" + min + ", " + max + "])";
+    }
+}
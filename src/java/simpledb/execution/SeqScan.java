@@ -6,6 +6,8 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.metrics.Metrics;
+import simpledb.storage.AbstractDbFileIterator;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -26,6 +28,11 @@ public class SeqScan implements OpIterator {
     private String tableAlias;
     private TupleDesc tupleDesc;
     private DbFileIterator iterator;
+    private Set<Integer> columns;
+    private List<Predicate> predicates;
+    private RuntimeFilter runtimeFilter;
+    // tuples returned since the last close, added to the metrics then
+    private long rowsOut;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -74,6 +81,20 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(this.tableId);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /**
+     * @return the transaction this scan reads as
+     */
+    public TransactionId getTransactionId() {
+        return this.transactionId;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -99,12 +120,114 @@ public class SeqScan implements OpIterator {
         // some code goes here
         this.tableAlias = tableAlias;
         this.tableId = tableid;
-        this.iterator = Database.getCatalog()
+        List<Predicate> pushed = this.predicates;
+        if (this.runtimeFilter != null) {
+            pushed = new ArrayList<>(this.runtimeFilter.bounds());
+            if (this.predicates != null)
+                pushed.addAll(this.predicates);
+        }
+        DbFileIterator it = Database.getCatalog()
                 .getDatabaseFile(tableid)
-                .iterator(this.transactionId);
+                .iterator(this.transactionId, this.columns, pushed);
+        this.iterator = this.runtimeFilter == null ? it : new RuntimeFilteredIterator(it, this.runtimeFilter);
         setTupleDesc(Database.getCatalog().getTupleDesc(tableid));
     }
 
+    /**
+     * Restrict the scan to the given fields of the table.  Files that store
+     * columns separately then only read those columns; the other fields
+     * of the returned tuples may be null.  Call before {@link #open}.
+     *
+     * @param columns the indexes of the fields the query reads, or null
+     *            for all of them
+     */
+    public void setColumns(Set<Integer> columns) {
+        this.columns = columns;
+        reset(this.tableId, this.tableAlias);
+    }
+
+    /**
+     * @return the fields this scan reads, or null if it reads all of them
+     */
+    public Set<Integer> getColumns() {
+        return this.columns;
+    }
+
+    /**
+     * Push predicates down into the scan.  Files with page summaries use
+     * them to skip pages that cannot hold a matching tuple; the scan may
+     * still return tuples that fail them, so they must also be applied
+     * by a {@link Filter} above the scan.  Call before {@link #open}.
+     *
+     * @param predicates predicates over the fields of the table, or null
+     */
+    public void setPredicates(List<Predicate> predicates) {
+        this.predicates = predicates;
+        reset(this.tableId, this.tableAlias);
+    }
+
+    /**
+     * @return the predicates pushed into this scan, or null
+     */
+    public List<Predicate> getPredicates() {
+        return this.predicates;
+    }
+
+    /**
+     * Drop tuples that cannot join, as published by a {@link HashEquiJoin}
+     * this scan feeds.  The filter's key bounds are also pushed down to
+     * skip pages.  Replaces any earlier runtime filter and takes effect at
+     * the next {@link #open} or {@link #rewind}.
+     *
+     * @param filter the runtime filter, or null to remove it
+     */
+    public void setRuntimeFilter(RuntimeFilter filter) {
+        this.runtimeFilter = filter;
+        reset(this.tableId, this.tableAlias);
+    }
+
+    /**
+     * @return the runtime filter applied by this scan, or null
+     */
+    public RuntimeFilter getRuntimeFilter() {
+        return this.runtimeFilter;
+    }
+
+    /** Drops the tuples a RuntimeFilter rejects */
+    private static class RuntimeFilteredIterator extends AbstractDbFileIterator {
+
+        private final DbFileIterator child;
+        private final RuntimeFilter filter;
+
+        RuntimeFilteredIterator(DbFileIterator child, RuntimeFilter filter) {
+            this.child = child;
+            this.filter = filter;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            super.close();
+            child.rewind();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (filter.filter(t))
+                    return t;
+            }
+            return null;
+        }
+    }
+
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
@@ -138,12 +261,18 @@ public class SeqScan implements OpIterator {
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        return this.iterator.next();
+        Tuple t = this.iterator.next();
+        rowsOut++;
+        return t;
     }
 
     public void close() {
         // some code goes here
         this.iterator.close();
+        if (rowsOut > 0) {
+            Metrics.operatorRows(SeqScan.class).add(rowsOut);
+            rowsOut = 0;
+        }
     }
 
     public void rewind() throws DbException, NoSuchElementException,
@@ -1,7 +1,12 @@
 package simpledb.execution;
 
 import simpledb.common.Type;
+import simpledb.storage.Field;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+
+import java.util.*;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
@@ -10,6 +15,12 @@ public class StringAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    private final int gbfield;
+    private final Type gbfieldtype;
+    // the state of each group, as IntegerAggregator keeps it, of which only
+    // the count is used
+    private final Map<Field, long[]> groups = new LinkedHashMap<>();
+
     /**
      * Aggregate constructor
      * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
@@ -21,6 +32,10 @@ public class StringAggregator implements Aggregator {
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         // some code goes here
+        if (what != Op.COUNT)
+            throw new IllegalArgumentException("only COUNT is supported over strings, not " + what);
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
     }
 
     /**
@@ -29,6 +44,8 @@ public class StringAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
+        Field key = this.gbfield == NO_GROUPING ? null : tup.getField(this.gbfield);
+        this.groups.computeIfAbsent(key, k -> IntegerAggregator.newState())[IntegerAggregator.COUNT]++;
     }
 
     /**
@@ -41,7 +58,8 @@ public class StringAggregator implements Aggregator {
      */
     public OpIterator iterator() {
         // some code goes here
-        throw new UnsupportedOperationException("please implement me for lab2");
+        TupleDesc td = IntegerAggregator.resultTupleDesc(this.gbfield == NO_GROUPING ? null : this.gbfieldtype);
+        return new TupleIterator(td, IntegerAggregator.tuples(td, this.groups, Op.COUNT));
     }
 
 }
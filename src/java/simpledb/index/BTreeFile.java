@@ -152,6 +152,32 @@ public class BTreeFile implements DbFile {
 			rf.close();
 		}
 	}
+
+	/**
+	 * Write pages to disk, sorted by page number.  Pages with consecutive
+	 * page numbers are adjacent in the file (the root pointer page directly
+	 * precedes page 1), so each such run goes out as one write.
+	 */
+	public void writePages(List<Page> pages) throws IOException {
+		try (RandomAccessFile rf = new RandomAccessFile(f, "rw")) {
+			int start = 0;
+			while (start < pages.size()) {
+				int end = start + 1;
+				while (end < pages.size() && pages.get(end).getId().getPageNumber()
+						== pages.get(end - 1).getId().getPageNumber() + 1) {
+					end++;
+				}
+				ByteArrayOutputStream run = new ByteArrayOutputStream();
+				for (int i = start; i < end; i++) {
+					run.write(pages.get(i).getPageData());
+				}
+				int first = pages.get(start).getId().getPageNumber();
+				rf.seek(first == 0 ? 0 : BTreeRootPtrPage.getPageSize() + (long) (first - 1) * BufferPool.getPageSize());
+				rf.write(run.toByteArray());
+				start = end;
+			}
+		}
+	}
 	
 	/**
 	 * Returns the number of pages in this BTreeFile.
@@ -188,7 +214,23 @@ public class BTreeFile implements DbFile {
                                        Field f)
 					throws DbException, TransactionAbortedException {
 		// some code goes here
-        return null;
+		if(pid.pgcateg() == BTreePageId.LEAF) {
+			return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+		}
+
+		BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = null;
+		while(it.hasNext()) {
+			e = it.next();
+			if(f == null || e.getKey().compare(Op.GREATER_THAN_OR_EQ, f)) {
+				return findLeafPage(tid, dirtypages, e.getLeftChild(), perm, f);
+			}
+		}
+		if(e == null) {
+			throw new DbException("internal page " + pid.getPageNumber() + " has no entries");
+		}
+		return findLeafPage(tid, dirtypages, e.getRightChild(), perm, f);
 	}
 	
 	/**
@@ -239,8 +281,37 @@ public class BTreeFile implements DbFile {
 		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
 		// the sibling pointers of all the affected leaf pages.  Return the page into which a 
 		// tuple with the given key field should be inserted.
-        return null;
-		
+		BTreeLeafPage newPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+
+		// move the upper half of the tuples to the new page
+		Tuple[] moved = new Tuple[page.getNumTuples() / 2];
+		Iterator<Tuple> it = page.reverseIterator();
+		for(int i = moved.length - 1; i >= 0; i--) {
+			moved[i] = it.next();
+		}
+		for(Tuple t : moved) {
+			page.deleteTuple(t);
+			newPage.insertTuple(t);
+		}
+
+		// link the new page in to the right of the old one
+		BTreePageId rightSiblingId = page.getRightSiblingId();
+		if(rightSiblingId != null) {
+			BTreeLeafPage rightSibling = (BTreeLeafPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
+			rightSibling.setLeftSiblingId(newPage.getId());
+		}
+		newPage.setRightSiblingId(rightSiblingId);
+		newPage.setLeftSiblingId(page.getId());
+		page.setRightSiblingId(newPage.getId());
+
+		// copy the first key of the new page up into the parent
+		Field splitKey = moved[0].getField(keyField);
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), splitKey);
+		parent.insertEntry(new BTreeEntry(splitKey, page.getId(), newPage.getId()));
+		page.setParentId(parent.getId());
+		newPage.setParentId(parent.getId());
+
+		return field.compare(Op.GREATER_THAN, splitKey) ? newPage : page;
 	}
 	
 	/**
@@ -277,7 +348,32 @@ public class BTreeFile implements DbFile {
 		// the parent pointers of all the children moving to the new page.  updateParentPointers()
 		// will be useful here.  Return the page into which an entry with the given key field
 		// should be inserted.
-		return null;
+		BTreeInternalPage newPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+
+		// move the upper half of the entries to the new page, and take the
+		// entry before them out to push it up
+		BTreeEntry[] moved = new BTreeEntry[page.getNumEntries() / 2];
+		Iterator<BTreeEntry> it = page.reverseIterator();
+		for(int i = moved.length - 1; i >= 0; i--) {
+			moved[i] = it.next();
+		}
+		BTreeEntry middle = it.next();
+		for(BTreeEntry e : moved) {
+			page.deleteKeyAndRightChild(e);
+			newPage.insertEntry(e);
+		}
+		page.deleteKeyAndRightChild(middle);
+		updateParentPointers(tid, dirtypages, newPage);
+
+		// push the middle key up into the parent
+		middle.setLeftChild(page.getId());
+		middle.setRightChild(newPage.getId());
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), middle.getKey());
+		parent.insertEntry(middle);
+		page.setParentId(parent.getId());
+		newPage.setParentId(parent.getId());
+
+		return field.compare(Op.GREATER_THAN, middle.getKey()) ? newPage : page;
 	}
 	
 	/**
@@ -569,6 +665,20 @@ public class BTreeFile implements DbFile {
         // Move some of the tuples from the sibling to the page so
 		// that the tuples are evenly distributed. Be sure to update
 		// the corresponding parent entry.
+		Tuple[] moved = new Tuple[(sibling.getNumTuples() - page.getNumTuples()) / 2];
+		Iterator<Tuple> it = isRightSibling ? sibling.iterator() : sibling.reverseIterator();
+		for(int i = 0; i < moved.length; i++) {
+			moved[i] = it.next();
+		}
+		for(Tuple t : moved) {
+			sibling.deleteTuple(t);
+			page.insertTuple(t);
+		}
+
+		// the parent's key is the first key of the right-hand page
+		BTreeLeafPage right = isRightSibling ? sibling : page;
+		entry.setKey(right.iterator().next().getField(keyField));
+		parent.updateEntry(entry);
 	}
 
 	/**
@@ -648,6 +758,26 @@ public class BTreeFile implements DbFile {
 		// that the entries are evenly distributed. Be sure to update
 		// the corresponding parent entry. Be sure to update the parent
 		// pointers of all children in the entries that were moved.
+		BTreeEntry[] moved = new BTreeEntry[(leftSibling.getNumEntries() - page.getNumEntries()) / 2];
+		Iterator<BTreeEntry> it = leftSibling.reverseIterator();
+		for(int i = 0; i < moved.length; i++) {
+			moved[i] = it.next();
+		}
+
+		// rotate each key through the parent: the parent's key comes down
+		// in front of the page's first child, and the sibling's last key
+		// goes up
+		Field parentKey = parentEntry.getKey();
+		BTreePageId firstChild = page.getChildId(0);
+		for(BTreeEntry e : moved) {
+			leftSibling.deleteKeyAndRightChild(e);
+			page.insertEntry(new BTreeEntry(parentKey, e.getRightChild(), firstChild));
+			parentKey = e.getKey();
+			firstChild = e.getRightChild();
+		}
+		parentEntry.setKey(parentKey);
+		parent.updateEntry(parentEntry);
+		updateParentPointers(tid, dirtypages, page);
 	}
 	
 	/**
@@ -675,6 +805,33 @@ public class BTreeFile implements DbFile {
 		// that the entries are evenly distributed. Be sure to update
 		// the corresponding parent entry. Be sure to update the parent
 		// pointers of all children in the entries that were moved.
+		BTreeEntry[] moved = new BTreeEntry[(rightSibling.getNumEntries() - page.getNumEntries()) / 2];
+		Iterator<BTreeEntry> it = rightSibling.iterator();
+		for(int i = 0; i < moved.length; i++) {
+			moved[i] = it.next();
+		}
+
+		// rotate each key through the parent: the parent's key comes down
+		// after the page's last child, and the sibling's first key goes up
+		Field parentKey = parentEntry.getKey();
+		BTreePageId lastChild = lastChild(page);
+		for(BTreeEntry e : moved) {
+			rightSibling.deleteKeyAndLeftChild(e);
+			page.insertEntry(new BTreeEntry(parentKey, lastChild, e.getLeftChild()));
+			parentKey = e.getKey();
+			lastChild = e.getLeftChild();
+		}
+		parentEntry.setKey(parentKey);
+		parent.updateEntry(parentEntry);
+		updateParentPointers(tid, dirtypages, page);
+	}
+
+	/**
+	 * @return the id of the right-most child of an internal page
+	 */
+	private static BTreePageId lastChild(BTreeInternalPage page) {
+		Iterator<BTreeEntry> it = page.reverseIterator();
+		return it.hasNext() ? it.next().getRightChild() : page.getChildId(0);
 	}
 	
 	/**
@@ -705,6 +862,25 @@ public class BTreeFile implements DbFile {
 		// the sibling pointers, and make the right page available for reuse.
 		// Delete the entry in the parent corresponding to the two pages that are merging -
 		// deleteParentEntry() will be useful here
+		List<Tuple> moved = new ArrayList<>();
+		Iterator<Tuple> it = rightPage.iterator();
+		while(it.hasNext()) {
+			moved.add(it.next());
+		}
+		for(Tuple t : moved) {
+			rightPage.deleteTuple(t);
+			leftPage.insertTuple(t);
+		}
+
+		BTreePageId rightSiblingId = rightPage.getRightSiblingId();
+		leftPage.setRightSiblingId(rightSiblingId);
+		if(rightSiblingId != null) {
+			BTreeLeafPage rightSibling = (BTreeLeafPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
+			rightSibling.setLeftSiblingId(leftPage.getId());
+		}
+
+		setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
+		deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
 	}
 
 	/**
@@ -738,6 +914,22 @@ public class BTreeFile implements DbFile {
 		// and make the right page available for reuse
 		// Delete the entry in the parent corresponding to the two pages that are merging -
 		// deleteParentEntry() will be useful here
+		// pull the parent's key down between the two pages' children
+		leftPage.insertEntry(new BTreeEntry(parentEntry.getKey(), lastChild(leftPage), rightPage.getChildId(0)));
+
+		List<BTreeEntry> moved = new ArrayList<>();
+		Iterator<BTreeEntry> it = rightPage.iterator();
+		while(it.hasNext()) {
+			moved.add(it.next());
+		}
+		for(BTreeEntry e : moved) {
+			rightPage.deleteKeyAndLeftChild(e);
+			leftPage.insertEntry(e);
+		}
+		updateParentPointers(tid, dirtypages, leftPage);
+
+		setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
+		deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
 	}
 	
 	/**
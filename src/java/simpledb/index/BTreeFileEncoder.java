@@ -215,10 +215,37 @@ public class BTreeFileEncoder {
 			tuples.add(tup);
 		}
 		it.close();
-		tuples.sort(new TupleComparator(keyField));
 
 		// add the tuples to B+ tree file
 		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+		bulkLoad(bf, tuples, npagebytes);
+
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		return bf;
+	}
+
+	/**
+	 * Write a B+ tree holding the given tuples to the (empty) file backing bf.
+	 * The pages are written directly to the file, not through the buffer pool,
+	 * so bf must not have any pages cached there.
+	 * 
+	 * @param bf - the BTreeFile to fill; its TupleDesc and key field describe the tuples
+	 * @param tuples - the tuples to add to the file, in any order. The list is sorted in place.
+	 * @param npagebytes - number of bytes per page
+	 * @throws IOException
+	 * @throws DbException
+	 */
+	public static void bulkLoad(BTreeFile bf, List<Tuple> tuples, int npagebytes)
+			throws IOException, DbException {
+		TupleDesc td = bf.getTupleDesc();
+		int numFields = td.numFields();
+		Type[] typeAr = new Type[numFields];
+		for (int i = 0; i < numFields; i++) {
+			typeAr[i] = td.getFieldType(i);
+		}
+		int keyField = bf.keyField();
+		tuples.sort(new TupleComparator(keyField));
+
 		Type keyType = typeAr[keyField];
 		int tableid = bf.getId();
 
@@ -331,9 +358,6 @@ public class BTreeFileEncoder {
 		// set all the parent and sibling pointers
 		setParents(bf, new BTreePageId(tableid, root, rootCategory), BTreeRootPtrPage.getId(tableid));
 		setRightSiblingPtrs(bf, lastPid, null);
-
-		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
-		return bf;
 	}
 
 	/**
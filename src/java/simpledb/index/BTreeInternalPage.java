@@ -13,6 +13,7 @@ import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
+import simpledb.storage.SlotBitmap;
 
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
@@ -23,7 +24,7 @@ import simpledb.storage.RecordId;
  *
  */
 public class BTreeInternalPage extends BTreePage {
-	private final byte[] header;
+	private final SlotBitmap header;
 	private final Field[] keys;
 	private final int[] children;
 	private final int numSlots;
@@ -87,9 +88,7 @@ public class BTreeInternalPage extends BTreePage {
 		childCategory = dis.readByte();
 
 		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		header = SlotBitmap.read(dis, numSlots, getHeaderSize());
 
 		keys = new Field[numSlots];
 		try{
@@ -257,14 +256,12 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		// create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+		try {
+			header.write(dos);
+		} catch (IOException e) {
+			// this really shouldn't happen
+			e.printStackTrace();
+		}
 
 		// create the keys
 		// start from 1 because the first key slot is not used
@@ -319,7 +316,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
+		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + getHeaderSize() + 
 				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
 		byte[] zeroes = new byte[zerolen];
 		try {
@@ -360,12 +357,10 @@ public class BTreeInternalPage extends BTreePage {
 			markSlotUsed(rid.getTupleNumber(), false);
 		}
 		else {
-			for(int i = rid.getTupleNumber() - 1; i >= 0; i--) {
-				if(isSlotUsed(i)) {
-					children[i] = children[rid.getTupleNumber()];
-					markSlotUsed(rid.getTupleNumber(), false);
-					break;
-				}	
+			int i = header.prevUsed(rid.getTupleNumber() - 1);
+			if(i >= 0) {
+				children[i] = children[rid.getTupleNumber()];
+				markSlotUsed(rid.getTupleNumber(), false);
 			}
 		}
 		e.setRecordId(null);
@@ -414,24 +409,18 @@ public class BTreeInternalPage extends BTreePage {
 		if (!isSlotUsed(rid.getTupleNumber()))
 			throw new DbException("tried to update null entry.");
 		
-		for(int i = rid.getTupleNumber() + 1; i < numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(keys[i].compare(Op.LESS_THAN, e.getKey())) {
-					throw new DbException("attempt to update entry with invalid key " + e.getKey() +
-							" HINT: updated key must be less than or equal to keys on the right");
-				}
-				break;
-			}	
-		}
-		for(int i = rid.getTupleNumber() - 1; i >= 0; i--) {
-			if(isSlotUsed(i)) {
-				if(i > 0 && keys[i].compare(Op.GREATER_THAN, e.getKey())) {
-					throw new DbException("attempt to update entry with invalid key " + e.getKey() +
-							" HINT: updated key must be greater than or equal to keys on the left");
-				}
-				children[i] = e.getLeftChild().getPageNumber();
-				break;
-			}	
+		int right = header.nextUsed(rid.getTupleNumber() + 1);
+		if(right >= 0 && keys[right].compare(Op.LESS_THAN, e.getKey())) {
+			throw new DbException("attempt to update entry with invalid key " + e.getKey() +
+					" HINT: updated key must be less than or equal to keys on the right");
+		}
+		int left = header.prevUsed(rid.getTupleNumber() - 1);
+		if(left >= 0) {
+			if(left > 0 && keys[left].compare(Op.GREATER_THAN, e.getKey())) {
+				throw new DbException("attempt to update entry with invalid key " + e.getKey() +
+						" HINT: updated key must be greater than or equal to keys on the left");
+			}
+			children[left] = e.getLeftChild().getPageNumber();
 		}
 		children[rid.getTupleNumber()] = e.getRightChild().getPageNumber();
 		keys[rid.getTupleNumber()] = e.getKey();
@@ -472,13 +461,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		// find the first empty slot, starting from 1
-		int emptySlot = -1;
-		for (int i=1; i<numSlots; i++) {
-			if (!isSlotUsed(i)) {
-				emptySlot = i;
-				break;
-			}
-		}
+		int emptySlot = header.nextFree(1);
 
 		if (emptySlot == -1)
 			throw new DbException("called insertEntry on page with no empty slots.");        
@@ -573,36 +556,38 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of empty slots on this page.
 	 */
 	public int getNumEmptySlots() {
-		int cnt = 0;
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
-		for(int i=1; i<numSlots; i++)
-			if(!isSlotUsed(i))
-				cnt++;
-		return cnt;
+		return numSlots - 1 - header.count(1, numSlots);
 	}
 
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
 	public boolean isSlotUsed(int i) {
-		int headerbit = i % 8;
-		int headerbyte = (i - headerbit) / 8;
-		return (header[headerbyte] & (1 << headerbit)) != 0;
+		return header.get(i);
+	}
+
+	/**
+	 * @return the first used slot at or after i, or -1 if there is none
+	 */
+	int nextUsedSlot(int i) {
+		return header.nextUsed(i);
+	}
+
+	/**
+	 * @return the last used slot at or before i, or -1 if there is none
+	 */
+	int prevUsedSlot(int i) {
+		return header.prevUsed(i);
 	}
 
 	/**
 	 * Abstraction to fill or clear a slot on this page.
 	 */
 	private void markSlotUsed(int i, boolean value) {
-		int headerbit = i % 8;
-		int headerbyte = (i - headerbit) / 8;
-
 		Debug.log(1, "BTreeInternalPage.setSlot: setting slot %d to %b", i, value);
-		if(value)
-			header[headerbyte] |= 1 << headerbit;
-		else
-			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		header.set(i, value);
 	}
 
 	/**
@@ -698,6 +683,11 @@ class BTreeInternalPageIterator implements Iterator<BTreeEntry> {
 				}
 			}
 			while (true) {
+				curEntry = p.nextUsedSlot(curEntry);
+				if(curEntry < 0) {
+					curEntry = p.getMaxEntries() + 1;
+					return false;
+				}
 				int entry = curEntry++;
 				Field key = p.getKey(entry);
 				BTreePageId childId = p.getChildId(entry);
@@ -745,10 +735,7 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 
 	public BTreeInternalPageReverseIterator(BTreeInternalPage p) {
 		this.p = p;
-		this.curEntry = p.getMaxEntries();
-		while(!p.isSlotUsed(curEntry) && curEntry > 0) {
-			--curEntry;
-		}
+		this.curEntry = Math.max(p.prevUsedSlot(p.getMaxEntries()), 0);
 	}
 
 	public boolean hasNext() {
@@ -763,6 +750,9 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 				}
 			}
 			while (true) {
+				curEntry = p.prevUsedSlot(curEntry);
+				if(curEntry <= 0)
+					return false;
 				int entry = curEntry--;
 				Field key = p.getKey(entry);
 				BTreePageId childId = p.getChildId(entry - 1);
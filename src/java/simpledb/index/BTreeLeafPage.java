@@ -20,7 +20,7 @@ import java.io.*;
  *
  */
 public class BTreeLeafPage extends BTreePage {
-	private final byte[] header;
+	private final SlotBitmap header;
 	private final Tuple[] tuples;
 	private final int numSlots;
 	
@@ -93,9 +93,7 @@ public class BTreeLeafPage extends BTreePage {
 		}
 
 		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
+		header = SlotBitmap.read(dis, numSlots, getHeaderSize());
 
 		tuples = new Tuple[numSlots];
 		try{
@@ -227,14 +225,12 @@ public class BTreeLeafPage extends BTreePage {
 		}
 
 		// create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+		try {
+			header.write(dos);
+		} catch (IOException e) {
+			// this really shouldn't happen
+			e.printStackTrace();
+		}
 
 		// create the tuples
 		for (int i=0; i<tuples.length; i++) {
@@ -265,7 +261,7 @@ public class BTreeLeafPage extends BTreePage {
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
+		int zerolen = BufferPool.getPageSize() - (getHeaderSize() + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -314,13 +310,7 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("type mismatch, in addTuple");
 
 		// find the first empty slot 
-		int emptySlot = -1;
-		for (int i=0; i<numSlots; i++) {
-			if (!isSlotUsed(i)) {
-				emptySlot = i;
-				break;
-			}
-		}
+		int emptySlot = header.nextFree(0);
 
 		if (emptySlot == -1)
 			throw new DbException("called addTuple on page with no empty slots.");
@@ -328,13 +318,11 @@ public class BTreeLeafPage extends BTreePage {
 		// find the last key less than or equal to the key being inserted
 		int lessOrEqKey = -1;
 		Field key = t.getField(keyField);
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-					lessOrEqKey = i;
-				else
-					break;	
-			}
+		for (int i = header.nextUsed(0); i >= 0; i = header.nextUsed(i + 1)) {
+			if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
+				lessOrEqKey = i;
+			else
+				break;
 		}
 
 		// shift records back or forward to fill empty slot and make room for new record
@@ -448,34 +436,36 @@ public class BTreeLeafPage extends BTreePage {
 	 * Returns the number of empty slots on this page.
 	 */
 	public int getNumEmptySlots() {
-		int cnt = 0;
-		for(int i=0; i<numSlots; i++)
-			if(!isSlotUsed(i))
-				cnt++;
-		return cnt;
+		return numSlots - header.count();
 	}
 
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
 	public boolean isSlotUsed(int i) {
-		int headerbit = i % 8;
-		int headerbyte = (i - headerbit) / 8;
-		return (header[headerbyte] & (1 << headerbit)) != 0;
+		return header.get(i);
+	}
+
+	/**
+	 * @return the first used slot at or after i, or -1 if there is none
+	 */
+	int nextUsedSlot(int i) {
+		return header.nextUsed(i);
+	}
+
+	/**
+	 * @return the last used slot at or before i, or -1 if there is none
+	 */
+	int prevUsedSlot(int i) {
+		return header.prevUsed(i);
 	}
 
 	/**
 	 * Abstraction to fill or clear a slot on this page.
 	 */
 	private void markSlotUsed(int i, boolean value) {
-		int headerbit = i % 8;
-		int headerbyte = (i - headerbit) / 8;
-
 		Debug.log(1, "BTreeLeafPage.setSlot: setting slot %d to %b", i, value);
-		if(value)
-			header[headerbyte] |= 1 << headerbit;
-		else
-			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		header.set(i, value);
 	}
 
 	/**
@@ -536,15 +526,13 @@ class BTreeLeafPageIterator implements Iterator<Tuple> {
 		if (nextToReturn != null)
 			return true;
 
-		try {
-			while (true) {
-				nextToReturn = p.getTuple(curTuple++);
-				if(nextToReturn != null)
-					return true;
-			}
-		} catch(NoSuchElementException e) {
+		curTuple = p.nextUsedSlot(curTuple);
+		if (curTuple < 0) {
+			curTuple = p.getMaxTuples();
 			return false;
 		}
+		nextToReturn = p.getTuple(curTuple++);
+		return true;
 	}
 
 	public Tuple next() {
@@ -585,16 +573,11 @@ class BTreeLeafPageReverseIterator implements Iterator<Tuple> {
 		if (nextToReturn != null)
 			return true;
 
-		try {
-			while (curTuple >= 0) {
-				nextToReturn = p.getTuple(curTuple--);
-				if(nextToReturn != null)
-					return true;
-			}
-			return false;
-		} catch(NoSuchElementException e) {
+		curTuple = p.prevUsedSlot(curTuple);
+		if (curTuple < 0)
 			return false;
-		}
+		nextToReturn = p.getTuple(curTuple--);
+		return true;
 	}
 
 	public Tuple next() {
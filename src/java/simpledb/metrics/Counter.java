@@ -0,0 +1,47 @@
+package simpledb.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that many threads add to.  The count is striped across cells, so
+ * threads adding at once rarely contend for the same cache line; reading it
+ * sums the cells.
+ */
+public class Counter {
+
+    private final String name;
+    private final String description;
+    private final LongAdder count = new LongAdder();
+
+    public Counter(String name, String description) {
+        this.name = name;
+        this.description = description;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public String getDescription() {
+        return this.description;
+    }
+
+    public void increment() {
+        this.count.increment();
+    }
+
+    public void add(long n) {
+        this.count.add(n);
+    }
+
+    /**
+     * @return the count so far; not a snapshot if other threads are adding
+     */
+    public long get() {
+        return this.count.sum();
+    }
+
+    void reset() {
+        this.count.reset();
+    }
+}
@@ -0,0 +1,128 @@
+package simpledb.metrics;
+
+import jdk.jfr.*;
+
+/**
+ * The JDK Flight Recorder events of the engine.  Only {@link Metrics} uses
+ * this class, and only once it has found that the runtime has JFR, so the
+ * engine still runs where it does not.  Each event is built and committed
+ * only if a recording has enabled it.
+ */
+final class FlightEvents {
+
+    private FlightEvents() {
+    }
+
+    @Name("simpledb.PageRead")
+    @Label("Page Read")
+    @Category({"SimpleDB", "Buffer Pool"})
+    @Description("A page read from disk into the buffer pool")
+    static class PageRead extends Event {
+        @Label("Table Id")
+        int tableId;
+        @Label("Page Number")
+        int pageNumber;
+        @Label("Latency")
+        @Timespan
+        long latency;
+    }
+
+    @Name("simpledb.PageWrite")
+    @Label("Page Write")
+    @Category({"SimpleDB", "Buffer Pool"})
+    @Description("A batch of pages of one table written to disk, in increasing order of page number; "
+            + "they are adjacent only if there are lastPageNumber - firstPageNumber + 1 of them")
+    static class PageWrite extends Event {
+        @Label("Table Id")
+        int tableId;
+        @Label("First Page Number")
+        int firstPageNumber;
+        @Label("Last Page Number")
+        int lastPageNumber;
+        @Label("Pages")
+        int pages;
+        @Label("Latency")
+        @Timespan
+        long latency;
+    }
+
+    @Name("simpledb.PageEviction")
+    @Label("Page Eviction")
+    @Category({"SimpleDB", "Buffer Pool"})
+    @Description("A page evicted from the buffer pool")
+    static class PageEviction extends Event {
+        @Label("Table Id")
+        int tableId;
+        @Label("Page Number")
+        int pageNumber;
+        @Label("Dirty")
+        boolean dirty;
+    }
+
+    @Name("simpledb.LogForce")
+    @Label("Log Force")
+    @Category({"SimpleDB", "Log"})
+    @Description("The log forced to disk")
+    static class LogForce extends Event {
+        @Label("Latency")
+        @Timespan
+        long latency;
+    }
+
+    @Name("simpledb.DeadlockAbort")
+    @Label("Deadlock Abort")
+    @Category({"SimpleDB", "Transactions"})
+    @Description("A transaction aborted because it could not get a lock")
+    static class DeadlockAbort extends Event {
+        @Label("Transaction Id")
+        long transactionId;
+    }
+
+    static void pageRead(int tableId, int pageNumber, long nanos) {
+        PageRead e = new PageRead();
+        if (!e.isEnabled())
+            return;
+        e.tableId = tableId;
+        e.pageNumber = pageNumber;
+        e.latency = nanos;
+        e.commit();
+    }
+
+    static void pagesWritten(int tableId, int firstPageNumber, int lastPageNumber, int pages, long nanos) {
+        PageWrite e = new PageWrite();
+        if (!e.isEnabled())
+            return;
+        e.tableId = tableId;
+        e.firstPageNumber = firstPageNumber;
+        e.lastPageNumber = lastPageNumber;
+        e.pages = pages;
+        e.latency = nanos;
+        e.commit();
+    }
+
+    static void pageEvicted(int tableId, int pageNumber, boolean dirty) {
+        PageEviction e = new PageEviction();
+        if (!e.isEnabled())
+            return;
+        e.tableId = tableId;
+        e.pageNumber = pageNumber;
+        e.dirty = dirty;
+        e.commit();
+    }
+
+    static void logForced(long nanos) {
+        LogForce e = new LogForce();
+        if (!e.isEnabled())
+            return;
+        e.latency = nanos;
+        e.commit();
+    }
+
+    static void deadlockAborted(long tid) {
+        DeadlockAbort e = new DeadlockAbort();
+        if (!e.isEnabled())
+            return;
+        e.transactionId = tid;
+        e.commit();
+    }
+}
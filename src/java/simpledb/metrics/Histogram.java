@@ -0,0 +1,113 @@
+package simpledb.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The distribution of non-negative values, such as latencies in
+ * nanoseconds, that many threads record.  Values are counted in buckets by
+ * their highest set bit, so bucket b holds values in [2^(b-1), 2^b), and a
+ * percentile is known to within a factor of two.  Each bucket is striped as
+ * a {@link Counter} is, so recording a value costs a few nanoseconds and
+ * never blocks.
+ */
+public class Histogram {
+
+    private static final int BUCKETS = 65;
+
+    private final String name;
+    private final String description;
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram(String name, String description) {
+        this.name = name;
+        this.description = description;
+        for (int b = 0; b < BUCKETS; b++)
+            this.buckets[b] = new LongAdder();
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public String getDescription() {
+        return this.description;
+    }
+
+    /**
+     * Record a value; negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        this.buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+        this.sum.add(value);
+        this.max.accumulate(value);
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        long n = 0;
+        for (LongAdder b : this.buckets)
+            n += b.sum();
+        return n;
+    }
+
+    /**
+     * @return the sum of the values recorded
+     */
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * @return the largest value recorded, or 0 if there are none
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * @return the mean of the values recorded, or 0 if there are none
+     */
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : (double) getSum() / n;
+    }
+
+    /**
+     * @param p a fraction in [0, 1]
+     * @return an upper bound, at most twice too large, on the value below
+     *         which a fraction p of the values recorded fall, or 0 if there
+     *         are none
+     */
+    public long getPercentile(double p) {
+        long[] counts = new long[BUCKETS];
+        long n = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            counts[b] = this.buckets[b].sum();
+            n += counts[b];
+        }
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(p * n));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts[b];
+            if (seen >= rank)
+                return Math.min(b == 0 ? 0 : b == 64 ? Long.MAX_VALUE : (1L << b) - 1, getMax());
+        }
+        return getMax();
+    }
+
+    void reset() {
+        for (LongAdder b : this.buckets)
+            b.reset();
+        this.sum.reset();
+        this.max.reset();
+    }
+}
@@ -0,0 +1,203 @@
+package simpledb.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Metrics holds the counters and histograms the engine keeps as it runs:
+ * buffer pool hits, misses and evictions, page read and write latencies,
+ * log records, bytes and force latencies, transaction commits and aborts,
+ * and the tuples each kind of operator returns.  They are always kept, and
+ * cost a striped add each, so they can be read at any time, from code or,
+ * once {@link #publish} has been called, over JMX.
+ * <p>
+ * Page reads and writes, evictions, log forces and deadlock aborts are
+ * also emitted as JDK Flight Recorder events in the "SimpleDB" category
+ * where the runtime has JFR; they cost nothing unless a recording enables
+ * them.
+ */
+public class Metrics {
+
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    public static final Counter BUFFER_HITS = counter("buffer.hits",
+            "Pages requested from the buffer pool that were cached");
+    public static final Counter BUFFER_MISSES = counter("buffer.misses",
+            "Pages requested from the buffer pool that were read from disk");
+    public static final Counter BUFFER_EVICTIONS = counter("buffer.evictions",
+            "Pages evicted from the buffer pool");
+    public static final Histogram PAGE_READ_NANOS = histogram("page.read.nanos",
+            "Time to read a page from disk");
+    public static final Counter PAGE_WRITES = counter("page.writes",
+            "Pages written to disk");
+    public static final Histogram PAGE_WRITE_NANOS = histogram("page.write.nanos",
+            "Time to write a batch of pages of one table to disk");
+    public static final Counter LOG_RECORDS = counter("log.records",
+            "Records appended to the log");
+    public static final Counter LOG_BYTES = counter("log.bytes",
+            "Bytes appended to the log");
+    public static final Histogram LOG_FORCE_NANOS = histogram("log.force.nanos",
+            "Time to force the log to disk");
+    public static final Counter TRANSACTION_COMMITS = counter("transaction.commits",
+            "Transactions committed");
+    public static final Counter TRANSACTION_ABORTS = counter("transaction.aborts",
+            "Transactions aborted");
+    public static final Counter DEADLOCK_ABORTS = counter("transaction.deadlock.aborts",
+            "Transactions aborted because they could not get a lock");
+
+    /** Whether the runtime has the JDK Flight Recorder API */
+    private static final boolean FLIGHT_RECORDER = flightRecorderAvailable();
+
+    /** The name of the MBean publishing the metrics */
+    public static final String OBJECT_NAME = "simpledb:type=Metrics";
+
+    private Metrics() {
+    }
+
+    private static boolean flightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the counter with the given name, created if there is none
+     */
+    public static Counter counter(String name, String description) {
+        return counters.computeIfAbsent(name, n -> new Counter(n, description));
+    }
+
+    /**
+     * @return the histogram with the given name, created if there is none
+     */
+    public static Histogram histogram(String name, String description) {
+        return histograms.computeIfAbsent(name, n -> new Histogram(n, description));
+    }
+
+    /**
+     * @return every counter, by name
+     */
+    public static SortedMap<String, Counter> counters() {
+        return new TreeMap<>(counters);
+    }
+
+    /**
+     * @return every histogram, by name
+     */
+    public static SortedMap<String, Histogram> histograms() {
+        return new TreeMap<>(histograms);
+    }
+
+    /**
+     * @return the counter of the tuples returned by operators of the given
+     *         class
+     */
+    public static Counter operatorRows(Class<?> operator) {
+        Counter c = counters.get("rows." + operator.getSimpleName());
+        if (c != null)
+            return c;
+        return counter("rows." + operator.getSimpleName(),
+                "Tuples returned by " + operator.getSimpleName() + " operators");
+    }
+
+    /**
+     * Zero every counter and histogram.
+     */
+    public static void reset() {
+        for (Counter c : counters.values())
+            c.reset();
+        for (Histogram h : histograms.values())
+            h.reset();
+    }
+
+    /**
+     * Register the metrics with the platform MBean server, under
+     * {@link #OBJECT_NAME}, if they are not registered already.
+     */
+    public static synchronized void publish() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name))
+                server.registerMBean(new MetricsMBean(), name);
+        } catch (JMException | SecurityException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Record a page read from disk into the buffer pool.
+     *
+     * @param start the value of System.nanoTime() when the read began
+     */
+    public static void pageRead(int tableId, int pageNumber, long start) {
+        long nanos = System.nanoTime() - start;
+        BUFFER_MISSES.increment();
+        PAGE_READ_NANOS.record(nanos);
+        if (FLIGHT_RECORDER)
+            FlightEvents.pageRead(tableId, pageNumber, nanos);
+    }
+
+    /**
+     * Record a write of a batch of pages of one table to disk, between
+     * firstPageNumber and lastPageNumber but not necessarily adjacent.
+     *
+     * @param start the value of System.nanoTime() when the write began
+     */
+    public static void pagesWritten(int tableId, int firstPageNumber, int lastPageNumber, int pages, long start) {
+        long nanos = System.nanoTime() - start;
+        PAGE_WRITES.add(pages);
+        PAGE_WRITE_NANOS.record(nanos);
+        if (FLIGHT_RECORDER)
+            FlightEvents.pagesWritten(tableId, firstPageNumber, lastPageNumber, pages, nanos);
+    }
+
+    /**
+     * Record the eviction of a page from the buffer pool.
+     */
+    public static void pageEvicted(int tableId, int pageNumber, boolean dirty) {
+        BUFFER_EVICTIONS.increment();
+        if (FLIGHT_RECORDER)
+            FlightEvents.pageEvicted(tableId, pageNumber, dirty);
+    }
+
+    /**
+     * Record a force of the log to disk.
+     *
+     * @param start the value of System.nanoTime() when the force began
+     */
+    public static void logForced(long start) {
+        long nanos = System.nanoTime() - start;
+        LOG_FORCE_NANOS.record(nanos);
+        if (FLIGHT_RECORDER)
+            FlightEvents.logForced(nanos);
+    }
+
+    /**
+     * Record the end of a transaction.
+     */
+    public static void transactionCompleted(boolean abort) {
+        if (abort)
+            TRANSACTION_ABORTS.increment();
+        else
+            TRANSACTION_COMMITS.increment();
+    }
+
+    /**
+     * Record that a transaction is being aborted because it could not get a
+     * lock, i.e. its statement failed with a TransactionAbortedException.
+     */
+    public static void deadlockAborted(long tid) {
+        DEADLOCK_ABORTS.increment();
+        if (FLIGHT_RECORDER)
+            FlightEvents.deadlockAborted(tid);
+    }
+}
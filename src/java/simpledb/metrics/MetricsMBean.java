@@ -0,0 +1,86 @@
+package simpledb.metrics;
+
+import javax.management.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Publishes {@link Metrics} over JMX.  Each counter is an attribute named
+ * after it, and each histogram is five: its name followed by ".count",
+ * ".mean", ".p50", ".p99" and ".max".  The attributes are read-only, and
+ * found anew each time they are listed, so counters created later, such as
+ * those of operator classes not yet run, appear as they are created.
+ */
+class MetricsMBean implements DynamicMBean {
+
+    private static final String[] STATISTICS = {"count", "mean", "p50", "p99", "max"};
+
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Counter c = Metrics.counters().get(attribute);
+        if (c != null)
+            return c.get();
+        int dot = attribute.lastIndexOf('.');
+        Histogram h = dot < 0 ? null : Metrics.histograms().get(attribute.substring(0, dot));
+        if (h != null) {
+            switch (attribute.substring(dot + 1)) {
+                case "count":
+                    return h.getCount();
+                case "mean":
+                    return h.getMean();
+                case "p50":
+                    return h.getPercentile(0.5);
+                case "p99":
+                    return h.getPercentile(0.99);
+                case "max":
+                    return h.getMax();
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String a : attributes) {
+            try {
+                list.add(new Attribute(a, getAttribute(a)));
+            } catch (AttributeNotFoundException e) {
+                // left out, as the interface asks
+            }
+        }
+        return list;
+    }
+
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if ("reset".equals(actionName) && (params == null || params.length == 0)) {
+            Metrics.reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Map.Entry<String, Counter> e : Metrics.counters().entrySet())
+            attributes.add(new MBeanAttributeInfo(e.getKey(), "long", e.getValue().getDescription(),
+                    true, false, false));
+        for (Map.Entry<String, Histogram> e : Metrics.histograms().entrySet()) {
+            for (String s : STATISTICS)
+                attributes.add(new MBeanAttributeInfo(e.getKey() + "." + s, s.equals("mean") ? "double" : "long",
+                        e.getValue().getDescription() + " (" + s + ")", true, false, false));
+        }
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Zero every counter and histogram",
+                new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+        return new MBeanInfo(getClass().getName(), "SimpleDB engine metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null,
+                new MBeanOperationInfo[]{reset}, null);
+    }
+}
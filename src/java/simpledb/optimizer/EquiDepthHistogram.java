@@ -0,0 +1,343 @@
+package simpledb.optimizer;
+
+import simpledb.execution.Predicate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compressed histogram over a single integer field (or a String field,
+ * through {@link StringHistogram#stringToInt}), built from all of the values
+ * at once.
+ * <p>
+ * Values frequent enough to fill a bucket of their own are kept exactly in
+ * a most-common-value (MCV) list.  The remaining values are split into
+ * equi-depth buckets, each holding about the same number of values and
+ * recording its range, its count and its number of distinct values.  Unlike
+ * an equi-width {@link IntHistogram}, the estimates stay accurate when a few
+ * values dominate a column, as with Zipf-distributed keys.
+ */
+public class EquiDepthHistogram {
+
+    private final int ntups;
+    private final int min;
+    private final int max;
+
+    // the MCVs in increasing order, and how often each occurs
+    private final int[] mcvValues;
+    private final int[] mcvCounts;
+
+    // the buckets in increasing order: each holds count values, distinct of
+    // them different, between lo and hi inclusive
+    private final int[] lo;
+    private final int[] hi;
+    private final int[] counts;
+    private final int[] distinct;
+
+    private EquiDepthHistogram(int ntups, int min, int max, int[] mcvValues, int[] mcvCounts,
+                               int[] lo, int[] hi, int[] counts, int[] distinct) {
+        this.ntups = ntups;
+        this.min = min;
+        this.max = max;
+        this.mcvValues = mcvValues;
+        this.mcvCounts = mcvCounts;
+        this.lo = lo;
+        this.hi = hi;
+        this.counts = counts;
+        this.distinct = distinct;
+    }
+
+    /**
+     * Build a histogram of the first n of the given values.
+     *
+     * @param values the values; they are not modified
+     * @param n the number of values
+     * @param buckets the largest number of buckets to use
+     * @param mcvs the largest number of most common values to keep
+     */
+    public static EquiDepthHistogram build(int[] values, int n, int buckets, int mcvs) {
+        int[] sorted = Arrays.copyOf(values, n);
+        Arrays.sort(sorted);
+
+        // runs of equal values: run i is runCounts[i] copies of runValues[i]
+        int runs = 0;
+        int[] runValues = new int[n];
+        int[] runCounts = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (runs == 0 || sorted[i] != runValues[runs - 1]) {
+                runValues[runs] = sorted[i];
+                runs++;
+            }
+            runCounts[runs - 1]++;
+        }
+
+        // a value that would fill a bucket by itself is an MCV; there are
+        // fewer such values than buckets, and the most common are kept
+        List<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            if (runCounts[i] >= 2 && runCounts[i] > (double) n / buckets)
+                candidates.add(i);
+        }
+        candidates.sort((a, b) -> runCounts[b] - runCounts[a]);
+        boolean[] isMcv = new boolean[runs];
+        int numMcvs = Math.min(mcvs, candidates.size());
+        for (int i = 0; i < numMcvs; i++)
+            isMcv[candidates.get(i)] = true;
+        int[] mcvValues = new int[numMcvs];
+        int[] mcvCounts = new int[numMcvs];
+        int rest = n;
+        for (int i = 0, m = 0; i < runs; i++) {
+            if (isMcv[i]) {
+                mcvValues[m] = runValues[i];
+                mcvCounts[m++] = runCounts[i];
+                rest -= runCounts[i];
+            }
+        }
+
+        // split the other values into buckets of about rest / buckets
+        // values, never splitting a run
+        double depth = Math.max(1.0, (double) rest / buckets);
+        int[] lo = new int[buckets];
+        int[] hi = new int[buckets];
+        int[] counts = new int[buckets];
+        int[] distinct = new int[buckets];
+        int b = -1;
+        for (int i = 0; i < runs; i++) {
+            if (isMcv[i])
+                continue;
+            if (b < 0 || (counts[b] >= depth && b < buckets - 1)) {
+                b++;
+                lo[b] = runValues[i];
+            }
+            hi[b] = runValues[i];
+            counts[b] += runCounts[i];
+            distinct[b]++;
+        }
+        int numBuckets = b + 1;
+        return new EquiDepthHistogram(n, n == 0 ? 0 : sorted[0], n == 0 ? 0 : sorted[n - 1],
+                mcvValues, mcvCounts, Arrays.copyOf(lo, numBuckets), Arrays.copyOf(hi, numBuckets),
+                Arrays.copyOf(counts, numBuckets), Arrays.copyOf(distinct, numBuckets));
+    }
+
+    /**
+     * @return the number of values in the histogram
+     */
+    public int getNumValues() {
+        return ntups;
+    }
+
+    /**
+     * @return the smallest value in the histogram, or 0 if it is empty
+     */
+    public int getMin() {
+        return min;
+    }
+
+    /**
+     * @return the largest value in the histogram, or 0 if it is empty
+     */
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * @return the estimated number of distinct values in the histogram
+     */
+    public int distinctValues() {
+        int d = mcvValues.length;
+        for (int x : distinct)
+            d += x;
+        return d;
+    }
+
+    /**
+     * @return the number of values kept exactly as most common values
+     */
+    public int numMcvs() {
+        return mcvValues.length;
+    }
+
+    /**
+     * @return the fraction of values equal to v
+     */
+    private double equals(int v) {
+        int m = Arrays.binarySearch(mcvValues, v);
+        if (m >= 0)
+            return (double) mcvCounts[m] / ntups;
+        int b = bucket(v);
+        if (b < 0)
+            return 0.0;
+        return (double) counts[b] / distinct[b] / ntups;
+    }
+
+    /**
+     * @return the bucket whose range holds v, or -1 if there is none
+     */
+    private int bucket(int v) {
+        int b = Arrays.binarySearch(hi, v);
+        if (b < 0)
+            b = -b - 1;
+        return b < hi.length && lo[b] <= v ? b : -1;
+    }
+
+    /**
+     * @return the fraction of values less than v
+     */
+    private double lessThan(int v) {
+        if (v <= min)
+            return 0.0;
+        if (v > max)
+            return 1.0;
+        double sum = 0;
+        for (int m = 0; m < mcvValues.length && mcvValues[m] < v; m++)
+            sum += mcvCounts[m];
+        for (int b = 0; b < lo.length && lo[b] < v; b++) {
+            if (hi[b] < v)
+                sum += counts[b];
+            else
+                // the bucket's values are assumed spread evenly over its range
+                sum += counts[b] * (((double) v - lo[b]) / ((double) hi[b] - lo[b] + 1));
+        }
+        return sum / ntups;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this
+     * histogram.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, int v) {
+        if (ntups == 0)
+            return 0.0;
+        double sel;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                sel = equals(v);
+                break;
+            case NOT_EQUALS:
+                sel = 1.0 - equals(v);
+                break;
+            case LESS_THAN:
+                sel = lessThan(v);
+                break;
+            case LESS_THAN_OR_EQ:
+                sel = v >= max ? 1.0 : lessThan(v) + equals(v);
+                break;
+            case GREATER_THAN:
+                sel = v >= max ? 0.0 : 1.0 - lessThan(v) - equals(v);
+                break;
+            case GREATER_THAN_OR_EQ:
+                sel = 1.0 - lessThan(v);
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported operator " + op);
+        }
+        return Math.max(0.0, Math.min(1.0, sel));
+    }
+
+    /**
+     * @return the selectivity of an equality predicate on a value drawn from
+     *         the histogram itself
+     */
+    public double avgSelectivity() {
+        if (ntups == 0)
+            return 1.0;
+        double sum = 0;
+        for (int c : mcvCounts)
+            sum += (double) c * c;
+        for (int b = 0; b < counts.length; b++)
+            sum += (double) counts[b] * counts[b] / distinct[b];
+        return sum / ((double) ntups * ntups);
+    }
+
+    /**
+     * Estimate the selectivity of an equality join between this histogram's
+     * column and another's: the fraction of pairs of values, one from each,
+     * that are equal.  Values in either MCV list are matched one by one; the
+     * rest are assumed to join like uniformly distributed columns, each
+     * value of the column with fewer distinct values finding its match in
+     * the other.
+     */
+    public double joinSelectivity(EquiDepthHistogram other) {
+        if (ntups == 0 || other.ntups == 0)
+            return 0.0;
+        double sel = 0, matched1 = 0, matched2 = 0;
+        for (int m = 0; m < mcvValues.length; m++) {
+            double f1 = (double) mcvCounts[m] / ntups;
+            double f2 = other.equals(mcvValues[m]);
+            sel += f1 * f2;
+            matched1 += f1;
+            matched2 += f2;
+        }
+        for (int m = 0; m < other.mcvValues.length; m++) {
+            if (Arrays.binarySearch(mcvValues, other.mcvValues[m]) >= 0)
+                continue;
+            double f1 = equals(other.mcvValues[m]);
+            double f2 = (double) other.mcvCounts[m] / other.ntups;
+            sel += f1 * f2;
+            matched1 += f1;
+            matched2 += f2;
+        }
+        int ndv = Math.max(Math.max(1, distinctValues() - numMcvs()),
+                other.distinctValues() - other.numMcvs());
+        sel += Math.max(0.0, 1.0 - matched1) * Math.max(0.0, 1.0 - matched2) / ndv;
+        return Math.min(1.0, sel);
+    }
+
+    /**
+     * @return the histogram as an array of ints, which {@link #decode}
+     *         turns back into an equal histogram
+     */
+    public int[] encode() {
+        int m = mcvValues.length, b = lo.length;
+        int[] code = new int[5 + 2 * m + 4 * b];
+        code[0] = ntups;
+        code[1] = min;
+        code[2] = max;
+        code[3] = m;
+        code[4] = b;
+        System.arraycopy(mcvValues, 0, code, 5, m);
+        System.arraycopy(mcvCounts, 0, code, 5 + m, m);
+        System.arraycopy(lo, 0, code, 5 + 2 * m, b);
+        System.arraycopy(hi, 0, code, 5 + 2 * m + b, b);
+        System.arraycopy(counts, 0, code, 5 + 2 * m + 2 * b, b);
+        System.arraycopy(distinct, 0, code, 5 + 2 * m + 3 * b, b);
+        return code;
+    }
+
+    /**
+     * @return the histogram encoded by {@link #encode}
+     * @throws IllegalArgumentException if code is not an encoded histogram
+     */
+    public static EquiDepthHistogram decode(int[] code) {
+        if (code.length < 5 || code.length != 5 + 2 * code[3] + 4 * code[4])
+            throw new IllegalArgumentException("not an encoded histogram");
+        int m = code[3], b = code[4];
+        return new EquiDepthHistogram(code[0], code[1], code[2],
+                Arrays.copyOfRange(code, 5, 5 + m),
+                Arrays.copyOfRange(code, 5 + m, 5 + 2 * m),
+                Arrays.copyOfRange(code, 5 + 2 * m, 5 + 2 * m + b),
+                Arrays.copyOfRange(code, 5 + 2 * m + b, 5 + 2 * m + 2 * b),
+                Arrays.copyOfRange(code, 5 + 2 * m + 2 * b, 5 + 2 * m + 3 * b),
+                Arrays.copyOfRange(code, 5 + 2 * m + 3 * b, 5 + 2 * m + 4 * b));
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder("EquiDepthHistogram[" + min + ", " + max + "]: mcvs");
+        for (int m = 0; m < mcvValues.length; m++)
+            sb.append(' ').append(mcvValues[m]).append('=').append(mcvCounts[m]);
+        sb.append("; buckets");
+        for (int b = 0; b < lo.length; b++)
+            sb.append(" [").append(lo[b]).append(", ").append(hi[b]).append("]=").append(counts[b])
+                    .append('/').append(distinct[b]);
+        return sb.toString();
+    }
+}
@@ -6,6 +6,12 @@ import simpledb.execution.Predicate;
  */
 public class IntHistogram {
 
+    private final int[] counts;
+    private final int min;
+    private final int max;
+    private final double width;
+    private int ntups = 0;
+
     /**
      * Create a new IntHistogram.
      * 
@@ -24,6 +30,21 @@ public class IntHistogram {
      */
     public IntHistogram(int buckets, int min, int max) {
     	// some code goes here
+        this.min = min;
+        this.max = max;
+        long range = (long) max - min + 1;
+        this.counts = new int[(int) Math.max(1, Math.min(buckets, range))];
+        this.width = (double) range / counts.length;
+    }
+
+    private int bucket(int v) {
+        int b = (int) ((v - (long) min) / width);
+        return Math.max(0, Math.min(counts.length - 1, b));
+    }
+
+    // the first value that falls into bucket b
+    private double left(int b) {
+        return min + b * width;
     }
 
     /**
@@ -32,6 +53,10 @@ public class IntHistogram {
      */
     public void addValue(int v) {
     	// some code goes here
+        if (v < min || v > max)
+            return;
+        counts[bucket(v)]++;
+        ntups++;
     }
 
     /**
@@ -47,7 +72,58 @@ public class IntHistogram {
     public double estimateSelectivity(Predicate.Op op, int v) {
 
     	// some code goes here
-        return -1.0;
+        if (ntups == 0)
+            return 0.0;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return equals(v);
+            case NOT_EQUALS:
+                return 1.0 - equals(v);
+            case GREATER_THAN:
+                return greaterThan(v);
+            case GREATER_THAN_OR_EQ:
+                return equals(v) + greaterThan(v);
+            case LESS_THAN:
+                return lessThan(v);
+            case LESS_THAN_OR_EQ:
+                return equals(v) + lessThan(v);
+            default:
+                throw new IllegalArgumentException("unsupported operator " + op);
+        }
+    }
+
+    // values are assumed to be spread evenly over the width of their bucket
+    private double equals(int v) {
+        if (v < min || v > max)
+            return 0.0;
+        return counts[bucket(v)] / Math.max(width, 1.0) / ntups;
+    }
+
+    private double greaterThan(int v) {
+        if (v < min)
+            return 1.0;
+        if (v >= max)
+            return 0.0;
+        int b = bucket(v);
+        double inBucket = (left(b + 1) - (v + 1)) / width;
+        double sum = counts[b] * Math.max(0.0, inBucket);
+        for (int i = b + 1; i < counts.length; i++)
+            sum += counts[i];
+        return Math.min(1.0, sum / ntups);
+    }
+
+    private double lessThan(int v) {
+        if (v <= min)
+            return 0.0;
+        if (v > max)
+            return 1.0;
+        int b = bucket(v);
+        double inBucket = (v - left(b)) / width;
+        double sum = counts[b] * Math.max(0.0, inBucket);
+        for (int i = 0; i < b; i++)
+            sum += counts[i];
+        return Math.min(1.0, sum / ntups);
     }
     
     /**
@@ -61,7 +137,14 @@ public class IntHistogram {
     public double avgSelectivity()
     {
         // some code goes here
-        return 1.0;
+        if (ntups == 0)
+            return 1.0;
+        // the selectivity of an equality predicate on a value drawn from
+        // the histogram itself
+        double sum = 0;
+        for (int c : counts)
+            sum += (double) c / ntups * (c / Math.max(width, 1.0) / ntups);
+        return sum;
     }
     
     /**
@@ -69,6 +152,9 @@ public class IntHistogram {
      */
     public String toString() {
         // some code goes here
-        return null;
+        StringBuilder sb = new StringBuilder("IntHistogram[" + min + ", " + max + "]:");
+        for (int i = 0; i < counts.length; i++)
+            sb.append(' ').append((int) left(i)).append('=').append(counts[i]);
+        return sb.toString();
     }
 }
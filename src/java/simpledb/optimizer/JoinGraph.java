@@ -0,0 +1,190 @@
+package simpledb.optimizer;
+
+import java.util.function.LongConsumer;
+
+/**
+ * The query graph of a join: relations numbered from 0 to n - 1, and an edge
+ * between two relations wherever a join predicate connects them.  Sets of
+ * relations are bitmasks, bit i standing for relation i, so a graph holds
+ * at most {@link #MAX_RELATIONS} relations.
+ * <p>
+ * {@link #enumerateCcps} lists the pairs of sets a join enumerator needs to
+ * consider, following the DPccp algorithm of Moerkotte and Neumann
+ * ("Analysis of Two Existing and One New Dynamic Programming Algorithm for
+ * the Generation of Optimal Bushy Join Trees without Cross Products",
+ * VLDB 2006).  Unlike enumerating every subset of the relations, it never
+ * produces a set that is not connected, or a pair that would need a cross
+ * product to join.
+ */
+public class JoinGraph {
+
+    /** The largest number of relations a graph can hold */
+    public static final int MAX_RELATIONS = 64;
+
+    /**
+     * Receives the pairs enumerated by {@link #enumerateCcps}.
+     */
+    public interface PairConsumer {
+        /**
+         * @param s1 a connected set of relations
+         * @param s2 a connected set of relations, disjoint from s1 and
+         *           joined to it by at least one edge
+         */
+        void accept(long s1, long s2);
+    }
+
+    private final int n;
+    private final long[] neighbors;
+
+    /**
+     * Create a graph of n relations and no edges.
+     *
+     * @throws IllegalArgumentException if n is not between 1 and
+     *         {@link #MAX_RELATIONS}
+     */
+    public JoinGraph(int n) {
+        if (n < 1 || n > MAX_RELATIONS)
+            throw new IllegalArgumentException("a join graph holds 1 to " + MAX_RELATIONS
+                    + " relations, not " + n);
+        this.n = n;
+        this.neighbors = new long[n];
+    }
+
+    /**
+     * Add an edge between relations r1 and r2; adding it again, or an edge
+     * from a relation to itself, changes nothing.
+     */
+    public void addEdge(int r1, int r2) {
+        if (r1 == r2)
+            return;
+        neighbors[r1] |= 1L << r2;
+        neighbors[r2] |= 1L << r1;
+    }
+
+    /**
+     * @return the number of relations in the graph
+     */
+    public int numRelations() {
+        return n;
+    }
+
+    /**
+     * @return the set of all of the relations in the graph
+     */
+    public long all() {
+        return n == 64 ? -1L : (1L << n) - 1;
+    }
+
+    /**
+     * @return the relations outside set that have an edge to a relation in it
+     */
+    public long neighbors(long set) {
+        long result = 0;
+        for (long s = set; s != 0; s &= s - 1)
+            result |= neighbors[Long.numberOfTrailingZeros(s)];
+        return result & ~set;
+    }
+
+    /**
+     * @return the relations connected to relation r, including r itself
+     */
+    public long component(int r) {
+        long set = 1L << r;
+        for (long grow = neighbors(set); grow != 0; grow = neighbors(set))
+            set |= grow;
+        return set;
+    }
+
+    /**
+     * @return the relations 0 to i
+     */
+    private static long upTo(int i) {
+        return i == 63 ? -1L : (1L << (i + 1)) - 1;
+    }
+
+    /**
+     * Pass every csg-cmp pair of the graph to consumer: every pair (s1, s2)
+     * of disjoint connected sets of relations with an edge between them.
+     * Each pair is passed once, in one of its two orders, and the pairs
+     * that make up a set are all passed before any pair containing that set,
+     * so a dynamic program can build its plan for s1 | s2 from its plans for
+     * s1 and s2 as they arrive.  The relations should be numbered in breadth
+     * first order.
+     *
+     * @return the number of pairs passed
+     */
+    public long enumerateCcps(PairConsumer consumer) {
+        long[] count = {0};
+        LongConsumer onCsg = s1 -> enumerateCmp(s1, s2 -> {
+            consumer.accept(s1, s2);
+            count[0]++;
+        });
+        for (int i = n - 1; i >= 0; i--) {
+            long v = 1L << i;
+            onCsg.accept(v);
+            enumerateCsgRec(v, upTo(i), onCsg);
+        }
+        return count[0];
+    }
+
+    /**
+     * Thrown through {@link #enumerateCcps} to stop counting early.
+     */
+    private static class TooManyPairs extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TooManyPairs() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Count the csg-cmp pairs of the graph, as {@link #enumerateCcps} would
+     * pass them, but stop once there are more than limit.
+     *
+     * @return the number of pairs, or limit + 1 if there are more than limit
+     */
+    public long countCcps(long limit) {
+        long[] count = {0};
+        try {
+            enumerateCcps((s1, s2) -> {
+                if (++count[0] > limit)
+                    throw new TooManyPairs();
+            });
+        } catch (TooManyPairs e) {
+            // enough counted
+        }
+        return count[0];
+    }
+
+    /**
+     * Pass every connected set that extends s with neighbors outside x to
+     * emit, smaller sets first.
+     */
+    private void enumerateCsgRec(long s, long x, LongConsumer emit) {
+        long nb = neighbors(s) & ~x;
+        if (nb == 0)
+            return;
+        // (sub - nb) & nb steps through the subsets of nb in increasing order
+        for (long sub = -nb & nb; sub != 0; sub = (sub - nb) & nb)
+            emit.accept(s | sub);
+        for (long sub = -nb & nb; sub != 0; sub = (sub - nb) & nb)
+            enumerateCsgRec(s | sub, x | nb, emit);
+    }
+
+    /**
+     * Pass every connected complement of s1 to emit: the connected sets
+     * adjacent to s1 whose smallest relation is larger than s1's.
+     */
+    private void enumerateCmp(long s1, LongConsumer emit) {
+        long x = upTo(Long.numberOfTrailingZeros(s1)) | s1;
+        long nb = neighbors(s1) & ~x;
+        for (long rest = nb; rest != 0; ) {
+            int i = 63 - Long.numberOfLeadingZeros(rest);
+            long v = 1L << i;
+            rest &= ~v;
+            emit.accept(v);
+            enumerateCsgRec(v, x | (upTo(i) & nb), emit);
+        }
+    }
+}
@@ -19,6 +19,30 @@ public class JoinOptimizer {
     final LogicalPlan p;
     final List<LogicalJoinNode> joins;
 
+    /**
+     * How {@link #orderJoins} searches for a join order.
+     */
+    public enum Strategy {
+        /** Exhaustive search if it is small enough, greedy otherwise */
+        AUTO,
+        /** Dynamic programming over every connected set of tables */
+        EXHAUSTIVE,
+        /** Greedily join whichever two adjacent plans are cheapest to join */
+        GREEDY
+    }
+
+    /**
+     * Queries whose join graphs have more csg-cmp pairs than this (see
+     * {@link JoinGraph#enumerateCcps}) are ordered greedily rather than
+     * exhaustively.  The number grows with both the number of tables and the
+     * density of the joins between them: a chain of 50 tables stays under
+     * it, while a star of 14 or a clique of 11 does not.
+     */
+    public static final long MAX_DP_PAIRS = 20000;
+
+    private Strategy planStrategy;
+    private double planCost = Double.NaN;
+
     /**
      * Constructor
      * 
@@ -130,7 +154,14 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
-            return -1.0;
+            if (j.p == Predicate.Op.EQUALS) {
+                // instantiateJoin uses HashEquiJoin, which hashes the outer
+                // MAP_SIZE tuples at a time and scans the inner once per batch
+                double batches = Math.max(1.0, Math.ceil((double) card1 / HashEquiJoin.MAP_SIZE));
+                return cost1 + batches * cost2 + card1 + batches * card2;
+            }
+            // nested loops scan the inner once per outer tuple
+            return cost1 + card1 * cost2 + (double) card1 * card2;
         }
     }
 
@@ -176,44 +207,75 @@ public class JoinOptimizer {
                                                    Map<String, Integer> tableAliasToId) {
         int card = 1;
         // some code goes here
+        double cross = (double) card1 * card2;
+        double sel;
+        switch (joinOp) {
+            case EQUALS:
+            case LIKE:
+                if (t1pkey && t2pkey) {
+                    card = Math.min(card1, card2);
+                } else if (t1pkey) {
+                    card = card2;
+                } else if (t2pkey) {
+                    card = card1;
+                } else {
+                    sel = joinSelectivity(table1Alias, field1PureName, table2Alias, field2PureName,
+                            stats, tableAliasToId);
+                    card = sel < 0 ? Math.max(card1, card2) : (int) Math.min(Integer.MAX_VALUE, cross * sel);
+                }
+                break;
+            case NOT_EQUALS:
+                sel = joinSelectivity(table1Alias, field1PureName, table2Alias, field2PureName,
+                        stats, tableAliasToId);
+                card = (int) Math.min(Integer.MAX_VALUE, cross * (1.0 - Math.max(0.0, sel)));
+                break;
+            default:
+                // a range join keeps about a third of the cross product
+                card = (int) Math.min(Integer.MAX_VALUE, cross * 0.3);
+        }
         return card <= 0 ? 1 : card;
     }
 
     /**
-     * Helper method to enumerate all of the subsets of a given size of a
-     * specified vector.
-     * 
-     * @param v
-     *            The vector whose subsets are desired
-     * @param size
-     *            The size of the subsets of interest
-     * @return a set of all subsets of the specified size
+     * Estimate the selectivity of an equality join from the histograms of
+     * the joined fields.
+     *
+     * @return the selectivity, or -1 if either field has no statistics
      */
-    public <T> Set<Set<T>> enumerateSubsets(List<T> v, int size) {
-        Set<Set<T>> els = new HashSet<>();
-        els.add(new HashSet<>());
-        // Iterator<Set> it;
-        // long start = System.currentTimeMillis();
-
-        for (int i = 0; i < size; i++) {
-            Set<Set<T>> newels = new HashSet<>();
-            for (Set<T> s : els) {
-                for (T t : v) {
-                    Set<T> news = new HashSet<>(s);
-                    if (news.add(t))
-                        newels.add(news);
-                }
-            }
-            els = newels;
+    private static double joinSelectivity(String table1Alias, String field1PureName,
+                                          String table2Alias, String field2PureName,
+                                          Map<String, TableStats> stats,
+                                          Map<String, Integer> tableAliasToId) {
+        Integer id1 = tableAliasToId.get(table1Alias);
+        Integer id2 = table2Alias == null ? null : tableAliasToId.get(table2Alias);
+        if (id1 == null || id2 == null)
+            return -1;
+        TableStats s1 = stats.get(Database.getCatalog().getTableName(id1));
+        TableStats s2 = stats.get(Database.getCatalog().getTableName(id2));
+        if (s1 == null || s2 == null)
+            return -1;
+        try {
+            int f1 = Database.getCatalog().getTupleDesc(id1).fieldNameToIndex(field1PureName);
+            int f2 = Database.getCatalog().getTupleDesc(id2).fieldNameToIndex(field2PureName);
+            return s1.estimateJoinSelectivity(f1, s2, f2);
+        } catch (NoSuchElementException e) {
+            return -1;
         }
-
-        return els;
-
     }
 
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
      * PS4 for hints on how this should be implemented.
+     * <p>
+     * The joins are ordered by dynamic programming over the connected sets
+     * of tables, which {@link JoinGraph#enumerateCcps} lists without ever
+     * forming a set that would need a cross product; the best plan for each
+     * set is kept in a {@link JoinPlanTable}.  Queries too wide for that to
+     * finish quickly, with more than {@link #MAX_DP_PAIRS} pairs of sets to
+     * consider, are ordered greedily instead.
+     * <p>
+     * The plans found may be bushy, joining two results of joins; see
+     * {@link #orderJoinTrees} for them as trees.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -225,8 +287,9 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A List<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A List<LogicalJoinNode> that stores joins in the order in
+     *         which they should be executed: each join after the joins of
+     *         both of its inputs.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -237,171 +300,331 @@ public class JoinOptimizer {
             throws ParsingException {
 
         // some code goes here
-        //Replace the following
-        return joins;
+        return orderJoins(stats, filterSelectivities, explain, Strategy.AUTO);
     }
 
-    // ===================== Private Methods =================================
+    /**
+     * Order the joins as {@link #orderJoins(Map, Map, boolean)} does, with
+     * the given search strategy.
+     */
+    public List<LogicalJoinNode> orderJoins(
+            Map<String, TableStats> stats,
+            Map<String, Double> filterSelectivities, boolean explain,
+            Strategy strategy) throws ParsingException {
+        List<LogicalJoinNode> order = new ArrayList<>();
+        for (JoinTree tree : orderJoinTrees(stats, filterSelectivities, explain, strategy))
+            order.addAll(tree.joins());
+        return order;
+    }
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
-     * 
-     * @param stats
-     *            table stats for all of the tables, referenced by table names
-     *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
-     * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
-     * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
-     * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     * Find the best plan for the joins, as {@link #orderJoins(Map, Map,
+     * boolean)} does, as join trees with the estimated cost and cardinality
+     * of each subtree.
+     *
+     * @return a tree for each set of tables connected by the joins, or an
+     *         empty list if there are no joins
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
+    public List<JoinTree> orderJoinTrees(
             Map<String, TableStats> stats,
-            Map<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        List<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = new HashSet<>(joinSet);
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new ArrayList<>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias != null && isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
+            Map<String, Double> filterSelectivities, boolean explain)
+            throws ParsingException {
+        return orderJoinTrees(stats, filterSelectivities, explain, Strategy.AUTO);
+    }
+
+    /**
+     * Find the best plan for the joins as trees, as {@link
+     * #orderJoinTrees(Map, Map, boolean)} does, with the given search
+     * strategy.
+     */
+    public List<JoinTree> orderJoinTrees(
+            Map<String, TableStats> stats,
+            Map<String, Double> filterSelectivities, boolean explain,
+            Strategy strategy) throws ParsingException {
+        if (joins.isEmpty()) {
+            planStrategy = Strategy.EXHAUSTIVE;
+            planCost = 0;
+            return new ArrayList<>();
+        }
+        JoinEnumeration e = new JoinEnumeration(stats, filterSelectivities);
+        if (strategy == Strategy.AUTO)
+            strategy = e.graph.countCcps(MAX_DP_PAIRS) > MAX_DP_PAIRS ? Strategy.GREEDY : Strategy.EXHAUSTIVE;
+        if (strategy == Strategy.GREEDY)
+            e.greedy();
+        else
+            e.graph.enumerateCcps(e::considerPair);
+        List<JoinTree> trees = e.trees();
+        planStrategy = strategy;
+        planCost = 0;
+        for (JoinTree tree : trees)
+            planCost += tree.getCost();
+        if (explain) {
+            System.out.println("Joins of " + e.aliases.size() + " tables ordered by "
+                    + strategy.name().toLowerCase() + " search, estimated cost " + planCost);
+            for (JoinTree tree : trees)
+                System.out.println(tree);
+            printJoins(trees);
+        }
+        return trees;
+    }
+
+    /**
+     * @return the strategy, EXHAUSTIVE or GREEDY, that found the join order
+     *         last returned by orderJoins, or null if it has not run
+     */
+    public Strategy getPlanStrategy() {
+        return planStrategy;
+    }
+
+    /**
+     * @return the estimated cost of the join order last returned by
+     *         orderJoins, or NaN if it has not run
+     */
+    public double getPlanCost() {
+        return planCost;
+    }
+
+    // ===================== Private Methods =================================
 
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
+    /**
+     * The state of one run of the join enumerator: the query graph of the
+     * joins, and the table of the best plans found so far.
+     */
+    private class JoinEnumeration {
+        final Map<String, TableStats> stats;
+
+        // relation i is the table aliases.get(i), or a subquery if null
+        final List<String> aliases = new ArrayList<>();
+        final JoinGraph graph;
+        final JoinPlanTable table;
+
+        // join e connects relations ends1[e] and ends2[e]; nodes[2e] is the
+        // join and nodes[2e + 1] the join with its inner and outer swapped,
+        // whose fields are primary keys as pkey1 and pkey2 say
+        final int[] ends1, ends2;
+        final LogicalJoinNode[] nodes;
+        final boolean[] pkey1, pkey2;
+
+        // the joins touching each relation
+        final int[][] joinsOf;
+
+        JoinEnumeration(Map<String, TableStats> stats,
+                        Map<String, Double> filterSelectivities) throws ParsingException {
+            this.stats = stats;
+            int m = joins.size();
+            ends1 = new int[m];
+            ends2 = new int[m];
+            nodes = new LogicalJoinNode[2 * m];
+            pkey1 = new boolean[2 * m];
+            pkey2 = new boolean[2 * m];
+
+            // number the relations breadth first, as DPccp expects; each
+            // subquery is a relation of its own
+            Map<String, List<Integer>> joinsOfAlias = new LinkedHashMap<>();
+            for (int e = 0; e < m; e++) {
+                LogicalJoinNode j = joins.get(e);
+                joinsOfAlias.computeIfAbsent(j.t1Alias, k -> new ArrayList<>()).add(e);
+                if (!(j instanceof LogicalSubplanJoinNode))
+                    joinsOfAlias.computeIfAbsent(j.t2Alias, k -> new ArrayList<>()).add(e);
+            }
+            Map<String, Integer> index = new HashMap<>();
+            Arrays.fill(ends2, -1);
+            Deque<String> queue = new ArrayDeque<>();
+            for (String start : joinsOfAlias.keySet()) {
+                if (index.containsKey(start))
+                    continue;
+                index.put(start, aliases.size());
+                aliases.add(start);
+                queue.add(start);
+                while (!queue.isEmpty()) {
+                    String alias = queue.poll();
+                    for (int e : joinsOfAlias.get(alias)) {
+                        LogicalJoinNode j = joins.get(e);
+                        if (j instanceof LogicalSubplanJoinNode) {
+                            if (ends2[e] < 0) {
+                                ends2[e] = aliases.size();
+                                aliases.add(null);
+                            }
+                            continue;
+                        }
+                        String other = j.t1Alias.equals(alias) ? j.t2Alias : j.t1Alias;
+                        if (!index.containsKey(other)) {
+                            index.put(other, aliases.size());
+                            aliases.add(other);
+                            queue.add(other);
+                        }
+                    }
+                }
+            }
+            if (aliases.size() > JoinGraph.MAX_RELATIONS)
+                throw new ParsingException("Too many tables to join: " + aliases.size());
+
+            graph = new JoinGraph(aliases.size());
+            List<List<Integer>> touching = new ArrayList<>();
+            for (int i = 0; i < aliases.size(); i++)
+                touching.add(new ArrayList<>());
+            for (int e = 0; e < m; e++) {
+                LogicalJoinNode j = joins.get(e);
+                ends1[e] = index.get(j.t1Alias);
+                if (!(j instanceof LogicalSubplanJoinNode))
+                    ends2[e] = index.get(j.t2Alias);
+                graph.addEdge(ends1[e], ends2[e]);
+                touching.get(ends1[e]).add(e);
+                touching.get(ends2[e]).add(e);
+                nodes[2 * e] = j;
+                nodes[2 * e + 1] = j.swapInnerOuter();
+                for (int n = 2 * e; n <= 2 * e + 1; n++) {
+                    LogicalJoinNode o = nodes[n];
+                    pkey1[n] = isPkey(o.t1Alias, o.f1PureName);
+                    pkey2[n] = o.t2Alias != null && isPkey(o.t2Alias, o.f2PureName);
+                }
+            }
+            joinsOf = new int[aliases.size()][];
+            for (int i = 0; i < aliases.size(); i++)
+                joinsOf[i] = touching.get(i).stream().mapToInt(Integer::intValue).toArray();
+
+            // the plans for single relations are scans
+            table = new JoinPlanTable(4 * aliases.size());
+            for (int i = 0; i < aliases.size(); i++) {
+                String alias = aliases.get(i);
+                double cost = 0;
+                int card = 0;
+                if (alias != null) {
+                    Integer tableId = p.getTableId(alias);
+                    if (tableId == null)
+                        throw new ParsingException("Unknown table " + alias);
+                    TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+                    Double selectivity = filterSelectivities.get(alias);
+                    if (s == null || selectivity == null)
+                        throw new ParsingException("No statistics for table " + alias);
+                    cost = s.estimateScanCost();
+                    card = s.estimateTableCardinality(selectivity);
+                }
+                table.update(table.add(1L << i), cost, card, 0, -1, false);
             }
+        }
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias != null && isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
+        /**
+         * Consider joining s1 and s2 by each join between them, each way
+         * round, keeping the cheapest plan for s1 | s2.
+         */
+        void considerPair(long s1, long s2) {
+            int p1 = table.find(s1), p2 = table.find(s2);
+            int best = table.add(s1 | s2);
+            long smaller = Long.bitCount(s1) <= Long.bitCount(s2) ? s1 : s2;
+            for (long s = smaller; s != 0; s &= s - 1) {
+                for (int e : joinsOf[Long.numberOfTrailingZeros(s)]) {
+                    long b1 = 1L << ends1[e], b2 = 1L << ends2[e];
+                    boolean forward = (b1 & s1) != 0 && (b2 & s2) != 0;
+                    if (!forward && !((b1 & s2) != 0 && (b2 & s1) != 0))
+                        continue;
+                    int outer = forward ? p1 : p2, inner = forward ? p2 : p1;
+                    consider(best, outer, inner, 2 * e);
+                    // a subquery is always the inner
+                    if (!(nodes[2 * e] instanceof LogicalSubplanJoinNode))
+                        consider(best, inner, outer, 2 * e + 1);
+                }
             }
         }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
-
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
+        /**
+         * Keep the plan joining entries outer and inner by nodes[n] as the
+         * plan for entry best, if it is cheaper.
+         */
+        private void consider(int best, int outer, int inner, int n) {
+            LogicalJoinNode j = nodes[n];
+            double cost = estimateJoinCost(j, table.card(outer), table.card(inner),
+                    table.cost(outer), table.cost(inner));
+            if (cost >= table.cost(best))
+                return;
+            boolean outerPkey = table.join(outer) < 0 ? pkey1[n] : table.pkey(outer);
+            boolean innerPkey = table.join(inner) < 0 ? pkey2[n] : table.pkey(inner);
+            int card = estimateJoinCardinality(j, table.card(outer), table.card(inner),
+                    outerPkey, innerPkey, stats);
+            table.update(best, cost, card, table.set(outer), n,
+                    table.pkey(outer) || table.pkey(inner) || pkey1[n] || pkey2[n]);
         }
-        if (cost1 >= bestCostSoFar)
-            return null;
 
-        CostCard cc = new CostCard();
+        /**
+         * Find a plan for each piece of the query graph greedily, in the
+         * manner of Fegaras' greedy operator ordering: start with a plan
+         * for each table, then repeatedly replace the two adjacent plans
+         * that are cheapest to join with their join, until one plan is
+         * left.  The plans joined may both be joins, so the result can be
+         * bushy.  This considers O(n^2) joins for n tables, where
+         * exhaustive search can consider exponentially many.
+         */
+        void greedy() {
+            List<Long> plans = new ArrayList<>();
+            for (int i = 0; i < aliases.size(); i++)
+                plans.add(1L << i);
+            while (true) {
+                int best1 = -1, best2 = -1;
+                double cost = Double.POSITIVE_INFINITY;
+                for (int i = 0; i < plans.size(); i++) {
+                    long s1 = plans.get(i);
+                    long nb = graph.neighbors(s1);
+                    for (int k = i + 1; k < plans.size(); k++) {
+                        long s2 = plans.get(k);
+                        if ((nb & s2) == 0)
+                            continue;
+                        // plans only grow, so a pair's union is never
+                        // reached any other way, and its entry can be reused
+                        int entry = table.find(s1 | s2);
+                        if (entry < 0) {
+                            considerPair(s1, s2);
+                            entry = table.find(s1 | s2);
+                        }
+                        if (table.cost(entry) < cost) {
+                            cost = table.cost(entry);
+                            best1 = i;
+                            best2 = k;
+                        }
+                    }
+                }
+                if (best1 < 0)
+                    return;
+                plans.set(best1, plans.get(best1) | plans.get(best2));
+                plans.remove(best2);
+            }
+        }
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = new ArrayList<>(prevBest);
-        cc.plan.add(j); // prevbest is left -- add new join to end
-        return cc;
-    }
+        /**
+         * @return the best plan found for each piece of the query graph
+         */
+        List<JoinTree> trees() {
+            List<JoinTree> trees = new ArrayList<>();
+            long done = 0;
+            for (int i = 0; i < aliases.size(); i++) {
+                if ((done & (1L << i)) != 0)
+                    continue;
+                long component = graph.component(i);
+                done |= component;
+                trees.add(tree(table.find(component)));
+            }
+            return trees;
+        }
 
-    /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
-     */
-    private boolean doesJoin(List<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+        private JoinTree tree(int entry) {
+            int n = table.join(entry);
+            if (n < 0) {
+                String alias = aliases.get(Long.numberOfTrailingZeros(table.set(entry)));
+                return JoinTree.leaf(alias, table.cost(entry), table.card(entry));
+            }
+            long outer = table.outer(entry), inner = table.inner(entry);
+            // any other joins between the two sides are applied to the
+            // result, oriented as the query wrote them
+            List<LogicalJoinNode> residuals = new ArrayList<>();
+            for (long s = outer; s != 0; s &= s - 1) {
+                for (int e : joinsOf[Long.numberOfTrailingZeros(s)]) {
+                    long ends = (1L << ends1[e]) | (1L << ends2[e]);
+                    if (e != n / 2 && (ends & outer) != 0 && (ends & inner) != 0)
+                        residuals.add(nodes[2 * e]);
+                }
+            }
+            return JoinTree.join(nodes[n], tree(table.find(outer)), tree(table.find(inner)),
+                    residuals, table.cost(entry), table.card(entry));
         }
-        return false;
     }
 
     /**
@@ -420,39 +643,16 @@ public class JoinOptimizer {
         return pkey1.equals(field);
     }
 
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(List<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
-    }
-
     /**
      * Helper function to display a Swing window with a tree representation of
-     * the specified list of joins. See {@link #orderJoins}, which may want to
+     * the specified join plans. See {@link #orderJoins}, which may want to
      * call this when the analyze flag is true.
      * 
-     * @param js
-     *            the join plan to visualize
-     * @param pc
-     *            the PlanCache accumulated whild building the optimal plan
-     * @param stats
-     *            table statistics for base tables
-     * @param selectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
+     * @param trees
+     *            the join plans to visualize, one for each set of connected
+     *            tables
      */
-    private void printJoins(List<LogicalJoinNode> js, PlanCache pc,
-            Map<String, TableStats> stats,
-            Map<String, Double> selectivities) {
+    private void printJoins(List<JoinTree> trees) {
 
         JFrame f = new JFrame("Join Plan for " + p.getQuery());
 
@@ -464,78 +664,13 @@ public class JoinOptimizer {
 
         f.setSize(300, 500);
 
-        Map<String, DefaultMutableTreeNode> m = new HashMap<>();
-
-        // int numTabs = 0;
-
-        // int k;
-        DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<>();
-        boolean neither;
-
-        System.out.println(js);
-        for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
-
-            String table1Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t1Alias));
-            String table2Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t2Alias));
-
-            // Double c = pc.getCost(pathSoFar);
-            neither = true;
-
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
-            DefaultMutableTreeNode n = m.get(j.t1Alias);
-            if (n == null) { // never seen this table before
-                n = new DefaultMutableTreeNode(j.t1Alias
-                        + " (Cost = "
-                        + stats.get(table1Name).estimateScanCost()
-                        + ", card = "
-                        + stats.get(table1Name).estimateTableCardinality(
-                                selectivities.get(j.t1Alias)) + ")");
-                root.add(n);
-            } else {
-                // make left child root n
-                root.add(n);
-                neither = false;
-            }
-            m.put(j.t1Alias, root);
-
-            n = m.get(j.t2Alias);
-            if (n == null) { // never seen this table before
-
-                n = new DefaultMutableTreeNode(
-                        j.t2Alias == null ? "Subplan"
-                                : (j.t2Alias
-                                        + " (Cost = "
-                                        + stats.get(table2Name)
-                                                .estimateScanCost()
-                                        + ", card = "
-                                        + stats.get(table2Name)
-                                                .estimateTableCardinality(
-                                                        selectivities
-                                                                .get(j.t2Alias)) + ")"));
-                root.add(n);
-            } else {
-                // make right child root n
-                root.add(n);
-                neither = false;
-            }
-            m.put(j.t2Alias, root);
-
-            // unless this table doesn't join with other tables,
-            // all tables are accessed from root
-            if (!neither) {
-                for (String key : m.keySet()) {
-                    m.put(key, root);
-                }
-            }
-
-            treetop = root;
+        DefaultMutableTreeNode treetop;
+        if (trees.size() == 1) {
+            treetop = treeNode(trees.get(0));
+        } else {
+            treetop = new DefaultMutableTreeNode("Unjoined plans");
+            for (JoinTree t : trees)
+                treetop.add(treeNode(t));
         }
 
         JTree tree = new JTree(treetop);
@@ -558,7 +693,7 @@ public class JoinOptimizer {
             tree.expandRow(i);
         }
 
-        if (js.size() == 0) {
+        if (trees.size() == 0) {
             f.add(new JLabel("No joins in plan."));
         }
 
@@ -566,4 +701,21 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * @return a Swing tree node drawing the join plan tree
+     */
+    private static DefaultMutableTreeNode treeNode(JoinTree tree) {
+        String estimates = " (Cost = " + tree.getCost() + ", card = " + tree.getCardinality() + ")";
+        if (tree.isLeaf())
+            return new DefaultMutableTreeNode(tree.getAlias() == null ? "Subplan"
+                    : tree.getAlias() + estimates);
+        StringBuilder label = new StringBuilder("Join ").append(tree.getJoin());
+        for (LogicalJoinNode r : tree.getResiduals())
+            label.append(" and ").append(r);
+        DefaultMutableTreeNode n = new DefaultMutableTreeNode(label + estimates);
+        n.add(treeNode(tree.getOuter()));
+        n.add(treeNode(tree.getInner()));
+        return n;
+    }
+
 }
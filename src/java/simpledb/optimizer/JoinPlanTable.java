@@ -0,0 +1,175 @@
+package simpledb.optimizer;
+
+import java.util.Arrays;
+
+/**
+ * The table of best plans a join enumerator builds up: for each set of
+ * relations (a bitmask, as in {@link JoinGraph}), the cost and cardinality
+ * of the best plan found for joining it, and how that plan splits the set
+ * into the outer and inner sides of its last join.
+ * <p>
+ * Entries live in flat parallel arrays, and are found by set through an
+ * open-addressing hash table, so filling the table allocates nothing per
+ * plan considered.
+ */
+public class JoinPlanTable {
+
+    private long[] sets;
+    private double[] costs;
+    private int[] cards;
+    private long[] outers;
+    private int[] joins;
+    private boolean[] pkeys;
+    private int size;
+
+    // slots[h] is one more than the entry whose set hashes to h, or 0
+    private int[] slots;
+
+    /**
+     * Create an empty table.
+     *
+     * @param expected the number of entries expected, to size the table
+     */
+    public JoinPlanTable(int expected) {
+        int capacity = 16;
+        while (capacity < expected)
+            capacity <<= 1;
+        sets = new long[capacity];
+        costs = new double[capacity];
+        cards = new int[capacity];
+        outers = new long[capacity];
+        joins = new int[capacity];
+        pkeys = new boolean[capacity];
+        slots = new int[capacity * 2];
+    }
+
+    private int slot(long set) {
+        long h = set * 0x9E3779B97F4A7C15L;
+        int mask = slots.length - 1;
+        int i = (int) (h ^ (h >>> 32)) & mask;
+        while (slots[i] != 0 && sets[slots[i] - 1] != set)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /**
+     * @return the entry for set, or -1 if there is none
+     */
+    public int find(long set) {
+        return slots[slot(set)] - 1;
+    }
+
+    /**
+     * Find the entry for set, adding one with an infinite cost and no
+     * plan if there is none.
+     *
+     * @return the entry
+     */
+    public int add(long set) {
+        int i = slot(set);
+        if (slots[i] != 0)
+            return slots[i] - 1;
+        if (size == sets.length) {
+            grow();
+            i = slot(set);
+        }
+        int e = size++;
+        sets[e] = set;
+        costs[e] = Double.POSITIVE_INFINITY;
+        cards[e] = 0;
+        outers[e] = 0;
+        joins[e] = -1;
+        pkeys[e] = false;
+        slots[i] = e + 1;
+        return e;
+    }
+
+    private void grow() {
+        int capacity = sets.length * 2;
+        sets = Arrays.copyOf(sets, capacity);
+        costs = Arrays.copyOf(costs, capacity);
+        cards = Arrays.copyOf(cards, capacity);
+        outers = Arrays.copyOf(outers, capacity);
+        joins = Arrays.copyOf(joins, capacity);
+        pkeys = Arrays.copyOf(pkeys, capacity);
+        slots = new int[capacity * 2];
+        for (int e = 0; e < size; e++)
+            slots[slot(sets[e])] = e + 1;
+    }
+
+    /**
+     * Record a plan for an entry, replacing whatever it held.
+     *
+     * @param e the entry
+     * @param cost the plan's estimated cost
+     * @param card the plan's estimated cardinality
+     * @param outer the relations on the outer side of the plan's last join,
+     *              or 0 if the entry's set is a single relation
+     * @param join an identifier of the plan's last join, chosen by the
+     *             enumerator, or -1 if there is none
+     * @param pkey whether some join in the plan is on a primary key
+     */
+    public void update(int e, double cost, int card, long outer, int join, boolean pkey) {
+        costs[e] = cost;
+        cards[e] = card;
+        outers[e] = outer;
+        joins[e] = join;
+        pkeys[e] = pkey;
+    }
+
+    /**
+     * @return the number of entries in the table
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the set of relations of entry e
+     */
+    public long set(int e) {
+        return sets[e];
+    }
+
+    /**
+     * @return the cost of entry e's plan
+     */
+    public double cost(int e) {
+        return costs[e];
+    }
+
+    /**
+     * @return the cardinality of entry e's plan
+     */
+    public int card(int e) {
+        return cards[e];
+    }
+
+    /**
+     * @return the outer relations of entry e's last join
+     */
+    public long outer(int e) {
+        return outers[e];
+    }
+
+    /**
+     * @return the inner relations of entry e's last join
+     */
+    public long inner(int e) {
+        return outers[e] == 0 ? 0 : sets[e] & ~outers[e];
+    }
+
+    /**
+     * @return the identifier of entry e's last join, or -1
+     */
+    public int join(int e) {
+        return joins[e];
+    }
+
+    /**
+     * @return whether some join in entry e's plan is on a primary key
+     */
+    public boolean pkey(int e) {
+        return pkeys[e];
+    }
+}
@@ -0,0 +1,170 @@
+package simpledb.optimizer;
+
+import java.util.*;
+
+/**
+ * A join plan as a binary tree, as {@link JoinOptimizer#orderJoinTrees}
+ * finds it.  A leaf reads one table, or a subquery; an inner node joins
+ * the results of its outer and inner subtrees by a join predicate, and then
+ * applies any residual join predicates, the other predicates of the query
+ * that connect the two subtrees.  Either subtree may itself be a join, so
+ * the plan need not be left-deep.
+ * <p>
+ * Each node carries the optimizer's estimates of the cost of computing it
+ * and of the number of tuples it produces.
+ */
+public class JoinTree {
+
+    private final String alias;
+    private final LogicalJoinNode join;
+    private final JoinTree outer, inner;
+    private final List<LogicalJoinNode> residuals;
+    private final double cost;
+    private final int card;
+
+    private JoinTree(String alias, LogicalJoinNode join, JoinTree outer, JoinTree inner,
+                     List<LogicalJoinNode> residuals, double cost, int card) {
+        this.alias = alias;
+        this.join = join;
+        this.outer = outer;
+        this.inner = inner;
+        this.residuals = residuals;
+        this.cost = cost;
+        this.card = card;
+    }
+
+    /**
+     * @param alias the alias of the table read, or null for a subquery
+     * @return a leaf
+     */
+    public static JoinTree leaf(String alias, double cost, int card) {
+        return new JoinTree(alias, null, null, null, Collections.emptyList(), cost, card);
+    }
+
+    /**
+     * @param join the join of outer and inner; its first table is in outer
+     *             and its second in inner
+     * @param residuals the other joins between outer and inner, applied to
+     *                  the result of join
+     * @return an inner node
+     */
+    public static JoinTree join(LogicalJoinNode join, JoinTree outer, JoinTree inner,
+                                List<LogicalJoinNode> residuals, double cost, int card) {
+        return new JoinTree(null, join, outer, inner,
+                Collections.unmodifiableList(new ArrayList<>(residuals)), cost, card);
+    }
+
+    /**
+     * @return whether this is a leaf
+     */
+    public boolean isLeaf() {
+        return join == null;
+    }
+
+    /**
+     * @return the alias of a leaf's table, or null for a subquery or an
+     *         inner node
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the join of an inner node, or null for a leaf
+     */
+    public LogicalJoinNode getJoin() {
+        return join;
+    }
+
+    /**
+     * @return the outer subtree of an inner node, or null for a leaf
+     */
+    public JoinTree getOuter() {
+        return outer;
+    }
+
+    /**
+     * @return the inner subtree of an inner node, or null for a leaf
+     */
+    public JoinTree getInner() {
+        return inner;
+    }
+
+    /**
+     * @return the residual joins of an inner node, empty for a leaf
+     */
+    public List<LogicalJoinNode> getResiduals() {
+        return residuals;
+    }
+
+    /**
+     * @return the estimated cost of computing this subtree
+     */
+    public double getCost() {
+        return cost;
+    }
+
+    /**
+     * @return the estimated number of tuples this subtree produces
+     */
+    public int getCardinality() {
+        return card;
+    }
+
+    /**
+     * @return the aliases of the tables at the leaves of this subtree, from
+     *         left to right, leaving out subqueries
+     */
+    public List<String> aliases() {
+        List<String> aliases = new ArrayList<>();
+        addAliases(aliases);
+        return aliases;
+    }
+
+    private void addAliases(List<String> aliases) {
+        if (isLeaf()) {
+            if (alias != null)
+                aliases.add(alias);
+            return;
+        }
+        outer.addAliases(aliases);
+        inner.addAliases(aliases);
+    }
+
+    /**
+     * @return the joins of this subtree in the order they run: each join
+     *         after the joins of its subtrees, and followed by its residuals
+     */
+    public List<LogicalJoinNode> joins() {
+        List<LogicalJoinNode> joins = new ArrayList<>();
+        addJoins(joins);
+        return joins;
+    }
+
+    private void addJoins(List<LogicalJoinNode> joins) {
+        if (isLeaf())
+            return;
+        outer.addJoins(joins);
+        inner.addJoins(joins);
+        joins.add(join);
+        joins.addAll(residuals);
+    }
+
+    /**
+     * @return the height of this subtree, 0 for a leaf
+     */
+    public int height() {
+        return isLeaf() ? 0 : 1 + Math.max(outer.height(), inner.height());
+    }
+
+    @Override
+    public String toString() {
+        if (isLeaf())
+            return alias == null ? "subplan" : alias;
+        StringBuilder sb = new StringBuilder("(").append(outer).append(" JOIN ").append(inner);
+        sb.append(" on ").append(join);
+        for (LogicalJoinNode r : residuals)
+            sb.append(" and ").append(r);
+        return sb.append(")").toString();
+    }
+}
@@ -0,0 +1,215 @@
+package simpledb.optimizer;
+
+import simpledb.execution.Predicate;
+
+import java.util.Arrays;
+
+/**
+ * A two-dimensional histogram over a pair of fields of a table, used to
+ * estimate the selectivity of a predicate on each of them together when the
+ * fields are correlated (say, a city and its zip code), where multiplying
+ * their selectivities would badly underestimate it.
+ * <p>
+ * Each field's values are split into equi-depth ranges, and the histogram
+ * counts the tuples in each cell of the resulting grid.  The grid is too
+ * coarse to estimate selectivities by itself, so it only corrects the
+ * product of the fields' own estimates: see {@link #correlation}.
+ */
+public class JointHistogram {
+
+    private final int field1;
+    private final int field2;
+    private final int ntups;
+
+    // the ranges of each field's values: range i holds distinct different
+    // values between lo[i] and hi[i] inclusive
+    private final int[] lo1, hi1, distinct1;
+    private final int[] lo2, hi2, distinct2;
+
+    // cells[i * lo2.length + j] counts the tuples in range i of field1 and
+    // range j of field2
+    private final int[] cells;
+
+    private JointHistogram(int field1, int field2, int ntups, int[] lo1, int[] hi1, int[] distinct1,
+                           int[] lo2, int[] hi2, int[] distinct2, int[] cells) {
+        this.field1 = field1;
+        this.field2 = field2;
+        this.ntups = ntups;
+        this.lo1 = lo1;
+        this.hi1 = hi1;
+        this.distinct1 = distinct1;
+        this.lo2 = lo2;
+        this.hi2 = hi2;
+        this.distinct2 = distinct2;
+        this.cells = cells;
+    }
+
+    /**
+     * Build a joint histogram of the first n pairs (values1[i], values2[i]).
+     *
+     * @param field1 the index of the first field
+     * @param field2 the index of the second field
+     * @param ranges the largest number of ranges to split each field into
+     */
+    public static JointHistogram build(int field1, int[] values1, int field2, int[] values2,
+                                       int n, int ranges) {
+        int[][] r1 = ranges(values1, n, ranges);
+        int[][] r2 = ranges(values2, n, ranges);
+        int[] cells = new int[r1[0].length * r2[0].length];
+        for (int i = 0; i < n; i++)
+            cells[range(r1[1], values1[i]) * r2[0].length + range(r2[1], values2[i])]++;
+        return new JointHistogram(field1, field2, n, r1[0], r1[1], r1[2], r2[0], r2[1], r2[2], cells);
+    }
+
+    /**
+     * Split the first n values into at most ranges equi-depth ranges.
+     *
+     * @return the ranges' lowest values, highest values and numbers of
+     *         distinct values
+     */
+    private static int[][] ranges(int[] values, int n, int ranges) {
+        int[] sorted = Arrays.copyOf(values, n);
+        Arrays.sort(sorted);
+        double depth = Math.max(1.0, (double) n / ranges);
+        int[] lo = new int[ranges], hi = new int[ranges], distinct = new int[ranges], counts = new int[ranges];
+        int r = -1;
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && sorted[i] == sorted[i - 1]) {
+                counts[r]++;
+                continue;
+            }
+            if (r < 0 || (counts[r] >= depth && r < ranges - 1)) {
+                r++;
+                lo[r] = sorted[i];
+            }
+            hi[r] = sorted[i];
+            counts[r]++;
+            distinct[r]++;
+        }
+        return new int[][]{Arrays.copyOf(lo, r + 1), Arrays.copyOf(hi, r + 1), Arrays.copyOf(distinct, r + 1)};
+    }
+
+    /**
+     * @return the range that holds v: the first whose highest value is at
+     *         least v, or the last
+     */
+    private static int range(int[] hi, int v) {
+        int r = Arrays.binarySearch(hi, v);
+        if (r < 0)
+            r = -r - 1;
+        return Math.min(r, hi.length - 1);
+    }
+
+    /**
+     * @return the index of the first field
+     */
+    public int getField1() {
+        return field1;
+    }
+
+    /**
+     * @return the index of the second field
+     */
+    public int getField2() {
+        return field2;
+    }
+
+    /**
+     * @return the fraction of the values in [lo, hi], assumed spread evenly
+     *         over distinct values, that satisfy op v
+     */
+    private static double fraction(int lo, int hi, int distinct, Predicate.Op op, int v) {
+        double eq = v < lo || v > hi ? 0.0 : 1.0 / distinct;
+        double lt = v <= lo ? 0.0 : v > hi ? 1.0 : ((double) v - lo) / ((double) hi - lo + 1);
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return eq;
+            case NOT_EQUALS:
+                return 1.0 - eq;
+            case LESS_THAN:
+                return lt;
+            case LESS_THAN_OR_EQ:
+                return Math.min(1.0, lt + eq);
+            case GREATER_THAN:
+                return Math.max(0.0, 1.0 - lt - eq);
+            case GREATER_THAN_OR_EQ:
+                return 1.0 - lt;
+            default:
+                throw new IllegalArgumentException("unsupported operator " + op);
+        }
+    }
+
+    /**
+     * Estimate how far the fields depart from independence under a pair of
+     * predicates, <tt>field1 op1 v1</tt> and <tt>field2 op2 v2</tt>: the
+     * grid's estimate of the fraction of tuples satisfying both, divided by
+     * the product of its estimates for each.  Multiplying the fields' own
+     * selectivities by this factor estimates the selectivity of both
+     * predicates together.
+     *
+     * @return the correlation factor, 1.0 if the fields look independent
+     *         (or nothing is known)
+     */
+    public double correlation(Predicate.Op op1, int v1, Predicate.Op op2, int v2) {
+        if (ntups == 0)
+            return 1.0;
+        double[] f1 = new double[lo1.length];
+        double[] f2 = new double[lo2.length];
+        for (int i = 0; i < f1.length; i++)
+            f1[i] = fraction(lo1[i], hi1[i], distinct1[i], op1, v1);
+        for (int j = 0; j < f2.length; j++)
+            f2[j] = fraction(lo2[j], hi2[j], distinct2[j], op2, v2);
+        double both = 0, first = 0, second = 0;
+        for (int i = 0; i < f1.length; i++) {
+            for (int j = 0; j < f2.length; j++) {
+                int c = cells[i * f2.length + j];
+                both += c * f1[i] * f2[j];
+                first += c * f1[i];
+                second += c * f2[j];
+            }
+        }
+        if (first == 0 || second == 0)
+            return 1.0;
+        return both * ntups / (first * second);
+    }
+
+    /**
+     * @return the histogram as an array of ints, which {@link #decode}
+     *         turns back into an equal histogram
+     */
+    public int[] encode() {
+        int r1 = lo1.length, r2 = lo2.length;
+        int[] code = new int[5 + 3 * r1 + 3 * r2 + cells.length];
+        code[0] = field1;
+        code[1] = field2;
+        code[2] = ntups;
+        code[3] = r1;
+        code[4] = r2;
+        int p = 5;
+        for (int[] a : new int[][]{lo1, hi1, distinct1, lo2, hi2, distinct2, cells}) {
+            System.arraycopy(a, 0, code, p, a.length);
+            p += a.length;
+        }
+        return code;
+    }
+
+    /**
+     * @return the histogram encoded by {@link #encode}
+     * @throws IllegalArgumentException if code is not an encoded histogram
+     */
+    public static JointHistogram decode(int[] code) {
+        if (code.length < 5 || code.length != 5 + 3 * code[3] + 3 * code[4] + code[3] * code[4])
+            throw new IllegalArgumentException("not an encoded joint histogram");
+        int r1 = code[3], r2 = code[4];
+        int p = 5;
+        int[][] parts = new int[7][];
+        int[] lengths = {r1, r1, r1, r2, r2, r2, r1 * r2};
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = Arrays.copyOfRange(code, p, p + lengths[i]);
+            p += lengths[i];
+        }
+        return new JointHistogram(code[0], code[1], code[2], parts[0], parts[1], parts[2],
+                parts[3], parts[4], parts[5], parts[6]);
+    }
+}
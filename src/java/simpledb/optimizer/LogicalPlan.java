@@ -4,6 +4,8 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -28,7 +30,6 @@ public class LogicalPlan {
     private List<LogicalJoinNode> joins;
     private final List<LogicalScanNode> tables;
     private final List<LogicalFilterNode> filters;
-    private final Map<String, OpIterator> subplanMap;
     private final Map<String,Integer> tableMap;
 
     private final List<LogicalSelectListNode> selectList;
@@ -41,12 +42,28 @@ public class LogicalPlan {
     private String query;
 //    private Query owner;
 
+    /**
+     * The optimizer's choices for a plan whose filters take parameters,
+     * shared with the copies {@link #bind} makes of it, so that the joins
+     * are ordered once, for the values first bound, and each later binding
+     * reuses the same join order.  Access paths are not shared: whether an
+     * index pays depends on how many tuples the bound values select, and
+     * choosing one again only takes a few estimates.
+     */
+    private static class Choices {
+        // the joins, in the trees JoinOptimizer.orderJoinTrees found
+        volatile List<JoinTree> joinTrees;
+    }
+
+    private Choices choices;
+    private int numParams = 0;
+    private boolean baseRecordIds = false;
+
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
         joins = new ArrayList<>();
         filters = new ArrayList<>();
         tables = new ArrayList<>();
-        subplanMap = new HashMap<>();
         tableMap = new HashMap<>();
 
         selectList = new ArrayList<>();
@@ -69,6 +86,82 @@ public class LogicalPlan {
         return query;
     }
 
+    /** Require the tuples of the physical plan to carry RecordIds into the tables they were
+        read from, as a DELETE over the plan does.  Tuples read through a secondary index are
+        copies whose RecordIds point into the index file, so such a plan never reads a table
+        through one.
+
+        @param baseRecordIds whether the plan's tuples must carry base table RecordIds
+    */
+    public void setBaseRecordIds(boolean baseRecordIds) {
+        this.baseRecordIds = baseRecordIds;
+    }
+
+    /** Copy a plan, sharing everything but its filters, which are copied with parameters bound */
+    private LogicalPlan(LogicalPlan template, List<LogicalFilterNode> filters) {
+        joins = template.joins;
+        tables = template.tables;
+        tableMap = template.tableMap;
+        selectList = template.selectList;
+        groupByField = template.groupByField;
+        hasAgg = template.hasAgg;
+        aggOp = template.aggOp;
+        aggField = template.aggField;
+        oByAsc = template.oByAsc;
+        hasOrderBy = template.hasOrderBy;
+        oByField = template.oByField;
+        query = template.query;
+        choices = template.choices;
+        baseRecordIds = template.baseRecordIds;
+        this.filters = filters;
+    }
+
+    /** Make the constants of filters into parameters, whose values are given when the plan is
+     *   bound with {@link #bind}.  Plans bound from this one are optimized once, when the first of
+     *   them is converted into a physical plan, and all share its choices.
+     *  @param markers the parameter number standing for each constant; a filter whose constant
+     *   is a key of markers takes the value of that parameter instead
+     *  @return the number of filters whose constants were made parameters
+     */
+    public int parameterize(Map<String,Integer> markers) {
+        int count = 0;
+        for (int i = 0; i < filters.size(); i++) {
+            LogicalFilterNode lf = filters.get(i);
+            Integer param = lf.c == null ? null : markers.get(lf.c);
+            if (param == null)
+                continue;
+            filters.set(i, new LogicalFilterNode(lf.tableAlias, lf.fieldPureName, lf.p, param.intValue()));
+            numParams = Math.max(numParams, param + 1);
+            count++;
+        }
+        choices = new Choices();
+        return count;
+    }
+
+    /** @return the number of parameters of the plan, one more than the largest number of a
+     *   parameter of its filters */
+    public int numParameters() {
+        return numParams;
+    }
+
+    /** Bind the parameters of a plan made by {@link #parameterize}.
+     *  @param values the value of each parameter, as a constant of a filter
+     *  @return a copy of this plan with the values in place of the parameters
+     *  @throws ParsingException if the number of values is not the number of parameters
+     */
+    public LogicalPlan bind(List<String> values) throws ParsingException {
+        if (values.size() != numParams)
+            throw new ParsingException("Expected " + numParams + " parameter values, got " + values.size());
+        List<LogicalFilterNode> bound = new ArrayList<>(filters.size());
+        for (LogicalFilterNode lf : filters) {
+            if (lf.param < 0)
+                bound.add(lf);
+            else
+                bound.add(new LogicalFilterNode(lf.tableAlias, lf.fieldPureName, lf.p, values.get(lf.param)));
+        }
+        return new LogicalPlan(this, bound);
+    }
+
     /** Given a table alias, return id of the table object (this id can be supplied to {@link Catalog#getDatabaseFile(int)}).
         Aliases are added as base tables are added via {@link #addScan}.
 
@@ -274,8 +367,163 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Work out which fields of each table the query reads, so that scans
+     *   of column-oriented files can skip the others.
+     *  @return the indexes of the fields read from each table alias, or null
+     *   if the query reads every field (e.g., SELECT *)
+     */
+    Map<String,Set<Integer>> referencedColumns() {
+        List<String> names = new ArrayList<>();
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.f2QuantifiedName);
+        }
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        if (groupByField != null)
+            names.add(groupByField);
+        if (aggField != null)
+            names.add(aggField);
+        if (oByField != null)
+            names.add(oByField);
+
+        Map<String,Set<Integer>> columns = new HashMap<>();
+        for (LogicalScanNode table : tables)
+            columns.put(table.alias, new HashSet<>());
+        for (String name : names) {
+            if (name == null || name.endsWith(".*"))
+                return null;
+            int dot = name.indexOf('.');
+            Set<Integer> cols = dot < 0 ? null : columns.get(name.substring(0, dot));
+            if (cols == null)
+                continue;
+            TupleDesc td = Database.getCatalog().getTupleDesc(tableMap.get(name.substring(0, dot)));
+            try {
+                cols.add(td.fieldNameToIndex(name.substring(dot + 1)));
+            } catch (NoSuchElementException e) {
+                //reported when the plan is built
+            }
+        }
+        return columns;
+    }
+
+    /** Operators the B+ tree indexes can answer with a range of leaves */
+    private static final Set<Predicate.Op> INDEXABLE_OPS = EnumSet.of(Predicate.Op.EQUALS,
+            Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ);
+
+    /**
+     * @return a B+ tree keyed on the given field of the table that holds
+     *   all of its tuples (the table's own file or one of its indexes), or
+     *   null if there is none; only the table's own file if the plan needs
+     *   base table RecordIds
+     */
+    private BTreeFile indexOn(int tableid, int field) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (file instanceof BTreeFile && ((BTreeFile) file).keyField() == field)
+            return (BTreeFile) file;
+        if (baseRecordIds)
+            return null;
+        Catalog.Index index = Database.getCatalog().getIndex(tableid, field);
+        return index == null ? null : index.getFile();
+    }
+
+    /**
+     * Choose how to read the given alias's tuples.  If one of its filters
+     * can be answered by a B+ tree and reading it through the tree is
+     * estimated to be cheaper than scanning the table, that filter is read
+     * through the tree, by {@link #indexScan}.
+     * @return the position in preds of the filter to read through an index,
+     *   or -1 to scan the table
+     */
+    private int chooseAccessPath(String alias, List<Predicate> preds, TableStats s, boolean explain) {
+        int tableid = this.getTableId(alias);
+        double bestCost = s.estimateScanCost();
+        int best = -1;
+        for (int i = 0; i < preds.size(); i++) {
+            Predicate p = preds.get(i);
+            if (!INDEXABLE_OPS.contains(p.getOp()))
+                continue;
+            BTreeFile index = indexOn(tableid, p.getField());
+            if (index == null)
+                continue;
+            double cost = s.estimateIndexScanCost(index,
+                    s.estimateSelectivity(p.getField(), p.getOp(), p.getOperand()));
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = i;
+            }
+        }
+        if (explain) {
+            if (best < 0)
+                System.out.println("Scanning " + alias + ", estimated cost " + bestCost);
+            else
+                System.out.println("Reading " + alias + " through index "
+                        + Database.getCatalog().getTableName(indexOn(tableid, preds.get(best).getField()).getId())
+                        + " for " + preds.get(best) + ", estimated cost " + bestCost);
+        }
+        return best;
+    }
+
+    /**
+     * @return a scan of the given alias's tuples that pass p through a B+
+     *   tree on p's field, or null if there is no such tree
+     */
+    private OpIterator indexScan(TransactionId t, String alias, Predicate p) {
+        BTreeFile index = indexOn(this.getTableId(alias), p.getField());
+        if (index == null)
+            return null;
+        return new BTreeScan(t, index.getId(), alias, new IndexPredicate(p.getOp(), p.getOperand()));
+    }
+
+    /**
+     * Build the joins of a join plan tree over the plans in subplanMap,
+     * removing the plans of the tables it reads.
+     *
+     * @return the root of the joins
+     * @throws ParsingException if a table of the tree has no plan, or a
+     *         field of a join is unknown
+     */
+    private OpIterator instantiateJoinTree(JoinTree tree, Map<String,OpIterator> subplanMap)
+            throws ParsingException {
+        if (tree.isLeaf()) {
+            OpIterator plan = subplanMap.remove(tree.getAlias());
+            if (plan == null)
+                throw new ParsingException("Unknown table in WHERE clause " + tree.getAlias());
+            return plan;
+        }
+        LogicalJoinNode lj = tree.getJoin();
+        OpIterator plan1 = instantiateJoinTree(tree.getOuter(), subplanMap);
+        OpIterator plan2;
+        if (lj instanceof LogicalSubplanJoinNode) {
+            plan2 = ((LogicalSubplanJoinNode) lj).subPlan;
+            if (plan2 == null)
+                throw new ParsingException("Invalid subquery.");
+        } else {
+            plan2 = instantiateJoinTree(tree.getInner(), subplanMap);
+        }
+
+        OpIterator j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+        // the tables on both sides of a residual join are now joined, so it
+        // compares two fields of the joined tuples
+        for (LogicalJoinNode r : tree.getResiduals()) {
+            TupleDesc td = j.getTupleDesc();
+            try {
+                j = new JoinPredicateFilter(new JoinPredicate(td.fieldNameToIndex(r.f1QuantifiedName), r.p,
+                        td.fieldNameToIndex(r.f2QuantifiedName)), j);
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown field in join " + r.f1QuantifiedName + " " + r.p + " "
+                        + r.f2QuantifiedName);
+            }
+        }
+        return j;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
-     *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
+     *   find the optimal plan by using {@link JoinOptimizer#orderJoinTrees} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
      *  @param baseTableStats a HashMap providing a {@link TableStats}
      *    object for each table used in the LogicalPlan.  This should
@@ -289,9 +537,12 @@ public class LogicalPlan {
      */ 
     public OpIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain) throws ParsingException {
         Iterator<LogicalScanNode> tableIt = tables.iterator();
-        Map<String,String> equivMap = new HashMap<>();
+        Map<String,OpIterator> subplanMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        Map<String,Set<Integer>> columns = referencedColumns();
+        Map<String,SeqScan> scans = new HashMap<>();
+        Map<String,List<Predicate>> pushed = new HashMap<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -301,8 +552,12 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
+            Set<Integer> cols = columns == null ? null : columns.get(table.alias);
+            if (cols != null && cols.size() < ss.getTupleDesc().numFields())
+                ss.setColumns(cols);
             
             subplanMap.put(table.alias,ss);
+            scans.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
@@ -315,6 +570,9 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
             }
 
+            if (lf.param >= 0)
+                throw new ParsingException("No value bound for parameter " + (lf.param + 1));
+
             Field f;
             Type ftyp;
             TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
@@ -335,70 +593,50 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
-
-            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
-
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
-
-            //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
+            pushed.computeIfAbsent(lf.tableAlias, k -> new ArrayList<>()).add(p);
         }
         
-        JoinOptimizer jo = new JoinOptimizer(this,joins);
-
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
-
-        for (LogicalJoinNode lj : joins) {
-            OpIterator plan1;
-            OpIterator plan2;
-            boolean isSubqueryJoin = lj instanceof LogicalSubplanJoinNode;
-            String t1name, t2name;
-
-            if (equivMap.get(lj.t1Alias) != null)
-                t1name = equivMap.get(lj.t1Alias);
-            else
-                t1name = lj.t1Alias;
-
-            if (equivMap.get(lj.t2Alias) != null)
-                t2name = equivMap.get(lj.t2Alias);
-            else
-                t2name = lj.t2Alias;
-
-            plan1 = subplanMap.get(t1name);
-
-            if (isSubqueryJoin) {
-                plan2 = ((LogicalSubplanJoinNode) lj).subPlan;
-                if (plan2 == null)
-                    throw new ParsingException("Invalid subquery.");
-            } else {
-                plan2 = subplanMap.get(t2name);
+        // a parameterized plan reuses the join order chosen when it was
+        // first optimized, but chooses access paths for the values bound
+        List<JoinTree> joinTrees = choices == null ? null : choices.joinTrees;
+        boolean optimize = joinTrees == null;
+
+        for (Map.Entry<String,List<Predicate>> e : pushed.entrySet()) {
+            String alias = e.getKey();
+            List<Predicate> preds = e.getValue();
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(alias)));
+            if (optimize)
+                filterSelectivities.put(alias, s.estimateSelectivity(preds));
+            int best = chooseAccessPath(alias, preds, s, explain);
+            OpIterator plan = null;
+            if (best >= 0)
+                plan = indexScan(t, alias, preds.remove(best));
+            if (plan == null) {
+                //let the scan skip pages that cannot pass its filters
+                scans.get(alias).setPredicates(preds);
+                plan = scans.get(alias);
             }
+            // the remaining filters of the table are compiled as one
+            // conjunction
+            if (!preds.isEmpty())
+                plan = new Filter(preds, plan);
+            subplanMap.put(alias, plan);
+        }
 
-            if (plan1 == null)
-                throw new ParsingException("Unknown table in WHERE clause " + lj.t1Alias);
-            if (plan2 == null)
-                throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
-
-            OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
-            subplanMap.put(t1name, j);
-
-            if (!isSubqueryJoin) {
-                subplanMap.remove(t2name);
-                equivMap.put(t2name, t1name);  //keep track of the fact that this new node contains both tables
-                //make sure anything that was equiv to lj.t2 (which we are just removed) is
-                // marked as equiv to lj.t1 (which we are replacing lj.t2 with.)
-                for (Map.Entry<String, String> s : equivMap.entrySet()) {
-                    String val = s.getValue();
-                    if (val.equals(t2name)) {
-                        s.setValue(t1name);
-                    }
-                }
-
-                // subplanMap.put(lj.t2, j);
-            }
+        if (optimize) {
+            JoinOptimizer jo = new JoinOptimizer(this,joins);
+            joinTrees = jo.orderJoinTrees(statsMap,filterSelectivities,explain);
+            if (choices != null)
+                choices.joinTrees = joinTrees;
+        } else if (explain) {
+            System.out.println("Reusing the join order chosen when the query was prepared");
+            for (JoinTree tree : joinTrees)
+                System.out.println(tree);
+        }
 
+        for (JoinTree tree : joinTrees) {
+            OpIterator j = instantiateJoinTree(tree, subplanMap);
+            subplanMap.put(tree.aliases().get(0), j);
         }
 
         if (subplanMap.size() > 1) {
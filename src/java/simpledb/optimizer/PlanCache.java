@@ -0,0 +1,258 @@
+package simpledb.optimizer;
+
+import simpledb.common.Catalog;
+import simpledb.common.Database;
+
+import java.util.*;
+
+/**
+ * A bounded cache of the logical plans of queries, keyed by their
+ * normalized SQL text (see {@link #normalize}), so that queries that differ
+ * only in their constants are parsed and optimized once.  The plans cached
+ * are parameterized (see {@link LogicalPlan#parameterize}): each is bound to
+ * the constants of the query that uses it.
+ * <p>
+ * The least recently used plan is evicted once the cache is full.  A plan
+ * is dropped when it is next looked up if a table it reads has gone from
+ * the catalog, or if the number of tuples in the table's statistics has
+ * changed by more than {@link #MAX_STATS_CHANGE} since the plan was cached,
+ * so that it is optimized again for the table as it now is.
+ *
+ * @Threadsafe
+ */
+public class PlanCache {
+
+    /** The number of plans a cache holds by default */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * The largest change in the number of tuples of a table, as a fraction
+     * of the number when a plan was cached, that the plan survives
+     */
+    public static final double MAX_STATS_CHANGE = 0.2;
+
+    /**
+     * A SQL statement with its constants taken out: its text, with a
+     * <tt>?</tt> in place of each constant and runs of white space made
+     * single spaces, and the constants in the order they appeared.
+     */
+    public static class NormalizedSql {
+        private final String text;
+        private final List<String> constants;
+
+        NormalizedSql(String text, List<String> constants) {
+            this.text = text;
+            this.constants = Collections.unmodifiableList(constants);
+        }
+
+        /**
+         * @return the normalized text
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return the constant for each <tt>?</tt> of the text, as its text
+         *         (a number, or a string without its quotes), or null where
+         *         the statement itself had a <tt>?</tt>
+         */
+        public List<String> getConstants() {
+            return constants;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * A cached plan, and the statistics of its tables when it was cached
+     */
+    private static class Entry {
+        final LogicalPlan plan;
+        final int[] tableids;
+        final String[] names;
+        final TableStats[] stats;
+
+        Entry(LogicalPlan plan) {
+            this.plan = plan;
+            Set<Integer> ids = new HashSet<>(plan.getTableAliasToIdMapping().values());
+            tableids = new int[ids.size()];
+            names = new String[ids.size()];
+            stats = new TableStats[ids.size()];
+            int i = 0;
+            for (int id : ids) {
+                tableids[i] = id;
+                names[i] = Database.getCatalog().getTableName(id);
+                stats[i] = TableStats.getTableStats(names[i]);
+                i++;
+            }
+        }
+
+        /**
+         * @return whether the plan's tables are still in the catalog with
+         *         much the same statistics
+         */
+        boolean isValid() {
+            Catalog catalog = Database.getCatalog();
+            for (int i = 0; i < tableids.length; i++) {
+                try {
+                    if (catalog.getTableId(names[i]) != tableids[i])
+                        return false;
+                } catch (NoSuchElementException e) {
+                    return false;
+                }
+                TableStats now = TableStats.getTableStats(names[i]);
+                if (now == stats[i])
+                    continue;
+                if (now == null || stats[i] == null)
+                    return false;
+                double then = Math.max(1, stats[i].totalTuples());
+                if (Math.abs(now.totalTuples() - stats[i].totalTuples()) / then > MAX_STATS_CHANGE)
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> plans;
+    private long hits = 0, misses = 0, invalidations = 0;
+
+    /**
+     * Create a cache holding at most capacity plans.
+     */
+    public PlanCache(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("a plan cache holds at least one plan");
+        this.plans = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param sql a normalized SQL statement
+     * @return the plan cached for the statement, or null if there is none,
+     *         or it has been invalidated by a change to its tables
+     */
+    public synchronized LogicalPlan get(String sql) {
+        Entry e = plans.get(sql);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        if (!e.isValid()) {
+            plans.remove(sql);
+            invalidations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.plan;
+    }
+
+    /**
+     * Cache the plan for a normalized SQL statement, recording the current
+     * statistics of its tables, and evicting the least recently used plan if
+     * the cache is full.
+     */
+    public synchronized void put(String sql, LogicalPlan plan) {
+        plans.put(sql, new Entry(plan));
+    }
+
+    /**
+     * Drop every plan, e.g. when a new index could change them.
+     */
+    public synchronized void clear() {
+        invalidations += plans.size();
+        plans.clear();
+    }
+
+    /**
+     * @return the number of plans cached
+     */
+    public synchronized int size() {
+        return plans.size();
+    }
+
+    /**
+     * @return the number of lookups that found a plan
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that found none
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of plans dropped because their tables changed
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+    }
+
+    /**
+     * Normalize a SQL statement: take out its constants, leaving a
+     * <tt>?</tt> in place of each, turn each run of white space outside of
+     * them into a single space, and drop any trailing semicolon.  Numbers
+     * that are part of names, such as <tt>t1.f2</tt>, are not constants.
+     */
+    public static NormalizedSql normalize(String sql) {
+        StringBuilder text = new StringBuilder(sql.length());
+        List<String> constants = new ArrayList<>();
+        int n = sql.length();
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                while (i < n && Character.isWhitespace(sql.charAt(i)))
+                    i++;
+                text.append(' ');
+            } else if (c == '\'') {
+                // a string, in which '' stands for a quote
+                int start = ++i;
+                while (i < n && (sql.charAt(i) != '\'' || (i + 1 < n && sql.charAt(i + 1) == '\''))) {
+                    i += sql.charAt(i) == '\'' ? 2 : 1;
+                }
+                constants.add(sql.substring(start, Math.min(i, n)));
+                text.append('?');
+                i++;
+            } else if (Character.isDigit(c)) {
+                int start = i;
+                while (i < n && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.'))
+                    i++;
+                constants.add(sql.substring(start, i));
+                text.append('?');
+            } else if (isIdentifierChar(c)) {
+                while (i < n && isIdentifierChar(sql.charAt(i)))
+                    text.append(sql.charAt(i++));
+            } else if (c == '?') {
+                constants.add(null);
+                text.append('?');
+                i++;
+            } else {
+                text.append(c);
+                i++;
+            }
+        }
+        String normalized = text.toString().trim();
+        while (normalized.endsWith(";"))
+            normalized = normalized.substring(0, normalized.length() - 1).trim();
+        return new NormalizedSql(normalized, constants);
+    }
+}
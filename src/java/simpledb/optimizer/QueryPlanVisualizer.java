@@ -2,9 +2,12 @@ package simpledb.optimizer;
 
 import java.io.PrintStream;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.Map;
 
 import simpledb.execution.*;
+import simpledb.index.BTreeScan;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
 
@@ -16,10 +19,42 @@ public class QueryPlanVisualizer {
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "index_scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
 
+    private final Map<OpIterator, ProfiledOpIterator> profiles;
+
+    public QueryPlanVisualizer() {
+        this(Collections.emptyMap());
+    }
+
+    /**
+     * Create a visualizer that prints, next to the estimated cardinality of
+     * each operator, what was measured running it, for EXPLAIN ANALYZE.
+     *
+     * @param profiles the profile of each operator, as {@link Profiler}
+     *                 collects them
+     */
+    public QueryPlanVisualizer(Map<OpIterator, ProfiledOpIterator> profiles) {
+        this.profiles = profiles;
+    }
+
+    /**
+     * @return text, followed by the rows, time and pages measured running
+     *         op, if it was profiled
+     */
+    private String annotate(OpIterator op, String text) {
+        ProfiledOpIterator p = this.profiles.get(op);
+        if (p == null)
+            return text;
+        String compiled = op instanceof Aggregate && ((Aggregate) op).isCompiled() ? ",compiled" : "";
+        return String.format("%1$s,rows:%2$d,open:%3$.2fms,next:%4$.2fms,pages:%5$d,misses:%6$d%7$s", text,
+                p.getRows(), p.getOpenNanos() / 1e6, p.getNextNanos() / 1e6, p.getPageRequests(),
+                p.getPageMisses(), compiled);
+    }
+
     private int calculateQueryPlanTreeDepth(OpIterator root) {
         if (root == null)
             return 0;
@@ -67,24 +102,33 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof BTreeScan) {
+            String scan, tableName, alias;
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                scan = SCAN;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            } else {
+                BTreeScan s = (BTreeScan) queryPlan;
+                scan = INDEX_SCAN;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
-            thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
-            if (SCAN.length() / 2 < parentUpperBarStartShift) {
+            thisNode.text = annotate(queryPlan, String
+                    .format("%1$s(%2$s)", scan, tableName + alias));
+            if (scan.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - SCAN.length() / 2;
+                        - scan.length() / 2;
             } else {
-                thisNode.upBarPosition = currentStartPosition + SCAN.length()
+                thisNode.upBarPosition = currentStartPosition + scan.length()
                         / 2;
                 thisNode.textStartPosition = currentStartPosition;
             }
@@ -116,8 +160,8 @@ public class QueryPlanVisualizer {
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
-                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = annotate(queryPlan, String.format("%1$s(%2$s),card:%3$d", JOIN,
+                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality()));
                 int upBarShift = parentUpperBarStartShift;
                 if (JOIN.length() / 2 > parentUpperBarStartShift)
                     upBarShift = JOIN.length() / 2;
@@ -145,8 +189,8 @@ public class QueryPlanVisualizer {
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = annotate(queryPlan, String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
+                        + jp.getOperator() + field2,j.getEstimatedCardinality()));
                 int upBarShift = parentUpperBarStartShift;
                 if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
                     upBarShift = HASH_JOIN.length() / 2;
@@ -175,13 +219,13 @@ public class QueryPlanVisualizer {
                 int gfield = a.groupField();
 
                 if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
+                    thisNode.text = annotate(queryPlan, String.format("%1$s(%2$s),card:%3$d",
+                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality()));
                     alignTxt = td.getFieldName(0);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
+                    thisNode.text = annotate(queryPlan, String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
                             GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
+                            a.aggregateFieldName(),a.getEstimatedCardinality()));
                     alignTxt = GROUPBY;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
@@ -200,11 +244,36 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof Filter) {
                 Filter f = (Filter) plan;
-                Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
-                        + p.getOp()
-                        + p.getOperand(),f.getEstimatedCardinality());
+                StringBuilder preds = new StringBuilder();
+                for (Predicate p : f.getPredicates()) {
+                    if (preds.length() > 0)
+                        preds.append(" AND ");
+                    preds.append(children[0].getTupleDesc().getFieldName(p.getField()))
+                            .append(p.getOp()).append(p.getOperand());
+                }
+                thisNode.text = annotate(queryPlan, String.format("%1$s(%2$s),card:%3$d", SELECT,
+                        preds, f.getEstimatedCardinality()));
+                int upBarShift = parentUpperBarStartShift;
+                if (SELECT.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = SELECT.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - SELECT.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
+            } else if (plan instanceof JoinPredicateFilter) {
+                JoinPredicateFilter f = (JoinPredicateFilter) plan;
+                JoinPredicate p = f.getJoinPredicate();
+                TupleDesc td = children[0].getTupleDesc();
+                thisNode.text = annotate(queryPlan, String.format("%1$s(%2$s),card:%3$d", SELECT,
+                        td.getFieldName(p.getField1()) + p.getOperator()
+                        + td.getFieldName(p.getField2()), f.getEstimatedCardinality()));
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -221,11 +290,11 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof OrderBy) {
                 OrderBy o = (OrderBy) plan;
-                thisNode.text = String.format(
+                thisNode.text = annotate(queryPlan, String.format(
                         "%1$s(%2$s),card:%3$d",
                         ORDERBY,
                         children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+                                o.getOrderByField()),o.getEstimatedCardinality()));
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -247,7 +316,7 @@ public class QueryPlanVisualizer {
                 while (it.hasNext())
                     fields.append(it.next().fieldName).append(",");
                 fields = new StringBuilder(fields.substring(0, fields.length() - 1));
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", PROJECT, fields.toString(),p.getEstimatedCardinality());
+                thisNode.text = annotate(queryPlan, String.format("%1$s(%2$s),card:%3$d", PROJECT, fields.toString(),p.getEstimatedCardinality()));
                 int upBarShift = parentUpperBarStartShift;
                 if (PROJECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = PROJECT.length() / 2;
@@ -273,7 +342,7 @@ public class QueryPlanVisualizer {
                     e.printStackTrace();
                 } 
 
-                thisNode.text = String.format("%1$s,card:%2$d", name,card);
+                thisNode.text = annotate(queryPlan, String.format("%1$s,card:%2$d", name,card));
                 int upBarShift = parentUpperBarStartShift;
                 if (name.length() / 2 > parentUpperBarStartShift)
                     upBarShift = name.length() / 2;
@@ -308,7 +377,7 @@ public class QueryPlanVisualizer {
                     e.printStackTrace();
                 } 
                 String oldName = plan.getChildren()[0].getTupleDesc().getFieldName(fieldIdx);
-                thisNode.text = String.format("%1$s,%2$s->%3$s,card:%4$d", RENAME,oldName,newName,plan.getEstimatedCardinality());
+                thisNode.text = annotate(queryPlan, String.format("%1$s,%2$s->%3$s,card:%4$d", RENAME,oldName,newName,plan.getEstimatedCardinality()));
                 int upBarShift = parentUpperBarStartShift;
                 if (RENAME.length() / 2 > parentUpperBarStartShift)
                     upBarShift = RENAME.length() / 2;
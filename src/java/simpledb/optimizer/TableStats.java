@@ -1,17 +1,18 @@
 package simpledb.optimizer;
 
+import simpledb.common.Catalog;
 import simpledb.common.Database;
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
-import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
-import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
@@ -50,17 +51,81 @@ public class TableStats {
     }
 
     public static void computeStatistics() {
-        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        computeStatistics(1.0);
+    }
+
+    /**
+     * Compute the statistics of every table in the catalog, reading several
+     * tables at once on a pool of one thread per processor.
+     * <p>
+     * A table whose statistics and histograms are recorded in the catalog
+     * (e.g. loaded from the system catalog) is not read again unless its
+     * size has changed or tuples have been inserted into or deleted from it
+     * since (see {@link Catalog#getModifications}).  The others are analyzed with
+     * {@link #analyze(int, double)}, and the catalog is then saved to the
+     * system catalog, if there is one, so the next startup can skip them.
+     *
+     * @param sampleFraction
+     *            The fraction of each table's pages to read
+     */
+    public static void computeStatistics(double sampleFraction) {
+        Catalog catalog = Database.getCatalog();
+        List<Integer> tableids = new ArrayList<>();
+        catalog.tableIdIterator().forEachRemaining(tableids::add);
 
         System.out.println("Computing table stats.");
-        while (tableIt.hasNext()) {
-            int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+        List<Future<TableStats>> pending = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(tableids.size(), Runtime.getRuntime().availableProcessors())));
+        try {
+            for (int tableid : tableids) {
+                Catalog.Statistics saved = catalog.getStatistics(tableid);
+                if (saved != null && saved.hasHistograms()
+                        && saved.getNumPages() == catalog.getDatabaseFile(tableid).numPages()
+                        && saved.getModifications() == catalog.getModifications(tableid)) {
+                    setTableStats(catalog.getTableName(tableid), new TableStats(tableid, IOCOSTPERPAGE, saved));
+                    continue;
+                }
+                pending.add(pool.submit(() -> analyze(tableid, sampleFraction)));
+            }
+            for (Future<TableStats> f : pending)
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while computing table stats", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("can't compute table stats", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        if (!pending.isEmpty() && catalog.getCatalogDir() != null) {
+            try {
+                catalog.saveCatalog(catalog.getCatalogDir());
+            } catch (IOException e) {
+                System.out.println("Can't save table stats: " + e.getMessage());
+            }
         }
         System.out.println("Done.");
     }
 
+    /**
+     * Compute the statistics of a table and record them, both for the
+     * optimizer and in the catalog.
+     *
+     * @param tableid
+     *            The table to analyze
+     * @param sampleFraction
+     *            The fraction of the table's pages to read
+     * @return The table's statistics
+     */
+    public static TableStats analyze(int tableid, double sampleFraction) {
+        Catalog catalog = Database.getCatalog();
+        TableStats s = new TableStats(tableid, IOCOSTPERPAGE, sampleFraction);
+        setTableStats(catalog.getTableName(tableid), s);
+        catalog.setStatistics(tableid, s.getStatistics());
+        return s;
+    }
+
     /**
      * Number of bins for the histogram. Feel free to increase this value over
      * 100, though our tests assume that you have at least 100 bins in your
@@ -68,6 +133,34 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /**
+     * The largest number of most common values kept exactly by each
+     * column's histogram.
+     */
+    static final int NUM_MCVS = 32;
+
+    /**
+     * Joint histograms are kept for every pair of columns of tables with at
+     * most this many columns, each splitting both columns into at most
+     * JOINT_HIST_RANGES ranges.
+     */
+    static final int MAX_JOINT_FIELDS = 8;
+    static final int JOINT_HIST_RANGES = 32;
+
+    /**
+     * The largest number of rows whose values are kept for building the
+     * histograms; the histograms of larger tables are built from a random
+     * sample of this many of their rows.
+     */
+    public static final int MAX_SAMPLE_ROWS = 30000;
+
+    private final int ioCostPerPage;
+    private final int numPages;
+    private final int numTuples;
+    private final int modifications;
+    private final EquiDepthHistogram[] histograms;
+    private final List<JointHistogram> jointHistograms = new ArrayList<>();
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -87,6 +180,147 @@ public class TableStats {
         // necessarily have to (for example) do everything
         // in a single scan of the table.
         // some code goes here
+        this(tableid, ioCostPerPage, 1.0);
+    }
+
+    /**
+     * Create a new TableStats object from a block sample of a table: a
+     * random subset of its pages, whose tuples stand for the whole table.
+     * The histograms are built from the sampled tuples, or from a random
+     * MAX_SAMPLE_ROWS of them if there are more, and the number of tuples
+     * is scaled up by the fraction of pages read.
+     *
+     * @param tableid
+     *            The table over which to compute statistics
+     * @param ioCostPerPage
+     *            The cost per page of IO
+     * @param sampleFraction
+     *            The fraction of the table's pages to read; at least one
+     *            page is read, and 1.0 or more reads them all
+     */
+    public TableStats(int tableid, int ioCostPerPage, double sampleFraction) {
+        this.ioCostPerPage = ioCostPerPage;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        TupleDesc td = file.getTupleDesc();
+        this.numPages = file.numPages();
+        this.modifications = Database.getCatalog().getModifications(tableid);
+        this.histograms = new EquiDepthHistogram[td.numFields()];
+
+        // equi-depth histograms are built from all of the values at once,
+        // so the values of a uniform sample of at most MAX_SAMPLE_ROWS of
+        // the rows read are kept until the table has been read (reservoir
+        // sampling, of whole rows so the joint histograms pair up values)
+        int[][] values = new int[td.numFields()][1024];
+        int[] pages = samplePages(numPages, sampleFraction);
+        int sampled = 0;
+        int kept = 0;
+        Random random = ThreadLocalRandom.current();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = pages == null ? file.iterator(tid) : file.pageIterator(tid, pages);
+        try {
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                int row = kept < MAX_SAMPLE_ROWS ? kept++ : random.nextInt(sampled + 1);
+                for (int i = 0; row < MAX_SAMPLE_ROWS && i < values.length; i++) {
+                    if (row == values[i].length)
+                        values[i] = Arrays.copyOf(values[i], Math.min(2 * row, MAX_SAMPLE_ROWS));
+                    values[i][row] = intValue(t.getField(i));
+                }
+                sampled++;
+            }
+        } catch (DbException | TransactionAbortedException e) {
+            throw new RuntimeException("can't compute statistics of table " + tableid, e);
+        } finally {
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+
+        for (int i = 0; i < values.length; i++)
+            histograms[i] = EquiDepthHistogram.build(values[i], kept, NUM_HIST_BINS, NUM_MCVS);
+        if (values.length <= MAX_JOINT_FIELDS) {
+            for (int i = 0; i < values.length; i++) {
+                for (int j = i + 1; j < values.length; j++)
+                    jointHistograms.add(JointHistogram.build(i, values[i], j, values[j],
+                            kept, JOINT_HIST_RANGES));
+            }
+        }
+        this.numTuples = pages == null ? sampled
+                : (int) Math.round((double) sampled * numPages / pages.length);
+    }
+
+    /**
+     * Create a TableStats object from statistics recorded in the catalog,
+     * as returned by {@link #getStatistics}, without reading the table.
+     *
+     * @param tableid
+     *            The table the statistics describe
+     * @param ioCostPerPage
+     *            The cost per page of IO
+     * @param stats
+     *            The table's statistics, which must include histograms
+     */
+    public TableStats(int tableid, int ioCostPerPage, Catalog.Statistics stats) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        this.ioCostPerPage = ioCostPerPage;
+        this.numPages = stats.getNumPages();
+        this.numTuples = stats.getNumTuples();
+        this.modifications = stats.getModifications();
+        this.histograms = new EquiDepthHistogram[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++)
+            histograms[i] = EquiDepthHistogram.decode(stats.getHistogram(i));
+        for (int i = td.numFields(); i < stats.numHistograms(); i++)
+            jointHistograms.add(JointHistogram.decode(stats.getHistogram(i)));
+    }
+
+    /**
+     * @return the value a histogram records for f: the integer itself, or
+     *         an order-preserving code of a string
+     */
+    private static int intValue(Field f) {
+        if (f instanceof IntField)
+            return ((IntField) f).getValue();
+        return StringHistogram.stringToInt(((StringField) f).getValue());
+    }
+
+    /**
+     * @return the page numbers of a random sample of fraction of a file's
+     *         pages, in increasing order, or null to read every page
+     */
+    private static int[] samplePages(int numPages, double fraction) {
+        int n = (int) Math.max(1, Math.ceil(fraction * numPages));
+        if (n >= numPages)
+            return null;
+        int[] pages = new int[numPages];
+        for (int i = 0; i < numPages; i++)
+            pages[i] = i;
+        Random random = ThreadLocalRandom.current();
+        for (int i = 0; i < n; i++) {
+            int j = i + random.nextInt(numPages - i);
+            int tmp = pages[i];
+            pages[i] = pages[j];
+            pages[j] = tmp;
+        }
+        int[] sample = Arrays.copyOf(pages, n);
+        Arrays.sort(sample);
+        return sample;
+    }
+
+    /**
+     * @return these statistics in the form the catalog records them
+     */
+    public Catalog.Statistics getStatistics() {
+        int[] min = new int[histograms.length];
+        int[] max = new int[histograms.length];
+        int[][] encoded = new int[histograms.length + jointHistograms.size()][];
+        for (int i = 0; i < histograms.length; i++) {
+            min[i] = histograms[i].getMin();
+            max[i] = histograms[i].getMax();
+            encoded[i] = histograms[i].encode();
+        }
+        for (int i = 0; i < jointHistograms.size(); i++)
+            encoded[histograms.length + i] = jointHistograms.get(i).encode();
+        return new Catalog.Statistics(numTuples, numPages, modifications, min, max, encoded);
     }
 
     /**
@@ -103,7 +337,34 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return 0;
+        return (double) numPages * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy a predicate of
+     * the given selectivity through a B+ tree index: one page per level
+     * down to the first matching leaf, then the leaves holding the matches.
+     * The shape of the tree is estimated from its size and page layout,
+     * assuming full pages.
+     *
+     * @param index
+     *            A B+ tree over this table's tuples
+     * @param selectivity
+     *            The selectivity of the predicate on the index's key
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(BTreeFile index, double selectivity) {
+        int keyBits = index.getTupleDesc().getFieldType(index.keyField()).getLen() * 8;
+        int pointerBits = Type.INT_TYPE.getLen() * 8;
+        // the layout of BTreeInternalPage: a parent pointer and a category
+        // byte, then one key, one child pointer and one header bit per entry
+        int entries = (BufferPool.getPageSize() * 8 - 2 * pointerBits - 8 - 1) / (keyBits + pointerBits + 1);
+        int fanout = Math.max(2, entries + 1);
+        // all but about one in fanout pages of the file are leaves
+        double leafPages = Math.max(1.0, index.numPages() * (double) fanout / (fanout + 1));
+        int height = 1 + (int) Math.ceil(Math.log(leafPages) / Math.log(fanout));
+        double leavesRead = Math.max(1.0, Math.ceil(selectivity * leafPages));
+        return (height + leavesRead) * ioCostPerPage;
     }
 
     /**
@@ -117,7 +378,7 @@ public class TableStats {
      */
     public int estimateTableCardinality(double selectivityFactor) {
         // some code goes here
-        return 0;
+        return (int) Math.round(numTuples * selectivityFactor);
     }
 
     /**
@@ -132,7 +393,17 @@ public class TableStats {
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
         // some code goes here
-        return 1.0;
+        double eq = histograms[field].avgSelectivity();
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return eq;
+            case NOT_EQUALS:
+                return 1.0 - eq;
+            default:
+                // a range predicate against an unknown value keeps half
+                return 0.5;
+        }
     }
 
     /**
@@ -150,7 +421,69 @@ public class TableStats {
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
         // some code goes here
-        return 1.0;
+        return histograms[field].estimateSelectivity(op, intValue(constant));
+    }
+
+    /**
+     * Estimate the selectivity of a conjunction of predicates on the table.
+     * Predicates are assumed independent, except that pairs of predicates on
+     * columns with a joint histogram are corrected for how the columns are
+     * correlated.
+     *
+     * @param predicates
+     *            Predicates over the fields of the table
+     * @return The estimated fraction of tuples that satisfy all of them
+     */
+    public double estimateSelectivity(List<Predicate> predicates) {
+        double sel = 1.0;
+        boolean[] paired = new boolean[predicates.size()];
+        for (int a = 0; a < predicates.size(); a++) {
+            Predicate p = predicates.get(a);
+            sel *= estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+            if (paired[a])
+                continue;
+            for (int b = a + 1; b < predicates.size(); b++) {
+                Predicate q = predicates.get(b);
+                JointHistogram joint = paired[b] ? null : jointHistogram(p.getField(), q.getField());
+                if (joint == null)
+                    continue;
+                sel *= p.getField() == joint.getField1()
+                        ? joint.correlation(p.getOp(), intValue(p.getOperand()), q.getOp(), intValue(q.getOperand()))
+                        : joint.correlation(q.getOp(), intValue(q.getOperand()), p.getOp(), intValue(p.getOperand()));
+                paired[a] = paired[b] = true;
+                break;
+            }
+        }
+        return Math.min(1.0, sel);
+    }
+
+    /**
+     * @return the joint histogram of two different fields, or null if there
+     *         is none
+     */
+    private JointHistogram jointHistogram(int field1, int field2) {
+        for (JointHistogram joint : jointHistograms) {
+            if ((joint.getField1() == field1 && joint.getField2() == field2)
+                    || (joint.getField1() == field2 && joint.getField2() == field1))
+                return joint;
+        }
+        return null;
+    }
+
+    /**
+     * Estimate the selectivity of an equality join between a field of this
+     * table and a field of another: the fraction of pairs of their tuples
+     * that satisfy it.
+     *
+     * @param field
+     *            The field of this table
+     * @param other
+     *            The statistics of the other table
+     * @param otherField
+     *            The field of the other table
+     */
+    public double estimateJoinSelectivity(int field, TableStats other, int otherField) {
+        return histograms[field].joinSelectivity(other.histograms[otherField]);
     }
 
     /**
@@ -158,7 +491,7 @@ public class TableStats {
      * */
     public int totalTuples() {
         // some code goes here
-        return 0;
+        return numTuples;
     }
 
 }
@@ -0,0 +1,203 @@
+package simpledb.server;
+
+import simpledb.common.Type;
+import simpledb.storage.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The wire protocol of the {@link QueryServer}.  Client and server exchange
+ * frames, each a type byte, a flags byte, the length of the payload as an
+ * int, and the payload.
+ * <p>
+ * The client sends a {@link #QUERY} frame for each statement.  The server
+ * answers with {@link #MESSAGE} frames carrying what the statement printed,
+ * and, for a statement with results, a {@link #DESCRIBE} frame giving the
+ * types and names of its fields followed by {@link #BATCH} frames of rows,
+ * sent as the rows are produced.  A {@link #DONE} frame ends the answer.  A
+ * batch whose {@link #COMPRESSED} flag is set has a deflated payload; the
+ * server compresses batches for a query whose frame has that flag set.
+ */
+public class Protocol {
+
+    /** A statement, from the client, as UTF-8 */
+    public static final byte QUERY = 'Q';
+    /** Text printed while running a statement, as UTF-8 */
+    public static final byte MESSAGE = 'M';
+    /** The number of fields of the rows to follow, and the type and name of each */
+    public static final byte DESCRIBE = 'D';
+    /** The number of rows in the batch, and the rows */
+    public static final byte BATCH = 'B';
+    /** The end of the answer to a statement, with the number of rows sent as a long */
+    public static final byte DONE = 'Z';
+    /** A frame the server could not handle, with the reason as UTF-8 */
+    public static final byte ERROR = 'E';
+
+    /** On a query, compress its batches; on a batch, its payload is deflated */
+    public static final int COMPRESSED = 1;
+
+    /** The largest payload a frame may have */
+    public static final int MAX_PAYLOAD = 16 << 20;
+
+    private Protocol() {
+    }
+
+    /**
+     * A frame read from a stream
+     */
+    public static class Frame {
+        public final byte type;
+        public final int flags;
+        public final byte[] payload;
+
+        Frame(byte type, int flags, byte[] payload) {
+            this.type = type;
+            this.flags = flags;
+            this.payload = payload;
+        }
+
+        /**
+         * @return the payload as UTF-8 text
+         */
+        public String text() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    static void write(DataOutputStream out, byte type, int flags, byte[] payload) throws IOException {
+        out.writeByte(type);
+        out.writeByte(flags);
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    static void write(DataOutputStream out, byte type, String text) throws IOException {
+        write(out, type, 0, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the next frame, or null at the end of the stream
+     * @throws IOException if the stream ends within a frame, or the frame is
+     *         too large
+     */
+    static Frame read(DataInputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0)
+            return null;
+        int flags = in.readUnsignedByte();
+        int length = in.readInt();
+        if (length < 0 || length > MAX_PAYLOAD)
+            throw new IOException("frame of " + length + " bytes is too large");
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame((byte) type, flags, payload);
+    }
+
+    /**
+     * @return b deflated, after its length
+     */
+    static byte[] deflate(byte[] b, int length) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(b, 0, length);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 16);
+        out.write(length >>> 24);
+        out.write(length >>> 16);
+        out.write(length >>> 8);
+        out.write(length);
+        byte[] buf = new byte[8192];
+        while (!deflater.finished())
+            out.write(buf, 0, deflater.deflate(buf));
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    static byte[] inflate(byte[] b) throws IOException {
+        int length = ((b[0] & 0xff) << 24) | ((b[1] & 0xff) << 16) | ((b[2] & 0xff) << 8) | (b[3] & 0xff);
+        if (length < 0 || length > MAX_PAYLOAD)
+            throw new IOException("batch of " + length + " bytes is too large");
+        Inflater inflater = new Inflater();
+        inflater.setInput(b, 4, b.length - 4);
+        byte[] out = new byte[length];
+        try {
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int k = inflater.inflate(out, n, length - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                n += k;
+            }
+            if (n != length)
+                throw new IOException("truncated batch");
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt batch", e);
+        } finally {
+            inflater.end();
+        }
+        return out;
+    }
+
+    static byte[] describe(TupleDesc td) throws IOException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(b);
+        out.writeInt(td.numFields());
+        for (int i = 0; i < td.numFields(); i++) {
+            out.writeByte(td.getFieldType(i).ordinal());
+            String name = td.getFieldName(i);
+            out.writeUTF(name == null ? "" : name);
+        }
+        return b.toByteArray();
+    }
+
+    static TupleDesc readDescription(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int n = in.readInt();
+        Type[] types = new Type[n];
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            int type = in.readUnsignedByte();
+            if (type >= Type.values().length)
+                throw new IOException("unknown type " + type);
+            types[i] = Type.values()[type];
+            names[i] = in.readUTF();
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * Write the fields of t: an int as four bytes, and a string in modified
+     * UTF-8 after its length.
+     */
+    static void writeRow(DataOutputStream out, TupleDesc td, Tuple t) throws IOException {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                out.writeInt(((IntField) t.getField(i)).getValue());
+            else
+                out.writeUTF(((StringField) t.getField(i)).getValue());
+        }
+    }
+
+    static List<Tuple> readBatch(TupleDesc td, Frame f) throws IOException {
+        byte[] payload = (f.flags & COMPRESSED) != 0 ? inflate(f.payload) : f.payload;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int n = in.readInt();
+        List<Tuple> rows = new ArrayList<>(n);
+        for (int r = 0; r < n; r++) {
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    t.setField(i, new IntField(in.readInt()));
+                else
+                    t.setField(i, new StringField(in.readUTF(), Type.STRING_LEN));
+            }
+            rows.add(t);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,195 @@
+package simpledb.server;
+
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A client of a {@link QueryServer}: it sends statements over one
+ * connection, so one session, and reads back their results.
+ */
+public class QueryClient implements Closeable {
+
+    /**
+     * What the server sent in answer to a statement
+     */
+    public static class Result {
+        private final StringBuilder messages = new StringBuilder();
+        private TupleDesc td;
+        private final List<Tuple> rows = new ArrayList<>();
+        private int batches;
+        private long rowCount;
+
+        /**
+         * @return the text the statement printed
+         */
+        public String getMessages() {
+            return this.messages.toString();
+        }
+
+        /**
+         * @return the TupleDesc of the rows, or null if the statement
+         *         returned none
+         */
+        public TupleDesc getTupleDesc() {
+            return this.td;
+        }
+
+        public List<Tuple> getRows() {
+            return this.rows;
+        }
+
+        /**
+         * @return the number of batches the rows came in
+         */
+        public int getBatches() {
+            return this.batches;
+        }
+
+        /**
+         * @return the number of rows the server reports it sent
+         */
+        public long getRowCount() {
+            return this.rowCount;
+        }
+    }
+
+    /**
+     * Counts the bytes read through it
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                this.count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                this.count += n;
+            return n;
+        }
+    }
+
+    private final Socket socket;
+    private final CountingInputStream counter;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    public QueryClient(String host, int port) throws IOException {
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.counter = new CountingInputStream(this.socket.getInputStream());
+        this.in = new DataInputStream(new BufferedInputStream(this.counter));
+        this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+    }
+
+    /**
+     * @return the number of bytes received from the server so far
+     */
+    public long getBytesReceived() {
+        return this.counter.count;
+    }
+
+    public Result execute(String sql) throws IOException {
+        return execute(sql, false);
+    }
+
+    /**
+     * Run a statement in this client's session.
+     *
+     * @param compress whether the server should compress the rows
+     * @throws IOException if the connection fails, or the server does not
+     *         understand the request
+     */
+    public Result execute(String sql, boolean compress) throws IOException {
+        Protocol.write(this.out, Protocol.QUERY, compress ? Protocol.COMPRESSED : 0,
+                sql.getBytes(StandardCharsets.UTF_8));
+        this.out.flush();
+        Result result = new Result();
+        while (true) {
+            Protocol.Frame f = Protocol.read(this.in);
+            if (f == null)
+                throw new EOFException("server closed the connection");
+            switch (f.type) {
+                case Protocol.MESSAGE:
+                    result.messages.append(f.text());
+                    break;
+                case Protocol.DESCRIBE:
+                    result.td = Protocol.readDescription(f.payload);
+                    break;
+                case Protocol.BATCH:
+                    if (result.td == null)
+                        throw new IOException("rows before their description");
+                    result.rows.addAll(Protocol.readBatch(result.td, f));
+                    result.batches++;
+                    break;
+                case Protocol.DONE:
+                    result.rowCount = new DataInputStream(new ByteArrayInputStream(f.payload)).readLong();
+                    return result;
+                case Protocol.ERROR:
+                    throw new IOException(f.text());
+                default:
+                    throw new IOException("unexpected frame " + (char) f.type);
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        this.socket.close();
+    }
+
+    static final String usage = "Usage: client [host] [port]";
+
+    /**
+     * Send the statements read from standard input, each ended by ';', and
+     * print their results.
+     */
+    public static void main(String[] argv) throws IOException {
+        String host = argv.length > 0 ? argv[0] : "localhost";
+        int port = QueryServer.DEFAULT_PORT;
+        if (argv.length > 1) {
+            try {
+                port = Integer.parseInt(argv[1]);
+            } catch (NumberFormatException e) {
+                System.out.println(usage);
+                return;
+            }
+        }
+        try (QueryClient client = new QueryClient(host, port)) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            StringBuilder buffer = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                buffer.append(line).append('\n');
+                int split;
+                while ((split = buffer.indexOf(";")) >= 0) {
+                    String cmd = buffer.substring(0, split + 1).trim();
+                    buffer.delete(0, split + 1);
+                    Result r = client.execute(cmd, true);
+                    if (r.getTupleDesc() != null) {
+                        System.out.println(r.getTupleDesc());
+                        for (Tuple t : r.getRows())
+                            System.out.println(t);
+                    }
+                    System.out.print(r.getMessages());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package simpledb.server;
+
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.SystemCatalog;
+import simpledb.execution.Query;
+import simpledb.metrics.Metrics;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * QueryServer accepts connections over TCP and runs the statements sent on
+ * each in a session of its own.  A session is a {@link Parser}, so it has
+ * its own transaction, begun and ended by the statements sent, and its own
+ * prepared statements; a transaction still open when the client goes away
+ * is aborted.
+ * <p>
+ * The rows of a query are sent in batches as the query produces them,
+ * compressed if the client asks, rather than collected first, so the memory
+ * a session uses does not grow with its results.  See {@link Protocol} for
+ * the frames exchanged, and {@link QueryClient} for a client.  Sessions
+ * run on threads of a {@link SessionManager}, virtual ones where the
+ * runtime has them.
+ */
+public class QueryServer implements Closeable {
+
+    /** The port the server listens on by default */
+    public static final int DEFAULT_PORT = 4444;
+
+    /** A batch is sent once it has this many rows... */
+    public static final int BATCH_ROWS = 512;
+    /** ...or this many bytes, whichever comes first */
+    public static final int BATCH_BYTES = 64 * 1024;
+
+    private final ServerSocket serverSocket;
+    private final SessionManager sessions;
+    private final Set<Session> open = ConcurrentHashMap.newKeySet();
+    private Thread acceptor;
+    private volatile boolean closed = false;
+
+    /**
+     * Create a server listening on the given port.
+     *
+     * @param port the port to listen on, or 0 for any free port
+     */
+    public QueryServer(int port) throws IOException {
+        this(port, new SessionManager());
+    }
+
+    /**
+     * Create a server listening on the given port, running its sessions on
+     * the threads of the given manager.
+     *
+     * @param port the port to listen on, or 0 for any free port
+     */
+    public QueryServer(int port, SessionManager sessions) throws IOException {
+        this.serverSocket = new ServerSocket(port, 1024);
+        this.sessions = sessions;
+    }
+
+    /**
+     * @return the manager of the threads sessions run on
+     */
+    public SessionManager getSessionManager() {
+        return this.sessions;
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the number of connected sessions
+     */
+    public int getSessionCount() {
+        return this.open.size();
+    }
+
+    /**
+     * Start accepting connections, on a thread of its own.
+     */
+    public synchronized void start() {
+        if (this.acceptor != null)
+            return;
+        this.acceptor = new Thread(this::accept, "simpledb-server-" + getPort());
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    private void accept() {
+        while (!this.closed) {
+            try {
+                Socket socket = this.serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Session session = new Session(socket);
+                this.open.add(session);
+                this.sessions.start(session);
+            } catch (IOException e) {
+                if (!this.closed)
+                    e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Stop accepting connections, and disconnect every session, aborting
+     * their open transactions.
+     */
+    public void close() throws IOException {
+        this.closed = true;
+        this.serverSocket.close();
+        for (Session s : this.open)
+            s.disconnect();
+        try {
+            this.sessions.awaitIdle(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The statements of one connection.  What the Parser prints is sent as
+     * messages, and the rows of queries in batches.
+     */
+    private class Session extends Parser implements Runnable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream frames;
+        private final ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        private boolean compress;
+        private long rows;
+
+        Session(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.frames = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            setOutput(new PrintStream(this.messages, true, "UTF-8"));
+        }
+
+        public void run() {
+            try {
+                Protocol.Frame f;
+                while ((f = Protocol.read(this.in)) != null) {
+                    if (f.type != Protocol.QUERY) {
+                        Protocol.write(this.frames, Protocol.ERROR, "unexpected frame " + (char) f.type);
+                        this.frames.flush();
+                        continue;
+                    }
+                    this.compress = (f.flags & Protocol.COMPRESSED) != 0;
+                    this.rows = 0;
+                    String sql = f.text().trim();
+                    if (!sql.endsWith(";"))
+                        sql = sql + ";";
+                    processNextStatement(sql);
+                    sendMessages();
+                    ByteArrayOutputStream done = new ByteArrayOutputStream(8);
+                    new DataOutputStream(done).writeLong(this.rows);
+                    Protocol.write(this.frames, Protocol.DONE, 0, done.toByteArray());
+                    this.frames.flush();
+                }
+            } catch (SocketException | EOFException e) {
+                // the client went away
+            } catch (IOException e) {
+                if (!closed)
+                    e.printStackTrace();
+            } finally {
+                Transaction t = getTransaction();
+                if (t != null) {
+                    try {
+                        t.abort();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    setTransaction(null);
+                }
+                disconnect();
+                open.remove(this);
+            }
+        }
+
+        void disconnect() {
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+
+        private void sendMessages() throws IOException {
+            this.out.flush();
+            if (this.messages.size() == 0)
+                return;
+            Protocol.write(this.frames, Protocol.MESSAGE, 0, this.messages.toByteArray());
+            this.messages.reset();
+        }
+
+        /**
+         * Send the rows of the query in batches, as they are produced.
+         */
+        @Override
+        protected void runQuery(Query query) throws DbException, TransactionAbortedException, IOException {
+            TupleDesc td = query.getOutputTupleDesc();
+            sendMessages();
+            Protocol.write(this.frames, Protocol.DESCRIBE, 0, Protocol.describe(td));
+
+            ByteArrayOutputStream batch = new ByteArrayOutputStream(BATCH_BYTES + 1024);
+            DataOutputStream b = new DataOutputStream(batch);
+            int n = 0;
+            b.writeInt(0);
+            query.start();
+            try {
+                while (query.hasNext()) {
+                    Protocol.writeRow(b, td, query.next());
+                    n++;
+                    if (n == BATCH_ROWS || batch.size() >= BATCH_BYTES) {
+                        sendBatch(batch, n);
+                        b.writeInt(0);
+                        n = 0;
+                    }
+                }
+                if (n > 0)
+                    sendBatch(batch, n);
+            } finally {
+                query.close();
+            }
+            this.out.println("\n " + this.rows + " rows.");
+        }
+
+        private void sendBatch(ByteArrayOutputStream batch, int n) throws IOException {
+            byte[] payload = batch.toByteArray();
+            payload[0] = (byte) (n >>> 24);
+            payload[1] = (byte) (n >>> 16);
+            payload[2] = (byte) (n >>> 8);
+            payload[3] = (byte) n;
+            if (this.compress)
+                Protocol.write(this.frames, Protocol.BATCH, Protocol.COMPRESSED,
+                        Protocol.deflate(payload, payload.length));
+            else
+                Protocol.write(this.frames, Protocol.BATCH, 0, payload);
+            this.frames.flush();
+            batch.reset();
+            this.rows += n;
+        }
+    }
+
+    static final String usage = "Usage: server catalogFile|catalogDir [-port port] [-sample fraction]"
+            + " [-threads virtual|platform]";
+
+    public static void main(String[] argv) throws IOException {
+        if (argv.length < 1) {
+            System.out.println(usage);
+            return;
+        }
+        File schema = new File(argv[0]).getAbsoluteFile();
+        File catalogDir = schema.isDirectory() ? schema : schema.getParentFile();
+        if (SystemCatalog.exists(catalogDir)) {
+            Database.getCatalog().loadCatalog(catalogDir);
+        } else if (schema.isDirectory()) {
+            System.out.println("No system catalog in " + catalogDir + "\n" + usage);
+            return;
+        } else {
+            Database.getCatalog().loadSchema(argv[0]);
+            Database.getCatalog().saveCatalog(catalogDir);
+        }
+
+        int port = DEFAULT_PORT;
+        double sampleFraction = 1.0;
+        SessionManager.Mode mode = null;
+        try {
+            for (int i = 1; i < argv.length; i++) {
+                if (argv[i].equals("-port"))
+                    port = Integer.parseInt(argv[++i]);
+                else if (argv[i].equals("-sample"))
+                    sampleFraction = Double.parseDouble(argv[++i]);
+                else if (argv[i].equals("-threads"))
+                    mode = SessionManager.Mode.valueOf(argv[++i].toUpperCase());
+                else
+                    System.out.println("Unknown argument " + argv[i] + "\n " + usage);
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.out.println(usage);
+            return;
+        }
+        TableStats.computeStatistics(sampleFraction);
+        Metrics.publish();
+
+        QueryServer server = new QueryServer(port, mode == null ? new SessionManager() : new SessionManager(mode));
+        server.start();
+        System.out.println("Listening on port " + server.getPort() + ", running sessions on "
+                + server.getSessionManager().getMode().toString().toLowerCase() + " threads; press Enter to stop");
+        new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)).readLine();
+        server.close();
+        // keep the tables' modification counts for the next startup
+        Database.getCatalog().saveCatalog(catalogDir);
+    }
+}
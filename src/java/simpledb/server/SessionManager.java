@@ -0,0 +1,164 @@
+package simpledb.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SessionManager runs each session of a {@link QueryServer} on a thread of
+ * its own.  A session spends most of its life blocked, reading the next
+ * statement from its client, or waiting for the buffer pool, a page read or
+ * a log force, so where the runtime has virtual threads, sessions run on
+ * them: BufferPool and LogFile block on ReentrantLocks and futures rather
+ * than monitors, so a blocked virtual thread parks without holding an
+ * operating system thread, and an idle connection costs little more than
+ * its socket.  Otherwise sessions
+ * run on platform threads, one each, as before.
+ * <p>
+ * The code is compiled for runtimes without virtual threads, so they are
+ * created by reflection, as Parser loads optional classes.  The mode can be
+ * chosen with the <tt>simpledb.server.threads</tt> system property,
+ * <tt>virtual</tt> or <tt>platform</tt>.
+ */
+public class SessionManager {
+
+    /**
+     * The kind of thread sessions run on
+     */
+    public enum Mode {
+        VIRTUAL, PLATFORM
+    }
+
+    /** The system property choosing the mode */
+    public static final String MODE_PROPERTY = "simpledb.server.threads";
+
+    private static final String NAME = "simpledb-session-";
+
+    private final Mode mode;
+    private final ThreadFactory factory;
+    private final AtomicInteger created = new AtomicInteger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition idle = lock.newCondition();
+    private int active = 0;
+
+    /**
+     * Create a manager running sessions in the mode the system property
+     * chooses, or on virtual threads if it is not set.
+     */
+    public SessionManager() {
+        this("platform".equalsIgnoreCase(System.getProperty(MODE_PROPERTY)) ? Mode.PLATFORM : Mode.VIRTUAL);
+    }
+
+    /**
+     * Create a manager running sessions in the given mode.  Sessions run on
+     * platform threads if virtual threads are asked for but the runtime does
+     * not have them.
+     */
+    public SessionManager(Mode mode) {
+        ThreadFactory virtual = mode == Mode.VIRTUAL ? virtualThreadFactory() : null;
+        if (virtual != null) {
+            this.mode = Mode.VIRTUAL;
+            this.factory = virtual;
+        } else {
+            this.mode = Mode.PLATFORM;
+            this.factory = r -> {
+                Thread t = new Thread(r, NAME + this.created.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            };
+        }
+    }
+
+    /**
+     * @return a factory of virtual threads named after sessions, or null if
+     *         the runtime does not have virtual threads
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            builder = ofVirtual.getMethod("name", String.class, long.class).invoke(builder, NAME, 1L);
+            Method factory = ofVirtual.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            // before Java 21, or Java 19 and 20 without preview features
+            return null;
+        }
+    }
+
+    /**
+     * @return whether the runtime can run sessions on virtual threads
+     */
+    public static boolean virtualThreadsAvailable() {
+        return virtualThreadFactory() != null;
+    }
+
+    /**
+     * @return the kind of thread sessions run on
+     */
+    public Mode getMode() {
+        return this.mode;
+    }
+
+    /**
+     * Run a session on a new thread.
+     */
+    public void start(Runnable session) {
+        this.lock.lock();
+        try {
+            this.active++;
+        } finally {
+            this.lock.unlock();
+        }
+        Thread t = this.factory.newThread(() -> {
+            try {
+                session.run();
+            } finally {
+                this.lock.lock();
+                try {
+                    if (--this.active == 0)
+                        this.idle.signalAll();
+                } finally {
+                    this.lock.unlock();
+                }
+            }
+        });
+        t.start();
+    }
+
+    /**
+     * @return the number of sessions running
+     */
+    public int getActiveCount() {
+        this.lock.lock();
+        try {
+            return this.active;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for every session to end.
+     *
+     * @return whether they all did within the timeout
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        this.lock.lock();
+        try {
+            while (this.active > 0) {
+                if (nanos <= 0)
+                    return false;
+                nanos = this.idle.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
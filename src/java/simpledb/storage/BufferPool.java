@@ -1,17 +1,28 @@
 package simpledb.storage;
 
+import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
+import simpledb.metrics.Metrics;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -21,6 +32,34 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * How dirty pages reach disk is set by the {@link Policy}.  Under the
+ * default NO_STEAL_FORCE policy, pages dirtied by a live transaction are
+ * never evicted and commit writes them all out.  Under STEAL_NO_FORCE,
+ * any page may be evicted once the log records describing it are forced,
+ * and commit only logs the committed pages; they are written later by
+ * eviction or a checkpoint, and recovery redoes them from the log after a
+ * crash.
+ * <p>
+ * Pages are read from disk outside the pool's lock, so misses on different
+ * pages are read in parallel; a thread missing on a page that another
+ * thread is already reading waits for that read instead of repeating it.
+ * The lock is a ReentrantLock rather than the pool's monitor, so a virtual
+ * thread waiting for it or for a read parks without pinning its carrier.
+ * <p>
+ * Dirty pages are written in (table, page number) order, one write per run
+ * of adjacent pages.  Under STEAL_NO_FORCE an optional background cleaner
+ * (see {@link #startCleaner}) keeps a fraction of the frames clean so that
+ * eviction rarely has to write.
+ * <p>
+ * Read-only transactions registered with {@link #beginSnapshot} take no
+ * locks.  Each page they fetch is the version that was committed when the
+ * snapshot began, copied from the page's before image or taken from the old
+ * versions kept by PageVersions, so writers never wait for them and never
+ * change a page under them.  Any page
+ * with uncommitted changes is either dirty, and read through its before
+ * image, or was written back by eviction, the cleaner or a checkpoint,
+ * and its committed image was kept in PageVersions before the write.
  * 
  * @Threadsafe, all fields are final
  */
@@ -35,8 +74,26 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Buffer management policies; see the class comment. */
+    public enum Policy {
+        NO_STEAL_FORCE, STEAL_NO_FORCE
+    }
+
     private Map<PageId, Page> pages;
+    // pages being read from disk, each completed once its read is done
+    private final Map<PageId, CompletableFuture<Void>> reading = new HashMap<>();
     private int numPages;
+    private volatile Policy policy = Policy.NO_STEAL_FORCE;
+    private PageCleaner cleaner;
+    private final PageVersions versions = new PageVersions();
+    // the pages each live transaction may have changed; a page written by
+    // a checkpoint or the cleaner is marked clean but stays in its set, so
+    // commit still resets its before image
+    private final Map<TransactionId, Set<PageId>> touched = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // getPage calls of each thread, and those that read the page from disk
+    private static final ThreadLocal<long[]> threadPageCounts = ThreadLocal.withInitial(() -> new long[2]);
 
     private Map<PageId, Page> getPages() {
         return pages;
@@ -46,6 +103,14 @@ public class BufferPool {
         this.pages = pages;
     }
 
+    /**
+     * @return the pool's lock, which LogFile takes before its own when it
+     *         flushes or discards pages
+     */
+    ReentrantLock getLock() {
+        return lock;
+    }
+
     private int getNumPages() {
         return numPages;
     }
@@ -54,8 +119,57 @@ public class BufferPool {
         this.numPages = numPages;
     }
 
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Switch buffer management policy.  STEAL_NO_FORCE relies on the log for
+     * both undo and redo, so it must not be used with recovery disabled.
+     */
+    public void setPolicy(Policy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Start a background thread that writes back dirty pages whenever fewer
+     * than cleanFraction of the frames are clean.  Only has an effect under
+     * STEAL_NO_FORCE, since otherwise every dirty page belongs to a live
+     * transaction.  Replaces any cleaner that is already running.
+     *
+     * @param cleanFraction the fraction of frames to keep clean, in [0, 1]
+     * @param intervalMillis how often the cleaner checks the pool
+     */
+    public void startCleaner(double cleanFraction, long intervalMillis) {
+        lock.lock();
+        try {
+            stopCleaner();
+            cleaner = new PageCleaner(this, cleanFraction, intervalMillis);
+            Thread t = new Thread(cleaner, "simpledb-page-cleaner");
+            t.setDaemon(true);
+            t.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Stop the background cleaner, if one is running. */
+    public void stopCleaner() {
+        lock.lock();
+        try {
+            if (cleaner != null) {
+                cleaner.stop();
+                cleaner = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // full once the cached pages and those being read fill every frame,
+    // though an empty pool lets reads run over
     private boolean isFull() {
-        return getPages().size() >= numPages;
+        return !getPages().isEmpty() && getPages().size() + reading.size() >= numPages;
     }
 
     /**
@@ -66,7 +180,7 @@ public class BufferPool {
     public BufferPool(int numPages) {
         // some code goes here
         setNumPages(numPages);
-        setPages(new HashMap<>());
+        setPages(new LinkedHashMap<>());
     }
     
     public static int getPageSize() {
@@ -98,22 +212,153 @@ public class BufferPool {
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
      */
-    public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        if (getPages().containsKey(pid)) {
-            return getPages().get(pid);
+        threadPageCounts.get()[0]++;
+        boolean read = false;
+        while (true) {
+            CompletableFuture<Void> pending;
+            boolean mine = false;
+            lock.lock();
+            try {
+                Page p = cachedPage(tid, pid, perm, !read);
+                if (p != null) {
+                    return p;
+                }
+                pending = reading.get(pid);
+                if (pending == null) {
+                    if (isFull()) {
+                        evictPage();
+                    }
+                    pending = new CompletableFuture<>();
+                    reading.put(pid, pending);
+                    mine = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            // the disk read happens outside the pool's lock; other threads
+            // missing on the same page wait for it and look the page up again
+            if (mine) {
+                readPage(pid, pending);
+                read = true;
+            } else {
+                pending.join();
+            }
+        }
+    }
+
+    // the page as tid may see it, if the pool holds it, or null
+    private Page cachedPage(TransactionId tid, PageId pid, Permissions perm, boolean countHit)
+        throws DbException {
+        if (versions.isSnapshot(tid)) {
+            return getSnapshotPage(tid, pid, perm, countHit);
+        }
+        Page cached = getPages().get(pid);
+        if (cached == null) {
+            return null;
+        }
+        if (perm == Permissions.READ_WRITE) {
+            touch(tid, pid);
+        }
+        if (countHit) {
+            Metrics.BUFFER_HITS.increment();
         }
+        return cached;
+    }
 
-        if (isFull()) {
-            throw new DbException("");
+    /**
+     * Read a page that missed in the pool from disk, and cache it unless it
+     * was discarded (e.g. by a rollback rewriting it on disk) or cached by
+     * an insert while it was being read.  Called without the pool's lock.
+     */
+    private void readPage(PageId pid, CompletableFuture<Void> pending) {
+        Page page = null;
+        try {
+            long start = System.nanoTime();
+            page = Database.getCatalog()
+                    .getDatabaseFile(pid.getTableId())
+                    .readPage(pid);
+            Metrics.pageRead(pid.getTableId(), pid.getPageNumber(), start);
+            threadPageCounts.get()[1]++;
+        } finally {
+            lock.lock();
+            try {
+                if (reading.remove(pid, pending) && page != null && !getPages().containsKey(pid)) {
+                    getPages().put(pid, page);
+                }
+            } finally {
+                lock.unlock();
+            }
+            pending.complete(null);
         }
+    }
+
+    /**
+     * @return the number of pages the calling thread has requested with
+     *         getPage; a query's requests are the difference between two
+     *         calls, as it runs on one thread
+     */
+    public static long getThreadPageRequests() {
+        return threadPageCounts.get()[0];
+    }
+
+    /**
+     * @return the number of pages requested by the calling thread that were
+     *         not in the pool and were read from disk
+     */
+    public static long getThreadPageMisses() {
+        return threadPageCounts.get()[1];
+    }
 
-        Page currentPage = Database.getCatalog()
-                .getDatabaseFile(pid.getTableId())
-                .readPage(pid);
-        getPages().put(pid, currentPage);
-        return currentPage;
+    /**
+     * Register tid as a read-only transaction that reads the database as
+     * of now.  Its getPage calls take no locks and return private copies
+     * of committed pages; the snapshot ends with transactionComplete.
+     *
+     * @param tid the ID of the read-only transaction
+     */
+    public void beginSnapshot(TransactionId tid) {
+        lock.lock();
+        try {
+            versions.beginSnapshot(tid);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if tid is a read-only snapshot started by beginSnapshot
+     */
+    public boolean isSnapshot(TransactionId tid) {
+        lock.lock();
+        try {
+            return versions.isSnapshot(tid);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Page getSnapshotPage(TransactionId tid, PageId pid, Permissions perm, boolean countHit)
+        throws DbException {
+        if (perm == Permissions.READ_WRITE) {
+            throw new DbException("transaction " + tid.getId() + " is a read-only snapshot");
+        }
+        Page page = versions.versionFor(tid, pid);
+        if (page == null) {
+            // a copy of the current version minus changes of a live
+            // transaction, since a writer may change the cached page in place
+            Page current = getPages().get(pid);
+            if (current == null) {
+                return null;
+            }
+            page = current.getBeforeImage();
+        }
+        if (countHit) {
+            Metrics.BUFFER_HITS.increment();
+        }
+        return page;
     }
 
     /**
@@ -138,6 +383,13 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
+        lock.lock();
+        try {
+            versions.endSnapshot(tid);
+            touched.remove(tid);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
@@ -157,6 +409,92 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        lock.lock();
+        try {
+            try {
+                List<Page> dirtied = pagesDirtiedBy(tid);
+                List<Page> changed = pagesTouchedBy(tid);
+                if (commit) {
+                    if (getPolicy() == Policy.NO_STEAL_FORCE) {
+                        flushPages(tid);
+                    } else {
+                        // the commit record forces these; the pages stay
+                        // dirty until they are evicted or checkpointed
+                        for (Page p : dirtied) {
+                            logUpdate(p);
+                        }
+                    }
+                    // after the flush, which keeps the committed images of
+                    // the pages it writes as any write back does
+                    versions.committed(tid, changed);
+                    // including pages written back while tid ran, which
+                    // are clean but still hold the pre-commit before image
+                    for (Page p : changed) {
+                        p.setBeforeImage();
+                    }
+                } else {
+                    versions.aborted(tid);
+                    // stolen pages were already restored on disk (and
+                    // dropped from here) by LogFile.rollback
+                    for (Page p : dirtied) {
+                        if (getPolicy() == Policy.NO_STEAL_FORCE) {
+                            discardPage(p.getId());
+                        } else {
+                            // the before image may hold committed changes
+                            // that are not on disk yet
+                            Page restored = p.getBeforeImage();
+                            restored.markDirty(true, tid);
+                            getPages().put(p.getId(), restored);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } finally {
+            lock.unlock();
+        }
+        transactionComplete(tid);
+    }
+
+    private void touch(TransactionId tid, PageId pid) {
+        if (tid != null) {
+            touched.computeIfAbsent(tid, k -> new HashSet<>()).add(pid);
+        }
+    }
+
+    /**
+     * The cached pages tid touched that no other transaction has dirtied
+     * since, whether they are still dirty or were written back while tid
+     * ran, and forget the rest
+     */
+    private List<Page> pagesTouchedBy(TransactionId tid) {
+        List<Page> pages = new ArrayList<>();
+        Set<PageId> pids = touched.remove(tid);
+        if (pids != null) {
+            for (PageId pid : pids) {
+                Page p = getPages().get(pid);
+                if (p != null && (p.isDirty() == null || tid.equals(p.isDirty()))) {
+                    pages.add(p);
+                }
+            }
+        }
+        for (Page p : pagesDirtiedBy(tid)) {
+            if (pids == null || !pids.contains(p.getId())) {
+                pages.add(p);
+            }
+        }
+        return pages;
+    }
+
+    private List<Page> pagesDirtiedBy(TransactionId tid) {
+        List<Page> dirtied = new ArrayList<>();
+        for (Page p : getPages().values()) {
+            if (tid.equals(p.isDirty())) {
+                dirtied.add(p);
+            }
+        }
+        return dirtied;
     }
 
     /**
@@ -178,6 +516,29 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtied(tid, f.insertTuple(tid, t));
+        for (Catalog.Index index : Database.getCatalog().getIndexes(tableId)) {
+            cacheDirtied(tid, index.insertTuple(tid, t));
+        }
+        Database.getCatalog().recordModification(tableId);
+    }
+
+    // mark pages changed by tid dirty and make sure the pool holds them
+    private void cacheDirtied(TransactionId tid, List<Page> dirtied) throws DbException {
+        lock.lock();
+        try {
+            for (Page p : dirtied) {
+                p.markDirty(true, tid);
+                touch(tid, p.getId());
+                if (!getPages().containsKey(p.getId()) && isFull()) {
+                    evictPage();
+                }
+                getPages().put(p.getId(), p);
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -197,6 +558,13 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtied(tid, f.deleteTuple(tid, t));
+        for (Catalog.Index index : Database.getCatalog().getIndexes(tableId)) {
+            cacheDirtied(tid, index.deleteTuple(tid, t));
+        }
+        Database.getCatalog().recordModification(tableId);
     }
 
     /**
@@ -204,10 +572,15 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-
+        lock.lock();
+        try {
+            writeBack(dirtyPages());
+        } finally {
+            lock.unlock();
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -218,34 +591,170 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
+        lock.lock();
+        try {
+            getPages().remove(pid);
+            // a read in progress must not cache what it read
+            reading.remove(pid);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk.  Called with the pool's lock held.
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
+        Page p = getPages().get(pid);
+        if (p == null || p.isDirty() == null) {
+            return;
+        }
+        List<Page> one = new ArrayList<>();
+        one.add(p);
+        writeBack(one);
+    }
+
+    /**
+     * Write dirty pages to disk and mark them clean.  Pages are sorted by
+     * table and page number and handed to each DbFile together, so runs of
+     * adjacent pages become single writes.  The committed image of a page
+     * with uncommitted changes is kept in PageVersions first, since the
+     * page no longer shows as dirty once it is written.
+     */
+    private void writeBack(List<Page> dirty) throws IOException {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        dirty.sort(Comparator.comparingInt((Page p) -> p.getId().getTableId())
+                .thenComparingInt(p -> p.getId().getPageNumber()));
+
+        // write ahead: the pages may only reach disk after log records
+        // that can undo (and redo) them are durable
+        for (Page p : dirty) {
+            logUpdate(p);
+            versions.pageStolen(p);
+        }
+        Database.getLogFile().force();
+
+        int start = 0;
+        while (start < dirty.size()) {
+            int tableId = dirty.get(start).getId().getTableId();
+            int end = start + 1;
+            while (end < dirty.size() && dirty.get(end).getId().getTableId() == tableId) {
+                end++;
+            }
+            long t0 = System.nanoTime();
+            Database.getCatalog().getDatabaseFile(tableId).writePages(dirty.subList(start, end));
+            Metrics.pagesWritten(tableId, dirty.get(start).getId().getPageNumber(),
+                    dirty.get(end - 1).getId().getPageNumber(), end - start, t0);
+            start = end;
+        }
+        for (Page p : dirty) {
+            p.markDirty(false, null);
+        }
+    }
+
+    private List<Page> dirtyPages() {
+        List<Page> dirty = new ArrayList<>();
+        for (Page p : getPages().values()) {
+            if (p.isDirty() != null) {
+                dirty.add(p);
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Write back dirty pages until at least cleanFraction of the frames are
+     * clean, taking them in eviction order.  Does nothing unless the policy
+     * is STEAL_NO_FORCE.
+     *
+     * @return the number of pages written
+     */
+    public int cleanPages(double cleanFraction) throws IOException {
+        lock.lock();
+        try {
+            if (getPolicy() != Policy.STEAL_NO_FORCE) {
+                return 0;
+            }
+            int maxDirty = getNumPages() - (int) Math.ceil(cleanFraction * getNumPages());
+            List<Page> dirty = dirtyPages();
+            if (dirty.size() <= maxDirty) {
+                return 0;
+            }
+            List<Page> victims = new ArrayList<>(dirty.subList(0, dirty.size() - Math.max(maxDirty, 0)));
+            writeBack(victims);
+            return victims.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Log an UPDATE record for a dirty page, unless it has not changed
+     * since its before image (it was committed and already logged then).
+     */
+    private void logUpdate(Page p) throws IOException {
+        Page before = p.getBeforeImage();
+        if (!Arrays.equals(before.getPageData(), p.getPageData())) {
+            Database.getLogFile().logWrite(p.isDirty(), before, p);
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        lock.lock();
+        try {
+            writeBack(pagesDirtiedBy(tid));
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Clean pages are preferred; a dirty page is only chosen under
+     * STEAL_NO_FORCE, and is logged and written before it is dropped.
+     * Called with the pool's lock held.
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
+        PageId victim = null;
+        for (Page p : getPages().values()) {
+            if (p.isDirty() == null) {
+                victim = p.getId();
+                break;
+            }
+            if (victim == null && getPolicy() == Policy.STEAL_NO_FORCE) {
+                victim = p.getId();
+            }
+        }
+        if (victim == null) {
+            throw new DbException("all pages in the buffer pool are dirty");
+        }
+        if (cleaner != null && getPages().get(victim).isDirty() != null) {
+            // the cleaner is falling behind
+            cleaner.nudge();
+        }
+        Metrics.pageEvicted(victim.getTableId(), victim.getPageNumber(),
+                getPages().get(victim).isDirty() != null);
+        try {
+            flushPage(victim);
+        } catch (IOException e) {
+            throw new DbException("could not flush page " + victim + ": " + e.getMessage());
+        }
+        discardPage(victim);
     }
 
 }
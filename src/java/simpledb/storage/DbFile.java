@@ -3,6 +3,7 @@ package simpledb.storage;
 
 import simpledb.common.DbException;
 import simpledb.common.Catalog;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -33,6 +34,19 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages of this file to disk.  Implementations may write
+     * pages with consecutive page numbers in a single sequential write.
+     *
+     * @param pages The pages to write, sorted by page number
+     * @throws IOException if a write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -73,6 +87,68 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over the tuples stored in this DbFile that only
+     * needs to fill in the given fields; the others may be left null.
+     * Column-oriented files use this to avoid reading columns a query
+     * never looks at.  The default reads every field.
+     *
+     * @param fields the indexes of the fields the caller reads, or null
+     *        for all of them
+     */
+    default DbFileIterator iterator(TransactionId tid, Set<Integer> fields) {
+        return iterator(tid);
+    }
+
+    /**
+     * Returns an iterator like {@link #iterator(TransactionId, Set)} that
+     * may skip tuples that fail any of the given predicates, e.g. whole
+     * pages whose summaries show that none of their tuples can match.  It
+     * may also return tuples that fail them; callers still filter.  The
+     * default ignores the predicates.
+     *
+     * @param predicates predicates over the fields of this file, or null
+     */
+    default DbFileIterator iterator(TransactionId tid, Set<Integer> fields, List<Predicate> predicates) {
+        return iterator(tid, fields);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored on some of this DbFile's
+     * pages, e.g. to estimate statistics from a sample of them.  The
+     * default reads the whole file and keeps the tuples whose RecordIds
+     * are on those pages; files that can read single pages override it.
+     *
+     * @param pageNumbers the page numbers to read, in increasing order
+     */
+    default DbFileIterator pageIterator(TransactionId tid, int[] pageNumbers) {
+        DbFileIterator all = iterator(tid);
+        return new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                all.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                all.close();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (all.hasNext()) {
+                    Tuple t = all.next();
+                    if (Arrays.binarySearch(pageNumbers, t.getRecordId().getPageId().getPageNumber()) >= 0)
+                        return t;
+                }
+                return null;
+            }
+        };
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -93,4 +169,9 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Returns the number of pages in this DbFile.
+     */
+    int numPages();
 }
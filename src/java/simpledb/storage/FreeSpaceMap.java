@@ -0,0 +1,96 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records which pages of a {@link HeapFile} are full, so that
+ * inserts can go straight to a page with room instead of fetching every
+ * page from the start of the file.
+ * <p>
+ * The map is one bit per page, set when the page is full, stored in a side
+ * file next to the heap file (see {@link #sideFile}).  It is only a hint:
+ * a page marked free may turn out to be full (it is then marked full), and
+ * a page marked full may have regained room, e.g. after an aborted insert,
+ * until a delete on it clears its bit.  Either way inserts stay correct.
+ */
+public class FreeSpaceMap {
+
+    private final File file;
+    private BitSet full = null;
+    private boolean dirty = false;
+
+    /**
+     * @param dataFile the heap file the map describes
+     */
+    public FreeSpaceMap(File dataFile) {
+        this.file = sideFile(dataFile);
+    }
+
+    /**
+     * @return the file that holds the free-space map of a heap file
+     */
+    public static File sideFile(File dataFile) {
+        return new File(dataFile.getPath() + ".fsm");
+    }
+
+    private BitSet bits() {
+        if (full == null) {
+            full = new BitSet();
+            if (file.exists()) {
+                try {
+                    full = BitSet.valueOf(Files.readAllBytes(file.toPath()));
+                } catch (IOException e) {
+                    // an unreadable map only costs us extra page fetches
+                }
+            }
+        }
+        return full;
+    }
+
+    /**
+     * @return the first page at or after pageNo that is not marked full;
+     *         this may be past the end of the file
+     */
+    public synchronized int nextFree(int pageNo) {
+        return bits().nextClearBit(pageNo);
+    }
+
+    /**
+     * @return true if the page is marked full
+     */
+    public synchronized boolean isFull(int pageNo) {
+        return bits().get(pageNo);
+    }
+
+    /**
+     * Record that a page has no room for another tuple.
+     */
+    public synchronized void markFull(int pageNo) {
+        if (!bits().get(pageNo)) {
+            full.set(pageNo);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Record that a page may have room, e.g. after a delete.
+     */
+    public synchronized void markFree(int pageNo) {
+        if (bits().get(pageNo)) {
+            full.clear(pageNo);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Write the map to its side file if it has changed.
+     */
+    public synchronized void flush() throws IOException {
+        if (!dirty)
+            return;
+        Files.write(file.toPath(), full.toByteArray());
+        dirty = false;
+    }
+}
@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -16,6 +17,13 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Subclasses can store their pages in another {@link TuplePage} format by
+ * overriding {@link #createPage}.
+ * <p>
+ * Each HeapFile keeps a {@link ZoneMap} of the column ranges on each page,
+ * which lets scans with pushed-down predicates skip pages, and a
+ * {@link FreeSpaceMap} of its full pages, which lets inserts skip them.
  * 
  * @see HeapPage#HeapPage
  * @author Sam Madden
@@ -24,6 +32,8 @@ public class HeapFile implements DbFile {
 
     private File file;
     private TupleDesc tupleDesc;
+    private final ZoneMap zoneMap;
+    private final FreeSpaceMap freeSpaceMap;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -36,6 +46,22 @@ public class HeapFile implements DbFile {
         // some code goes here
         this.file = f;
         this.tupleDesc = td;
+        this.zoneMap = new ZoneMap(f, td);
+        this.freeSpaceMap = new FreeSpaceMap(f);
+    }
+
+    /**
+     * Request that a heap file's data file, and the side files of its zone
+     * map and free space map, be deleted when the virtual machine exits.
+     * Use it instead of File.deleteOnExit for temporary tables, whose side
+     * files would otherwise be left behind.
+     *
+     * @param f the data file of the heap file
+     */
+    public static void deleteOnExit(File f) {
+        f.deleteOnExit();
+        ZoneMap.sideFile(f).deleteOnExit();
+        FreeSpaceMap.sideFile(f).deleteOnExit();
     }
 
     /**
@@ -48,6 +74,20 @@ public class HeapFile implements DbFile {
         return this.file;
     }
 
+    /**
+     * Returns the min/max summaries of the pages of this file.
+     */
+    public ZoneMap getZoneMap() {
+        return this.zoneMap;
+    }
+
+    /**
+     * Returns the map of the full pages of this file.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return this.freeSpaceMap;
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere to ensure that each
@@ -83,7 +123,11 @@ public class HeapFile implements DbFile {
             FileInputStream fileInputStream = new FileInputStream(getFile());
             fileInputStream.skip(pageNum * pageSize);
             fileInputStream.read(data);
-            return new HeapPage(new HeapPageId(tableId, pageNum), data);
+            TuplePage page = createPage(new HeapPageId(tableId, pageNum), data);
+            if (!zoneMap.isKnown(pageNum)) {
+                zoneMap.summarize(pageNum, page.iterator());
+            }
+            return page;
 
         } catch (IOException e) {
             e.printStackTrace();
@@ -91,10 +135,53 @@ public class HeapFile implements DbFile {
         return null;
     }
 
+    /**
+     * Build a page of this file from its bytes on disk.
+     */
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
+        int pageSize = BufferPool.getPageSize();
+        zoneMap.widen(page.getId().getPageNumber(), ((TuplePage) page).iterator());
+        zoneMap.flush();
+        freeSpaceMap.flush();
+        try (RandomAccessFile raf = new RandomAccessFile(getFile(), "rw")) {
+            raf.seek((long) page.getId().getPageNumber() * pageSize);
+            raf.write(page.getPageData());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        for (Page page : pages) {
+            zoneMap.widen(page.getId().getPageNumber(), ((TuplePage) page).iterator());
+        }
+        zoneMap.flush();
+        freeSpaceMap.flush();
+        try (RandomAccessFile raf = new RandomAccessFile(getFile(), "rw")) {
+            int start = 0;
+            while (start < pages.size()) {
+                // one write for each run of consecutive page numbers
+                int end = start + 1;
+                while (end < pages.size() && pages.get(end).getId().getPageNumber()
+                        == pages.get(end - 1).getId().getPageNumber() + 1) {
+                    end++;
+                }
+                ByteArrayOutputStream run = new ByteArrayOutputStream((end - start) * pageSize);
+                for (int i = start; i < end; i++) {
+                    run.write(pages.get(i).getPageData());
+                }
+                raf.seek((long) pages.get(start).getId().getPageNumber() * pageSize);
+                raf.write(run.toByteArray());
+                start = end;
+            }
+        }
     }
 
     /**
@@ -109,26 +196,89 @@ public class HeapFile implements DbFile {
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for lab1
+        int numPages = numPages();
+        for (int i = freeSpaceMap.nextFree(0); i < numPages; i = freeSpaceMap.nextFree(i + 1)) {
+            TuplePage page = (TuplePage) Database.getBufferPool()
+                    .getPage(tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
+            if (page.hasRoomFor(t)) {
+                page.insertTuple(t);
+                zoneMap.include(i, t);
+                if (!page.hasRoomFor(t)) {
+                    freeSpaceMap.markFull(i);
+                }
+                return new ArrayList<>(Collections.singletonList(page));
+            }
+            freeSpaceMap.markFull(i);
+        }
+
+        // every page is full: append an empty one
+        HeapPageId pid;
+        synchronized (this) {
+            pid = new HeapPageId(getId(), numPages());
+            try (RandomAccessFile raf = new RandomAccessFile(getFile(), "rw")) {
+                raf.seek((long) pid.getPageNumber() * BufferPool.getPageSize());
+                raf.write(HeapPage.createEmptyPageData());
+            }
+        }
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        freeSpaceMap.markFree(pid.getPageNumber());
+        page.insertTuple(t);
+        zoneMap.include(pid.getPageNumber(), t);
+        return new ArrayList<>(Collections.singletonList(page));
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("tuple is not a member of this file");
+        }
+        TuplePage page = (TuplePage) Database.getBufferPool()
+                .getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        // the summary must still cover the page if this transaction aborts
+        List<Tuple> versions = new ArrayList<>();
+        page.iterator().forEachRemaining(versions::add);
+        ((TuplePage) page.getBeforeImage()).iterator().forEachRemaining(versions::add);
+        zoneMap.summarize(rid.getPageId().getPageNumber(), versions.iterator());
+        freeSpaceMap.markFree(rid.getPageId().getPageNumber());
+        return new ArrayList<>(Collections.singletonList(page));
+    }
+
+    /**
+     * @return whether a scan by tid with the given pushed-down predicates
+     *         must read a page, i.e. unless the zone map shows that no
+     *         tuple on it can satisfy them all
+     */
+    public boolean mustReadPage(TransactionId tid, int pageNumber, List<Predicate> predicates) {
+        if (predicates == null || predicates.isEmpty() || zoneMap.mightMatch(pageNumber, predicates))
+            return true;
+        // snapshots may read versions older than the zone map covers
+        return Database.getBufferPool().isSnapshot(tid);
     }
 
     protected class HeapFileIterator implements DbFileIterator {
 
         private final TransactionId transactionId;
+        private final List<Predicate> predicates;
         private Iterator<Tuple> tupleIter;
         private int pageCursor;
 
         public HeapFileIterator(TransactionId transactionId) {
+            this(transactionId, null);
+        }
+
+        /**
+         * @param predicates predicates used to skip pages whose zone map
+         *            shows that no tuple can satisfy them all, or null
+         */
+        public HeapFileIterator(TransactionId transactionId, List<Predicate> predicates) {
             this.transactionId = transactionId;
+            this.predicates = predicates;
             this.tupleIter = null;
             this.pageCursor = -1;
         }
@@ -178,8 +328,13 @@ public class HeapFile implements DbFile {
             if (curPageNumber > numPages()) {
                 throw new DbException("");
             }
+            if (curPageNumber < numPages()
+                    && !mustReadPage(this.transactionId, curPageNumber, this.predicates)) {
+                setTupleIter(Collections.emptyIterator());
+                return;
+            }
             HeapPageId pageId = new HeapPageId(getId(), curPageNumber);
-            HeapPage page = (HeapPage) Database.getBufferPool()
+            TuplePage page = (TuplePage) Database.getBufferPool()
                     .getPage(this.transactionId, pageId, Permissions.READ_ONLY);
             setTupleIter(page.iterator()) ;
         }
@@ -216,5 +371,47 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(tid);
     }
 
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, Set<Integer> fields, List<Predicate> predicates) {
+        return new HeapFileIterator(tid, predicates);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator pageIterator(TransactionId tid, int[] pageNumbers) {
+        return new AbstractDbFileIterator() {
+            private int next = -1;
+            private Iterator<Tuple> tuples = null;
+
+            public void open() {
+                next = 0;
+                tuples = null;
+            }
+
+            public void rewind() {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                next = -1;
+                tuples = null;
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (next < 0)
+                    return null;
+                while (tuples == null || !tuples.hasNext()) {
+                    if (next >= pageNumbers.length)
+                        return null;
+                    TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid,
+                            new HeapPageId(getId(), pageNumbers[next++]), Permissions.READ_ONLY);
+                    tuples = page.iterator();
+                }
+                return tuples.next();
+            }
+        };
+    }
+
 }
 
@@ -108,6 +108,9 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // any side files of an earlier file by this name are now stale
+    ZoneMap.sideFile(outFile).delete();
+    FreeSpaceMap.sideFile(outFile).delete();
 
     // our numbers probably won't be much larger than 1024 digits
     char[] buf = new char[1024];
@@ -224,4 +227,45 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified tuples, of any field types, into a binary page
+   * file.  The tuples are written in list order; the file has at least
+   * one page, as with the text conversion.
+   *
+   * @see HeapPage
+   * @see HeapFile
+   * @param tuples the tuples to write; each must have the TupleDesc td
+   * @param td the schema of the tuples
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @throws IOException if the output file can't be written
+   */
+  public static void convert(List<Tuple> tuples, TupleDesc td, File outFile, int npagebytes)
+      throws IOException {
+      int nrecords = (npagebytes * 8) / (td.getSize() * 8 + 1);  //floor comes for free
+      int nheaderbytes = (nrecords + 7) / 8;
+
+      // any side files of an earlier file by this name are now stale
+      ZoneMap.sideFile(outFile).delete();
+      FreeSpaceMap.sideFile(outFile).delete();
+
+      try (DataOutputStream os = new DataOutputStream(
+              new BufferedOutputStream(new FileOutputStream(outFile)))) {
+          int next = 0;
+          do {
+              int recordcount = Math.min(nrecords, tuples.size() - next);
+              SlotBitmap header = new SlotBitmap(nrecords, nheaderbytes);
+              for (int i = 0; i < recordcount; i++)
+                  header.set(i, true);
+              header.write(os);
+              for (int i = 0; i < recordcount; i++) {
+                  Tuple t = tuples.get(next++);
+                  for (int j = 0; j < td.numFields(); j++)
+                      t.getField(j).serialize(os);
+              }
+              // pad the rest of the page with zeroes
+              os.write(new byte[npagebytes - (recordcount * td.getSize() + nheaderbytes)]);
+          } while (next < tuples.size());
+      }
+  }
 }
@@ -16,17 +16,19 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
+    final SlotBitmap header;
     final Tuple[] tuples;
     final int numSlots;
 
     byte[] oldData;
     private final Byte oldDataLock= (byte) 0;
 
+    private volatile TransactionId dirtier;
+
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
@@ -50,9 +52,7 @@ public class HeapPage implements Page {
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
+        header = SlotBitmap.read(dis, numSlots, getHeaderSize());
         
         tuples = new Tuple[numSlots];
         try{
@@ -173,13 +173,11 @@ public class HeapPage implements Page {
         DataOutputStream dos = new DataOutputStream(baos);
 
         // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+        try {
+            header.write(dos);
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
         }
 
         // create the tuples
@@ -211,7 +209,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.getPageSize() - (getHeaderSize() + td.getSize() * tuples.length); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -252,6 +250,16 @@ public class HeapPage implements Page {
     public void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || !getId().equals(rid.getPageId())) {
+            throw new DbException("tuple is not on this page");
+        }
+        int slot = rid.getTupleNumber();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("tuple slot is already empty");
+        }
+        markSlotUsed(slot, false);
+        tuples[slot] = null;
     }
 
     /**
@@ -264,6 +272,16 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        int i = header.nextFree(0);
+        if (i < 0) {
+            throw new DbException("page is full");
+        }
+        markSlotUsed(i, true);
+        t.setRecordId(new RecordId(pid, i));
+        tuples[i] = t;
     }
 
     /**
@@ -273,6 +291,7 @@ public class HeapPage implements Page {
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
 	// not necessary for lab1
+        this.dirtier = dirty ? tid : null;
     }
 
     /**
@@ -281,7 +300,7 @@ public class HeapPage implements Page {
     public TransactionId isDirty() {
         // some code goes here
 	// Not necessary for lab1
-        return null;      
+        return dirtier;
     }
 
     /**
@@ -289,21 +308,14 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int usedSlots = 0;
-        for (int i = 0; i < getHeaderSize(); ++i) {
-            usedSlots += bitCount(this.header[i]);
-        }
-        return this.numSlots - usedSlots;
+        return this.numSlots - header.count();
     }
 
-    private int bitCount(Byte b) {
-        int ret = 0;
-        for (int i = 0; i < 8; ++i) {
-            if((b & (1 << i)) > 0){
-                ++ret;
-            }
-        }
-        return ret;
+    /**
+     * Returns true if there is an empty slot on this page.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
     }
 
     /**
@@ -311,10 +323,24 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-        if (i < this.numSlots) {
-            return (header[i / 8] & (0x1 << (i % 8))) != 0;
-        }
-        return false;
+        return i < this.numSlots && header.get(i);
+    }
+
+    /**
+     * @return the number of slots on this page, used or not
+     */
+    public int getNumSlots() {
+        return this.numSlots;
+    }
+
+    /**
+     * Returns the tuple in a slot of this page, for code that loops over
+     * the slots itself rather than through {@link #iterator}.
+     *
+     * @return the tuple in slot i, or null if the slot is empty
+     */
+    public Tuple getTuple(int i) {
+        return isSlotUsed(i) ? tuples[i] : null;
     }
 
     /**
@@ -323,36 +349,34 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
-        if (value) {
-            header[i / 8] |= (0x1 << (i % 8));
-        } else {
-            header[i / 8] &= (~(0x1 << (i % 8)));
-        }
+        header.set(i, value);
     }
 
-    protected class HeapPageIterator implements Iterator {
+    protected class HeapPageIterator implements Iterator<Tuple> {
 
-        private LinkedList<Tuple> tupleList;
-        private final Iterator<Tuple> iterator;
+        private final Tuple[] used;
+        private int pos = 0;
 
         public HeapPageIterator() {
-            this.tupleList = new LinkedList<>();
-            for (int i = 0; i < numSlots; ++i) {
-                if (isSlotUsed(i)) {
-                    tupleList.add(tuples[i]);
-                }
+            // snapshot the used slots, so changes to the page don't disturb the iteration
+            this.used = new Tuple[header.count()];
+            int n = 0;
+            for (int i = header.nextUsed(0); i >= 0; i = header.nextUsed(i + 1)) {
+                used[n++] = tuples[i];
             }
-            this.iterator = tupleList.iterator();
         }
 
         @Override
         public boolean hasNext() {
-            return iterator.hasNext();
+            return pos < used.length;
         }
 
         @Override
-        public Object next() {
-            return iterator.next();
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return used[pos++];
         }
 
 
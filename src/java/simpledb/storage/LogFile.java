@@ -4,10 +4,11 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
+import simpledb.metrics.Metrics;
 
 import java.io.*;
 import java.util.*;
-import java.lang.reflect.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -18,42 +19,63 @@ two-phase locking discipline are followed.  <p>
 <u> Locking note: </u>
 <p>
 
-Many of the methods here are synchronized (to prevent concurrent log
-writes from happening); many of the methods in BufferPool are also
-synchronized (for similar reasons.)  Problem is that BufferPool writes
+Most of the methods here hold the log's lock (to prevent concurrent
+log writes from happening); many of the methods in BufferPool hold the
+pool's lock (for similar reasons.)  Problem is that BufferPool writes
 log records (on page flushed) and the log file flushes BufferPool
 pages (on checkpoints and recovery.)  This can lead to deadlock.  For
 that reason, any LogFile operation that needs to access the BufferPool
-must not be declared synchronized and must begin with a block like:
+must take the pool's lock before its own, with a block like:
 
 <p>
 <pre>
-    synchronized (Database.getBufferPool()) {
-       synchronized (this) {
+    ReentrantLock poolLock = Database.getBufferPool().getLock();
+    poolLock.lock();
+    try {
+        lock.lock();
+        try {
 
-       ..
+        ..
 
-       }
+        } finally {
+            lock.unlock();
+        }
+    } finally {
+        poolLock.unlock();
     }
 </pre>
+
+Both are ReentrantLocks rather than monitors, so a virtual thread
+waiting for a log force parks without pinning its carrier.
 */
 
 /**
-<p> The format of the log file is as follows:
+<p> The log is stored as a small control file plus a sequence of
+fixed-size segment files:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The control file (the File passed to the constructor) holds a
+single long integer: the LSN of the last written checkpoint, or -1 if
+there are no checkpoints
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> Segment files live next to the control file and are named after it
+with an eight digit segment number appended (log.00000000,
+log.00000001, ...).  Each segment is preallocated to the segment size
+when it is created.  A segment begins with its segment number as a long
+integer, followed by log records.  Records never span segments; an
+integer 0 where the next record type would be marks the end of the
+records in a segment.
+
+<li> A log sequence number (LSN) names the position where a record
+begins: the high 32 bits are the segment number and the low 32 bits
+the byte offset within that segment, so LSNs grow in log order.
 
 <li> Each log record begins with an integer type and a long integer
 transaction id.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record ends with a long integer LSN representing
+the position in the log where the record began.
 
 <li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
 CHECKPOINT
@@ -61,24 +83,33 @@ CHECKPOINT
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
-after image.  These images are serialized Page objects, and can be
+after image.  These images are serialized Page objects, prefixed with
+a one-byte page type tag from PageCodecs, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
+as a long integer transaction id and a long integer first record LSN
 for each active transaction.
 
+<li> Truncation never rewrites records.  Whole segments older than the
+oldest record still needed for recovery are deleted or, up to
+MAX_SPARE_SEGMENTS of them, renamed to spare files that are reused as
+later segments so that steady-state logging does not create and grow
+new files.
+
 </ul>
 */
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private RandomAccessFile control;
+    private RandomAccessFile raf; // the segment records are appended to
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
+    static final int NO_RECORD = 0; // end of the records in a segment
     static final int ABORT_RECORD = 1;
     static final int COMMIT_RECORD = 2;
     static final int UPDATE_RECORD = 3;
@@ -89,12 +120,26 @@ public class LogFile {
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
-    long currentOffset = -1;//protected by this
+    /** Default size of a log segment, in bytes */
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    static final int SEGMENT_HEADER_SIZE = LONG_SIZE;
+    /** Retired segments kept around for reuse; the rest are deleted */
+    static final int MAX_SPARE_SEGMENTS = 4;
+
+    final int segmentSize;
+    final TreeMap<Long, File> segments = new TreeMap<>(); // live segments by number //protected by lock
+    final Deque<File> spares = new ArrayDeque<>(); //protected by lock
+    long currentSegment = -1; //protected by lock
+
+    long currentOffset = -1; // LSN of the next record //protected by lock
 //    int pageSize;
-    int totalRecords = 0; // for PatchTest //protected by this
+    int totalRecords = 0; // for PatchTest //protected by lock
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
 
+    // see the locking note above
+    private final ReentrantLock lock = new ReentrantLock();
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -107,10 +152,42 @@ public class LogFile {
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
+        this(f, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /** Constructor with an explicit segment size.
+
+        @param f The log file's name; segments are stored next to it
+        @param segmentSize The size of each log segment, in bytes
+    */
+    public LogFile(File f, int segmentSize) throws IOException {
 	this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        if (segmentSize < SEGMENT_HEADER_SIZE + INT_SIZE)
+            throw new IllegalArgumentException("log segment size too small: " + segmentSize);
+        this.segmentSize = segmentSize;
+        control = new RandomAccessFile(f, "rw");
         recoveryUndecided = true;
 
+        File[] existing = segmentDirectory().listFiles();
+        if (existing != null) {
+            String prefix = logFile.getName() + ".";
+            for (File seg : existing) {
+                String name = seg.getName();
+                if (!name.startsWith(prefix))
+                    continue;
+                String suffix = name.substring(prefix.length());
+                if (suffix.startsWith("spare")) {
+                    spares.add(seg);
+                } else {
+                    try {
+                        segments.put(Long.parseLong(suffix), seg);
+                    } catch (NumberFormatException e) {
+                        // not one of ours
+                    }
+                }
+            }
+        }
+
         // install shutdown hook to force cleanup on close
         // Runtime.getRuntime().addShutdownHook(new Thread() {
                 // public void run() { shutdown(); }
@@ -122,23 +199,137 @@ public class LogFile {
         // may not match tableids in the current catalog.
     }
 
+    static long lsn(long segment, long offset) {
+        return (segment << 32) | offset;
+    }
+
+    static long segmentOf(long lsn) {
+        return lsn >>> 32;
+    }
+
+    static int offsetOf(long lsn) {
+        return (int) lsn;
+    }
+
+    private File segmentDirectory() {
+        File dir = logFile.getAbsoluteFile().getParentFile();
+        return dir == null ? new File(".") : dir;
+    }
+
+    File segmentFile(long segment) {
+        return new File(segmentDirectory(), logFile.getName() + "." + String.format("%08d", segment));
+    }
+
+    private File spareFile() {
+        for (int i = 0; ; i++) {
+            File f = new File(segmentDirectory(), logFile.getName() + ".spare" + i);
+            if (!f.exists())
+                return f;
+        }
+    }
+
+    // start appending to a new segment, reusing a spare file if there is one
+    private void openSegment(long segment) throws IOException {
+        if (raf != null) {
+            // records in later segments must never be durable before
+            // the ones in this segment
+            force();
+            raf.close();
+        }
+        File f = segmentFile(segment);
+        File spare = spares.poll();
+        if (spare != null && !spare.renameTo(f))
+            spare.delete();
+        raf = new RandomAccessFile(f, "rw");
+        raf.setLength(segmentSize);
+        raf.seek(0);
+        raf.writeLong(segment);
+        raf.writeInt(NO_RECORD);
+        segments.put(segment, f);
+        currentSegment = segment;
+        currentOffset = lsn(segment, SEGMENT_HEADER_SIZE);
+        Debug.log("LOG SEGMENT " + segment + (spare != null ? " (recycled)" : ""));
+    }
+
+    // drop a segment that is no longer needed, keeping it as a spare if
+    // there are not many of those yet
+    private void retireSegment(long segment) {
+        File f = segments.remove(segment);
+        if (f == null)
+            return;
+        if (spares.size() < MAX_SPARE_SEGMENTS) {
+            File spare = spareFile();
+            if (f.renameTo(spare)) {
+                spares.add(spare);
+                return;
+            }
+        }
+        f.delete();
+    }
+
+    private long readCheckpointLsn() throws IOException {
+        if (control.length() < LONG_SIZE)
+            return NO_CHECKPOINT_ID;
+        control.seek(0);
+        return control.readLong();
+    }
+
+    private void writeCheckpointLsn(long cpLsn) throws IOException {
+        control.seek(0);
+        control.writeLong(cpLsn);
+        control.getChannel().force(true);
+    }
+
     // we're about to append a log record. if we weren't sure whether the
-    // DB wants to do recovery, we're sure now -- it didn't. So truncate
-    // the log.
+    // DB wants to do recovery, we're sure now -- it didn't. So throw out
+    // the old log segments.
     void preAppend() throws IOException {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            for (Long segment : new ArrayList<>(segments.keySet()))
+                retireSegment(segment);
+            writeCheckpointLsn(NO_CHECKPOINT_ID);
+            openSegment(0);
         }
     }
 
-    public synchronized int getTotalRecords() {
-        return totalRecords;
+    // append one record body (everything up to the trailing start LSN),
+    // moving to the next segment if it does not fit in this one
+    private long append(ByteArrayOutputStream body) throws IOException {
+        int needed = body.size() + LONG_SIZE + INT_SIZE;
+        if (SEGMENT_HEADER_SIZE + needed > segmentSize)
+            throw new IOException("log record of " + body.size() + " bytes does not fit in a log segment");
+        if (offsetOf(currentOffset) + needed > segmentSize)
+            openSegment(currentSegment + 1);
+
+        long start = currentOffset;
+        DataOutputStream dos = new DataOutputStream(body);
+        dos.writeLong(start);
+        dos.writeInt(NO_RECORD);
+        raf.seek(offsetOf(start));
+        raf.write(body.toByteArray());
+        Metrics.LOG_RECORDS.increment();
+        Metrics.LOG_BYTES.add(body.size());
+        currentOffset = start + needed - INT_SIZE;
+        return start;
+    }
+
+    private static ByteArrayOutputStream record(int type, long tid) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(body);
+        dos.writeInt(type);
+        dos.writeLong(tid);
+        return body;
+    }
+
+    public int getTotalRecords() {
+        lock.lock();
+        try {
+            return totalRecords;
+        } finally {
+            lock.unlock();
+        }
     }
     
     /** Write an abort record to the log for the specified tid, force
@@ -149,9 +340,11 @@ public class LogFile {
         // must have buffer pool lock before proceeding, since this
         // calls rollback
 
-        synchronized (Database.getBufferPool()) {
-
-            synchronized(this) {
+        ReentrantLock poolLock = Database.getBufferPool().getLock();
+        poolLock.lock();
+        try {
+            lock.lock();
+            try {
                 preAppend();
                 //Debug.log("ABORT");
                 //should we verify that this is a live transaction?
@@ -160,13 +353,14 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                append(record(ABORT_RECORD, tid.getId()));
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+            } finally {
+                lock.unlock();
             }
+        } finally {
+            poolLock.unlock();
         }
     }
 
@@ -175,17 +369,19 @@ public class LogFile {
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        lock.lock();
+        try {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            append(record(COMMIT_RECORD, tid.getId()));
+            force();
+            tidToFirstLogRecord.remove(tid.getId());
+        } finally {
+            lock.unlock();
+        }
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -196,254 +392,309 @@ public class LogFile {
 
         @see Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
-                                       Page after)
+    public void logWrite(TransactionId tid, Page before,
+                         Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
-        preAppend();
-        /* update record conists of
-
-           record type
-           transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
-        */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-
-        Debug.log("WRITE OFFSET = " + currentOffset);
+        lock.lock();
+        try {
+            preAppend();
+            Debug.log("WRITE, LSN = " + currentOffset);
+            /* update record conists of
+
+               record type
+               transaction id
+               before page data (see writePageData)
+               after page data
+               start LSN
+            */
+            ByteArrayOutputStream body = record(UPDATE_RECORD, tid.getId());
+            DataOutputStream dos = new DataOutputStream(body);
+            writePageData(dos,before);
+            writePageData(dos,after);
+            append(body);
+
+            Debug.log("WRITE LSN = " + currentOffset);
+        } finally {
+            lock.unlock();
+        }
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    void writePageData(DataOutput out, Page p) throws IOException{
         PageId pid = p.getId();
         int[] pageInfo = pid.serialize();
 
         //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
-
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
+        // page type tag (see PageCodecs)
+        // id data
+        // page data
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        out.writeByte(PageCodecs.tagOf(p));
 
-        raf.writeInt(pageInfo.length);
+        out.writeInt(pageInfo.length);
         for (int j : pageInfo) {
-            raf.writeInt(j);
+            out.writeInt(j);
         }
         byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+        out.writeInt(pageData.length);
+        out.write(pageData);
+        //        Debug.log ("WROTE PAGE DATA, TAG = " + tag + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    Page readPageData(DataInput in) throws IOException {
+        byte tag = in.readByte();
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
-
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = raf.readInt();
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+        int numIdArgs = in.readInt();
+        int[] idArgs = new int[numIdArgs];
+        for (int i = 0; i<numIdArgs;i++) {
+            idArgs[i] = in.readInt();
+        }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+        int pageSize = in.readInt();
+        byte[] pageData = new byte[pageSize];
+        in.readFully(pageData); //read before image
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
-            e.printStackTrace();
-            throw new IOException();
-        }
-        return newPage;
+        //            Debug.log("READ PAGE OF TAG " + tag + ", table = " + idArgs[0] + ", page = " + idArgs[1]);
+        return PageCodecs.decode(tag, idArgs, pageData);
+    }
 
+    // skip over a page image written by writePageData; returns its length
+    private static int skipPageData(DataInput in) throws IOException {
+        in.readByte();
+        int numIdArgs = in.readInt();
+        in.skipBytes(numIdArgs * INT_SIZE);
+        int pageSize = in.readInt();
+        in.skipBytes(pageSize);
+        return 1 + INT_SIZE + numIdArgs * INT_SIZE + INT_SIZE + pageSize;
     }
 
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
     */
-    public synchronized  void logXactionBegin(TransactionId tid)
+    public void logXactionBegin(TransactionId tid)
         throws IOException {
-        Debug.log("BEGIN");
-        if(tidToFirstLogRecord.get(tid.getId()) != null){
-            System.err.print("logXactionBegin: already began this tid\n");
-            throw new IOException("double logXactionBegin()");
-        }
-        preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        lock.lock();
+        try {
+            Debug.log("BEGIN");
+            if(tidToFirstLogRecord.get(tid.getId()) != null){
+                System.err.print("logXactionBegin: already began this tid\n");
+                throw new IOException("double logXactionBegin()");
+            }
+            preAppend();
+            long start = append(record(BEGIN_RECORD, tid.getId()));
+            tidToFirstLogRecord.put(tid.getId(), start);
 
-        Debug.log("BEGIN OFFSET = " + currentOffset);
+            Debug.log("BEGIN LSN = " + start);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /** Checkpoint the log and write a checkpoint record. */
     public void logCheckpoint() throws IOException {
         //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+        ReentrantLock poolLock = Database.getBufferPool().getLock();
+        poolLock.lock();
+        try {
+            lock.lock();
+            try {
+                //Debug.log("CHECKPOINT, LSN = " + currentOffset);
                 preAppend();
-                long startCpOffset, endCpOffset;
                 Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
                 force();
                 Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+
+                ByteArrayOutputStream body = record(CHECKPOINT_RECORD, -1); //no tid , but leave space for convenience
+                DataOutputStream dos = new DataOutputStream(body);
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
+                dos.writeInt(keys.size());
+                for (Long key : keys) {
                     Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                    dos.writeLong(key);
+                    dos.writeLong(tidToFirstLogRecord.get(key));
                 }
+                long cpLsn = append(body);
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+                //once the CP is durable, point the control file at it
+                force();
+                writeCheckpointLsn(cpLsn);
+                //Debug.log("CP LSN = " + cpLsn);
+            } finally {
+                lock.unlock();
             }
+        } finally {
+            poolLock.unlock();
         }
 
         logTruncate();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
-    public synchronized void logTruncate() throws IOException {
-        preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
-
-        long minLogRecord = cpLoc;
+        consumption.  Only whole segments are dropped; records are never
+        moved, so LSNs stay valid. */
+    public void logTruncate() throws IOException {
+        lock.lock();
+        try {
+            preAppend();
+            long cpLoc = readCheckpointLsn();
+            if (cpLoc == NO_CHECKPOINT_ID)
+                return;
+
+            long minLogRecord = cpLoc;
+            try (LogReader reader = new LogReader(cpLoc, false)) {
+                LogRecord cp = reader.next();
+                if (cp == null || cp.type != CHECKPOINT_RECORD || cp.lsn != cpLoc) {
+                    throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+                }
+                for (long firstLogRecord : cp.activeTransactions.values()) {
+                    if (firstLogRecord < minLogRecord) {
+                        minLogRecord = firstLogRecord;
+                    }
+                }
+            }
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+            // we can drop every segment before the one holding minLogRecord
+            List<Long> unneeded = new ArrayList<>(segments.headMap(segmentOf(minLogRecord)).keySet());
+            for (Long segment : unneeded)
+                retireSegment(segment);
 
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
+            Debug.log("TRUNCATING LOG; DROPPED " + unneeded.size() + " SEGMENTS; NEW START : " + minLogRecord);
+            //print();
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            int numOutstanding = raf.readInt();
+    /** A log record as read back by a LogReader */
+    static class LogRecord {
+        long lsn;
+        int type;
+        long tid;
+        Page before; // UPDATE only, and only if images were decoded
+        Page after;
+        Map<Long, Long> activeTransactions; // CHECKPOINT only
+    }
 
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+    /**
+     * Reads log records in LSN order starting at a given record, moving
+     * across segment boundaries.  Reading stops at the end of the log,
+     * which is the first end-of-segment marker that is not followed by
+     * another segment, or at the first record whose trailing LSN does not
+     * match where it started (a partially written record).
+     */
+    class LogReader implements Closeable {
+        private final boolean decodeImages;
+        private DataInputStream in;
+        private long segment;
+        private int offset;
+        private long end;
+
+        /**
+         * @param start the LSN of the first record to read
+         * @param decodeImages whether to turn UPDATE images into Pages;
+         *        readers that only look at record types skip them
+         */
+        LogReader(long start, boolean decodeImages) throws IOException {
+            this.decodeImages = decodeImages;
+            open(segmentOf(start), offsetOf(start));
         }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
+        private boolean open(long seg, int off) throws IOException {
+            close();
+            File f = segments.get(seg);
+            if (f == null)
+                return false;
+            FileInputStream fis = new FileInputStream(f);
+            fis.getChannel().position(off);
+            in = new DataInputStream(new BufferedInputStream(fis));
+            segment = seg;
+            offset = off;
+            end = lsn(seg, off);
+            return true;
+        }
 
-        raf.seek(minLogRecord);
+        /** @return the LSN just past the last record read */
+        long endLsn() {
+            return end;
+        }
 
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
+        /** @return the next record, or null at the end of the log */
+        LogRecord next() throws IOException {
+            while (in != null) {
+                try {
+                    int type = offset + INT_SIZE <= segmentSize ? in.readInt() : NO_RECORD;
+                    if (type == NO_RECORD) {
+                        if (!open(segment + 1, SEGMENT_HEADER_SIZE)) {
+                            close();
+                            return null;
+                        }
+                        continue;
+                    }
+                    LogRecord r = new LogRecord();
+                    r.lsn = lsn(segment, offset);
+                    r.type = type;
+                    r.tid = in.readLong();
+                    int length = INT_SIZE + LONG_SIZE;
+                    switch (type) {
+                    case UPDATE_RECORD:
+                        if (decodeImages) {
+                            r.before = readPageData(in);
+                            r.after = readPageData(in);
+                            length += imageLength(r.before) + imageLength(r.after);
+                        } else {
+                            length += skipPageData(in) + skipPageData(in);
+                        }
+                        break;
+                    case CHECKPOINT_RECORD:
+                        int numXactions = in.readInt();
+                        length += INT_SIZE + numXactions * 2 * LONG_SIZE;
+                        r.activeTransactions = new LinkedHashMap<>();
+                        while (numXactions-- > 0) {
+                            long xid = in.readLong();
+                            r.activeTransactions.put(xid, in.readLong());
+                        }
+                        break;
+                    case ABORT_RECORD:
+                    case COMMIT_RECORD:
+                    case BEGIN_RECORD:
+                        break;
+                    default:
+                        close();
+                        return null;
+                    }
+                    if (in.readLong() != r.lsn) {
+                        close();
+                        return null;
                     }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
+                    offset += length + LONG_SIZE;
+                    end = lsn(segment, offset);
+                    return r;
+                } catch (EOFException e) {
+                    close();
+                    return null;
                 }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
             }
+            return null;
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+        }
+    }
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+    private static int imageLength(Page p) {
+        return 1 + INT_SIZE + p.getId().serialize().length * INT_SIZE + INT_SIZE + p.getPageData().length;
+    }
 
-        currentOffset = raf.getFilePointer();
-        //print();
+    // write a before or after image straight to its table file, dropping
+    // any cached copy so later reads see it
+    private void installPage(Page p) throws IOException {
+        Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+        Database.getBufferPool().discardPage(p.getId());
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -456,11 +707,34 @@ public class LogFile {
     */
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized(this) {
+        ReentrantLock poolLock = Database.getBufferPool().getLock();
+        poolLock.lock();
+        try {
+            lock.lock();
+            try {
                 preAppend();
                 // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null)
+                    throw new NoSuchElementException("no log records for transaction " + tid.getId());
+
+                // the earliest before image of each page is its state
+                // when the transaction started
+                Map<PageId, Page> beforeImages = new LinkedHashMap<>();
+                try (LogReader reader = new LogReader(firstRecord, true)) {
+                    LogRecord r;
+                    while ((r = reader.next()) != null) {
+                        if (r.type == UPDATE_RECORD && r.tid == tid.getId())
+                            beforeImages.putIfAbsent(r.before.getId(), r.before);
+                    }
+                }
+                for (Page before : beforeImages.values())
+                    installPage(before);
+            } finally {
+                lock.unlock();
             }
+        } finally {
+            poolLock.unlock();
         }
     }
 
@@ -468,13 +742,19 @@ public class LogFile {
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
+        lock.lock();
         try {
-            logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
-        } catch (IOException e) {
-            System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
-            e.printStackTrace();
+            try {
+                logCheckpoint();  //simple way to shutdown is to write a checkpoint record
+                raf.close();
+                control.close();
+            } catch (IOException e) {
+                System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
+                e.printStackTrace();
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -483,92 +763,156 @@ public class LogFile {
         updates of uncommitted transactions are not installed.
     */
     public void recover() throws IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
+        ReentrantLock poolLock = Database.getBufferPool().getLock();
+        poolLock.lock();
+        try {
+            lock.lock();
+            try {
                 recoveryUndecided = false;
                 // some code goes here
+                if (segments.isEmpty()) {
+                    writeCheckpointLsn(NO_CHECKPOINT_ID);
+                    openSegment(0);
+                    return;
+                }
+                long start = lsn(segments.firstKey(), SEGMENT_HEADER_SIZE);
+
+                // analysis: which transactions finished, and where the log ends
+                Set<Long> committed = new HashSet<>();
+                Set<Long> finished = new HashSet<>();
+                Map<Long, Long> losers = new LinkedHashMap<>();
+                long end;
+                try (LogReader reader = new LogReader(start, false)) {
+                    LogRecord r;
+                    while ((r = reader.next()) != null) {
+                        switch (r.type) {
+                        case BEGIN_RECORD:
+                            losers.put(r.tid, r.lsn);
+                            break;
+                        case COMMIT_RECORD:
+                            committed.add(r.tid);
+                            finished.add(r.tid);
+                            losers.remove(r.tid);
+                            break;
+                        case ABORT_RECORD:
+                            finished.add(r.tid);
+                            losers.remove(r.tid);
+                            break;
+                        case CHECKPOINT_RECORD:
+                            for (Map.Entry<Long, Long> e : r.activeTransactions.entrySet()) {
+                                if (!finished.contains(e.getKey()))
+                                    losers.putIfAbsent(e.getKey(), e.getValue());
+                            }
+                            break;
+                        }
+                    }
+                    end = reader.endLsn();
+                }
+
+                // redo committed updates in log order, remembering the
+                // earliest before image of every page a loser touched
+                Map<PageId, Page> undo = new LinkedHashMap<>();
+                try (LogReader reader = new LogReader(start, true)) {
+                    LogRecord r;
+                    while ((r = reader.next()) != null) {
+                        if (r.type != UPDATE_RECORD)
+                            continue;
+                        if (committed.contains(r.tid))
+                            installPage(r.after);
+                        else if (losers.containsKey(r.tid))
+                            undo.putIfAbsent(r.before.getId(), r.before);
+                    }
+                }
+                for (Page before : undo.values())
+                    installPage(before);
+
+                // resume appending after the last complete record
+                long lastSegment = segmentOf(end);
+                for (Long segment : new ArrayList<>(segments.tailMap(lastSegment, false).keySet()))
+                    retireSegment(segment);
+                raf = new RandomAccessFile(segments.get(lastSegment), "rw");
+                currentSegment = lastSegment;
+                currentOffset = end;
+                if (offsetOf(end) + INT_SIZE <= segmentSize) {
+                    raf.seek(offsetOf(end));
+                    raf.writeInt(NO_RECORD);
+                }
+
+                tidToFirstLogRecord.clear();
+                for (Long loser : losers.keySet()) {
+                    preAppend();
+                    append(record(ABORT_RECORD, loser));
+                }
+                force();
+                Debug.log("RECOVERED: " + committed.size() + " COMMITTED, " + losers.size() + " ROLLED BACK");
+            } finally {
+                lock.unlock();
             }
-         }
+        } finally {
+            poolLock.unlock();
+        }
     }
 
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
-        long curOffset = raf.getFilePointer();
-
-        raf.seek(0);
-
-        System.out.println("0: checkpoint record at offset " + raf.readLong());
-
-        while (true) {
-            try {
-                int cpType = raf.readInt();
-                long cpTid = raf.readLong();
-
-                System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
-                System.out.println((raf.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
-
-                switch (cpType) {
-                case BEGIN_RECORD:
-                    System.out.println(" (BEGIN)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
-                    break;
-                case ABORT_RECORD:
-                    System.out.println(" (ABORT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
-                    break;
-                case COMMIT_RECORD:
-                    System.out.println(" (COMMIT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
-                    break;
-
-                case CHECKPOINT_RECORD:
-                    System.out.println(" (CHECKPOINT)");
-                    int numTransactions = raf.readInt();
-                    System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
-
-                    while (numTransactions-- > 0) {
-                        long tid = raf.readLong();
-                        long firstRecord = raf.readLong();
-                        System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
-                        System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+        lock.lock();
+        try {
+            System.out.println("checkpoint record at LSN " + readCheckpointLsn());
+            if (segments.isEmpty())
+                return;
+
+            try (LogReader reader = new LogReader(lsn(segments.firstKey(), SEGMENT_HEADER_SIZE), true)) {
+                LogRecord r;
+                while ((r = reader.next()) != null) {
+                    String at = segmentOf(r.lsn) + ":" + offsetOf(r.lsn);
+                    System.out.println(at + ": RECORD TYPE " + r.type);
+                    System.out.println(at + ": TID " + r.tid);
+
+                    switch (r.type) {
+                    case BEGIN_RECORD:
+                        System.out.println(" (BEGIN)");
+                        break;
+                    case ABORT_RECORD:
+                        System.out.println(" (ABORT)");
+                        break;
+                    case COMMIT_RECORD:
+                        System.out.println(" (COMMIT)");
+                        break;
+
+                    case CHECKPOINT_RECORD:
+                        System.out.println(" (CHECKPOINT)");
+                        System.out.println(at + ": NUMBER OF OUTSTANDING RECORDS: " + r.activeTransactions.size());
+                        for (Map.Entry<Long, Long> e : r.activeTransactions.entrySet()) {
+                            System.out.println(at + ": TID: " + e.getKey());
+                            System.out.println(at + ": FIRST LOG RECORD: " + segmentOf(e.getValue()) + ":" + offsetOf(e.getValue()));
+                        }
+                        break;
+                    case UPDATE_RECORD:
+                        System.out.println(" (UPDATE)");
+                        System.out.println(at + ": before image table id " + r.before.getId().getTableId());
+                        System.out.println(at + ": before image page number " + r.before.getId().getPageNumber());
+                        System.out.println(at + ": after image table id " + r.after.getId().getTableId());
+                        System.out.println(at + ": after image page number " + r.after.getId().getPageNumber());
+                        break;
                     }
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
-
-                    break;
-                case UPDATE_RECORD:
-                    System.out.println(" (UPDATE)");
-
-                    long start = raf.getFilePointer();
-                    Page before = readPageData(raf);
-
-                    long middle = raf.getFilePointer();
-                    Page after = readPageData(raf);
-
-                    System.out.println(start + ": before image table id " + before.getId().getTableId());
-                    System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
-                    System.out.println((start + INT_SIZE) + " TO " + (middle - INT_SIZE) + ": page data");
-
-                    System.out.println(middle + ": after image table id " + after.getId().getTableId());
-                    System.out.println((middle + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
-                    System.out.println((middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
-
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
-
-                    break;
                 }
-
-            } catch (EOFException e) {
-                //e.printStackTrace();
-                break;
             }
+        } finally {
+            lock.unlock();
         }
-
-        // Return the file pointer to its original position
-        raf.seek(curOffset);
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    public void force() throws IOException {
+        lock.lock();
+        try {
+            if (raf != null) {
+                long start = System.nanoTime();
+                raf.getChannel().force(true);
+                Metrics.logForced(start);
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
 }
@@ -9,8 +9,8 @@ import simpledb.transaction.TransactionId;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form:
- *     Page(PageId id, byte[] data)
+ * For recovery purposes, every Page class MUST be registered with
+ * {@link PageCodecs#register} so that its log images can be decoded.
  */
 public interface Page {
 
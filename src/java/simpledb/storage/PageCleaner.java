@@ -0,0 +1,71 @@
+package simpledb.storage;
+
+import simpledb.common.Debug;
+
+import java.io.IOException;
+
+/**
+ * PageCleaner is the background thread behind
+ * {@link BufferPool#startCleaner}.  It wakes up periodically, or when the
+ * buffer pool asks it to, and writes back dirty pages until at least the
+ * target fraction of frames is clean, so that evictPage can usually find a
+ * clean victim without writing.
+ */
+class PageCleaner implements Runnable {
+
+    private final BufferPool bufferPool;
+    private final double cleanFraction;
+    private final long intervalMillis;
+
+    private volatile boolean running = true;
+    private boolean nudged = false; // protected by this
+
+    /**
+     * @param bufferPool the pool to clean
+     * @param cleanFraction the fraction of frames to keep clean, in [0, 1]
+     * @param intervalMillis how long to sleep between passes
+     */
+    PageCleaner(BufferPool bufferPool, double cleanFraction, long intervalMillis) {
+        if (cleanFraction < 0 || cleanFraction > 1)
+            throw new IllegalArgumentException("clean fraction must be between 0 and 1");
+        this.bufferPool = bufferPool;
+        this.cleanFraction = cleanFraction;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /** Ask for a cleaning pass without waiting for the next interval. */
+    synchronized void nudge() {
+        nudged = true;
+        notifyAll();
+    }
+
+    /** Stop after the current pass. */
+    synchronized void stop() {
+        running = false;
+        notifyAll();
+    }
+
+    public void run() {
+        while (running) {
+            synchronized (this) {
+                if (!nudged) {
+                    try {
+                        wait(intervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                nudged = false;
+            }
+            if (!running)
+                return;
+            try {
+                int written = bufferPool.cleanPages(cleanFraction);
+                if (written > 0)
+                    Debug.log("PAGE CLEANER WROTE " + written + " PAGES");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
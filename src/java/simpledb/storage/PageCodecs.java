@@ -0,0 +1,132 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeHeaderPage;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PageCodecs is the static registry LogFile uses to turn the page images
+ * stored in UPDATE records back into Page objects.
+ * <p>
+ * Every Page class that can be logged is registered under a one-byte tag.
+ * The tag is written in front of each before/after image instead of the
+ * page and id class names, and reading an image is a table lookup plus a
+ * direct constructor call rather than Class.forName and reflective
+ * construction.
+ * <p>
+ * New page formats must call {@link #register} (typically from a static
+ * initializer of the owning DbFile) before any of their pages are logged.
+ *
+ * @see LogFile#writePageData
+ * @see LogFile#readPageData
+ */
+public class PageCodecs {
+
+    /**
+     * Rebuilds a page from the serialized form of its PageId (as returned by
+     * {@link PageId#serialize}) and the bytes returned by
+     * {@link Page#getPageData}.
+     */
+    public interface Decoder {
+        Page decode(int[] pidData, byte[] pageData) throws IOException;
+    }
+
+    public static final byte HEAP_PAGE = 1;
+    public static final byte BTREE_LEAF_PAGE = 2;
+    public static final byte BTREE_INTERNAL_PAGE = 3;
+    public static final byte BTREE_HEADER_PAGE = 4;
+    public static final byte BTREE_ROOT_PTR_PAGE = 5;
+    public static final byte SLOTTED_HEAP_PAGE = 6;
+    public static final byte PAX_PAGE = 7;
+
+    private static final Map<Class<? extends Page>, Byte> tags = new ConcurrentHashMap<>();
+    private static final Map<Byte, Decoder> decoders = new ConcurrentHashMap<>();
+
+    static {
+        register(HEAP_PAGE, HeapPage.class,
+                (pid, data) -> new HeapPage(new HeapPageId(pid[0], pid[1]), data));
+        register(BTREE_LEAF_PAGE, BTreeLeafPage.class,
+                (pid, data) -> new BTreeLeafPage(btreePageId(pid), data, keyField(pid[0])));
+        register(BTREE_INTERNAL_PAGE, BTreeInternalPage.class,
+                (pid, data) -> new BTreeInternalPage(btreePageId(pid), data, keyField(pid[0])));
+        register(BTREE_HEADER_PAGE, BTreeHeaderPage.class,
+                (pid, data) -> new BTreeHeaderPage(btreePageId(pid), data));
+        register(BTREE_ROOT_PTR_PAGE, BTreeRootPtrPage.class,
+                (pid, data) -> new BTreeRootPtrPage(btreePageId(pid), data));
+        register(SLOTTED_HEAP_PAGE, SlottedHeapPage.class,
+                (pid, data) -> new SlottedHeapPage(new HeapPageId(pid[0], pid[1]), data));
+        register(PAX_PAGE, PaxPage.class,
+                (pid, data) -> new PaxPage(new HeapPageId(pid[0], pid[1]), data));
+    }
+
+    private PageCodecs() {
+    }
+
+    /**
+     * Register a decoder for a page class.
+     *
+     * @param tag the tag written to the log for pages of this class; must be
+     *            unique among registered page classes
+     * @param pageClass the concrete Page class
+     * @param decoder rebuilds pages of this class from a log image
+     * @throws IllegalArgumentException if the tag is already used by a
+     *            different page class
+     */
+    public static synchronized void register(byte tag, Class<? extends Page> pageClass, Decoder decoder) {
+        Byte oldTag = tags.get(pageClass);
+        if (oldTag != null && oldTag != tag)
+            throw new IllegalArgumentException(pageClass.getName() + " already registered with tag " + oldTag);
+        for (Map.Entry<Class<? extends Page>, Byte> e : tags.entrySet()) {
+            if (e.getValue() == tag && e.getKey() != pageClass)
+                throw new IllegalArgumentException("page tag " + tag + " already used by " + e.getKey().getName());
+        }
+        tags.put(pageClass, tag);
+        decoders.put(tag, decoder);
+    }
+
+    /**
+     * @return the tag under which the class of p is registered
+     * @throws IOException if no decoder is registered for the class of p, since
+     *            such an image could never be read back during recovery
+     */
+    public static byte tagOf(Page p) throws IOException {
+        Byte tag = tags.get(p.getClass());
+        if (tag == null)
+            throw new IOException("no page codec registered for " + p.getClass().getName());
+        return tag;
+    }
+
+    /**
+     * Rebuild a page from a log image.
+     *
+     * @param tag the tag read from the log record
+     * @param pidData the serialized PageId
+     * @param pageData the page bytes
+     * @throws IOException if the tag is unknown or the page cannot be parsed
+     */
+    public static Page decode(byte tag, int[] pidData, byte[] pageData) throws IOException {
+        Decoder decoder = decoders.get(tag);
+        if (decoder == null)
+            throw new IOException("unknown page tag " + tag + " in log record");
+        return decoder.decode(pidData, pageData);
+    }
+
+    private static BTreePageId btreePageId(int[] pid) {
+        return new BTreePageId(pid[0], pid[1], pid[2]);
+    }
+
+    private static int keyField(int tableId) throws IOException {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile))
+            throw new IOException("table " + tableId + " is not a BTreeFile");
+        return ((BTreeFile) f).keyField();
+    }
+}
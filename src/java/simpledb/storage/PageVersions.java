@@ -0,0 +1,131 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * PageVersions keeps the old committed versions of pages that snapshot
+ * (read-only) transactions may still need.
+ * <p>
+ * Every commit gets a timestamp from a logical clock, and a snapshot reads
+ * the database as of the clock value when it began.  When a transaction
+ * commits while snapshots are open, the version each of its pages had
+ * before the commit is saved in that page's chain under the commit
+ * timestamp.  A snapshot taken at time s reads the entry with the smallest
+ * timestamp greater than s; if there is none, no commit since s touched
+ * the page and the current committed version is the right one.  Entries
+ * no open snapshot can read are dropped as snapshots end.
+ * <p>
+ * A page can be written back with uncommitted changes, by eviction under
+ * STEAL_NO_FORCE, by the background cleaner or by a checkpoint.  It is
+ * then marked clean, or read back from disk later, and no longer knows its
+ * committed version, so the committed image of every such stolen page is
+ * kept until its transaction finishes.
+ * <p>
+ * Not thread-safe; every method is called with the BufferPool locked.
+ */
+class PageVersions {
+
+    private long clock = 0;
+    private final Map<TransactionId, Long> snapshots = new HashMap<>();
+    private final Map<PageId, TreeMap<Long, Page>> chains = new HashMap<>();
+    private final Map<PageId, Page> stolen = new HashMap<>();
+    private final Map<PageId, TransactionId> stolenBy = new HashMap<>();
+
+    boolean isSnapshot(TransactionId tid) {
+        return snapshots.containsKey(tid);
+    }
+
+    void beginSnapshot(TransactionId tid) {
+        snapshots.put(tid, clock);
+    }
+
+    void endSnapshot(TransactionId tid) {
+        if (snapshots.remove(tid) == null)
+            return;
+        if (snapshots.isEmpty()) {
+            chains.clear();
+            return;
+        }
+        long oldest = Long.MAX_VALUE;
+        for (long s : snapshots.values())
+            oldest = Math.min(oldest, s);
+        // a snapshot at time s only reads entries newer than s
+        Iterator<TreeMap<Long, Page>> it = chains.values().iterator();
+        while (it.hasNext()) {
+            TreeMap<Long, Page> chain = it.next();
+            chain.headMap(oldest, true).clear();
+            if (chain.isEmpty())
+                it.remove();
+        }
+    }
+
+    /**
+     * Called before a dirty page is written back.
+     */
+    void pageStolen(Page p) {
+        Page before = p.getBeforeImage();
+        if (p.isDirty() == null || Arrays.equals(before.getPageData(), p.getPageData()))
+            return; // the page holds only committed changes
+        if (stolen.putIfAbsent(p.getId(), before) == null)
+            stolenBy.put(p.getId(), p.isDirty());
+    }
+
+    /**
+     * Called when tid commits, before the before images of its pages are
+     * reset.
+     *
+     * @param dirtied the pages tid dirtied that are still in the pool
+     */
+    void committed(TransactionId tid, List<Page> dirtied) {
+        long ts = ++clock;
+        Map<PageId, Page> previous = new HashMap<>();
+        for (Page p : dirtied)
+            previous.put(p.getId(), p.getBeforeImage());
+        for (PageId pid : forget(tid))
+            previous.put(pid, stolen.remove(pid));
+        if (snapshots.isEmpty())
+            return;
+        for (Map.Entry<PageId, Page> e : previous.entrySet())
+            chains.computeIfAbsent(e.getKey(), k -> new TreeMap<>()).put(ts, e.getValue());
+    }
+
+    void aborted(TransactionId tid) {
+        for (PageId pid : forget(tid))
+            stolen.remove(pid);
+    }
+
+    private List<PageId> forget(TransactionId tid) {
+        List<PageId> pids = new ArrayList<>();
+        Iterator<Map.Entry<PageId, TransactionId>> it = stolenBy.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<PageId, TransactionId> e = it.next();
+            if (e.getValue().equals(tid)) {
+                pids.add(e.getKey());
+                it.remove();
+            }
+        }
+        return pids;
+    }
+
+    /**
+     * @return the version of pid the snapshot tid must read, or null if it
+     *         should read the current committed version
+     */
+    Page versionFor(TransactionId tid, PageId pid) {
+        TreeMap<Long, Page> chain = chains.get(pid);
+        if (chain != null) {
+            Map.Entry<Long, Page> e = chain.higherEntry(snapshots.get(tid));
+            if (e != null)
+                return e.getValue();
+        }
+        return stolen.get(pid);
+    }
+}
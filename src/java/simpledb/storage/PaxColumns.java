@@ -0,0 +1,236 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Encodings for the column minipages of a {@link PaxPage}.  An encoded
+ * minipage is a one-byte encoding tag followed by the encoded values:
+ * <ul>
+ * <li> PLAIN: the values one after another (an int as 4 bytes, a string as
+ * an unsigned short length and its characters)
+ * <li> RLE: an int count of runs, then a value and an int run length for
+ * each run
+ * <li> DICTIONARY: an int count of distinct values, the distinct values,
+ * a byte bit width, then each row's dictionary code bit-packed
+ * <li> FRAME_OF_REFERENCE (int columns only): the minimum value, a byte
+ * bit width, then each row's distance from the minimum bit-packed
+ * </ul>
+ * {@link #encode} tries every encoding that applies and keeps the
+ * smallest.
+ */
+class PaxColumns {
+
+    static final byte PLAIN = 0;
+    static final byte RLE = 1;
+    static final byte DICTIONARY = 2;
+    static final byte FRAME_OF_REFERENCE = 3;
+
+    private PaxColumns() {
+    }
+
+    /**
+     * @return the smallest encoding of a column of values
+     */
+    static byte[] encode(Type type, Field[] values) throws IOException {
+        byte[] best = plain(type, values);
+        for (byte[] candidate : new byte[][]{rle(type, values), dictionary(type, values),
+                type == Type.INT_TYPE ? frameOfReference(values) : null}) {
+            if (candidate != null && candidate.length < best.length)
+                best = candidate;
+        }
+        return best;
+    }
+
+    /**
+     * Decode a minipage produced by {@link #encode}.
+     *
+     * @param type the type of the column
+     * @param in the minipage
+     * @param n the number of rows on the page
+     */
+    static Field[] decode(Type type, DataInputStream in, int n) throws IOException {
+        Field[] values = new Field[n];
+        byte encoding = in.readByte();
+        switch (encoding) {
+        case PLAIN:
+            for (int i = 0; i < n; i++)
+                values[i] = readValue(type, in);
+            break;
+        case RLE: {
+            int runs = in.readInt();
+            int row = 0;
+            for (int r = 0; r < runs; r++) {
+                Field v = readValue(type, in);
+                int length = in.readInt();
+                Arrays.fill(values, row, row + length, v);
+                row += length;
+            }
+            break;
+        }
+        case DICTIONARY: {
+            Field[] dict = new Field[in.readInt()];
+            for (int i = 0; i < dict.length; i++)
+                dict[i] = readValue(type, in);
+            long[] codes = unpack(in, n, in.readByte());
+            for (int i = 0; i < n; i++)
+                values[i] = dict[(int) codes[i]];
+            break;
+        }
+        case FRAME_OF_REFERENCE: {
+            long min = in.readInt();
+            long[] deltas = unpack(in, n, in.readByte());
+            for (int i = 0; i < n; i++)
+                values[i] = new IntField((int) (min + deltas[i]));
+            break;
+        }
+        default:
+            throw new IOException("unknown column encoding " + encoding);
+        }
+        return values;
+    }
+
+    private static void writeValue(DataOutputStream out, Field f) throws IOException {
+        if (f.getType() == Type.INT_TYPE) {
+            out.writeInt(((IntField) f).getValue());
+        } else {
+            String s = ((StringField) f).getValue();
+            if (s.length() > Type.STRING_LEN)
+                s = s.substring(0, Type.STRING_LEN);
+            out.writeShort(s.length());
+            out.writeBytes(s);
+        }
+    }
+
+    private static Field readValue(Type type, DataInputStream in) throws IOException {
+        if (type == Type.INT_TYPE)
+            return new IntField(in.readInt());
+        byte[] bs = new byte[in.readUnsignedShort()];
+        in.readFully(bs);
+        return new StringField(new String(bs), Type.STRING_LEN);
+    }
+
+    private static byte[] plain(Type type, Field[] values) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeByte(PLAIN);
+        for (Field f : values)
+            writeValue(out, f);
+        return baos.toByteArray();
+    }
+
+    private static byte[] rle(Type type, Field[] values) throws IOException {
+        ByteArrayOutputStream runs = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(runs);
+        int count = 0;
+        for (int i = 0; i < values.length; ) {
+            int j = i + 1;
+            while (j < values.length && values[j].equals(values[i]))
+                j++;
+            writeValue(out, values[i]);
+            out.writeInt(j - i);
+            count++;
+            i = j;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(baos);
+        header.writeByte(RLE);
+        header.writeInt(count);
+        runs.writeTo(baos);
+        return baos.toByteArray();
+    }
+
+    private static byte[] dictionary(Type type, Field[] values) throws IOException {
+        Map<Field, Integer> dict = new LinkedHashMap<>();
+        long[] codes = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            Integer code = dict.get(values[i]);
+            if (code == null) {
+                code = dict.size();
+                dict.put(values[i], code);
+            }
+            codes[i] = code;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeByte(DICTIONARY);
+        out.writeInt(dict.size());
+        for (Field f : dict.keySet())
+            writeValue(out, f);
+        int width = bitWidth(dict.size() - 1);
+        out.writeByte(width);
+        pack(out, codes, width);
+        return baos.toByteArray();
+    }
+
+    private static byte[] frameOfReference(Field[] values) throws IOException {
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        for (Field f : values) {
+            long v = ((IntField) f).getValue();
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        if (values.length == 0)
+            min = max = 0;
+        long[] deltas = new long[values.length];
+        for (int i = 0; i < values.length; i++)
+            deltas[i] = ((IntField) values[i]).getValue() - min;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeByte(FRAME_OF_REFERENCE);
+        out.writeInt((int) min);
+        int width = bitWidth(max - min);
+        out.writeByte(width);
+        pack(out, deltas, width);
+        return baos.toByteArray();
+    }
+
+    /**
+     * @return the number of bits needed to store values from 0 to max
+     */
+    static int bitWidth(long max) {
+        return max <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(max);
+    }
+
+    /**
+     * Write each value in width bits, most significant bit first, padding
+     * the last byte with zeros.
+     */
+    static void pack(DataOutputStream out, long[] values, int width) throws IOException {
+        int acc = 0, bits = 0;
+        for (long v : values) {
+            for (int b = width - 1; b >= 0; b--) {
+                acc = (acc << 1) | (int) ((v >>> b) & 1);
+                if (++bits == 8) {
+                    out.writeByte(acc);
+                    acc = 0;
+                    bits = 0;
+                }
+            }
+        }
+        if (bits > 0)
+            out.writeByte(acc << (8 - bits));
+    }
+
+    /**
+     * Read n values of width bits written by {@link #pack}.
+     */
+    static long[] unpack(DataInputStream in, int n, int width) throws IOException {
+        long[] values = new long[n];
+        int acc = 0, bits = 0;
+        for (int i = 0; i < n; i++) {
+            long v = 0;
+            for (int b = 0; b < width; b++) {
+                if (bits == 0) {
+                    acc = in.readUnsignedByte();
+                    bits = 8;
+                }
+                v = (v << 1) | ((acc >>> --bits) & 1);
+            }
+            values[i] = v;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PaxFile is a read-optimized DbFile that stores each page column by
+ * column (the PAX layout), with each column compressed with the encoding
+ * that suits its values.  Scans that only need some of the columns can
+ * ask for just those with {@link #iterator(TransactionId, Set)}.
+ * <p>
+ * PaxFiles are read-only; build them with {@link PaxFileEncoder}.  Declare
+ * one in a catalog file by following the schema with <tt>pax</tt>.
+ *
+ * @see PaxPage
+ */
+public class PaxFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc tupleDesc;
+
+    /**
+     * @param f the file built by PaxFileEncoder
+     * @param td the schema of the table
+     */
+    public PaxFile(File f, TupleDesc td) {
+        this.file = f;
+        this.tupleDesc = td;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    public Page readPage(PageId pid) {
+        int pageSize = BufferPool.getPageSize();
+        if (pid.getPageNumber() < 0 || pid.getPageNumber() >= numPages())
+            throw new IllegalArgumentException("page " + pid.getPageNumber() + " does not exist");
+        byte[] data = new byte[pageSize];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek((long) pid.getPageNumber() * pageSize);
+            raf.readFully(data);
+            return new PaxPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not read page " + pid.getPageNumber(), e);
+        }
+    }
+
+    public void writePage(Page page) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek((long) page.getId().getPageNumber() * pageSize);
+            raf.write(page.getPageData());
+        }
+    }
+
+    /**
+     * Returns the number of pages in this PaxFile.
+     */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.getPageSize());
+    }
+
+    public List<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("PaxFile is read-only; rebuild it with PaxFileEncoder");
+    }
+
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("PaxFile is read-only; rebuild it with PaxFileEncoder");
+    }
+
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null);
+    }
+
+    /**
+     * @param fields the fields the caller reads, or null for all; only
+     *        these columns are decoded and the others are left null
+     */
+    public DbFileIterator iterator(TransactionId tid, Set<Integer> fields) {
+        return pageIterator(tid, fields, null);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator pageIterator(TransactionId tid, int[] pageNumbers) {
+        return pageIterator(tid, null, pageNumbers);
+    }
+
+    /**
+     * @param pageNumbers the pages to read, in increasing order, or null
+     *        for all of them
+     */
+    private DbFileIterator pageIterator(TransactionId tid, Set<Integer> fields, int[] pageNumbers) {
+        return new AbstractDbFileIterator() {
+            private int pageNo = -1;
+            private Iterator<Tuple> rows = null;
+
+            public void open() {
+                pageNo = 0;
+                rows = null;
+            }
+
+            public void rewind() {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                pageNo = -1;
+                rows = null;
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (pageNo < 0)
+                    return null;
+                while (rows == null || !rows.hasNext()) {
+                    if (pageNo >= (pageNumbers == null ? numPages() : pageNumbers.length))
+                        return null;
+                    int n = pageNumbers == null ? pageNo : pageNumbers[pageNo];
+                    pageNo++;
+                    PaxPage page = (PaxPage) Database.getBufferPool()
+                            .getPage(tid, new HeapPageId(getId(), n), Permissions.READ_ONLY);
+                    rows = page.iterator(fields);
+                }
+                return rows.next();
+            }
+        };
+    }
+}
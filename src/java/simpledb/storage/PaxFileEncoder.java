@@ -0,0 +1,128 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PaxFileEncoder converts a comma delimited text file or a list of rows
+ * into the page format of a {@link PaxFile}.  Each page takes as many
+ * consecutive rows as fit once every column is compressed, so the number
+ * of rows per page depends on the data.
+ */
+public class PaxFileEncoder {
+
+    /**
+     * Convert rows of integers into a PAX file.
+     *
+     * @param tuples each row as a list of integers
+     * @param outFile the file to write
+     * @param npagebytes the number of bytes per page in the output file
+     * @param numFields the number of fields in each row
+     */
+    public static void convert(List<List<Integer>> tuples, File outFile, int npagebytes, int numFields)
+            throws IOException {
+        Type[] types = new Type[numFields];
+        java.util.Arrays.fill(types, Type.INT_TYPE);
+        List<Field[]> rows = new ArrayList<>();
+        for (List<Integer> tuple : tuples) {
+            Field[] row = new Field[numFields];
+            for (int j = 0; j < numFields; j++)
+                row[j] = new IntField(tuple.get(j));
+            rows.add(row);
+        }
+        convert(rows, outFile, npagebytes, new TupleDesc(types));
+    }
+
+    /**
+     * Convert a text file with one row per line into a PAX file.
+     *
+     * @param inFile the input file
+     * @param outFile the file to write
+     * @param npagebytes the number of bytes per page in the output file
+     * @param typeAr the types of the fields of each line
+     * @param fieldSeparator the character between fields
+     * @throws IOException if a file can't be opened or a line is malformed
+     */
+    public static void convert(File inFile, File outFile, int npagebytes,
+                               Type[] typeAr, char fieldSeparator) throws IOException {
+        List<Field[]> rows = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(inFile))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty())
+                    continue;
+                String[] values = line.split(java.util.regex.Pattern.quote(String.valueOf(fieldSeparator)), -1);
+                if (values.length != typeAr.length)
+                    throw new IOException("BAD LINE : " + line);
+                Field[] row = new Field[typeAr.length];
+                for (int j = 0; j < typeAr.length; j++) {
+                    String s = values[j].trim();
+                    try {
+                        row[j] = typeAr[j] == Type.INT_TYPE
+                                ? new IntField(Integer.parseInt(s))
+                                : new StringField(s, Type.STRING_LEN);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("BAD LINE : " + line);
+                    }
+                }
+                rows.add(row);
+            }
+        }
+        convert(rows, outFile, npagebytes, new TupleDesc(typeAr));
+    }
+
+    /**
+     * Write rows to a PAX file, packing as many rows onto each page as fit.
+     *
+     * @param rows the rows, as arrays of fields matching td
+     * @param outFile the file to write
+     * @param npagebytes the number of bytes per page in the output file
+     * @param td the schema of the rows
+     */
+    public static void convert(List<Field[]> rows, File outFile, int npagebytes, TupleDesc td)
+            throws IOException {
+        try (FileOutputStream os = new FileOutputStream(outFile)) {
+            int start = 0;
+            while (start < rows.size()) {
+                // grow the page geometrically, then binary search for the
+                // largest number of rows that still fits
+                int fits = 0;
+                byte[] page = null;
+                int probe = 1;
+                int tooMany = -1;
+                while (start + fits < rows.size()) {
+                    int n = Math.min(probe, rows.size() - start);
+                    byte[] p = PaxPage.encode(td, rows.subList(start, start + n), npagebytes);
+                    if (p == null) {
+                        tooMany = n;
+                        break;
+                    }
+                    fits = n;
+                    page = p;
+                    probe *= 2;
+                }
+                if (tooMany > 0) {
+                    int lo = fits, hi = tooMany;
+                    while (hi - lo > 1) {
+                        int mid = (lo + hi) >>> 1;
+                        byte[] p = PaxPage.encode(td, rows.subList(start, start + mid), npagebytes);
+                        if (p == null) {
+                            hi = mid;
+                        } else {
+                            lo = mid;
+                            page = p;
+                        }
+                    }
+                    fits = lo;
+                }
+                if (fits == 0)
+                    throw new IOException("row " + start + " does not fit on a page");
+                os.write(page);
+                start += fits;
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * PaxPage is a page of a {@link PaxFile}.  Instead of storing rows one
+ * after another, it stores the values of each column together in their
+ * own minipage, encoded as described in {@link PaxColumns}.
+ * <p>
+ * The page begins with an int row count and an int minipage length for
+ * each column of the table; the minipages follow in column order and the
+ * rest of the page is zero.  Columns are decoded on first use, so a scan
+ * that reads two of twenty columns only decodes those two.
+ * <p>
+ * PaxPages are immutable: PaxFiles are built by {@link PaxFileEncoder}.
+ */
+public class PaxPage implements Page {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final byte[] data;
+    final int numRows;
+    final int[] offsets;
+    final int[] lengths;
+    private final Field[][] columns;
+
+    private volatile TransactionId dirtier;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.  An
+     * all-zero page has no rows.
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.data = data;
+        int numFields = td.numFields();
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        numRows = bb.getInt(0);
+        offsets = new int[numFields];
+        lengths = new int[numFields];
+        int offset = headerSize(numFields);
+        for (int j = 0; j < numFields; j++) {
+            offsets[j] = offset;
+            lengths[j] = bb.getInt(4 + 4 * j);
+            offset += lengths[j];
+        }
+        if (offset > data.length)
+            throw new IOException("corrupt PAX page " + id.getPageNumber());
+        columns = new Field[numFields][];
+    }
+
+    static int headerSize(int numFields) {
+        return 4 + 4 * numFields;
+    }
+
+    /**
+     * Lay rows out as a page.
+     *
+     * @param td the schema of the rows
+     * @param rows the rows, as arrays of fields
+     * @param pageSize the page size
+     * @return the page bytes, or null if the rows do not fit on one page
+     */
+    static byte[] encode(TupleDesc td, List<Field[]> rows, int pageSize) throws IOException {
+        int numFields = td.numFields();
+        byte[][] minipages = new byte[numFields][];
+        int size = headerSize(numFields);
+        for (int j = 0; j < numFields; j++) {
+            Field[] values = new Field[rows.size()];
+            for (int i = 0; i < values.length; i++)
+                values[i] = rows.get(i)[j];
+            minipages[j] = PaxColumns.encode(td.getFieldType(j), values);
+            size += minipages[j].length;
+            if (size > pageSize)
+                return null;
+        }
+        ByteBuffer bb = ByteBuffer.allocate(pageSize);
+        bb.putInt(rows.size());
+        for (byte[] m : minipages)
+            bb.putInt(m.length);
+        for (byte[] m : minipages)
+            bb.put(m);
+        return bb.array();
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of rows on this page
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * @return the values of column j, decoding its minipage if needed
+     */
+    public synchronized Field[] getColumn(int j) {
+        if (columns[j] == null) {
+            if (numRows == 0) {
+                columns[j] = new Field[0];
+            } else {
+                try {
+                    DataInputStream in = new DataInputStream(
+                            new ByteArrayInputStream(data, offsets[j], lengths[j]));
+                    columns[j] = PaxColumns.decode(td.getFieldType(j), in, numRows);
+                } catch (IOException e) {
+                    throw new NoSuchElementException("error decoding column " + j + ": " + e.getMessage());
+                }
+            }
+        }
+        return columns[j];
+    }
+
+    /**
+     * @return the encoded size of column j on this page, in bytes
+     */
+    public int getColumnSize(int j) {
+        return lengths[j];
+    }
+
+    /**
+     * @param fields the fields to fill in, or null for all of them; the
+     *        other fields of the returned tuples are null
+     * @return an iterator over the rows of this page
+     */
+    public Iterator<Tuple> iterator(Set<Integer> fields) {
+        List<Integer> wanted = new ArrayList<>();
+        for (int j = 0; j < td.numFields(); j++)
+            if (fields == null || fields.contains(j))
+                wanted.add(j);
+        Field[][] cols = new Field[td.numFields()][];
+        for (int j : wanted)
+            cols[j] = getColumn(j);
+        return new Iterator<Tuple>() {
+            private int row = 0;
+
+            public boolean hasNext() {
+                return row < numRows;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = new Tuple(td);
+                for (int j : wanted)
+                    t.setField(j, cols[j][row]);
+                t.setRecordId(new RecordId(pid, row));
+                row++;
+                return t;
+            }
+        };
+    }
+
+    /**
+     * @return an iterator over the rows of this page, with every field
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null);
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public PaxPage getBeforeImage() {
+        try {
+            return new PaxPage(pid, data);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        // pages never change
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+}
@@ -0,0 +1,167 @@
+package simpledb.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * SlotBitmap is the header of a slotted page: one bit per slot, set when
+ * the slot is in use.  On disk it is the byte layout shared by HeapPage
+ * and the BTree pages (slot i is bit i % 8 of byte i / 8); in memory it is
+ * held as 64-bit words, so that finding a used or free slot and counting
+ * used slots look at 64 slots at a time with
+ * {@link Long#numberOfTrailingZeros} and {@link Long#bitCount}.
+ * <p>
+ * The header may have more bits than the page has slots; searches and
+ * counts ignore the extra bits, but they are written back unchanged.
+ */
+public class SlotBitmap {
+
+    private final long[] words;
+    private final int numBytes;
+    private final int numSlots;
+
+    /**
+     * Create an empty bitmap.
+     *
+     * @param numSlots the number of slots on the page
+     * @param numBytes the number of header bytes on disk
+     */
+    public SlotBitmap(int numSlots, int numBytes) {
+        this.numSlots = numSlots;
+        this.numBytes = numBytes;
+        this.words = new long[(numBytes + 7) / 8];
+    }
+
+    /**
+     * Read a header of numBytes bytes.
+     */
+    public static SlotBitmap read(DataInputStream dis, int numSlots, int numBytes) throws IOException {
+        SlotBitmap bitmap = new SlotBitmap(numSlots, numBytes);
+        byte[] bytes = new byte[numBytes];
+        dis.readFully(bytes);
+        for (int i = 0; i < numBytes; i++)
+            bitmap.words[i >>> 3] |= (bytes[i] & 0xFFL) << ((i & 7) * 8);
+        return bitmap;
+    }
+
+    /**
+     * Write the header in its on-disk byte layout.
+     */
+    public void write(DataOutputStream dos) throws IOException {
+        byte[] bytes = new byte[numBytes];
+        for (int i = 0; i < numBytes; i++)
+            bytes[i] = (byte) (words[i >>> 3] >>> ((i & 7) * 8));
+        dos.write(bytes);
+    }
+
+    /**
+     * @return the number of slots on the page
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * @return true if slot i is in use
+     */
+    public boolean get(int i) {
+        return (words[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Mark slot i used or free.
+     */
+    public void set(int i, boolean used) {
+        if (used)
+            words[i >>> 6] |= 1L << i;
+        else
+            words[i >>> 6] &= ~(1L << i);
+    }
+
+    /**
+     * Mark every slot used.
+     */
+    public void setAll() {
+        Arrays.fill(words, -1L);
+    }
+
+    /**
+     * @return the number of used slots in [from, to)
+     */
+    public int count(int from, int to) {
+        to = Math.min(to, numSlots);
+        if (from >= to)
+            return 0;
+        int first = from >>> 6, last = (to - 1) >>> 6;
+        int count = 0;
+        for (int w = first; w <= last; w++) {
+            long word = words[w];
+            if (w == first)
+                word &= -1L << from;
+            if (w == last)
+                word &= -1L >>> (63 - ((to - 1) & 63));
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of used slots
+     */
+    public int count() {
+        return count(0, numSlots);
+    }
+
+    /**
+     * @return the first used slot at or after from, or -1 if there is none
+     */
+    public int nextUsed(int from) {
+        return next(from, false);
+    }
+
+    /**
+     * @return the first free slot at or after from, or -1 if there is none
+     */
+    public int nextFree(int from) {
+        return next(from, true);
+    }
+
+    private int next(int from, boolean free) {
+        if (from < 0)
+            from = 0;
+        if (from >= numSlots)
+            return -1;
+        int w = from >>> 6;
+        long word = (free ? ~words[w] : words[w]) & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                int slot = (w << 6) + Long.numberOfTrailingZeros(word);
+                return slot < numSlots ? slot : -1;
+            }
+            if (++w >= words.length)
+                return -1;
+            word = free ? ~words[w] : words[w];
+        }
+    }
+
+    /**
+     * @return the last used slot at or before from, or -1 if there is none
+     */
+    public int prevUsed(int from) {
+        if (from >= numSlots)
+            from = numSlots - 1;
+        if (from < 0)
+            return -1;
+        int w = from >>> 6;
+        long word = words[w] & (-1L >>> (63 - (from & 63)));
+        while (true) {
+            if (word != 0)
+                return (w << 6) + 63 - Long.numberOfLeadingZeros(word);
+            if (--w < 0)
+                return -1;
+            word = words[w];
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages use the variable-length
+ * {@link SlottedHeapPage} format, so that tables with short strings fit
+ * many more tuples per page than the fixed-width HeapPage allows.
+ * Declare one in a catalog file by following the schema with
+ * <tt>slotted</tt>, e.g. <tt>names (id int, name string) slotted</tt>.
+ *
+ * @see SlottedHeapPage
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @param td the schema of the table
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    protected TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new SlottedHeapPage(pid, data);
+    }
+}
@@ -0,0 +1,257 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedHeapPage is a heap page that stores tuples in their actual size
+ * rather than in fixed-width slots, so that strings only take as many
+ * bytes as they have characters.
+ * <p>
+ * The page begins with a header of two unsigned shorts: the number of
+ * entries in the slot directory, and the offset of the first byte of tuple
+ * data.  The slot directory follows, with an unsigned short offset and an
+ * unsigned short length for each slot (offset 0 marks an empty slot).
+ * Tuple data is packed against the end of the page, growing towards the
+ * directory.  Within a tuple, an int field takes 4 bytes and a string
+ * field an unsigned short length followed by its characters.
+ * <p>
+ * Deleting a tuple frees its bytes immediately: tuples are repacked every
+ * time the page is serialized, and empty slots at the end of the directory
+ * are dropped.  RecordIds (slot numbers) of the remaining tuples do not
+ * change.  Each tuple is encoded once, when it is read or inserted, and
+ * its bytes are kept for serializing the page.  Pages must be smaller
+ * than 64KB.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedHeapPage implements TuplePage {
+
+    static final int HEADER_SIZE = 4;
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final List<Tuple> slots = new ArrayList<>();
+    // the bytes of each slot's tuple, null where slots has null
+    private final List<byte[]> encoded = new ArrayList<>();
+    private int dataBytes = 0;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    private volatile TransactionId dirtier;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     * An all-zero page (see {@link #createEmptyPageData}) has no slots.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        if (BufferPool.getPageSize() > 0xFFFF)
+            throw new IOException("slotted pages must be smaller than 64KB");
+
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        int numSlots = Short.toUnsignedInt(bb.getShort(0));
+        for (int i = 0; i < numSlots; i++) {
+            int offset = Short.toUnsignedInt(bb.getShort(HEADER_SIZE + i * SLOT_SIZE));
+            int length = Short.toUnsignedInt(bb.getShort(HEADER_SIZE + i * SLOT_SIZE + 2));
+            if (offset == 0) {
+                slots.add(null);
+                encoded.add(null);
+                continue;
+            }
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+            Tuple t = readTuple(dis);
+            t.setRecordId(new RecordId(pid, i));
+            slots.add(t);
+            encoded.add(Arrays.copyOfRange(data, offset, offset + length));
+            dataBytes += length;
+        }
+
+        setBeforeImage();
+    }
+
+    private Tuple readTuple(DataInputStream dis) throws IOException {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                t.setField(j, new IntField(dis.readInt()));
+            } else {
+                byte[] bs = new byte[dis.readUnsignedShort()];
+                dis.readFully(bs);
+                t.setField(j, new StringField(new String(bs), Type.STRING_LEN));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return the bytes of t as stored on a slotted page
+     */
+    static byte[] encode(Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+                Field f = t.getField(j);
+                if (f.getType() == Type.INT_TYPE) {
+                    dos.writeInt(((IntField) f).getValue());
+                } else {
+                    String s = ((StringField) f).getValue();
+                    if (s.length() > Type.STRING_LEN)
+                        s = s.substring(0, Type.STRING_LEN);
+                    dos.writeShort(s.length());
+                    dos.writeBytes(s);
+                }
+            }
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        int len = BufferPool.getPageSize();
+        byte[] data = new byte[len];
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        int start = len;
+        bb.putShort(0, (short) slots.size());
+        for (int i = 0; i < encoded.size(); i++) {
+            byte[] bytes = encoded.get(i);
+            if (bytes == null)
+                continue;
+            start -= bytes.length;
+            System.arraycopy(bytes, 0, data, start, bytes.length);
+            bb.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) start);
+            bb.putShort(HEADER_SIZE + i * SLOT_SIZE + 2, (short) bytes.length);
+        }
+        bb.putShort(2, (short) start);
+        return data;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedHeapPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return HeapPage.createEmptyPageData();
+    }
+
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedHeapPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /**
+     * @return the number of unused bytes on this page
+     */
+    public int getFreeSpace() {
+        return BufferPool.getPageSize() - HEADER_SIZE - SLOT_SIZE * slots.size() - dataBytes;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return hasRoomFor(encode(t).length);
+    }
+
+    private boolean hasRoomFor(int length) {
+        int needed = length;
+        if (!slots.contains(null))
+            needed += SLOT_SIZE;
+        return needed <= getFreeSpace();
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        byte[] bytes = encode(t);
+        if (!hasRoomFor(bytes.length)) {
+            throw new DbException("page is full");
+        }
+        int slot = slots.indexOf(null);
+        if (slot < 0) {
+            slot = slots.size();
+            slots.add(null);
+            encoded.add(null);
+        }
+        slots.set(slot, t);
+        encoded.set(slot, bytes);
+        t.setRecordId(new RecordId(pid, slot));
+        dataBytes += bytes.length;
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("tuple is not on this page");
+        }
+        int slot = rid.getTupleNumber();
+        if (slot >= slots.size() || slots.get(slot) == null) {
+            throw new DbException("tuple slot is already empty");
+        }
+        dataBytes -= encoded.get(slot).length;
+        slots.set(slot, null);
+        encoded.set(slot, null);
+        // compact the directory
+        while (!slots.isEmpty() && slots.get(slots.size() - 1) == null) {
+            slots.remove(slots.size() - 1);
+            encoded.remove(encoded.size() - 1);
+        }
+    }
+
+    /**
+     * @return the number of tuples on this page
+     */
+    public int getNumTuples() {
+        int n = 0;
+        for (Tuple t : slots)
+            if (t != null)
+                n++;
+        return n;
+    }
+
+    public Iterator<Tuple> iterator() {
+        List<Tuple> used = new ArrayList<>();
+        for (Tuple t : slots)
+            if (t != null)
+                used.add(t);
+        return Collections.unmodifiableList(used).iterator();
+    }
+}
@@ -0,0 +1,43 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.util.Iterator;
+
+/**
+ * TuplePage is the interface HeapFile uses to work with its pages, so the
+ * same file logic serves both the fixed-slot {@link HeapPage} and the
+ * variable-length {@link SlottedHeapPage} formats.
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * @return the id of this page
+     */
+    HeapPageId getId();
+
+    /**
+     * @return true if t would fit on this page
+     */
+    boolean hasRoomFor(Tuple t);
+
+    /**
+     * Adds the specified tuple to the page and sets its RecordId.
+     *
+     * @throws DbException if the page is full or the tupledesc does not match
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *         already empty
+     */
+    void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return an iterator over all tuples on this page
+     */
+    Iterator<Tuple> iterator();
+}
@@ -0,0 +1,238 @@
+package simpledb.storage;
+
+import simpledb.execution.Predicate;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * ZoneMap keeps the smallest and largest value of every column on each
+ * page of a {@link HeapFile}, so that scans can skip pages on which no
+ * tuple can satisfy a predicate without fetching them.
+ * <p>
+ * The summaries are stored in a side file next to the heap file (see
+ * {@link #sideFile}) as one fixed-size entry per page: a state byte, then
+ * the minimum and maximum of each column in the on-disk format of its
+ * type.  A page whose entry is missing is UNKNOWN and is never skipped.
+ * <p>
+ * A summary may be wider than the page's contents but never narrower: it
+ * covers every version of the page that is on disk or may be installed by
+ * a commit or abort.  HeapFile widens it on insert and on every write, and
+ * narrows it on delete to the current and last committed versions.  The
+ * side file is written before the data pages it describes.
+ */
+public class ZoneMap {
+
+    static final byte UNKNOWN = 0;
+    static final byte EMPTY = 1;
+    static final byte RANGE = 2;
+
+    private static class Zone {
+        final Field[] min;
+        final Field[] max;
+
+        Zone(Field[] min, Field[] max) {
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    /** A summary of a page with no tuples */
+    private static final Zone EMPTY_ZONE = new Zone(null, null);
+
+    private final File file;
+    private final TupleDesc td;
+    private final int entrySize;
+    private List<Zone> zones = null;
+    private final Set<Integer> dirty = new TreeSet<>();
+
+    /**
+     * @param dataFile the heap file the summaries describe
+     * @param td the schema of the heap file
+     */
+    public ZoneMap(File dataFile, TupleDesc td) {
+        this.file = sideFile(dataFile);
+        this.td = td;
+        int size = 1;
+        for (int j = 0; j < td.numFields(); j++)
+            size += 2 * td.getFieldType(j).getLen();
+        this.entrySize = size;
+    }
+
+    /**
+     * @return the file that holds the zone map of a heap file
+     */
+    public static File sideFile(File dataFile) {
+        return new File(dataFile.getPath() + ".zm");
+    }
+
+    private void load() {
+        if (zones != null)
+            return;
+        zones = new ArrayList<>();
+        if (!file.exists())
+            return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            long entries = file.length() / entrySize;
+            for (long i = 0; i < entries; i++) {
+                byte state = in.readByte();
+                Field[] min = new Field[td.numFields()];
+                Field[] max = new Field[td.numFields()];
+                for (int j = 0; j < td.numFields(); j++) {
+                    min[j] = td.getFieldType(j).parse(in);
+                    max[j] = td.getFieldType(j).parse(in);
+                }
+                zones.add(state == RANGE ? new Zone(min, max) : state == EMPTY ? EMPTY_ZONE : null);
+            }
+        } catch (IOException | ParseException e) {
+            // an unreadable side file only costs us the ability to skip pages
+            zones.clear();
+        }
+    }
+
+    private Zone get(int pageNo) {
+        load();
+        return pageNo < zones.size() ? zones.get(pageNo) : null;
+    }
+
+    private void set(int pageNo, Zone zone) {
+        load();
+        while (zones.size() <= pageNo)
+            zones.add(null);
+        zones.set(pageNo, zone);
+        dirty.add(pageNo);
+    }
+
+    private static Zone widen(Zone zone, Tuple t) {
+        if (zone == EMPTY_ZONE) {
+            Field[] min = new Field[t.getTupleDesc().numFields()];
+            for (int j = 0; j < min.length; j++)
+                min[j] = t.getField(j);
+            return new Zone(min, min.clone());
+        }
+        for (int j = 0; j < zone.min.length; j++) {
+            Field f = t.getField(j);
+            if (f.compare(Predicate.Op.LESS_THAN, zone.min[j]))
+                zone.min[j] = f;
+            if (f.compare(Predicate.Op.GREATER_THAN, zone.max[j]))
+                zone.max[j] = f;
+        }
+        return zone;
+    }
+
+    /**
+     * Record that a tuple has been added to a page.  A page whose summary
+     * is unknown stays unknown.
+     */
+    public synchronized void include(int pageNo, Tuple t) {
+        Zone zone = get(pageNo);
+        if (zone != null)
+            set(pageNo, widen(zone, t));
+    }
+
+    /**
+     * Replace the summary of a page with one computed from the given
+     * tuples, which must include every version of the page that may
+     * still become visible.
+     */
+    public synchronized void summarize(int pageNo, Iterator<Tuple> tuples) {
+        Zone zone = EMPTY_ZONE;
+        while (tuples.hasNext())
+            zone = widen(zone, tuples.next());
+        set(pageNo, zone);
+    }
+
+    /**
+     * Widen the summary of a page to include the given tuples, or compute
+     * it from them if it is unknown.
+     */
+    public synchronized void widen(int pageNo, Iterator<Tuple> tuples) {
+        if (get(pageNo) == null) {
+            summarize(pageNo, tuples);
+            return;
+        }
+        while (tuples.hasNext())
+            include(pageNo, tuples.next());
+    }
+
+    /**
+     * @return true if the summary of the page is known
+     */
+    public synchronized boolean isKnown(int pageNo) {
+        return get(pageNo) != null;
+    }
+
+    /**
+     * @return false if no tuple on the page can satisfy all of the
+     *         predicates, true if one might
+     */
+    public synchronized boolean mightMatch(int pageNo, List<Predicate> predicates) {
+        Zone zone = get(pageNo);
+        if (zone == null)
+            return true;
+        if (zone == EMPTY_ZONE)
+            return false;
+        for (Predicate p : predicates) {
+            int f = p.getField();
+            Field v = p.getOperand();
+            if (v == null || v.getType() != td.getFieldType(f))
+                continue;
+            Field min = zone.min[f], max = zone.max[f];
+            boolean possible;
+            switch (p.getOp()) {
+            case EQUALS:
+                possible = !min.compare(Predicate.Op.GREATER_THAN, v) && !max.compare(Predicate.Op.LESS_THAN, v);
+                break;
+            case GREATER_THAN:
+                possible = max.compare(Predicate.Op.GREATER_THAN, v);
+                break;
+            case GREATER_THAN_OR_EQ:
+                possible = max.compare(Predicate.Op.GREATER_THAN_OR_EQ, v);
+                break;
+            case LESS_THAN:
+                possible = min.compare(Predicate.Op.LESS_THAN, v);
+                break;
+            case LESS_THAN_OR_EQ:
+                possible = min.compare(Predicate.Op.LESS_THAN_OR_EQ, v);
+                break;
+            case NOT_EQUALS:
+                possible = !(min.compare(Predicate.Op.EQUALS, v) && max.compare(Predicate.Op.EQUALS, v));
+                break;
+            default:
+                possible = true;
+            }
+            if (!possible)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Write the summaries that changed since the last flush to the side
+     * file.
+     */
+    public synchronized void flush() throws IOException {
+        if (dirty.isEmpty())
+            return;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            for (int pageNo : dirty) {
+                Zone zone = zones.get(pageNo);
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(entrySize);
+                DataOutputStream out = new DataOutputStream(baos);
+                out.writeByte(zone == null ? UNKNOWN : zone == EMPTY_ZONE ? EMPTY : RANGE);
+                for (int j = 0; j < td.numFields(); j++) {
+                    if (zone == null || zone == EMPTY_ZONE) {
+                        out.write(new byte[2 * td.getFieldType(j).getLen()]);
+                    } else {
+                        zone.min[j].serialize(out);
+                        zone.max[j].serialize(out);
+                    }
+                }
+                raf.seek((long) pageNo * entrySize);
+                raf.write(baos.toByteArray());
+            }
+        }
+        dirty.clear();
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb.transaction;
 
 import simpledb.common.Database;
+import simpledb.metrics.Metrics;
 
 import java.io.*;
 
@@ -12,6 +13,7 @@ import java.io.*;
 public class Transaction {
     private final TransactionId tid;
     volatile boolean started = false;
+    volatile boolean readOnly = false;
 
     public Transaction() {
         tid = new TransactionId();
@@ -27,6 +29,18 @@ public class Transaction {
         }
     }
 
+    /**
+     * Start the transaction as a read-only snapshot: it sees the database
+     * as committed at this point, takes no locks and writes no log records.
+     *
+     * @see simpledb.storage.BufferPool#beginSnapshot
+     */
+    public void startReadOnly() {
+        started = true;
+        readOnly = true;
+        Database.getBufferPool().beginSnapshot(tid);
+    }
+
     public TransactionId getId() {
         return tid;
     }
@@ -44,7 +58,11 @@ public class Transaction {
     /** Handle the details of transaction commit / abort */
     public void transactionComplete(boolean abort) throws IOException {
 
-        if (started) {
+        if (started && readOnly) {
+            Database.getBufferPool().transactionComplete(tid, true);
+            started = false;
+            Metrics.transactionCompleted(abort);
+        } else if (started) {
             //write abort log record and rollback transaction
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
@@ -60,6 +78,7 @@ public class Transaction {
 
             //setting this here means we could possibly write multiple abort records -- OK?
             started = false;
+            Metrics.transactionCompleted(abort);
         }
     }
 }
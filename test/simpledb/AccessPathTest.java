@@ -0,0 +1,153 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class AccessPathTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 10000;
+
+    private int tableid;
+    private Map<String, TableStats> stats;
+
+    /**
+     * A (id int, grp int) table with a B+ tree index on id
+     */
+    @Before public void createTable() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                new String[]{"id", "grp"});
+        HeapFile people = SystemTestUtil.createHeapFile("people", td, ROWS,
+                i -> new Field[]{new IntField(i), new IntField(i % 10)});
+        Database.getCatalog().createIndex("people_id", "people", "id");
+        new File(people.getFile().getParentFile(), "people_id.idx").deleteOnExit();
+
+        tableid = people.getId();
+        stats = new HashMap<>();
+        stats.put("people", new TableStats(tableid, 1000));
+    }
+
+    private OpIterator plan(String[] fields, Predicate.Op[] ops, String[] values) throws Exception {
+        return plan(new LogicalPlan(), fields, ops, values);
+    }
+
+    private OpIterator plan(LogicalPlan lp, String[] fields, Predicate.Op[] ops, String[] values)
+            throws Exception {
+        lp.addScan(tableid, "p");
+        for (int i = 0; i < fields.length; i++)
+            lp.addFilter(fields[i], ops[i], values[i]);
+        lp.addProjectField("p.id", null);
+        lp.addProjectField("p.grp", null);
+        return lp.physicalPlan(new TransactionId(), stats, false);
+    }
+
+    private OpIterator plan(String field, Predicate.Op op, String value) throws Exception {
+        return plan(new String[]{field}, new Predicate.Op[]{op}, new String[]{value});
+    }
+
+    private static OpIterator leaf(OpIterator plan) {
+        while (plan instanceof Operator)
+            plan = ((Operator) plan).getChildren()[0];
+        return plan;
+    }
+
+    private static List<Tuple> run(OpIterator plan) throws Exception {
+        List<Tuple> result = new ArrayList<>();
+        plan.open();
+        while (plan.hasNext())
+            result.add(plan.next());
+        plan.close();
+        return result;
+    }
+
+    private static int value(Tuple t, int i) {
+        return ((IntField) t.getField(i)).getValue();
+    }
+
+    /**
+     * An equality filter on an indexed column reads the index
+     */
+    @Test public void equalityUsesIndex() throws Exception {
+        OpIterator plan = plan("p.id", Predicate.Op.EQUALS, "42");
+        assertTrue(leaf(plan) instanceof BTreeScan);
+        List<Tuple> result = run(plan);
+        assertEquals(1, result.size());
+        assertEquals(42, value(result.get(0), 0));
+    }
+
+    /**
+     * Filters the index doesn't answer are still applied above it
+     */
+    @Test public void rangeWithResidualFilter() throws Exception {
+        OpIterator plan = plan(new String[]{"p.grp", "p.id"},
+                new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.LESS_THAN},
+                new String[]{"3", "100"});
+        assertTrue(leaf(plan) instanceof BTreeScan);
+        List<Tuple> result = run(plan);
+        assertEquals(10, result.size());
+        for (Tuple t : result) {
+            assertTrue(value(t, 0) < 100);
+            assertEquals(3, value(t, 1));
+        }
+    }
+
+    /**
+     * Filters that keep most of the table, or that no index answers, scan
+     * the table
+     */
+    @Test public void scanWhenCheaper() throws Exception {
+        OpIterator plan = plan("p.id", Predicate.Op.GREATER_THAN, "10");
+        assertTrue(leaf(plan) instanceof SeqScan);
+        assertEquals(ROWS - 11, run(plan).size());
+
+        plan = plan("p.grp", Predicate.Op.EQUALS, "3");
+        assertTrue(leaf(plan) instanceof SeqScan);
+        assertEquals(ROWS / 10, run(plan).size());
+
+        plan = plan("p.id", Predicate.Op.NOT_EQUALS, "3");
+        assertTrue(leaf(plan) instanceof SeqScan);
+        assertEquals(ROWS - 1, run(plan).size());
+    }
+
+    /**
+     * A plan whose tuples must carry RecordIds into the table, as a DELETE
+     * needs, scans the table rather than reading the index's copies
+     */
+    @Test public void baseRecordIds() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.setBaseRecordIds(true);
+        OpIterator plan = plan(lp, new String[]{"p.id"}, new Predicate.Op[]{Predicate.Op.EQUALS},
+                new String[]{"42"});
+        assertTrue(leaf(plan) instanceof SeqScan);
+        List<Tuple> result = run(plan);
+        assertEquals(1, result.size());
+        assertEquals(tableid, result.get(0).getRecordId().getPageId().getTableId());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AccessPathTest.class);
+    }
+}
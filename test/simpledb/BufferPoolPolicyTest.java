@@ -0,0 +1,213 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolPolicyTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private BufferPool bp;
+
+    /**
+     * A four page table and a buffer pool that holds two pages
+     */
+    @Before public void createTable() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 1600, null, null);
+        assertTrue(hf.numPages() >= 3);
+        bp = Database.resetBufferPool(2);
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    // delete the first tuple of a page on behalf of tid
+    private void dirty(TransactionId tid, int pgNo) throws Exception {
+        HeapPage p = (HeapPage) bp.getPage(tid, pid(pgNo), Permissions.READ_WRITE);
+        p.deleteTuple(p.iterator().next());
+        p.markDirty(true, tid);
+    }
+
+    private byte[] onDisk(int pgNo) {
+        return hf.readPage(pid(pgNo)).getPageData();
+    }
+
+    /**
+     * NO_STEAL_FORCE never evicts pages of a live transaction
+     */
+    @Test(expected = DbException.class) public void noSteal() throws Exception {
+        assertEquals(BufferPool.Policy.NO_STEAL_FORCE, bp.getPolicy());
+        Transaction t = new Transaction();
+        t.start();
+        dirty(t.getId(), 0);
+        dirty(t.getId(), 1);
+        bp.getPage(t.getId(), pid(2), Permissions.READ_ONLY);
+    }
+
+    /**
+     * NO_STEAL_FORCE writes a transaction's pages when it commits
+     */
+    @Test public void force() throws Exception {
+        byte[] original = onDisk(0);
+        Transaction t = new Transaction();
+        t.start();
+        dirty(t.getId(), 0);
+        t.commit();
+        assertFalse(Arrays.equals(original, onDisk(0)));
+    }
+
+    /**
+     * STEAL_NO_FORCE evicts dirty pages after logging them, and an abort
+     * puts the stolen pages back
+     */
+    @Test public void stealAndAbort() throws Exception {
+        bp.setPolicy(BufferPool.Policy.STEAL_NO_FORCE);
+        byte[] original0 = onDisk(0);
+        byte[] original1 = onDisk(1);
+        int records = Database.getLogFile().getTotalRecords();
+
+        Transaction t = new Transaction();
+        t.start();
+        dirty(t.getId(), 0);
+        dirty(t.getId(), 1);
+        bp.getPage(t.getId(), pid(2), Permissions.READ_ONLY);
+        assertTrue(Database.getLogFile().getTotalRecords() > records + 1);
+        assertTrue(!Arrays.equals(original0, onDisk(0)) || !Arrays.equals(original1, onDisk(1)));
+
+        t.abort();
+        assertArrayEquals(original0, onDisk(0));
+        assertArrayEquals(original1, onDisk(1));
+        HeapPage p = (HeapPage) bp.getPage(new TransactionId(), pid(0), Permissions.READ_ONLY);
+        assertArrayEquals(original0, p.getPageData());
+    }
+
+    /**
+     * STEAL_NO_FORCE leaves committed pages in memory until they are
+     * evicted or checkpointed, and an abort on top of them keeps the
+     * committed changes
+     */
+    @Test public void noForce() throws Exception {
+        bp.setPolicy(BufferPool.Policy.STEAL_NO_FORCE);
+        byte[] original = onDisk(0);
+
+        Transaction t = new Transaction();
+        t.start();
+        dirty(t.getId(), 0);
+        t.commit();
+        assertArrayEquals(original, onDisk(0));
+        byte[] committed = bp.getPage(new TransactionId(), pid(0), Permissions.READ_ONLY).getPageData();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        dirty(t2.getId(), 0);
+        t2.abort();
+        assertArrayEquals(committed, bp.getPage(new TransactionId(), pid(0), Permissions.READ_ONLY).getPageData());
+
+        Database.getLogFile().logCheckpoint();
+        assertArrayEquals(committed, onDisk(0));
+    }
+
+    /**
+     * A page written back while its transaction runs still has its before
+     * image reset at commit, so a later abort on top of it does not undo
+     * the committed change
+     */
+    @Test public void cleanedBeforeCommit() throws Exception {
+        bp.setPolicy(BufferPool.Policy.STEAL_NO_FORCE);
+        Transaction t = new Transaction();
+        t.start();
+        dirty(t.getId(), 0);
+        assertEquals(1, bp.cleanPages(1.0));
+        t.commit();
+        byte[] committed = onDisk(0);
+        assertArrayEquals(committed, bp.getPage(new TransactionId(), pid(0), Permissions.READ_ONLY).getPageData());
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        dirty(t2.getId(), 0);
+        t2.abort();
+        assertArrayEquals(committed, bp.getPage(new TransactionId(), pid(0), Permissions.READ_ONLY).getPageData());
+        Database.getLogFile().logCheckpoint();
+        assertArrayEquals(committed, onDisk(0));
+    }
+
+    /**
+     * cleanPages writes back the oldest dirty pages until enough frames
+     * are clean
+     */
+    @Test public void cleanPages() throws Exception {
+        bp.setPolicy(BufferPool.Policy.STEAL_NO_FORCE);
+        byte[] original0 = onDisk(0);
+        byte[] original1 = onDisk(1);
+        Transaction t = new Transaction();
+        t.start();
+        dirty(t.getId(), 0);
+        dirty(t.getId(), 1);
+
+        assertEquals(1, bp.cleanPages(0.5));
+        assertFalse(Arrays.equals(original0, onDisk(0)));
+        assertArrayEquals(original1, onDisk(1));
+        assertEquals(0, bp.cleanPages(0.5));
+        assertEquals(1, bp.cleanPages(1.0));
+        assertFalse(Arrays.equals(original1, onDisk(1)));
+        t.abort();
+    }
+
+    /**
+     * The background cleaner writes back dirty pages without being asked
+     */
+    @Test public void backgroundCleaner() throws Exception {
+        bp.setPolicy(BufferPool.Policy.STEAL_NO_FORCE);
+        bp.startCleaner(1.0, 10);
+        try {
+            Transaction t = new Transaction();
+            t.start();
+            dirty(t.getId(), 0);
+            Page p = bp.getPage(t.getId(), pid(0), Permissions.READ_ONLY);
+            for (int i = 0; i < 200 && p.isDirty() != null; i++)
+                Thread.sleep(10);
+            assertNull(p.isDirty());
+            assertArrayEquals(p.getPageData(), onDisk(0));
+            t.commit();
+        } finally {
+            bp.stopCleaner();
+        }
+    }
+
+    /**
+     * HeapFile.writePages writes runs of adjacent pages
+     */
+    @Test public void writePages() throws Exception {
+        List<Page> pages = new ArrayList<>();
+        for (int pgNo : new int[]{0, 1, 3}) {
+            HeapPage p = (HeapPage) hf.readPage(pid(pgNo));
+            p.deleteTuple(p.iterator().next());
+            pages.add(p);
+        }
+        hf.writePages(pages);
+        for (Page p : pages)
+            assertArrayEquals(p.getPageData(), onDisk(p.getId().getPageNumber()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPolicyTest.class);
+    }
+}
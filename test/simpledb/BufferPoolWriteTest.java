@@ -6,6 +6,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.After;
 import org.junit.Before;
@@ -55,6 +58,32 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	}
     }
     
+    // class whose reads of page 0 wait until they are released
+    static class HeapFileSlowReads extends HeapFile {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger reads = new AtomicInteger();
+
+        public HeapFileSlowReads(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            if (pid.getPageNumber() == 0) {
+                reads.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return super.readPage(pid);
+        }
+    }
+
     /**
      * Set up initial resources for each unit test.
      */
@@ -140,6 +169,43 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * A page is read from disk without holding up fetches of other pages,
+     * and only once by threads missing on it together
+     */
+    @Test(timeout = 20000) public void readOutsideLock() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        HeapFileSlowReads slow = new HeapFileSlowReads(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(slow, SystemTestUtil.getUUID());
+        HeapPageId pid0 = new HeapPageId(slow.getId(), 0);
+        Page[] fetched = new Page[2];
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < threads.length; i++) {
+            int n = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    fetched[n] = Database.getBufferPool().getPage(new TransactionId(), pid0, Permissions.READ_ONLY);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads[i].setDaemon(true);
+        }
+        threads[0].start();
+        assertTrue(slow.started.await(10, TimeUnit.SECONDS));
+        threads[1].start();
+
+        // page 1 is fetched while page 0 is being read
+        Database.getBufferPool().getPage(tid, new HeapPageId(slow.getId(), 1), Permissions.READ_ONLY);
+        Thread.sleep(100);
+        slow.release.countDown();
+        for (Thread t : threads)
+            t.join(10000);
+        assertNotNull(fetched[0]);
+        assertSame(fetched[0], fetched[1]);
+        assertEquals(1, slow.reads.get());
+    }
+
     /**
      * JUnit suite target
      */
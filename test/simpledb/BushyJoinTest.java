@@ -0,0 +1,186 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.JoinPredicateFilter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.JoinTree;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.QueryPlanVisualizer;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class BushyJoinTest extends SimpleDbTestBase {
+
+    private static final int FACTS = 5000;
+    private static final int DIMS = 1000;
+    private static final int SUBDIMS = 100;
+
+    private Map<String, TableStats> stats;
+
+    private void createTable(String name, String[] fields, int[][] rows, String pkey)
+            throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE}, fields);
+        HeapFile f = SystemTestUtil.createHeapFile(name, td, rows.length,
+                i -> new Field[]{new IntField(rows[i][0]), new IntField(rows[i][1])}, pkey);
+        stats.put(name, new TableStats(f.getId(), 1000));
+    }
+
+    /**
+     * A snowflake: a fact table f (d1 int, d2 int) referencing dimensions
+     * d1 and d2 (id int, s int), each referencing a sub-dimension s1 or s2
+     * (id int, v int)
+     */
+    @Before public void createTables() throws Exception {
+        stats = new HashMap<>();
+        int[][] facts = new int[FACTS][];
+        for (int i = 0; i < FACTS; i++)
+            facts[i] = new int[]{i % DIMS, (7 * i) % DIMS};
+        createTable("f", new String[]{"d1", "d2"}, facts, "");
+        int[][] dims = new int[DIMS][];
+        for (int i = 0; i < DIMS; i++)
+            dims[i] = new int[]{i, i % SUBDIMS};
+        createTable("d1", new String[]{"id", "s"}, dims, "id");
+        createTable("d2", new String[]{"id", "s"}, dims, "id");
+        int[][] subdims = new int[SUBDIMS][];
+        for (int i = 0; i < SUBDIMS; i++)
+            subdims[i] = new int[]{i, i};
+        createTable("s1", new String[]{"id", "v"}, subdims, "id");
+        createTable("s2", new String[]{"id", "v"}, subdims, "id");
+    }
+
+    /**
+     * The snowflake query, keeping facts whose sub-dimensions have v < 3,
+     * and optionally those whose two sub-dimensions are the same
+     */
+    private LogicalPlan query(boolean cycle) throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        for (String t : new String[]{"f", "d1", "d2", "s1", "s2"})
+            lp.addScan(Database.getCatalog().getTableId(t), t);
+        lp.addJoin("f.d1", "d1.id", Predicate.Op.EQUALS);
+        lp.addJoin("f.d2", "d2.id", Predicate.Op.EQUALS);
+        lp.addJoin("d1.s", "s1.id", Predicate.Op.EQUALS);
+        lp.addJoin("d2.s", "s2.id", Predicate.Op.EQUALS);
+        if (cycle)
+            lp.addJoin("s1.id", "s2.id", Predicate.Op.EQUALS);
+        lp.addFilter("s1.v", Predicate.Op.LESS_THAN, "3");
+        lp.addFilter("s2.v", Predicate.Op.LESS_THAN, "3");
+        lp.addProjectField("f.d1", null);
+        lp.addProjectField("f.d2", null);
+        return lp;
+    }
+
+    private static List<List<Integer>> expected(boolean cycle) {
+        List<List<Integer>> result = new ArrayList<>();
+        for (int i = 0; i < FACTS; i++) {
+            int d1 = i % DIMS, d2 = (7 * i) % DIMS;
+            int s1 = d1 % SUBDIMS, s2 = d2 % SUBDIMS;
+            if (s1 < 3 && s2 < 3 && (!cycle || s1 == s2))
+                result.add(Arrays.asList(d1, d2));
+        }
+        return result;
+    }
+
+    private static List<List<Integer>> run(OpIterator plan) throws Exception {
+        List<List<Integer>> result = new ArrayList<>();
+        plan.open();
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            result.add(Arrays.asList(((IntField) t.getField(0)).getValue(),
+                    ((IntField) t.getField(1)).getValue()));
+        }
+        plan.close();
+        return result;
+    }
+
+    private static void assertSameRows(List<List<Integer>> expected, List<List<Integer>> actual) {
+        Comparator<List<Integer>> order = Comparator.<List<Integer>>comparingInt(r -> r.get(0))
+                .thenComparingInt(r -> r.get(1));
+        expected.sort(order);
+        actual.sort(order);
+        assertEquals(expected, actual);
+    }
+
+    private static boolean contains(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (contains(child, c))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The best plan for the snowflake joins each dimension to its filtered
+     * sub-dimension before joining the results to the fact table, which a
+     * left-deep plan cannot do; the subtrees' estimates add up
+     */
+    @Test public void snowflakeIsBushy() throws Exception {
+        LogicalPlan lp = query(false);
+        Map<String, Double> selectivities = new HashMap<>();
+        for (String t : stats.keySet())
+            selectivities.put(t, 1.0);
+        selectivities.put("s1", 0.03);
+        selectivities.put("s2", 0.03);
+        List<LogicalJoinNode> joins = Arrays.asList(
+                new LogicalJoinNode("f", "d1", "d1", "id", Predicate.Op.EQUALS),
+                new LogicalJoinNode("f", "d2", "d2", "id", Predicate.Op.EQUALS),
+                new LogicalJoinNode("d1", "s1", "s", "id", Predicate.Op.EQUALS),
+                new LogicalJoinNode("d2", "s2", "s", "id", Predicate.Op.EQUALS));
+        JoinOptimizer jo = new JoinOptimizer(lp, joins);
+        List<JoinTree> trees = jo.orderJoinTrees(stats, selectivities, false);
+        assertEquals(1, trees.size());
+        JoinTree tree = trees.get(0);
+        assertEquals(4, tree.joins().size());
+        assertTrue(tree.height() < 4);
+        assertTrue(tree.getCost() > tree.getOuter().getCost() + tree.getInner().getCost());
+        assertEquals(jo.getPlanCost(), tree.getCost(), 0.0);
+    }
+
+    /**
+     * The planner builds the bushy plan, and it computes the join
+     */
+    @Test public void bushyPlanRuns() throws Exception {
+        OpIterator plan = query(false).physicalPlan(new TransactionId(), stats, false);
+        assertSameRows(expected(false), run(plan));
+    }
+
+    /**
+     * A join that closes a cycle is applied as a filter once both of its
+     * tables are joined
+     */
+    @Test public void cyclicJoinFilters() throws Exception {
+        OpIterator plan = query(true).physicalPlan(new TransactionId(), stats, false);
+        assertTrue(contains(plan, JoinPredicateFilter.class));
+        assertTrue(new QueryPlanVisualizer().getQueryPlanTree(plan).contains("s1.id=s2.id"));
+        List<List<Integer>> expected = expected(true);
+        assertTrue(expected.size() > 0);
+        assertSameRows(expected, run(plan));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BushyJoinTest.class);
+    }
+}
@@ -0,0 +1,165 @@
+package simpledb;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.optimizer.EquiDepthHistogram;
+import simpledb.optimizer.IntHistogram;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class EquiDepthHistogramTest extends SimpleDbTestBase {
+
+    private static final int N = 100000;
+
+    /**
+     * Zipf-like values: value k (from 1) appears about N / (k * H) times,
+     * with a long tail of rare values
+     */
+    private static int[] zipf(int distinct, long seed) {
+        double h = 0;
+        for (int k = 1; k <= distinct; k++)
+            h += 1.0 / k;
+        int[] values = new int[N];
+        int i = 0;
+        for (int k = 1; k <= distinct && i < N; k++) {
+            int copies = (int) Math.max(1, Math.round(N / (k * h)));
+            for (int c = 0; c < copies && i < N; c++)
+                values[i++] = k;
+        }
+        while (i < N)
+            values[i++] = distinct;
+        List<Integer> shuffled = new ArrayList<>();
+        for (int v : values)
+            shuffled.add(v);
+        Collections.shuffle(shuffled, new Random(seed));
+        for (int j = 0; j < N; j++)
+            values[j] = shuffled.get(j);
+        return values;
+    }
+
+    private static double actual(int[] values, Op op, int v) {
+        int count = 0;
+        for (int x : values) {
+            if (new IntField(x).compare(op, new IntField(v)))
+                count++;
+        }
+        return (double) count / values.length;
+    }
+
+    /**
+     * Skewed columns are estimated closely, where an equi-width histogram
+     * is off by orders of magnitude
+     */
+    @Test public void skewedColumn() {
+        int[] values = zipf(5000, 1);
+        EquiDepthHistogram h = EquiDepthHistogram.build(values, N, 100, 32);
+        IntHistogram w = new IntHistogram(100, 1, 5000);
+        for (int v : values)
+            w.addValue(v);
+
+        double top = actual(values, Op.EQUALS, 1);
+        assertEquals(top, h.estimateSelectivity(Op.EQUALS, 1), 1e-9);
+        assertTrue(w.estimateSelectivity(Op.EQUALS, 1) < top / 10);
+
+        for (int v : new int[]{2, 10, 40, 300, 2000, 4999}) {
+            for (Op op : new Op[]{Op.LESS_THAN, Op.LESS_THAN_OR_EQ, Op.GREATER_THAN, Op.GREATER_THAN_OR_EQ}) {
+                assertEquals(op + " " + v, actual(values, op, v), h.estimateSelectivity(op, v), 0.02);
+            }
+        }
+        assertEquals(0.0, h.estimateSelectivity(Op.EQUALS, 0), 0.0);
+        assertEquals(0.0, h.estimateSelectivity(Op.GREATER_THAN, 5000), 0.0);
+        assertEquals(1.0, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, 5000), 1e-9);
+    }
+
+    /**
+     * The estimated join selectivity of two skewed columns is close to the
+     * true one, dominated by their common frequent values
+     */
+    @Test public void joinSelectivity() {
+        int[] a = zipf(5000, 2);
+        int[] b = zipf(2000, 3);
+        Map<Integer, Integer> countsB = new HashMap<>();
+        for (int v : b)
+            countsB.merge(v, 1, Integer::sum);
+        double actual = 0;
+        for (int v : a)
+            actual += countsB.getOrDefault(v, 0);
+        actual /= (double) N * N;
+
+        EquiDepthHistogram ha = EquiDepthHistogram.build(a, N, 100, 32);
+        EquiDepthHistogram hb = EquiDepthHistogram.build(b, N, 100, 32);
+        assertEquals(actual, ha.joinSelectivity(hb), actual * 0.2);
+        assertEquals(ha.joinSelectivity(hb), hb.joinSelectivity(ha), actual * 0.01);
+    }
+
+    /**
+     * Encoding a histogram and decoding it gives the same estimates
+     */
+    @Test public void encode() {
+        int[] values = zipf(500, 4);
+        EquiDepthHistogram h = EquiDepthHistogram.build(values, N, 50, 10);
+        EquiDepthHistogram d = EquiDepthHistogram.decode(h.encode());
+        assertArrayEquals(h.encode(), d.encode());
+        for (int v = 0; v < 510; v += 7)
+            assertEquals(h.estimateSelectivity(Op.LESS_THAN, v), d.estimateSelectivity(Op.LESS_THAN, v), 0.0);
+        assertEquals(h.distinctValues(), d.distinctValues());
+        try {
+            EquiDepthHistogram.decode(new int[]{1, 2, 3});
+            fail("decoded garbage");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Predicates on correlated columns are estimated together
+     */
+    @Test public void correlatedColumns() throws Exception {
+        // b is a function of a, c is independent of both
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE},
+                new String[]{"a", "b", "c"});
+        Random random = new Random(5);
+        HeapFile hf = SystemTestUtil.createHeapFile("joint", td, 20000, i -> {
+            int a = random.nextInt(100);
+            return new Field[]{new IntField(a), new IntField(a / 2), new IntField(random.nextInt(100))};
+        });
+        TableStats s = new TableStats(hf.getId(), 1000);
+
+        Predicate a = new Predicate(0, Op.EQUALS, new IntField(10));
+        Predicate b = new Predicate(1, Op.EQUALS, new IntField(5));
+        Predicate otherB = new Predicate(1, Op.EQUALS, new IntField(30));
+        Predicate c = new Predicate(2, Op.EQUALS, new IntField(5));
+        double sa = s.estimateSelectivity(0, Op.EQUALS, new IntField(10));
+        double sc = s.estimateSelectivity(2, Op.EQUALS, new IntField(5));
+
+        // a = 10 implies b = 5: the grid is coarser than the columns, so the
+        // estimate falls short of sa, but not by the factor of 50 that
+        // assuming independence would
+        double sb = s.estimateSelectivity(1, Op.EQUALS, new IntField(5));
+        double both = s.estimateSelectivity(Arrays.asList(a, b));
+        assertTrue(both + " vs " + sa, both > sa / 3 && both < sa * 1.2);
+        assertTrue(both > 10 * sa * sb);
+        assertEquals(0.0, s.estimateSelectivity(Arrays.asList(a, otherB)), sa * 0.05);
+        // independent columns are still multiplied
+        assertEquals(sa * sc, s.estimateSelectivity(Arrays.asList(a, c)), sa * sc * 0.3);
+        assertEquals(sa, s.estimateSelectivity(Collections.singletonList(a)), 0.0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EquiDepthHistogramTest.class);
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class ExplainAnalyzeTest extends SimpleDbTestBase {
+
+    private static final int EMPLOYEES = 2000;
+    private static final int DEPARTMENTS = 20;
+
+    private HeapFile emp, dept;
+
+    private static HeapFile createTable(String name, int rows, int mod) throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE}, new String[]{"id", "dept"});
+        HeapFile hf = SystemTestUtil.createHeapFile(name, td, rows,
+                i -> new Field[]{new IntField(i), new IntField(i % mod)});
+        TableStats.setTableStats(name, new TableStats(hf.getId(), 1000));
+        return hf;
+    }
+
+    /**
+     * Tables emp (id int, dept int) and dept (id int, dept int), each
+     * employee in department id % DEPARTMENTS, and a pool large enough for
+     * both
+     */
+    @Before public void createTables() throws Exception {
+        emp = createTable("emp", EMPLOYEES, DEPARTMENTS);
+        dept = createTable("dept", DEPARTMENTS, DEPARTMENTS);
+        Database.resetBufferPool(emp.numPages() + dept.numPages() + 10);
+    }
+
+    @After public void resetCompileThreshold() {
+        PredicateCompiler.setCompileThreshold(PredicateCompiler.COMPILE_THRESHOLD);
+    }
+
+    private static long run(OpIterator op) throws Exception {
+        long n = 0;
+        op.open();
+        while (op.hasNext()) {
+            op.next();
+            n++;
+        }
+        op.close();
+        return n;
+    }
+
+    /**
+     * Each operator's profile counts the tuples it returned, and the pages
+     * it and its children requested, and the plan is restored afterwards
+     */
+    @Test public void profilesOperators() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan empScan = new SeqScan(tid, emp.getId(), "e");
+        SeqScan deptScan = new SeqScan(tid, dept.getId(), "d");
+        Filter filter = new Filter(Collections.singletonList(
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500))), empScan);
+        Join join = new Join(new JoinPredicate(1, Predicate.Op.EQUALS, 0), filter, deptScan);
+
+        Profiler profiler = new Profiler(join);
+        assertEquals(500, run(profiler.getPlan()));
+        profiler.restore();
+
+        Map<OpIterator, ProfiledOpIterator> profiles = profiler.getProfiles();
+        assertEquals(4, profiles.size());
+        assertEquals(EMPLOYEES, profiles.get(empScan).getRows());
+        assertEquals(500, profiles.get(filter).getRows());
+        assertEquals(500, profiles.get(join).getRows());
+        assertSame(profiles.get(join), profiler.getRootProfile());
+
+        // every page of emp was read from disk once
+        assertEquals(emp.numPages(), profiles.get(empScan).getPageMisses());
+        assertEquals(profiles.get(empScan).getPageRequests(), profiles.get(filter).getPageRequests());
+        assertEquals(emp.numPages() + dept.numPages(), profiles.get(join).getPageMisses());
+        assertTrue(profiles.get(join).getPageRequests() >= profiles.get(join).getPageMisses()
+                + profiles.get(deptScan).getPageRequests() - dept.numPages());
+        assertTrue(profiles.get(join).getNextNanos() >= profiles.get(filter).getNextNanos());
+
+        assertSame(filter, join.getChildren()[0]);
+        assertSame(deptScan, join.getChildren()[1]);
+        assertSame(empScan, filter.getChildren()[0]);
+        assertEquals(500, run(join));
+    }
+
+    /**
+     * The operators an aggregate runs as a compiled pipeline are not
+     * profiled, and the aggregate stays compiled
+     */
+    @Test public void compiledPipeline() throws Exception {
+        PredicateCompiler.setCompileThreshold(1);
+        SeqScan scan = new SeqScan(new TransactionId(), emp.getId(), "e");
+        Aggregate agg = new Aggregate(scan, 0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+        assertTrue(agg.isCompiled());
+
+        Profiler profiler = new Profiler(agg);
+        assertEquals(1, run(profiler.getPlan()));
+        profiler.restore();
+        assertTrue(agg.isCompiled());
+        assertNull(profiler.getProfiles().get(scan));
+        assertEquals(1, profiler.getProfiles().get(agg).getRows());
+        assertEquals(emp.numPages(), profiler.getProfiles().get(agg).getPageRequests());
+    }
+
+    private static String output(String sql) {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        Parser p = new Parser();
+        p.setOutput(new PrintStream(b, true));
+        p.processNextStatement(sql);
+        return b.toString();
+    }
+
+    /**
+     * EXPLAIN ANALYZE runs the statement and prints what each operator did
+     * next to its estimate; EXPLAIN only prints the estimates
+     */
+    @Test public void explainStatements() throws Exception {
+        String sql = "select e.id, d.id from emp e, dept d where e.dept = d.id and e.id < 100;";
+        String analyzed = output("explain analyze " + sql);
+        assertTrue(analyzed, analyzed.contains("The query plan is:"));
+        assertEquals(analyzed, analyzed.indexOf("The query plan is:"), analyzed.lastIndexOf("The query plan is:"));
+        assertTrue(analyzed, analyzed.contains("card:"));
+        assertTrue(analyzed, analyzed.contains("rows:100,"));
+        assertTrue(analyzed, analyzed.contains("scan(emp e),rows:"));
+        assertTrue(analyzed, analyzed.contains("scan(dept d),rows:" + DEPARTMENTS + ","));
+        assertTrue(analyzed, analyzed.contains("100 rows in "));
+        assertTrue(analyzed, analyzed.contains("committed"));
+
+        String explained = output("EXPLAIN " + sql);
+        assertTrue(explained, explained.contains("card:"));
+        assertFalse(explained, explained.contains("rows:"));
+        assertFalse(explained, explained.contains("rows in"));
+
+        String failed = output("explain analyze select x.id from nosuchtable x;");
+        assertTrue(failed, failed.contains("aborted"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExplainAnalyzeTest.class);
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 10;
+
+    /** A HeapFile that counts the pages it reads from disk */
+    private static class CountingHeapFile extends HeapFile {
+        int reads = 0;
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads++;
+            return super.readPage(pid);
+        }
+    }
+
+    private File f;
+    private int perPage;
+
+    /**
+     * A table whose pages are all full
+     */
+    @Before public void createFile() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        perPage = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < PAGES * perPage; i++)
+            tuples.add(Arrays.asList(i, i));
+        f = File.createTempFile("fsm", ".dat");
+        HeapFile.deleteOnExit(f);
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+    }
+
+    private CountingHeapFile openTable() {
+        Database.getCatalog().addTable(new CountingHeapFile(f, Utility.getTupleDesc(2)), "fsm");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        return (CountingHeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("fsm"));
+    }
+
+    private RecordId insert(HeapFile hf, int v) throws Exception {
+        Tuple t = Utility.getHeapTuple(v, 2);
+        Database.getBufferPool().insertTuple(new TransactionId(), hf.getId(), t);
+        return t.getRecordId();
+    }
+
+    /**
+     * Full pages are found once, remembered across restarts, and freed
+     * again by deletes
+     */
+    @Test public void skipFullPages() throws Exception {
+        CountingHeapFile hf = openTable();
+        assertEquals(PAGES, hf.numPages());
+        assertEquals(PAGES, insert(hf, -1).getPageId().getPageNumber());
+        assertEquals(PAGES + 1, hf.reads);
+        for (int i = 0; i < PAGES; i++)
+            assertTrue(hf.getFreeSpaceMap().isFull(i));
+        Database.getBufferPool().flushAllPages();
+
+        // a fresh file object reads the map back and goes straight to the last page
+        hf = openTable();
+        assertEquals(PAGES, insert(hf, -2).getPageId().getPageNumber());
+        assertEquals(1, hf.reads);
+
+        // a delete makes room on its page
+        Tuple victim = Utility.getHeapTuple(0, 2);
+        victim.setRecordId(new RecordId(new HeapPageId(hf.getId(), 3), 7));
+        Database.getBufferPool().deleteTuple(new TransactionId(), victim);
+        assertFalse(hf.getFreeSpaceMap().isFull(3));
+        assertEquals(new RecordId(new HeapPageId(hf.getId(), 3), 7), insert(hf, -3));
+        assertTrue(hf.getFreeSpaceMap().isFull(3));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
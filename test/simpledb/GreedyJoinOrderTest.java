@@ -0,0 +1,122 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class GreedyJoinOrderTest extends SimpleDbTestBase {
+
+    private static final int TABLES = 24;
+
+    private LogicalPlan lp;
+    private Map<String, TableStats> stats;
+    private Map<String, Double> filterSelectivities;
+
+    /**
+     * Tables t0 to t23 of two int columns and between 100 and 3000 rows
+     */
+    @Before public void createTables() throws Exception {
+        Random random = new Random(3);
+        lp = new LogicalPlan();
+        stats = new HashMap<>();
+        filterSelectivities = new HashMap<>();
+        for (int i = 0; i < TABLES; i++) {
+            int rows = 100 + random.nextInt(2900);
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, rows, null,
+                    new ArrayList<>(), "c");
+            Database.getCatalog().addTable(f, "t" + i);
+            lp.addScan(f.getId(), "t" + i);
+            stats.put("t" + i, new TableStats(f.getId(), 1000));
+            filterSelectivities.put("t" + i, 1.0);
+        }
+    }
+
+    private static LogicalJoinNode join(int t1, int t2) {
+        return new LogicalJoinNode("t" + t1, "t" + t2, "c1", "c0", Predicate.Op.EQUALS);
+    }
+
+    /**
+     * Check that order holds the given joins in an order a plan could run
+     * them: each join either joins two tables or results that earlier joins
+     * have not joined yet, or follows a join of its tables, until all of
+     * the tables are joined
+     */
+    private static void assertValidOrder(List<LogicalJoinNode> joins, List<LogicalJoinNode> order) {
+        assertEquals(new HashSet<>(joins), new HashSet<>(order));
+        assertEquals(joins.size(), order.size());
+        Map<String, Set<String>> joinedWith = new HashMap<>();
+        int merges = 0;
+        for (LogicalJoinNode j : order) {
+            Set<String> s1 = joinedWith.computeIfAbsent(j.t1Alias, a -> new HashSet<>(Collections.singleton(a)));
+            Set<String> s2 = joinedWith.computeIfAbsent(j.t2Alias, a -> new HashSet<>(Collections.singleton(a)));
+            if (s1 == s2)
+                continue;
+            merges++;
+            s1.addAll(s2);
+            for (String a : s2)
+                joinedWith.put(a, s1);
+        }
+        assertEquals(joinedWith.size() - 1, merges);
+    }
+
+    /**
+     * A star of 24 tables is too wide to search exhaustively, so it is
+     * ordered greedily, and quickly
+     */
+    @Test(timeout = 10000) public void wideJoinIsGreedy() throws Exception {
+        List<LogicalJoinNode> joins = new ArrayList<>();
+        for (int i = 1; i < TABLES; i++)
+            joins.add(join(0, i));
+        JoinOptimizer jo = new JoinOptimizer(lp, joins);
+        List<LogicalJoinNode> order = jo.orderJoins(stats, filterSelectivities, false);
+        assertEquals(JoinOptimizer.Strategy.GREEDY, jo.getPlanStrategy());
+        assertTrue(jo.getPlanCost() > 0);
+        assertValidOrder(joins, order);
+    }
+
+    /**
+     * Narrow queries are still searched exhaustively, and greedy search
+     * finds plans that cost at least as much, but not wildly more
+     */
+    @Test public void greedyAgainstExhaustive() throws Exception {
+        Random random = new Random(4);
+        for (int trial = 0; trial < 10; trial++) {
+            int n = 4 + random.nextInt(5);
+            List<LogicalJoinNode> joins = new ArrayList<>();
+            for (int i = 1; i < n; i++)
+                joins.add(join(random.nextInt(i), i));
+            JoinOptimizer exhaustive = new JoinOptimizer(lp, joins);
+            assertValidOrder(joins, exhaustive.orderJoins(stats, filterSelectivities, false));
+            assertEquals(JoinOptimizer.Strategy.EXHAUSTIVE, exhaustive.getPlanStrategy());
+
+            JoinOptimizer greedy = new JoinOptimizer(lp, joins);
+            assertValidOrder(joins, greedy.orderJoins(stats, filterSelectivities, false,
+                    JoinOptimizer.Strategy.GREEDY));
+            assertEquals(JoinOptimizer.Strategy.GREEDY, greedy.getPlanStrategy());
+            assertTrue(greedy.getPlanCost() >= exhaustive.getPlanCost() * (1 - 1e-9));
+            assertTrue(greedy.getPlanCost() <= exhaustive.getPlanCost() * 10);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GreedyJoinOrderTest.class);
+    }
+}
@@ -0,0 +1,141 @@
+package simpledb;
+
+import simpledb.optimizer.JoinGraph;
+import simpledb.optimizer.JoinPlanTable;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class JoinGraphTest extends SimpleDbTestBase {
+
+    private static JoinGraph chain(int n) {
+        JoinGraph g = new JoinGraph(n);
+        for (int i = 1; i < n; i++)
+            g.addEdge(i - 1, i);
+        return g;
+    }
+
+    private static JoinGraph cycle(int n) {
+        JoinGraph g = chain(n);
+        g.addEdge(n - 1, 0);
+        return g;
+    }
+
+    private static JoinGraph star(int n) {
+        JoinGraph g = new JoinGraph(n);
+        for (int i = 1; i < n; i++)
+            g.addEdge(0, i);
+        return g;
+    }
+
+    private static JoinGraph clique(int n) {
+        JoinGraph g = new JoinGraph(n);
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++)
+                g.addEdge(i, j);
+        }
+        return g;
+    }
+
+    /**
+     * The number of csg-cmp pairs matches the closed forms for the
+     * standard graph shapes
+     */
+    @Test public void ccpCounts() {
+        JoinGraph.PairConsumer ignore = (s1, s2) -> { };
+        for (long n = 2; n <= 10; n++) {
+            assertEquals((n * n * n - n) / 6, chain((int) n).enumerateCcps(ignore));
+            assertEquals((n - 1) << (n - 2), star((int) n).enumerateCcps(ignore));
+            assertEquals((pow(3, n) - pow(2, n + 1) + 1) / 2, clique((int) n).enumerateCcps(ignore));
+            if (n >= 3)
+                assertEquals((n * n * n - 2 * n * n + n) / 2, cycle((int) n).enumerateCcps(ignore));
+        }
+    }
+
+    private static long pow(long b, long e) {
+        long r = 1;
+        for (int i = 0; i < e; i++)
+            r *= b;
+        return r;
+    }
+
+    private static boolean connected(JoinGraph g, long set) {
+        long reached = Long.lowestOneBit(set);
+        for (long grow = g.neighbors(reached) & set; grow != 0; grow = g.neighbors(reached) & set)
+            reached |= grow;
+        return reached == set;
+    }
+
+    /**
+     * On random graphs numbered breadth first, each pair is connected,
+     * disjoint and adjacent, arrives after the pairs that build its
+     * halves, and every connected set is built
+     */
+    @Test public void pairsOnRandomGraphs() {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 50; trial++) {
+            int n = 2 + random.nextInt(9);
+            // a random tree numbered breadth first, plus some extra edges
+            JoinGraph g = new JoinGraph(n);
+            for (int i = 1; i < n; i++)
+                g.addEdge(random.nextInt(i), i);
+            for (int k = random.nextInt(n); k > 0; k--)
+                g.addEdge(random.nextInt(n), random.nextInt(n));
+
+            Set<Long> built = new HashSet<>();
+            for (int i = 0; i < n; i++)
+                built.add(1L << i);
+            Set<List<Long>> seen = new HashSet<>();
+            g.enumerateCcps((s1, s2) -> {
+                assertEquals(0, s1 & s2);
+                assertTrue(connected(g, s1));
+                assertTrue(connected(g, s2));
+                assertTrue((g.neighbors(s1) & s2) != 0);
+                assertTrue(built.contains(s1));
+                assertTrue(built.contains(s2));
+                assertTrue(seen.add(Arrays.asList(Math.min(s1, s2), Math.max(s1, s2))));
+                built.add(s1 | s2);
+            });
+            for (long set = 1; set <= g.all(); set++)
+                assertEquals(connected(g, set), built.contains(set));
+        }
+    }
+
+    /**
+     * The plan table keeps its entries as it grows
+     */
+    @Test public void planTable() {
+        JoinPlanTable table = new JoinPlanTable(1);
+        assertEquals(-1, table.find(5));
+        for (long set = 1; set <= 1000; set++) {
+            int e = table.add(set * 0x10001L);
+            table.update(e, set, (int) set, set & 1, (int) set % 7, set % 3 == 0);
+        }
+        assertEquals(1000, table.size());
+        for (long set = 1; set <= 1000; set++) {
+            int e = table.find(set * 0x10001L);
+            assertEquals(e, table.add(set * 0x10001L));
+            assertEquals(set * 0x10001L, table.set(e));
+            assertEquals(set, table.cost(e), 0.0);
+            assertEquals(set, table.card(e));
+            assertEquals(set & 1, table.outer(e));
+            assertEquals((int) set % 7, table.join(e));
+            assertEquals(set % 3 == 0, table.pkey(e));
+        }
+        assertEquals(-1, table.find(3));
+        assertEquals(Double.POSITIVE_INFINITY, table.cost(table.add(3)), 0.0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinGraphTest.class);
+    }
+}
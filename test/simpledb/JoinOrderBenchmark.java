@@ -0,0 +1,120 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.JoinGraph;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+/**
+ * Times JoinOptimizer.orderJoins against the number of tables joined, for
+ * chain, cycle, star and clique shaped queries over small random tables,
+ * with exhaustive and with greedy search, and compares the costs of the
+ * plans each finds.  Run with <tt>ant joinbench</tt>.
+ */
+public class JoinOrderBenchmark {
+
+    private static final int MAX_TABLES = 32;
+    private static final int RUNS = 5;
+
+    // exhaustive search is skipped for queries with more pairs than this
+    private static final long MAX_EXHAUSTIVE_PAIRS = 300000;
+
+    private static final Map<String, TableStats> stats = new HashMap<>();
+    private static final Map<String, Double> filterSelectivities = new HashMap<>();
+
+    private static List<int[]> edges(String shape, int n) {
+        List<int[]> edges = new ArrayList<>();
+        switch (shape) {
+            case "chain":
+            case "cycle":
+                for (int i = 1; i < n; i++)
+                    edges.add(new int[]{i - 1, i});
+                if (shape.equals("cycle") && n > 2)
+                    edges.add(new int[]{n - 1, 0});
+                break;
+            case "star":
+                for (int i = 1; i < n; i++)
+                    edges.add(new int[]{0, i});
+                break;
+            default:
+                for (int i = 0; i < n; i++) {
+                    for (int j = i + 1; j < n; j++)
+                        edges.add(new int[]{i, j});
+                }
+        }
+        return edges;
+    }
+
+    /**
+     * @return the median time to order the joins, in milliseconds, and the
+     *         cost of the plan found
+     */
+    private static double[] time(LogicalPlan lp, List<int[]> edges, JoinOptimizer.Strategy strategy)
+            throws Exception {
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        for (int[] e : edges)
+            nodes.add(new LogicalJoinNode("t" + e[0], "t" + e[1], "c" + (e[1] % 2), "c" + (e[0] % 2),
+                    Predicate.Op.EQUALS));
+        double[] times = new double[RUNS];
+        double cost = 0;
+        for (int r = 0; r < RUNS; r++) {
+            long start = System.nanoTime();
+            JoinOptimizer jo = new JoinOptimizer(lp, nodes);
+            jo.orderJoins(stats, filterSelectivities, false, strategy);
+            times[r] = (System.nanoTime() - start) / 1e6;
+            cost = jo.getPlanCost();
+        }
+        Arrays.sort(times);
+        return new double[]{times[RUNS / 2], cost};
+    }
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(1);
+        for (int i = 0; i < MAX_TABLES; i++) {
+            int rows = 100 + random.nextInt(5000);
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, rows, null,
+                    new ArrayList<>(), "c");
+            Database.getCatalog().addTable(f, "t" + i);
+            stats.put("t" + i, new TableStats(f.getId(), 1000));
+            filterSelectivities.put("t" + i, 1.0);
+        }
+        // the optimizer only looks tables up in the plan, so all of the
+        // queries can share one
+        LogicalPlan lp = new LogicalPlan();
+        for (int i = 0; i < MAX_TABLES; i++)
+            lp.addScan(Database.getCatalog().getTableId("t" + i), "t" + i);
+
+        Map<String, Integer> limits = new LinkedHashMap<>();
+        limits.put("chain", MAX_TABLES);
+        limits.put("cycle", MAX_TABLES);
+        limits.put("star", 24);
+        limits.put("clique", 16);
+        System.out.printf("%-8s %6s %10s %12s %12s %12s%n", "shape", "tables", "pairs",
+                "exhaust ms", "greedy ms", "cost ratio");
+        for (Map.Entry<String, Integer> shape : limits.entrySet()) {
+            for (int n = 2; n <= shape.getValue(); n += n < 8 ? 1 : n < 16 ? 2 : 4) {
+                List<int[]> edges = edges(shape.getKey(), n);
+                JoinGraph g = new JoinGraph(n);
+                for (int[] e : edges)
+                    g.addEdge(e[0], e[1]);
+                long pairs = g.countCcps(MAX_EXHAUSTIVE_PAIRS);
+                double[] greedy = time(lp, edges, JoinOptimizer.Strategy.GREEDY);
+                if (pairs > MAX_EXHAUSTIVE_PAIRS) {
+                    System.out.printf("%-8s %6d %10s %12s %12.2f %12s%n", shape.getKey(), n,
+                            ">" + MAX_EXHAUSTIVE_PAIRS, "-", greedy[0], "-");
+                    continue;
+                }
+                double[] exhaustive = time(lp, edges, JoinOptimizer.Strategy.EXHAUSTIVE);
+                System.out.printf("%-8s %6d %10d %12.2f %12.2f %12.3f%n", shape.getKey(), n, pairs,
+                        exhaustive[0], greedy[0], greedy[1] / exhaustive[1]);
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package simpledb;
+
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class LogFileSegmentTest extends SimpleDbTestBase {
+
+    private File dir;
+    private File logName;
+    private int segmentSize;
+    private HeapFile hf;
+    private HeapPageId pid0;
+    private HeapPageId pid1;
+
+    @Before public void setUp() throws Exception {
+        dir = Files.createTempDirectory("logseg").toFile();
+        logName = new File(dir, "log");
+        // room for one UPDATE record per segment
+        segmentSize = 3 * BufferPool.getPageSize();
+        hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        pid0 = new HeapPageId(hf.getId(), 0);
+        pid1 = new HeapPageId(hf.getId(), 1);
+    }
+
+    @After public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File f : files)
+                f.delete();
+        dir.delete();
+    }
+
+    private int countFiles(String infix) {
+        int n = 0;
+        for (String name : Objects.requireNonNull(dir.list()))
+            if (name.startsWith("log.") && name.contains(infix))
+                n++;
+        return n;
+    }
+
+    private HeapPage emptyPage(HeapPageId pid) throws IOException {
+        return new HeapPage(pid, HeapPage.createEmptyPageData());
+    }
+
+    private byte[] onDisk(HeapPageId pid) {
+        return hf.readPage(pid).getPageData();
+    }
+
+    /**
+     * Records go to new segments as they fill up, and a checkpoint after
+     * all transactions finished drops every older segment, keeping some
+     * of them as spares for reuse.
+     */
+    @Test public void rollAndTruncate() throws Exception {
+        LogFile log = new LogFile(logName, segmentSize);
+        Page before = hf.readPage(pid0);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        for (int i = 0; i < 6; i++)
+            log.logWrite(tid, before, emptyPage(pid0));
+        log.logCommit(tid);
+        assertTrue(countFiles("spare") == 0);
+        assertTrue(countFiles("000") >= 6);
+
+        log.logCheckpoint();
+        assertEquals(1, countFiles("000"));
+        assertTrue(countFiles("spare") > 0);
+
+        // spares are reused rather than new files created
+        int spares = countFiles("spare");
+        TransactionId tid2 = new TransactionId();
+        log.logXactionBegin(tid2);
+        log.logWrite(tid2, before, emptyPage(pid0));
+        log.logWrite(tid2, before, emptyPage(pid0));
+        log.logCommit(tid2);
+        assertTrue(countFiles("spare") < spares);
+    }
+
+    /**
+     * Records larger than a segment are refused.
+     */
+    @Test(expected = IOException.class) public void recordTooLarge() throws Exception {
+        LogFile log = new LogFile(logName, BufferPool.getPageSize());
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logWrite(tid, hf.readPage(pid0), emptyPage(pid0));
+    }
+
+    /**
+     * Aborting restores the earliest before image of each page.
+     */
+    @Test public void rollback() throws Exception {
+        LogFile log = new LogFile(logName, segmentSize);
+        byte[] original = onDisk(pid0);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        HeapPage after = emptyPage(pid0);
+        log.logWrite(tid, hf.readPage(pid0), after);
+        hf.writePage(after);
+        log.logWrite(tid, after, emptyPage(pid0));
+        assertFalse(Arrays.equals(original, onDisk(pid0)));
+
+        log.logAbort(tid);
+        assertArrayEquals(original, onDisk(pid0));
+    }
+
+    /**
+     * After a crash, committed updates that never reached the table are
+     * redone and uncommitted ones that did are undone, across segments.
+     */
+    @Test public void recover() throws Exception {
+        LogFile log = new LogFile(logName, segmentSize);
+        byte[] original1 = onDisk(pid1);
+
+        TransactionId committed = new TransactionId();
+        log.logXactionBegin(committed);
+        log.logWrite(committed, hf.readPage(pid0), emptyPage(pid0));
+        log.logCommit(committed);
+
+        TransactionId loser = new TransactionId();
+        log.logXactionBegin(loser);
+        HeapPage stolen = emptyPage(pid1);
+        log.logWrite(loser, hf.readPage(pid1), stolen);
+        log.force();
+        hf.writePage(stolen);
+
+        LogFile restarted = new LogFile(logName, segmentSize);
+        restarted.recover();
+        assertArrayEquals(HeapPage.createEmptyPageData(), onDisk(pid0));
+        assertArrayEquals(original1, onDisk(pid1));
+
+        // the recovered log can be appended to and recovered again
+        TransactionId next = new TransactionId();
+        restarted.logXactionBegin(next);
+        restarted.logCommit(next);
+        new LogFile(logName, segmentSize).recover();
+        assertArrayEquals(original1, onDisk(pid1));
+    }
+
+    /**
+     * Recovery leaves the pages of a transaction that aborted before the
+     * crash as the abort left them, and undoes a transaction that was
+     * still running at the last checkpoint.
+     */
+    @Test public void recoverAbortedAndCheckpointed() throws Exception {
+        LogFile log = new LogFile(logName, segmentSize);
+        byte[] original1 = onDisk(pid1);
+
+        TransactionId committed = new TransactionId();
+        log.logXactionBegin(committed);
+        log.logWrite(committed, hf.readPage(pid0), emptyPage(pid0));
+        log.logCommit(committed);
+
+        TransactionId aborted = new TransactionId();
+        log.logXactionBegin(aborted);
+        HeapPage stolen = emptyPage(pid1);
+        log.logWrite(aborted, hf.readPage(pid1), stolen);
+        log.force();
+        hf.writePage(stolen);
+        log.logAbort(aborted);
+        assertArrayEquals(original1, onDisk(pid1));
+
+        TransactionId running = new TransactionId();
+        log.logXactionBegin(running);
+        log.logWrite(running, hf.readPage(pid1), stolen);
+        // what the checkpoint's flush of the buffer pool would write
+        hf.writePage(emptyPage(pid0));
+        log.logCheckpoint();
+        hf.writePage(stolen);
+
+        new LogFile(logName, segmentSize).recover();
+        assertArrayEquals(HeapPage.createEmptyPageData(), onDisk(pid0));
+        assertArrayEquals(original1, onDisk(pid1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogFileSegmentTest.class);
+    }
+}
@@ -0,0 +1,253 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.metrics.Counter;
+import simpledb.metrics.Histogram;
+import simpledb.metrics.Metrics;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.*;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 2000;
+    private static final int POOL_PAGES = 2;
+
+    private HeapFile table;
+
+    /**
+     * A table t (id int, v int) of several pages, a pool too small to hold
+     * it, and every metric zeroed
+     */
+    @Before public void createTable() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE}, new String[]{"id", "v"});
+        table = SystemTestUtil.createHeapFile("t", td, ROWS,
+                i -> new Field[]{new IntField(i), new IntField(i % 7)});
+        Database.resetBufferPool(POOL_PAGES);
+        Metrics.reset();
+    }
+
+    private long scan() throws Exception {
+        TransactionId tid = new TransactionId();
+        Filter filter = new Filter(Collections.singletonList(
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0))),
+                new SeqScan(tid, table.getId(), "t"));
+        long n = 0;
+        filter.open();
+        while (filter.hasNext()) {
+            filter.next();
+            n++;
+        }
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * Percentiles are bucket upper bounds, never above the largest value
+     */
+    @Test public void histogram() {
+        Histogram h = new Histogram("h", "test");
+        assertEquals(0, h.getPercentile(0.5));
+        assertEquals(0.0, h.getMean(), 0.0);
+        for (int i = 1; i <= 100; i++)
+            h.record(i);
+        assertEquals(100, h.getCount());
+        assertEquals(5050, h.getSum());
+        assertEquals(100, h.getMax());
+        assertEquals(50.5, h.getMean(), 1e-9);
+        long p50 = h.getPercentile(0.5);
+        assertTrue(p50 >= 50 && p50 < 100);
+        assertEquals(100, h.getPercentile(0.99));
+        assertEquals(100, h.getPercentile(1));
+        h.record(-5);
+        assertEquals(0, h.getPercentile(0));
+    }
+
+    /**
+     * Counts from many threads at once are all kept
+     */
+    @Test public void concurrentCounting() throws Exception {
+        Counter c = new Counter("c", "test");
+        Histogram h = new Histogram("h", "test");
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    c.increment();
+                    h.record(j);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(80000, c.get());
+        assertEquals(80000, h.getCount());
+        assertEquals(9999, h.getMax());
+    }
+
+    /**
+     * A scan through a small pool counts a miss and a timed read per page,
+     * evicts all but the pages that fit, and counts the tuples each operator
+     * returned once it is closed
+     */
+    @Test public void bufferAndOperators() throws Exception {
+        int pages = table.numPages();
+        assertTrue(pages > POOL_PAGES);
+        assertEquals(ROWS, scan());
+        assertEquals(pages, Metrics.BUFFER_MISSES.get());
+        assertEquals(pages, Metrics.PAGE_READ_NANOS.getCount());
+        assertEquals(pages - POOL_PAGES, Metrics.BUFFER_EVICTIONS.get());
+        assertEquals(ROWS, Metrics.operatorRows(SeqScan.class).get());
+        assertEquals(ROWS, Metrics.operatorRows(Filter.class).get());
+
+        // the last pages are still cached
+        Database.resetBufferPool(pages + 1);
+        Metrics.reset();
+        scan();
+        scan();
+        assertEquals(pages, Metrics.BUFFER_MISSES.get());
+        assertTrue(Metrics.BUFFER_HITS.get() >= pages);
+        assertEquals(0, Metrics.BUFFER_EVICTIONS.get());
+    }
+
+    /**
+     * Commits and aborts are counted, and each commit forces the log
+     */
+    @Test public void transactions() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        t.commit();
+        assertEquals(1, Metrics.TRANSACTION_COMMITS.get());
+        assertTrue(Metrics.LOG_RECORDS.get() >= 2);
+        assertTrue(Metrics.LOG_BYTES.get() > 0);
+        assertTrue(Metrics.LOG_FORCE_NANOS.getCount() >= 1);
+
+        t = new Transaction();
+        t.start();
+        t.abort();
+        assertEquals(1, Metrics.TRANSACTION_COMMITS.get());
+        assertEquals(1, Metrics.TRANSACTION_ABORTS.get());
+    }
+
+    /**
+     * Once published, the counters and histogram statistics are MBean
+     * attributes, and the reset operation zeroes them
+     */
+    @Test public void jmx() throws Exception {
+        Metrics.publish();
+        Metrics.publish();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+
+        scan();
+        assertEquals(Metrics.BUFFER_MISSES.get(), server.getAttribute(name, "buffer.misses"));
+        assertEquals(Metrics.PAGE_READ_NANOS.getCount(), server.getAttribute(name, "page.read.nanos.count"));
+        assertEquals(Metrics.PAGE_READ_NANOS.getMax(), server.getAttribute(name, "page.read.nanos.max"));
+
+        Set<String> attributes = new HashSet<>();
+        for (MBeanAttributeInfo a : server.getMBeanInfo(name).getAttributes())
+            attributes.add(a.getName());
+        assertTrue(attributes.containsAll(Arrays.asList("buffer.hits", "log.bytes", "rows.SeqScan",
+                "transaction.deadlock.aborts", "log.force.nanos.p99", "page.write.nanos.mean")));
+
+        server.invoke(name, "reset", new Object[0], new String[0]);
+        assertEquals(0L, server.getAttribute(name, "buffer.misses"));
+    }
+
+    /**
+     * A recording sees a page read event per miss and an eviction event per
+     * page evicted, each naming the table
+     */
+    @Test public void flightRecorder() throws Exception {
+        Path file = File.createTempFile("metrics", ".jfr").toPath();
+        file.toFile().deleteOnExit();
+        try (Recording r = new Recording()) {
+            r.enable("simpledb.PageRead");
+            r.enable("simpledb.PageEviction");
+            r.start();
+            scan();
+            r.stop();
+            r.dump(file);
+        }
+        Map<String, Integer> events = new HashMap<>();
+        for (RecordedEvent e : RecordingFile.readAllEvents(file)) {
+            String type = e.getEventType().getName();
+            if (!type.startsWith("simpledb."))
+                continue;
+            assertEquals(table.getId(), e.getInt("tableId"));
+            events.merge(type, 1, Integer::sum);
+        }
+        assertEquals(Integer.valueOf(table.numPages()), events.get("simpledb.PageRead"));
+        assertEquals(Integer.valueOf(table.numPages() - POOL_PAGES), events.get("simpledb.PageEviction"));
+    }
+
+    /**
+     * Dirty pages of one table are written as one batch, whose event spans
+     * them though they are not adjacent
+     */
+    @Test public void pageWriteBatch() throws Exception {
+        assertTrue(table.numPages() >= 3);
+        Database.resetBufferPool(table.numPages());
+        Path file = File.createTempFile("metrics", ".jfr").toPath();
+        file.toFile().deleteOnExit();
+        TransactionId tid = new TransactionId();
+        try (Recording r = new Recording()) {
+            r.enable("simpledb.PageWrite");
+            r.start();
+            for (int pageNo : new int[]{0, 2}) {
+                Page p = Database.getBufferPool().getPage(tid, new HeapPageId(table.getId(), pageNo),
+                        Permissions.READ_WRITE);
+                p.markDirty(true, tid);
+            }
+            Database.getBufferPool().flushAllPages();
+            r.stop();
+            r.dump(file);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        List<RecordedEvent> writes = new ArrayList<>();
+        for (RecordedEvent e : RecordingFile.readAllEvents(file)) {
+            if (e.getEventType().getName().equals("simpledb.PageWrite"))
+                writes.add(e);
+        }
+        assertEquals(1, writes.size());
+        assertEquals(table.getId(), writes.get(0).getInt("tableId"));
+        assertEquals(0, writes.get(0).getInt("firstPageNumber"));
+        assertEquals(2, writes.get(0).getInt("lastPageNumber"));
+        assertEquals(2, writes.get(0).getInt("pages"));
+        assertEquals(2, Metrics.PAGE_WRITES.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MetricsTest.class);
+    }
+}
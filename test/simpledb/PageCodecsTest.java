@@ -0,0 +1,86 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeFileEncoder;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class PageCodecsTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for PageCodecs.decode() on a HeapPage image
+     */
+    @Test public void heapPageRoundTrip() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20, null, null);
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+
+        Page decoded = PageCodecs.decode(PageCodecs.tagOf(page), page.getId().serialize(), page.getPageData());
+        assertTrue(decoded instanceof HeapPage);
+        assertEquals(page.getId(), decoded.getId());
+        assertArrayEquals(page.getPageData(), decoded.getPageData());
+    }
+
+    /**
+     * Unit test for PageCodecs.decode() on BTree leaf and root pointer images;
+     * the key field of the leaf comes from the catalog.
+     */
+    @Test public void btreePageRoundTrip() throws Exception {
+        File f = File.createTempFile("codec", ".dat");
+        HeapFile.deleteOnExit(f);
+        BTreeFile bf = new BTreeFile(f, 1, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(bf);
+
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Tuple tup = new Tuple(Utility.getTupleDesc(2));
+            tup.setField(0, new IntField(i));
+            tup.setField(1, new IntField(100 - i));
+            tuples.add(tup);
+        }
+        byte[] data = BTreeFileEncoder.convertToLeafPage(tuples,
+                BufferPool.getPageSize(), 2, new Type[]{Type.INT_TYPE, Type.INT_TYPE}, 1);
+        BTreeLeafPage leaf = new BTreeLeafPage(new BTreePageId(bf.getId(), 1, BTreePageId.LEAF), data, 1);
+
+        Page decoded = PageCodecs.decode(PageCodecs.tagOf(leaf), leaf.getId().serialize(), leaf.getPageData());
+        assertTrue(decoded instanceof BTreeLeafPage);
+        assertEquals(leaf.getId(), decoded.getId());
+        assertArrayEquals(leaf.getPageData(), decoded.getPageData());
+
+        BTreeRootPtrPage root = new BTreeRootPtrPage(BTreeRootPtrPage.getId(bf.getId()),
+                BTreeRootPtrPage.createEmptyPageData());
+        decoded = PageCodecs.decode(PageCodecs.tagOf(root), root.getId().serialize(), root.getPageData());
+        assertTrue(decoded instanceof BTreeRootPtrPage);
+        assertEquals(root.getId(), decoded.getId());
+    }
+
+    /**
+     * Unknown tags must be reported rather than silently mis-decoded
+     */
+    @Test(expected = IOException.class) public void unknownTag() throws Exception {
+        PageCodecs.decode((byte) 127, new int[]{0, 0}, new byte[0]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCodecsTest.class);
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class PaxFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private TupleDesc td;
+    private List<Field[]> rows;
+    private File f;
+
+    /**
+     * A table whose columns each favour a different encoding: a sorted key
+     * (frame of reference), a low-cardinality string (dictionary), a long
+     * run of one value (RLE) and random ints (plain)
+     */
+    @Before public void createRows() throws Exception {
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE},
+                new String[]{"id", "city", "flag", "noise"});
+        Random r = new Random(42);
+        String[] cities = {"boston", "cambridge", "somerville"};
+        rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(new Field[]{
+                    new IntField(1000000 + i),
+                    new StringField(cities[r.nextInt(cities.length)], Type.STRING_LEN),
+                    new IntField(i < ROWS / 2 ? 0 : 1),
+                    new IntField(r.nextInt())});
+        }
+        f = File.createTempFile("pax", ".dat");
+        HeapFile.deleteOnExit(f);
+        PaxFileEncoder.convert(rows, f, BufferPool.getPageSize(), td);
+    }
+
+    private PaxFile addTable() {
+        PaxFile pf = new PaxFile(f, td);
+        Database.getCatalog().addTable(pf, "pax");
+        return pf;
+    }
+
+    /**
+     * Every row survives the round trip, and the file is much smaller than
+     * the same rows in a HeapFile
+     */
+    @Test public void roundTrip() throws Exception {
+        PaxFile pf = addTable();
+        int heapPages = (int) Math.ceil((double) ROWS / ((BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1)));
+        assertTrue(pf.numPages() * 4 < heapPages);
+
+        DbFileIterator it = pf.iterator(new TransactionId());
+        it.open();
+        for (Field[] row : rows) {
+            assertTrue(it.hasNext());
+            Tuple t = it.next();
+            for (int j = 0; j < row.length; j++)
+                assertEquals(row[j], t.getField(j));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * Each column is stored in its own minipage; the RLE column takes a
+     * few bytes per page and the random column cannot be compressed
+     */
+    @Test public void columnEncodings() throws Exception {
+        PaxFile pf = addTable();
+        PaxPage page = (PaxPage) pf.readPage(new HeapPageId(pf.getId(), 0));
+        int n = page.getNumRows();
+        assertTrue(n > 0);
+        assertTrue(page.getColumnSize(2) < 32);
+        assertTrue(page.getColumnSize(1) < n);
+        assertTrue(page.getColumnSize(0) < 4 * n / 2);
+        assertEquals(1 + 4 * n, page.getColumnSize(3));
+    }
+
+    /**
+     * A scan restricted to some columns leaves the others unread
+     */
+    @Test public void projectedScan() throws Exception {
+        PaxFile pf = addTable();
+        SeqScan ss = new SeqScan(new TransactionId(), pf.getId(), "p");
+        ss.setColumns(new HashSet<>(Arrays.asList(0, 2)));
+        ss.open();
+        int count = 0;
+        while (ss.hasNext()) {
+            Tuple t = ss.next();
+            assertEquals(rows.get(count)[0], t.getField(0));
+            assertNull(t.getField(1));
+            assertEquals(rows.get(count)[2], t.getField(2));
+            assertNull(t.getField(3));
+            count++;
+        }
+        ss.rewind();
+        assertTrue(ss.hasNext());
+        ss.close();
+        assertEquals(ROWS, count);
+    }
+
+    @Test(expected = DbException.class) public void readOnly() throws Exception {
+        PaxFile pf = addTable();
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++)
+            t.setField(j, rows.get(0)[j]);
+        Database.getBufferPool().insertTuple(new TransactionId(), pf.getId(), t);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
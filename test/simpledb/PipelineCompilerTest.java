@@ -0,0 +1,137 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class PipelineCompilerTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+    private static final String[] NAMES = {"ann", "bob", "cal", "dee"};
+
+    private int tableId;
+
+    /**
+     * A table t (a int, name string, b int) of ROWS rows over several pages
+     */
+    @Before public void createTable() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+                new String[]{"a", "name", "b"});
+        Random random = new Random(7);
+        HeapFile hf = SystemTestUtil.createHeapFile("t", td, ROWS, i -> new Field[]{new IntField(i),
+                new StringField(NAMES[random.nextInt(NAMES.length)], Type.STRING_LEN),
+                new IntField(random.nextInt(200) - 100)});
+        tableId = hf.getId();
+        assertTrue(hf.numPages() > 1);
+        PredicateCompiler.setCompileThreshold(1);
+    }
+
+    @After public void enable() {
+        PredicateCompiler.setEnabled(true);
+        PredicateCompiler.setCompileThreshold(PredicateCompiler.COMPILE_THRESHOLD);
+    }
+
+    /**
+     * SELECT agg(b) FROM t WHERE a >= 100 AND name <> 'bob' [GROUP BY name],
+     * with the filter pushed into the scan and a projection of (name, b)
+     */
+    private Aggregate query(Aggregator.Op op, boolean grouped) {
+        SeqScan scan = new SeqScan(new TransactionId(), tableId, "t");
+        List<Predicate> preds = Arrays.asList(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(100)),
+                new Predicate(1, Predicate.Op.NOT_EQUALS, new StringField("bob", Type.STRING_LEN)));
+        scan.setPredicates(preds);
+        Project project = new Project(Arrays.asList(1, 2), new Type[]{Type.STRING_TYPE, Type.INT_TYPE},
+                new Filter(preds, scan));
+        return new Aggregate(project, 1, grouped ? 0 : Aggregator.NO_GROUPING, op);
+    }
+
+    private static Set<String> run(OpIterator op) throws Exception {
+        Set<String> result = new HashSet<>();
+        op.open();
+        while (op.hasNext())
+            assertTrue(result.add(op.next().toString().trim()));
+        op.rewind();
+        int n = 0;
+        while (op.hasNext()) {
+            op.next();
+            n++;
+        }
+        assertEquals(result.size(), n);
+        op.close();
+        return result;
+    }
+
+    /**
+     * Compiled pipelines compute every aggregate, with and without grouping,
+     * as the iterator tree does
+     */
+    @Test public void agreesWithIterators() throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+            for (boolean grouped : new boolean[]{false, true}) {
+                PredicateCompiler.setEnabled(false);
+                Aggregate interpreted = query(op, grouped);
+                assertFalse(interpreted.isCompiled());
+                Set<String> expected = run(interpreted);
+                assertEquals(grouped ? NAMES.length - 1 : 1, expected.size());
+
+                PredicateCompiler.setEnabled(true);
+                Aggregate compiled = query(op, grouped);
+                assertTrue(op + " " + grouped, compiled.isCompiled());
+                assertEquals(op + " " + grouped, expected, run(compiled));
+            }
+        }
+    }
+
+    /**
+     * An aggregate over no tuples has no result, compiled or not
+     */
+    @Test public void noTuples() throws Exception {
+        SeqScan scan = new SeqScan(new TransactionId(), tableId, "t");
+        Filter f = new Filter(Collections.singletonList(
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0))), scan);
+        Aggregate agg = new Aggregate(f, 2, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        assertTrue(agg.isCompiled());
+        assertEquals(Collections.emptySet(), run(agg));
+    }
+
+    /**
+     * A pipeline with another operator in it is not compiled, and still
+     * computes the aggregate
+     */
+    @Test public void fallsBack() throws Exception {
+        SeqScan scan = new SeqScan(new TransactionId(), tableId, "t");
+        OrderBy order = new OrderBy(0, true, scan);
+        Aggregate agg = new Aggregate(order, 0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT);
+        assertFalse(agg.isCompiled());
+        assertEquals(Collections.singleton(Integer.toString(ROWS)), run(agg));
+
+        agg = new Aggregate(new SeqScan(new TransactionId(), tableId, "t"), 0, Aggregator.NO_GROUPING,
+                Aggregator.Op.COUNT);
+        assertTrue(agg.isCompiled());
+        agg.setChildren(new OpIterator[]{new OrderBy(0, true, new SeqScan(new TransactionId(), tableId, "t"))});
+        assertFalse(agg.isCompiled());
+        assertEquals(Collections.singleton(Integer.toString(ROWS)), run(agg));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PipelineCompilerTest.class);
+    }
+}
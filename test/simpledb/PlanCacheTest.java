@@ -0,0 +1,193 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Operator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Query;
+import simpledb.index.BTreeScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.PlanCache;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class PlanCacheTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private Parser parser;
+
+    private HeapFile createTable(String name, int rows) throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                new String[]{"id", "grp"});
+        HeapFile f = SystemTestUtil.createHeapFile(name, td, rows,
+                i -> new Field[]{new IntField(i), new IntField(i % 10)});
+        TableStats.setTableStats(name, new TableStats(f.getId(), 1000));
+        return f;
+    }
+
+    /**
+     * A table people (id int, grp int) with a B+ tree index on id
+     */
+    @Before public void createTables() throws Exception {
+        HeapFile people = createTable("people", ROWS);
+        Database.getCatalog().createIndex("people_id", "people", "id");
+        new File(people.getFile().getParentFile(), "people_id.idx").deleteOnExit();
+        parser = new Parser();
+    }
+
+    private static List<Integer> ids(Query q) throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        q.start();
+        while (q.hasNext())
+            ids.add(((IntField) q.next().getField(0)).getValue());
+        q.close();
+        return ids;
+    }
+
+    private static boolean readsIndex(OpIterator plan) {
+        if (plan instanceof BTreeScan)
+            return true;
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (readsIndex(child))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Constants are taken out of statements, and white space and trailing
+     * semicolons do not matter
+     */
+    @Test public void normalize() {
+        PlanCache.NormalizedSql sql = PlanCache.normalize(
+                "SELECT t1.a FROM t1\n  WHERE t1.a = 42 AND t1.b = 'it''s' and t1.c < ? ;");
+        assertEquals("SELECT t1.a FROM t1 WHERE t1.a = ? AND t1.b = ? and t1.c < ?", sql.getText());
+        assertEquals(Arrays.asList("42", "it''s", null), sql.getConstants());
+        assertEquals(sql.getText(), PlanCache.normalize(
+                "SELECT  t1.a FROM t1 WHERE t1.a = 7 AND t1.b = 'x' and t1.c < 3").getText());
+    }
+
+    /**
+     * A prepared statement is planned once and runs with each value of its
+     * parameter, through the index chosen when it was first run
+     */
+    @Test public void preparedStatement() throws Exception {
+        PreparedStatement ps = parser.prepare("select * from people p where p.id = ?;");
+        assertEquals(1, ps.getParameterCount());
+        PlanCache cache = Database.getPlanCache();
+        assertEquals(1, cache.size());
+        for (int id : new int[]{42, 7, 4999, ROWS + 1}) {
+            Query q = parser.handlePreparedStatement(ps, Collections.singletonList(Integer.toString(id)),
+                    new TransactionId());
+            assertTrue(readsIndex(q.getPhysicalPlan()));
+            assertEquals(id < ROWS ? Collections.singletonList(id) : Collections.emptyList(), ids(q));
+        }
+        assertEquals(1, cache.size());
+        assertEquals(4, cache.getHits());
+
+        try {
+            parser.handlePreparedStatement(ps, Collections.emptyList(), new TransactionId());
+            fail("expected ParsingException for a missing parameter");
+        } catch (ParsingException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Each binding of a range parameter gets the access path its values
+     * call for, not the one chosen for the first binding
+     */
+    @Test public void accessPathPerBinding() throws Exception {
+        PreparedStatement ps = parser.prepare("select * from people p where p.id > ?;");
+        Query narrow = parser.handlePreparedStatement(ps,
+                Collections.singletonList(Integer.toString(ROWS - 10)), new TransactionId());
+        assertTrue(readsIndex(narrow.getPhysicalPlan()));
+        assertEquals(9, ids(narrow).size());
+
+        Query wide = parser.handlePreparedStatement(ps, Collections.singletonList("10"), new TransactionId());
+        assertFalse(readsIndex(wide.getPhysicalPlan()));
+        assertEquals(ROWS - 11, ids(wide).size());
+        assertEquals(1, Database.getPlanCache().size());
+    }
+
+    /**
+     * Statements that differ only in their constants share a plan, and
+     * each runs with its own constants
+     */
+    @Test public void sharedPlan() throws Exception {
+        PreparedStatement a = parser.prepare("select * from people p where p.grp = 3 and p.id < 100");
+        PreparedStatement b = parser.prepare("select *  from people p where p.grp = 4 and p.id < 50");
+        assertEquals(a.getSql(), b.getSql());
+        assertEquals(0, b.getParameterCount());
+        assertEquals(1, Database.getPlanCache().size());
+        List<Integer> ids = ids(parser.handlePreparedStatement(b, Collections.emptyList(), new TransactionId()));
+        assertEquals(5, ids.size());
+        for (int id : ids)
+            assertEquals(4, id % 10);
+        assertEquals(10, ids(parser.handlePreparedStatement(a, Collections.emptyList(),
+                new TransactionId())).size());
+    }
+
+    /**
+     * A plan is dropped once its table's statistics change enough, but not
+     * when they barely change
+     */
+    @Test public void statsInvalidate() throws Exception {
+        PlanCache cache = Database.getPlanCache();
+        String sql = parser.prepare("select * from people p where p.grp = 1").getSql();
+        LogicalPlan lp = cache.get(sql);
+        assertNotNull(lp);
+
+        // re-analyzing the same table keeps the plan
+        TableStats.setTableStats("people", new TableStats(Database.getCatalog().getTableId("people"), 1000));
+        assertSame(lp, cache.get(sql));
+        assertEquals(0, cache.getInvalidations());
+
+        // statistics of a table twice the size drop it
+        int bigger = createTable("bigger", 2 * ROWS).getId();
+        TableStats.setTableStats("people", new TableStats(bigger, 1000));
+        assertNull(cache.get(sql));
+        assertEquals(1, cache.getInvalidations());
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * The least recently used plan is evicted from a full cache
+     */
+    @Test public void evictsLeastRecentlyUsed() throws Exception {
+        PlanCache cache = new PlanCache(2);
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(Database.getCatalog().getTableId("people"), "p");
+        cache.put("a", lp);
+        cache.put("b", lp);
+        assertSame(lp, cache.get("a"));
+        cache.put("c", lp);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertSame(lp, cache.get("a"));
+        assertSame(lp, cache.get("c"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PlanCacheTest.class);
+    }
+}
@@ -0,0 +1,186 @@
+package simpledb;
+
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class PredicateCompilerTest extends SimpleDbTestBase {
+
+    private static final String[] WORDS = {"", "a", "ab", "abc", "b", "ba", "cab"};
+
+    private TupleDesc td;
+    private List<Tuple> tuples;
+
+    /**
+     * Tuples (i int, s string, j int) with every combination of a few small
+     * values
+     */
+    @Before public void createTuples() {
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+                new String[]{"i", "s", "j"});
+        tuples = new ArrayList<>();
+        for (int i = -2; i <= 2; i++) {
+            for (String s : WORDS) {
+                for (int j = -2; j <= 2; j++) {
+                    Tuple t = new Tuple(td);
+                    t.setField(0, new IntField(i));
+                    t.setField(1, new StringField(s, Type.STRING_LEN));
+                    t.setField(2, new IntField(j));
+                    tuples.add(t);
+                }
+            }
+        }
+        PredicateCompiler.setCompileThreshold(1);
+    }
+
+    @After public void enable() {
+        PredicateCompiler.setEnabled(true);
+        PredicateCompiler.setCompileThreshold(PredicateCompiler.COMPILE_THRESHOLD);
+    }
+
+    private void assertAgrees(List<Predicate> preds) {
+        PredicateCompiler.Conjunction c = PredicateCompiler.compile(td, preds);
+        assertTrue(PredicateCompiler.isCompiled(c));
+        PredicateCompiler.Conjunction i = PredicateCompiler.interpret(preds);
+        for (Tuple t : tuples)
+            assertEquals(preds + " on " + t, i.filter(t), c.filter(t));
+    }
+
+    /**
+     * Compiled predicates agree with the interpreter for every operator on
+     * ints and strings, alone and in conjunctions
+     */
+    @Test public void agreesWithInterpreter() {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            assertAgrees(Collections.singletonList(new Predicate(0, op, new IntField(0))));
+            assertAgrees(Collections.singletonList(new Predicate(1, op, new StringField("ab", Type.STRING_LEN))));
+            assertAgrees(Arrays.asList(new Predicate(2, op, new IntField(1)),
+                    new Predicate(1, op, new StringField("b", Type.STRING_LEN)),
+                    new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(-1))));
+        }
+    }
+
+    /**
+     * Compiled join predicates agree with the interpreter for every operator
+     */
+    @Test public void joinAgreesWithInterpreter() {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (List<JoinPredicate> preds : Arrays.asList(
+                    Collections.singletonList(new JoinPredicate(0, op, 2)),
+                    Arrays.asList(new JoinPredicate(1, op, 1), new JoinPredicate(2, op, 0)))) {
+                PredicateCompiler.JoinConjunction c = PredicateCompiler.compileJoin(td, td, preds);
+                assertTrue(PredicateCompiler.isCompiled(c));
+                PredicateCompiler.JoinConjunction i = PredicateCompiler.interpretJoin(preds);
+                for (int k = 0; k < tuples.size(); k += 7) {
+                    Tuple t1 = tuples.get(k);
+                    for (Tuple t2 : tuples)
+                        assertEquals(preds + " on " + t1 + ", " + t2, i.filter(t1, t2), c.filter(t1, t2));
+                }
+            }
+        }
+    }
+
+    /**
+     * A class is compiled once for each shape of conjunction, whatever its
+     * constants
+     */
+    @Test public void classesShared() {
+        PredicateCompiler.Conjunction a = PredicateCompiler.compile(td,
+                Collections.singletonList(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(0))));
+        int compiled = PredicateCompiler.compiledClasses();
+        PredicateCompiler.Conjunction b = PredicateCompiler.compile(td,
+                Collections.singletonList(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(1))));
+        assertEquals(compiled, PredicateCompiler.compiledClasses());
+        assertSame(a.getClass(), b.getClass());
+        Tuple t = tuples.get(tuples.size() - 2);
+        assertEquals(1, ((IntField) t.getField(2)).getValue());
+        assertTrue(a.filter(t));
+        assertFalse(b.filter(t));
+    }
+
+    /**
+     * A shape is interpreted until it has been asked for often enough, and
+     * then compiled
+     */
+    @Test public void compileThreshold() {
+        PredicateCompiler.setCompileThreshold(3);
+        List<Predicate> preds = Arrays.asList(new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(1)),
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)),
+                new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(0)));
+        assertFalse(PredicateCompiler.isCompiled(PredicateCompiler.compile(td, preds)));
+        assertFalse(PredicateCompiler.isCompiled(PredicateCompiler.compile(td, preds)));
+        assertTrue(PredicateCompiler.isCompiled(PredicateCompiler.compile(td, preds)));
+        assertTrue(PredicateCompiler.isCompiled(PredicateCompiler.compile(td, preds)));
+    }
+
+    /**
+     * Only the most recently used shapes are remembered
+     */
+    @Test public void boundedShapes() {
+        PredicateCompiler.setCompileThreshold(Integer.MAX_VALUE);
+        List<Predicate> preds = new ArrayList<>();
+        for (int k = 0; k < PredicateCompiler.MAX_SHAPES + 10; k++) {
+            preds.add(new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(k)));
+            PredicateCompiler.compile(td, preds);
+        }
+        assertEquals(PredicateCompiler.MAX_SHAPES, PredicateCompiler.rememberedShapes());
+    }
+
+    /**
+     * Predicates are interpreted when compilation is disabled, or they do
+     * not match the types of the fields
+     */
+    @Test public void interpreterFallback() {
+        List<Predicate> preds = Collections.singletonList(new Predicate(0, Predicate.Op.EQUALS, new IntField(1)));
+        PredicateCompiler.setEnabled(false);
+        assertFalse(PredicateCompiler.isCompiled(PredicateCompiler.compile(td, preds)));
+        assertFalse(new Filter(preds, new TupleIterator(td, tuples)).isCompiled());
+        PredicateCompiler.setEnabled(true);
+        assertTrue(new Filter(preds, new TupleIterator(td, tuples)).isCompiled());
+
+        assertFalse(PredicateCompiler.isCompiled(PredicateCompiler.compile(td, Collections.singletonList(
+                new Predicate(1, Predicate.Op.EQUALS, new IntField(1))))));
+        assertFalse(PredicateCompiler.isCompiled(PredicateCompiler.compileJoin(td, td, Collections.singletonList(
+                new JoinPredicate(0, Predicate.Op.EQUALS, 1)))));
+    }
+
+    /**
+     * A filter of several predicates passes the tuples satisfying all of
+     * them, as a stack of filters would
+     */
+    @Test public void conjunctiveFilter() throws Exception {
+        List<Predicate> preds = Arrays.asList(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1)),
+                new Predicate(1, Predicate.Op.LIKE, new StringField("a", Type.STRING_LEN)));
+        OpIterator stacked = new Filter(preds.get(1), new Filter(preds.get(0), new TupleIterator(td, tuples)));
+        Filter f = new Filter(preds, new TupleIterator(td, tuples));
+        assertTrue(f.isCompiled());
+        assertEquals(preds, f.getPredicates());
+        List<String> expected = new ArrayList<>(), actual = new ArrayList<>();
+        stacked.open();
+        while (stacked.hasNext())
+            expected.add(stacked.next().toString());
+        f.open();
+        while (f.hasNext())
+            actual.add(f.next().toString());
+        assertEquals(2 * 5 * 5, expected.size());
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PredicateCompilerTest.class);
+    }
+}
@@ -0,0 +1,205 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.optimizer.TableStats;
+import simpledb.server.QueryClient;
+import simpledb.server.QueryServer;
+import simpledb.server.SessionManager;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class QueryServerTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+
+    private QueryServer server;
+
+    /**
+     * A table nums (id int, name string) of ROWS rows, and a server over it
+     */
+    @Before public void startServer() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE}, new String[]{"id", "name"});
+        HeapFile hf = SystemTestUtil.createHeapFile("nums", td, ROWS,
+                i -> new Field[]{new IntField(i), new StringField("name" + (i % 10), Type.STRING_LEN)});
+        TableStats.setTableStats("nums", new TableStats(hf.getId(), 1000));
+
+        server = new QueryServer(0);
+        server.start();
+    }
+
+    @After public void stopServer() throws Exception {
+        server.close();
+    }
+
+    private QueryClient connect() throws Exception {
+        return new QueryClient("localhost", server.getPort());
+    }
+
+    /**
+     * The rows of a query arrive in batches, with their names and types
+     */
+    @Test public void streamsRows() throws Exception {
+        try (QueryClient client = connect()) {
+            QueryClient.Result r = client.execute("select n.id, n.name from nums n where n.id >= 10;");
+            assertEquals(2, r.getTupleDesc().numFields());
+            assertEquals(Type.STRING_TYPE, r.getTupleDesc().getFieldType(1));
+            assertEquals(ROWS - 10, r.getRows().size());
+            assertEquals(ROWS - 10, r.getRowCount());
+            assertTrue(r.getBatches() > 1);
+            Set<Integer> ids = new HashSet<>();
+            for (Tuple t : r.getRows()) {
+                int id = ((IntField) t.getField(0)).getValue();
+                assertEquals("name" + (id % 10), ((StringField) t.getField(1)).getValue());
+                assertTrue(ids.add(id));
+            }
+            assertEquals(ROWS - 10, ids.size());
+
+            r = client.execute("select count(n.id) from nums n");
+            assertEquals(1, r.getRows().size());
+            assertEquals(ROWS, ((IntField) r.getRows().get(0).getField(0)).getValue());
+            assertTrue(r.getMessages(), r.getMessages().contains("committed"));
+        }
+    }
+
+    /**
+     * Compressed batches carry the same rows in fewer bytes
+     */
+    @Test public void compression() throws Exception {
+        try (QueryClient plain = connect(); QueryClient compressed = connect()) {
+            String sql = "select n.name from nums n;";
+            List<String> expected = new ArrayList<>(), actual = new ArrayList<>();
+            for (Tuple t : plain.execute(sql, false).getRows())
+                expected.add(t.toString());
+            for (Tuple t : compressed.execute(sql, true).getRows())
+                actual.add(t.toString());
+            assertEquals(ROWS, expected.size());
+            assertEquals(expected, actual);
+            assertTrue(compressed.getBytesReceived() + " < " + plain.getBytesReceived(),
+                    compressed.getBytesReceived() * 2 < plain.getBytesReceived());
+        }
+    }
+
+    /**
+     * Sessions run at once, each with its own transaction and prepared
+     * statements
+     */
+    @Test public void concurrentSessions() throws Exception {
+        int sessions = 8;
+        ExecutorService clients = Executors.newFixedThreadPool(sessions);
+        CyclicBarrier barrier = new CyclicBarrier(sessions);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int s = 0; s < sessions; s++) {
+            int k = s;
+            results.add(clients.submit(() -> {
+                try (QueryClient client = connect()) {
+                    client.execute("prepare q" + k + " as select n.id from nums n where n.id < ?;");
+                    barrier.await(10, TimeUnit.SECONDS);
+                    assertEquals(sessions, server.getSessionCount());
+                    for (int i = 1; i <= 5; i++) {
+                        QueryClient.Result r = client.execute("execute q" + k + " (" + (k * 10 + i) + ");");
+                        assertEquals(k * 10 + i, r.getRows().size());
+                    }
+                    // another session's statement is not visible
+                    QueryClient.Result r = client.execute("execute q" + ((k + 1) % sessions) + " (1);");
+                    assertNull(r.getTupleDesc());
+                    assertTrue(r.getMessages(), r.getMessages().contains("No prepared statement"));
+
+                    r = client.execute("set transaction read write;");
+                    assertTrue(r.getMessages(), r.getMessages().contains("Started a new transaction"));
+                    r = client.execute("select n.id from nums n where n.id = " + k + ";");
+                    assertEquals(1, r.getRows().size());
+                    assertFalse(r.getMessages(), r.getMessages().contains("committed"));
+                    r = client.execute("commit;");
+                    assertTrue(r.getMessages(), r.getMessages().contains("committed"));
+                }
+                return null;
+            }));
+        }
+        for (Future<Void> f : results)
+            f.get(60, TimeUnit.SECONDS);
+        clients.shutdown();
+    }
+
+    /**
+     * A transaction left open by a client that goes away is aborted, and its
+     * session ends
+     */
+    @Test public void disconnect() throws Exception {
+        QueryClient client = connect();
+        client.execute("set transaction read write;");
+        assertEquals(1, server.getSessionCount());
+        client.close();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (server.getSessionCount() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, server.getSessionCount());
+
+        try (QueryClient other = connect()) {
+            assertEquals(ROWS, other.execute("select n.id from nums n;").getRows().size());
+        }
+    }
+
+    /**
+     * Many connections may be open at once, mostly idle, each keeping its
+     * session
+     */
+    @Test public void manyIdleSessions() throws Exception {
+        int connections = 200;
+        List<QueryClient> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < connections; i++) {
+                QueryClient client = connect();
+                clients.add(client);
+                client.execute("prepare q as select n.id from nums n where n.id < " + (i + 1) + ";");
+            }
+            assertEquals(connections, server.getSessionCount());
+            assertEquals(connections, server.getSessionManager().getActiveCount());
+            for (int i = connections - 1; i >= 0; i -= 7)
+                assertEquals(i + 1, clients.get(i).execute("execute q;").getRows().size());
+        } finally {
+            for (QueryClient client : clients)
+                client.close();
+        }
+        assertTrue(server.getSessionManager().awaitIdle(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Sessions run on virtual threads where the runtime has them, and on
+     * platform threads otherwise or if asked
+     */
+    @Test public void threadModes() throws Exception {
+        assertEquals(SessionManager.virtualThreadsAvailable() ? SessionManager.Mode.VIRTUAL
+                : SessionManager.Mode.PLATFORM, new SessionManager(SessionManager.Mode.VIRTUAL).getMode());
+        SessionManager platform = new SessionManager(SessionManager.Mode.PLATFORM);
+        assertEquals(SessionManager.Mode.PLATFORM, platform.getMode());
+
+        try (QueryServer other = new QueryServer(0, platform)) {
+            other.start();
+            try (QueryClient client = new QueryClient("localhost", other.getPort())) {
+                assertEquals(ROWS, client.execute("select n.id from nums n;").getRows().size());
+                assertEquals(1, platform.getActiveCount());
+            }
+        }
+        assertEquals(0, platform.getActiveCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryServerTest.class);
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class RuntimeFilterTest extends SimpleDbTestBase {
+
+    /** A HeapFile that counts the pages it reads from disk */
+    private static class CountingHeapFile extends HeapFile {
+        int reads = 0;
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads++;
+            return super.readPage(pid);
+        }
+    }
+
+    private CountingHeapFile createTable(String name, List<Integer> keys) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int k : keys)
+            tuples.add(Arrays.asList(k, k * 2));
+        File f = File.createTempFile(name, ".dat");
+        HeapFile.deleteOnExit(f);
+        ZoneMap.sideFile(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        CountingHeapFile hf = new CountingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, name);
+        return hf;
+    }
+
+    /**
+     * Every added key is found, and few others are
+     */
+    @Test public void bloomFilter() {
+        RuntimeFilter filter = new RuntimeFilter(0, 1000);
+        for (int i = 0; i < 1000; i++)
+            filter.add(new IntField(i * 3));
+        for (int i = 0; i < 1000; i++)
+            assertTrue(filter.mightContain(new IntField(i * 3)));
+        int falsePositives = 0;
+        for (int i = 0; i < 3000; i++) {
+            if (i % 3 != 0 && filter.mightContain(new IntField(i)))
+                falsePositives++;
+        }
+        assertTrue(falsePositives < 60);
+        assertFalse(filter.mightContain(new IntField(-1)));
+        assertFalse(filter.mightContain(new IntField(3000)));
+        assertEquals(2, filter.bounds().size());
+        assertTrue(new RuntimeFilter(0, 0).bounds().isEmpty());
+        assertFalse(new RuntimeFilter(0, 0).mightContain(new IntField(0)));
+    }
+
+    private int join(CountingHeapFile dim, CountingHeapFile fact, TransactionId tid) throws Exception {
+        SeqScan build = new SeqScan(tid, dim.getId(), "d");
+        OpIterator probe = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)),
+                new SeqScan(tid, fact.getId(), "f"));
+        HashEquiJoin j = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), build, probe);
+        j.open();
+        int count = 0;
+        while (j.hasNext()) {
+            Tuple t = j.next();
+            assertEquals(t.getField(0), t.getField(2));
+            count++;
+        }
+        j.close();
+        return count;
+    }
+
+    /**
+     * The build side's keys prune the probe scan down to the pages and
+     * tuples that can join
+     */
+    @Test public void pushedIntoProbeScan() throws Exception {
+        CountingHeapFile dim = createTable("dim", Arrays.asList(10, 20, 30));
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 5000; i++)
+            keys.add(i);
+        CountingHeapFile fact = createTable("fact", keys);
+        assertTrue(fact.numPages() > 5);
+
+        TransactionId tid = new TransactionId();
+        assertEquals(3, join(dim, fact, tid));
+
+        // once the pages have zone maps, only the first is read
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        fact.reads = 0;
+        assertEquals(3, join(dim, fact, tid));
+        assertEquals(1, fact.reads);
+
+        // the scan itself drops tuples that can't join
+        SeqScan ss = new SeqScan(tid, fact.getId(), "f");
+        RuntimeFilter filter = new RuntimeFilter(0, 3);
+        for (int k : new int[]{10, 20, 30})
+            filter.add(new IntField(k));
+        ss.setRuntimeFilter(filter);
+        ss.open();
+        int count = 0;
+        while (ss.hasNext()) {
+            ss.next();
+            count++;
+        }
+        ss.close();
+        assertTrue(count >= 3 && count < 10);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RuntimeFilterTest.class);
+    }
+}
@@ -0,0 +1,100 @@
+package simpledb;
+
+import simpledb.storage.SlotBitmap;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.*;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class SlotBitmapTest extends SimpleDbTestBase {
+
+    private static SlotBitmap read(byte[] bytes, int numSlots) throws IOException {
+        return SlotBitmap.read(new DataInputStream(new ByteArrayInputStream(bytes)), numSlots, bytes.length);
+    }
+
+    private static byte[] write(SlotBitmap bitmap) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        bitmap.write(new DataOutputStream(baos));
+        return baos.toByteArray();
+    }
+
+    /**
+     * Slot i is bit i % 8 of byte i / 8, as in the original page headers
+     */
+    @Test public void byteLayout() throws Exception {
+        byte[] bytes = new byte[13];
+        bytes[0] = (byte) 0x05;
+        bytes[8] = (byte) 0x80;
+        bytes[12] = (byte) 0xF0;
+        SlotBitmap bitmap = read(bytes, 100);
+        assertTrue(bitmap.get(0));
+        assertFalse(bitmap.get(1));
+        assertTrue(bitmap.get(2));
+        assertTrue(bitmap.get(71));
+        assertTrue(bitmap.get(100));
+        assertArrayEquals(bytes, write(bitmap));
+
+        bitmap.set(2, false);
+        bitmap.set(64, true);
+        byte[] out = write(bitmap);
+        assertEquals(0x01, out[0]);
+        assertEquals((byte) 0x81, out[8]);
+    }
+
+    /**
+     * Searches cross word boundaries and stop at the last slot
+     */
+    @Test public void search() throws Exception {
+        SlotBitmap bitmap = new SlotBitmap(150, 19);
+        assertEquals(-1, bitmap.nextUsed(0));
+        assertEquals(-1, bitmap.prevUsed(149));
+        assertEquals(0, bitmap.nextFree(0));
+        bitmap.set(3, true);
+        bitmap.set(64, true);
+        bitmap.set(130, true);
+        assertEquals(3, bitmap.nextUsed(0));
+        assertEquals(64, bitmap.nextUsed(4));
+        assertEquals(130, bitmap.nextUsed(65));
+        assertEquals(-1, bitmap.nextUsed(131));
+        assertEquals(130, bitmap.prevUsed(1000));
+        assertEquals(64, bitmap.prevUsed(129));
+        assertEquals(3, bitmap.prevUsed(63));
+        assertEquals(-1, bitmap.prevUsed(2));
+
+        bitmap.setAll();
+        assertEquals(-1, bitmap.nextFree(0));
+        bitmap.set(127, false);
+        assertEquals(127, bitmap.nextFree(5));
+        assertEquals(-1, bitmap.nextFree(128));
+    }
+
+    /**
+     * Counts only look at the page's slots, not the header's spare bits
+     */
+    @Test public void count() throws Exception {
+        byte[] bytes = new byte[17];
+        java.util.Arrays.fill(bytes, (byte) 0xFF);
+        SlotBitmap bitmap = read(bytes, 130);
+        assertEquals(130, bitmap.count());
+        assertEquals(129, bitmap.count(1, 130));
+        assertEquals(64, bitmap.count(64, 128));
+        assertEquals(0, bitmap.count(10, 10));
+        bitmap.set(0, false);
+        bitmap.set(100, false);
+        assertEquals(128, bitmap.count());
+        assertEquals(63, bitmap.count(64, 128));
+        assertEquals(-1, bitmap.nextFree(101));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlotBitmapTest.class);
+    }
+}
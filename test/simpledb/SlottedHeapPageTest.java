@@ -0,0 +1,127 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private TupleDesc td;
+    private SlottedHeapFile sf;
+    private HeapPageId pid;
+
+    @Before public void createFile() throws Exception {
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE}, new String[]{"id", "name"});
+        File f = File.createTempFile("slotted", ".dat");
+        HeapFile.deleteOnExit(f);
+        sf = new SlottedHeapFile(f, td);
+        Database.getCatalog().addTable(sf, "slotted");
+        pid = new HeapPageId(sf.getId(), 0);
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Short strings pack far more tuples per page than the fixed format
+     */
+    @Test public void fillAndRoundTrip() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "name" + n))) {
+            page.insertTuple(tuple(n, "name" + n));
+            n++;
+        }
+        assertTrue(n > 5 * (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1));
+        assertEquals(n, page.getNumTuples());
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(new StringField("name" + i, Type.STRING_LEN), t.getField(1));
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deletes free their bytes at once and keep other RecordIds stable
+     */
+    @Test public void deleteCompacts() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Tuple t = tuple(i, i == 1 ? "a much longer string than the others" : "x");
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        int free = page.getFreeSpace();
+        page.deleteTuple(tuples.get(1));
+        assertEquals(free + 4 + 2 + "a much longer string than the others".length(), page.getFreeSpace());
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        assertEquals(page.getFreeSpace(), copy.getFreeSpace());
+        Iterator<Tuple> it = copy.iterator();
+        assertEquals(new RecordId(pid, 0), it.next().getRecordId());
+        assertEquals(new RecordId(pid, 2), it.next().getRecordId());
+
+        // freeing the last slot shrinks the directory too
+        free = page.getFreeSpace();
+        page.deleteTuple(tuples.get(2));
+        assertEquals(free + 4 + 2 + 1 + 2 * 4, page.getFreeSpace());
+
+        // a freed slot is reused
+        Tuple t = tuple(9, "y");
+        page.insertTuple(t);
+        assertEquals(new RecordId(pid, 1), t.getRecordId());
+    }
+
+    /**
+     * Inserts through the buffer pool grow the file and scans see them
+     */
+    @Test public void insertAndScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++)
+            Database.getBufferPool().insertTuple(tid, sf.getId(), tuple(i, "n" + i));
+        Database.getBufferPool().flushAllPages();
+        assertTrue(sf.numPages() >= 2);
+        assertTrue(sf.numPages() < 1000 / ((BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1)));
+
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(new StringField("n" + ((IntField) t.getField(0)).getValue(), Type.STRING_LEN), t.getField(1));
+            count++;
+        }
+        it.close();
+        assertEquals(1000, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,204 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class SnapshotReadTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private HeapPageId pid;
+
+    @Before public void createTable() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 1600, null, null);
+        bp = Database.resetBufferPool(10);
+        pid = new HeapPageId(hf.getId(), 0);
+    }
+
+    // delete the first tuple of page 0 on behalf of t
+    private void update(Transaction t) throws Exception {
+        HeapPage p = (HeapPage) bp.getPage(t.getId(), pid, Permissions.READ_WRITE);
+        p.deleteTuple(p.iterator().next());
+        p.markDirty(true, t.getId());
+    }
+
+    private byte[] read(Transaction t) throws Exception {
+        return bp.getPage(t.getId(), pid, Permissions.READ_ONLY).getPageData();
+    }
+
+    /**
+     * Snapshots do not see changes of live transactions
+     */
+    @Test public void uncommittedInvisible() throws Exception {
+        byte[] original = read(new Transaction());
+        Transaction writer = new Transaction();
+        writer.start();
+        update(writer);
+
+        Transaction reader = new Transaction();
+        reader.startReadOnly();
+        assertArrayEquals(original, read(reader));
+        reader.commit();
+        writer.commit();
+    }
+
+    /**
+     * Snapshots keep reading the version committed when they began, and
+     * later snapshots see the new commit
+     */
+    @Test public void commitAfterSnapshot() throws Exception {
+        byte[] original = read(new Transaction());
+        Transaction reader = new Transaction();
+        reader.startReadOnly();
+
+        Transaction writer = new Transaction();
+        writer.start();
+        update(writer);
+        writer.commit();
+        byte[] committed = read(new Transaction());
+        assertFalse(java.util.Arrays.equals(original, committed));
+
+        assertArrayEquals(original, read(reader));
+        Transaction later = new Transaction();
+        later.startReadOnly();
+        assertArrayEquals(committed, read(later));
+
+        // a second commit does not disturb either snapshot
+        Transaction writer2 = new Transaction();
+        writer2.start();
+        update(writer2);
+        writer2.commit();
+        assertArrayEquals(original, read(reader));
+        assertArrayEquals(committed, read(later));
+        reader.commit();
+        assertArrayEquals(committed, read(later));
+        later.commit();
+    }
+
+    /**
+     * Snapshots under STEAL_NO_FORCE still see committed data after a
+     * page with uncommitted changes was evicted and read back
+     */
+    @Test public void stolenPage() throws Exception {
+        bp = Database.resetBufferPool(1);
+        bp.setPolicy(BufferPool.Policy.STEAL_NO_FORCE);
+        byte[] original = read(new Transaction());
+        Transaction writer = new Transaction();
+        writer.start();
+        update(writer);
+        bp.getPage(writer.getId(), new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+
+        Transaction reader = new Transaction();
+        reader.startReadOnly();
+        assertArrayEquals(original, read(reader));
+        writer.abort();
+        reader.commit();
+    }
+
+    /**
+     * Snapshots do not see uncommitted changes the cleaner wrote back, and
+     * read the page as of their start once the writer commits
+     */
+    @Test public void cleanedPage() throws Exception {
+        bp.setPolicy(BufferPool.Policy.STEAL_NO_FORCE);
+        byte[] original = read(new Transaction());
+        Transaction writer = new Transaction();
+        writer.start();
+        update(writer);
+        assertEquals(1, bp.cleanPages(1.0));
+
+        Transaction reader = new Transaction();
+        reader.startReadOnly();
+        assertArrayEquals(original, read(reader));
+        writer.commit();
+        assertArrayEquals(original, read(reader));
+        reader.commit();
+
+        Transaction later = new Transaction();
+        later.startReadOnly();
+        assertFalse(java.util.Arrays.equals(original, read(later)));
+        later.commit();
+    }
+
+    /**
+     * Snapshots do not see uncommitted changes a checkpoint wrote back,
+     * whether they began before or after the checkpoint
+     */
+    @Test public void checkpointedPage() throws Exception {
+        byte[] original = read(new Transaction());
+        Transaction before = new Transaction();
+        before.startReadOnly();
+        Transaction writer = new Transaction();
+        writer.start();
+        update(writer);
+        Database.getLogFile().logCheckpoint();
+
+        Transaction after = new Transaction();
+        after.startReadOnly();
+        assertArrayEquals(original, read(before));
+        assertArrayEquals(original, read(after));
+        writer.abort();
+        assertArrayEquals(original, read(after));
+        before.commit();
+        after.commit();
+    }
+
+    /**
+     * A snapshot walking the slots of a page, as compiled pipelines do,
+     * does not see a writer change the cached page in place
+     */
+    @Test public void modifiedWhileScanning() throws Exception {
+        Transaction reader = new Transaction();
+        reader.startReadOnly();
+        HeapPage page = (HeapPage) bp.getPage(reader.getId(), pid, Permissions.READ_ONLY);
+        assertTrue(page.isSlotUsed(0));
+
+        Transaction writer = new Transaction();
+        writer.start();
+        HeapPage p = (HeapPage) bp.getPage(writer.getId(), pid, Permissions.READ_WRITE);
+        List<Tuple> tuples = new ArrayList<>();
+        p.iterator().forEachRemaining(tuples::add);
+        for (Tuple t : tuples)
+            p.deleteTuple(t);
+        p.markDirty(true, writer.getId());
+
+        int seen = 0;
+        for (int slot = 0; slot < page.getNumSlots(); slot++)
+            if (page.isSlotUsed(slot))
+                seen++;
+        assertEquals(tuples.size(), seen);
+        writer.abort();
+        reader.commit();
+    }
+
+    /**
+     * Snapshots are read-only
+     */
+    @Test(expected = DbException.class) public void noWrites() throws Exception {
+        Transaction reader = new Transaction();
+        reader.startReadOnly();
+        bp.getPage(reader.getId(), pid, Permissions.READ_WRITE);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotReadTest.class);
+    }
+}
@@ -0,0 +1,182 @@
+package simpledb;
+
+import simpledb.common.Catalog;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.EquiDepthHistogram;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class StatisticsCollectionTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+
+    private File dir;
+    private HeapFile file;
+    private int tableid;
+
+    /**
+     * A (id int, grp int, name string) table spread over many pages, and a
+     * directory for the system catalog
+     */
+    @Before public void createTable() throws Exception {
+        dir = Files.createTempDirectory("stats").toFile();
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE},
+                new String[]{"id", "grp", "name"});
+        file = SystemTestUtil.createHeapFile("t", td, ROWS, i -> new Field[]{
+                new IntField(i), new IntField(i % 10), new StringField("name" + (i % 4), Type.STRING_LEN)});
+        tableid = file.getId();
+    }
+
+    @After public void removeDir() {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File f : files)
+                f.delete();
+        dir.delete();
+    }
+
+    /**
+     * A page iterator reads just the pages it is given
+     */
+    @Test public void pageIterator() throws Exception {
+        DbFileIterator it = file.pageIterator(new TransactionId(), new int[]{1, 3});
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            int page = it.next().getRecordId().getPageId().getPageNumber();
+            assertTrue(page == 1 || page == 3);
+            count++;
+        }
+        it.close();
+        int perPage = 0;
+        for (Iterator<Tuple> tuples = ((HeapPage) file.readPage(new HeapPageId(tableid, 1))).iterator();
+             tuples.hasNext(); tuples.next())
+            perPage++;
+        assertEquals(2 * perPage, count);
+    }
+
+    /**
+     * A sample of the pages gives estimates close to those of a full scan
+     */
+    @Test public void sampling() throws Exception {
+        assertTrue(file.numPages() >= 20);
+        TableStats full = new TableStats(tableid, 1000);
+        TableStats sample = new TableStats(tableid, 1000, 0.2);
+        assertEquals(ROWS, full.totalTuples());
+        assertEquals(ROWS, sample.totalTuples(), ROWS * 0.1);
+        assertEquals(full.estimateScanCost(), sample.estimateScanCost(), 0.0);
+        assertEquals(0.1, sample.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(3)), 0.02);
+        StringField name = new StringField("name1", Type.STRING_LEN);
+        assertEquals(full.estimateSelectivity(2, Predicate.Op.GREATER_THAN, name),
+                sample.estimateSelectivity(2, Predicate.Op.GREATER_THAN, name), 0.1);
+        assertEquals(full.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(ROWS / 2)),
+                sample.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(ROWS / 2)), 0.1);
+    }
+
+    /**
+     * The histograms of a table with more rows than are kept for them are
+     * built from a sample of its rows, and its size is still exact
+     */
+    @Test public void rowSample() throws Exception {
+        int rows = TableStats.MAX_SAMPLE_ROWS + 10000;
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE}, new String[]{"id", "grp"});
+        HeapFile big = SystemTestUtil.createHeapFile("big", td, rows,
+                i -> new Field[]{new IntField(i), new IntField(i % 10)});
+
+        TableStats stats = new TableStats(big.getId(), 1000);
+        assertEquals(rows, stats.totalTuples());
+        for (int i = 0; i < 2; i++)
+            assertEquals(TableStats.MAX_SAMPLE_ROWS,
+                    EquiDepthHistogram.decode(stats.getStatistics().getHistogram(i)).getNumValues());
+        assertEquals(0.1, stats.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(3)), 0.02);
+        assertEquals(0.5, stats.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(rows / 2)), 0.05);
+        assertEquals(0.05, stats.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(rows * 95 / 100)),
+                0.02);
+    }
+
+    /**
+     * Histograms survive a save and reload of the system catalog, so the
+     * next startup need not read the table
+     */
+    @Test public void persisted() throws Exception {
+        Catalog catalog = Database.getCatalog();
+        catalog.saveCatalog(dir);
+        TableStats.computeStatistics();
+        TableStats computed = TableStats.getTableStats("t");
+        assertTrue(catalog.getStatistics(tableid).hasHistograms());
+
+        catalog.loadCatalog(dir);
+        tableid = catalog.getTableId("t");
+        Catalog.Statistics saved = catalog.getStatistics(tableid);
+        assertTrue(saved.hasHistograms());
+        TableStats restored = new TableStats(tableid, 1000, saved);
+        assertEquals(computed.totalTuples(), restored.totalTuples());
+        assertEquals(computed.estimateScanCost(), restored.estimateScanCost(), 0.0);
+        for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN}) {
+            assertEquals(computed.estimateSelectivity(1, op, new IntField(3)),
+                    restored.estimateSelectivity(1, op, new IntField(3)), 1e-9);
+            assertEquals(computed.estimateSelectivity(2, op, new StringField("name2", Type.STRING_LEN)),
+                    restored.estimateSelectivity(2, op, new StringField("name2", Type.STRING_LEN)), 1e-9);
+        }
+    }
+
+    /**
+     * Statistics are computed again at startup once tuples have been
+     * deleted, though that leaves the table's size unchanged
+     */
+    @Test public void modified() throws Exception {
+        Catalog catalog = Database.getCatalog();
+        catalog.saveCatalog(dir);
+        TableStats.computeStatistics();
+        assertEquals(ROWS, TableStats.getTableStats("t").totalTuples());
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, catalog.getModifications(tableid));
+        // as shutting down does
+        catalog.saveCatalog(dir);
+
+        catalog.loadCatalog(dir);
+        tableid = catalog.getTableId("t");
+        assertEquals(1, catalog.getModifications(tableid));
+        TableStats.computeStatistics();
+        assertEquals(ROWS - 1, TableStats.getTableStats("t").totalTuples());
+        assertEquals(catalog.getModifications(tableid), catalog.getStatistics(tableid).getModifications());
+
+        // the new statistics are reused by the next startup
+        catalog.loadCatalog(dir);
+        tableid = catalog.getTableId("t");
+        assertEquals(0, catalog.getModifications(tableid));
+        assertEquals(0, catalog.getStatistics(tableid).getModifications());
+        assertEquals(ROWS - 1, catalog.getStatistics(tableid).getNumTuples());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StatisticsCollectionTest.class);
+    }
+}
@@ -0,0 +1,185 @@
+package simpledb;
+
+import simpledb.common.Catalog;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.SystemCatalog;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.index.BTreeFile;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class SystemCatalogTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 1000;
+
+    private File dir;
+    private TupleDesc td;
+
+    @After public void removeDir() {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File f : files)
+                f.delete();
+        dir.delete();
+    }
+
+    /**
+     * A (name string, id int, grp int) table, with id as its primary key
+     */
+    @Before public void createTable() throws Exception {
+        dir = Files.createTempDirectory("catalog").toFile();
+        td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE},
+                new String[]{"name", "id", "grp"});
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("row" + i, Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            t.setField(2, new IntField(i % 10));
+            tuples.add(t);
+        }
+        File f = new File(dir, "people.dat");
+        HeapFileEncoder.convert(tuples, td, f, BufferPool.getPageSize());
+        Database.getCatalog().addTable(new HeapFile(f, td), "people", "id");
+    }
+
+    private int count(DbFileIterator it) throws Exception {
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    private int countGroup(BTreeFile index, int grp) throws Exception {
+        return count(index.indexIterator(new TransactionId(),
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(grp))));
+    }
+
+    /**
+     * Tables, indexes and statistics survive a save and a reload
+     */
+    @Test public void saveAndLoad() throws Exception {
+        Catalog catalog = Database.getCatalog();
+        int id = catalog.getTableId("people");
+        catalog.setStatistics(id, Catalog.Statistics.compute(catalog.getDatabaseFile(id)));
+        catalog.saveCatalog(dir);
+        catalog.createIndex("people_grp", "people", "grp");
+        assertTrue(SystemCatalog.exists(dir));
+
+        catalog.loadCatalog(dir);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        id = catalog.getTableId("people");
+        assertEquals(td, catalog.getTupleDesc(id));
+        assertEquals("name", catalog.getTupleDesc(id).getFieldName(0));
+        assertEquals("id", catalog.getPrimaryKey(id));
+        assertTrue(catalog.getDatabaseFile(id) instanceof HeapFile);
+
+        Catalog.Statistics stats = catalog.getStatistics(id);
+        assertEquals(ROWS, stats.getNumTuples());
+        assertEquals(((HeapFile) catalog.getDatabaseFile(id)).numPages(), stats.getNumPages());
+        assertEquals(0, stats.getMin(1));
+        assertEquals(ROWS - 1, stats.getMax(1));
+        assertEquals(9, stats.getMax(2));
+
+        assertEquals(1, catalog.getIndexes(id).size());
+        Catalog.Index index = catalog.getIndex(id, 2);
+        assertEquals("people_grp", index.getName());
+        assertNull(catalog.getIndex(id, 1));
+        assertEquals(ROWS / 10, countGroup(index.getFile(), 3));
+
+        // the system tables are tables too
+        assertEquals(1, count(catalog.getDatabaseFile(catalog.getTableId(SystemCatalog.TABLES))
+                .iterator(new TransactionId())));
+        assertEquals(3, count(catalog.getDatabaseFile(catalog.getTableId(SystemCatalog.COLUMNS))
+                .iterator(new TransactionId())));
+    }
+
+    /**
+     * Inserts and deletes through the buffer pool keep indexes up to date
+     */
+    @Test public void indexMaintenance() throws Exception {
+        Catalog catalog = Database.getCatalog();
+        int id = catalog.getTableId("people");
+        catalog.createIndex("people_grp", "people", "grp");
+        BTreeFile index = catalog.getIndex(id, 2).getFile();
+
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(td);
+        t.setField(0, new StringField("new", Type.STRING_LEN));
+        t.setField(1, new IntField(ROWS));
+        t.setField(2, new IntField(3));
+        Database.getBufferPool().insertTuple(tid, id, t);
+        assertEquals(ROWS / 10 + 1, countGroup(index, 3));
+
+        Database.getBufferPool().deleteTuple(tid, t);
+        Tuple old = new Tuple(td);
+        old.setField(0, new StringField("row13", Type.STRING_LEN));
+        old.setField(1, new IntField(13));
+        old.setField(2, new IntField(3));
+        old.setRecordId(findRecord(id, 13));
+        Database.getBufferPool().deleteTuple(tid, old);
+        assertEquals(ROWS / 10 - 1, countGroup(index, 3));
+        Database.getBufferPool().transactionComplete(tid, true);
+    }
+
+    private RecordId findRecord(int tableid, int key) throws Exception {
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(tableid).iterator(new TransactionId());
+        it.open();
+        try {
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (((IntField) t.getField(1)).getValue() == key)
+                    return t.getRecordId();
+            }
+        } finally {
+            it.close();
+        }
+        return null;
+    }
+
+    /**
+     * Bad index declarations are rejected
+     */
+    @Test public void createIndexErrors() throws Exception {
+        Catalog catalog = Database.getCatalog();
+        try {
+            catalog.createIndex("people_x", "people", "nope");
+            fail("indexed a missing column");
+        } catch (DbException e) {
+            // expected
+        }
+        try {
+            catalog.createIndex("people", "people", "id");
+            fail("index named after a table");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SystemCatalogTest.class);
+    }
+}
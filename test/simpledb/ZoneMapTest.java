@@ -0,0 +1,178 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+import static org.junit.Assert.*;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    /** A HeapFile that counts the pages it reads from disk */
+    private static class CountingHeapFile extends HeapFile {
+        int reads = 0;
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads++;
+            return super.readPage(pid);
+        }
+    }
+
+    private File f;
+    private TupleDesc td;
+
+    /**
+     * A table whose first column is sorted, so each page holds one range
+     */
+    @Before public void createFile() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(Arrays.asList(i, i % 7));
+        f = File.createTempFile("zonemap", ".dat");
+        HeapFile.deleteOnExit(f);
+        ZoneMap.sideFile(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        td = Utility.getTupleDesc(2);
+    }
+
+    private CountingHeapFile addTable() {
+        CountingHeapFile hf = new CountingHeapFile(f, td);
+        Database.getCatalog().addTable(hf, "zm");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        return hf;
+    }
+
+    private int scan(HeapFile hf, TransactionId tid, Predicate p) throws Exception {
+        SeqScan ss = new SeqScan(tid, hf.getId(), "zm");
+        ss.setPredicates(Collections.singletonList(p));
+        ss.open();
+        int count = 0;
+        while (ss.hasNext()) {
+            if (p.filter(ss.next()))
+                count++;
+        }
+        ss.close();
+        return count;
+    }
+
+    private Tuple tuple(int a, int b) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(a));
+        t.setField(1, new IntField(b));
+        return t;
+    }
+
+    /**
+     * Once pages have been read, a selective scan only fetches the pages
+     * whose range can match, and the summaries survive a restart
+     */
+    @Test public void skipPages() throws Exception {
+        CountingHeapFile hf = addTable();
+        int pages = hf.numPages();
+        assertTrue(pages > 5);
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS - 10));
+        assertEquals(9, scan(hf, new TransactionId(), p));
+        assertEquals(pages, hf.reads);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.reads = 0;
+        assertEquals(9, scan(hf, new TransactionId(), p));
+        assertEquals(1, hf.reads);
+
+        // an equality on the unsorted column can't skip anything
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.reads = 0;
+        assertEquals(ROWS / 7, scan(hf, new TransactionId(),
+                new Predicate(1, Predicate.Op.EQUALS, new IntField(3))));
+        assertEquals(pages, hf.reads);
+
+        // writing a page persists the summaries; -1 lands on the last page
+        Database.getBufferPool().insertTuple(new TransactionId(), hf.getId(), tuple(-1, 0));
+        Database.getBufferPool().flushAllPages();
+        CountingHeapFile hf2 = addTable();
+        assertEquals(1, scan(hf2, new TransactionId(),
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0))));
+        assertEquals(1, hf2.reads);
+    }
+
+    /**
+     * Inserts widen a summary at once, and a delete never narrows it past
+     * what an abort would restore
+     */
+    @Test public void insertAndDelete() throws Exception {
+        CountingHeapFile hf = addTable();
+        Predicate big = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1000000));
+        assertEquals(0, scan(hf, new TransactionId(), big));
+
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tuple(1000000, 0));
+        assertEquals(1, scan(hf, t.getId(), big));
+        t.commit();
+
+        Tuple found = null;
+        t = new Transaction();
+        t.start();
+        SeqScan ss = new SeqScan(t.getId(), hf.getId(), "zm");
+        ss.open();
+        while (ss.hasNext()) {
+            Tuple next = ss.next();
+            if (big.filter(next))
+                found = next;
+        }
+        ss.close();
+        Database.getBufferPool().deleteTuple(t.getId(), found);
+        assertEquals(0, scan(hf, t.getId(), big));
+        t.transactionComplete(true);
+
+        assertEquals(1, scan(hf, new TransactionId(), big));
+    }
+
+    /**
+     * Scans skip pages the zone map rules out, except for snapshots, which
+     * may read versions older than it covers
+     */
+    @Test public void mustReadPage() throws Exception {
+        CountingHeapFile hf = addTable();
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS - 10));
+        scan(hf, new TransactionId(), p);
+        List<Predicate> preds = Collections.singletonList(p);
+        TransactionId tid = new TransactionId();
+        assertFalse(hf.mustReadPage(tid, 0, preds));
+        assertTrue(hf.mustReadPage(tid, hf.numPages() - 1, preds));
+        assertTrue(hf.mustReadPage(tid, 0, null));
+        assertTrue(hf.mustReadPage(tid, 0, Collections.emptyList()));
+
+        Transaction reader = new Transaction();
+        reader.startReadOnly();
+        assertTrue(hf.mustReadPage(reader.getId(), 0, preds));
+        reader.commit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -2,11 +2,13 @@ package simpledb.systemtest;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
+import java.util.function.IntFunction;
 
 import org.junit.Assert;
 
@@ -85,11 +87,42 @@ public class SystemTestUtil {
 
         // Convert the tuples list to a heap file and open it
         File temp = File.createTempFile("table", ".dat");
-        temp.deleteOnExit();
+        HeapFile.deleteOnExit(temp);
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return temp;
     }
 
+    /**
+     * Create a heap file in a temporary directory of its own, holding the
+     * rows row(0) .. row(rows - 1), and add it to the catalog.  The file
+     * is deleted on exit, as is the directory once it is empty.
+     */
+    public static HeapFile createHeapFile(String name, TupleDesc td, int rows,
+            IntFunction<Field[]> row) throws IOException {
+        return createHeapFile(name, td, rows, row, "");
+    }
+
+    /** @param pkeyField the primary key of the table, or "" for none */
+    public static HeapFile createHeapFile(String name, TupleDesc td, int rows,
+            IntFunction<Field[]> row, String pkeyField) throws IOException {
+        List<Tuple> tuples = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            Field[] fields = row.apply(i);
+            for (int j = 0; j < fields.length; j++)
+                t.setField(j, fields[j]);
+            tuples.add(t);
+        }
+        File dir = Files.createTempDirectory(name).toFile();
+        dir.deleteOnExit();
+        File f = new File(dir, name + ".dat");
+        HeapFile.deleteOnExit(f);
+        HeapFileEncoder.convert(tuples, td, f, BufferPool.getPageSize());
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, name, pkeyField);
+        return hf;
+    }
+
     public static List<Integer> tupleToList(Tuple tuple) {
         List<Integer> list = new ArrayList<>();
         for (int i = 0; i < tuple.getTupleDesc().numFields(); ++i) {